@@ -23,12 +23,29 @@ import android.widget.LinearLayout;
 import android.widget.Toast;
 
 import com.stmicroelectronics.stgraphics.renderer.GraphicsRenderer;
+import com.stmicroelectronics.stgraphics.utils.GlLoader;
+import com.stmicroelectronics.stgraphics.utils.TextureHelper;
 import com.stmicroelectronics.stgraphics.utils.Utility;
 
 import timber.log.Timber;
 
 public class MainActivity extends AppCompatActivity {
 
+    /** Intent extra used to select the vertex data path (true = GPU buffer objects, default) */
+    public final static String EXTRA_BUFFER_OBJECTS = "buffer_objects";
+
+    /** Intent extra used to select the circle drawing path (true = square masked per fragment, false = triangle fan, default) */
+    public final static String EXTRA_CIRCLE_MASK = "circle_mask";
+
+    /** Intent extra used to select the number of shape instances (3D) or sprites (2D) drawn (0 = stress mode disabled, default) */
+    public final static String EXTRA_STRESS_INSTANCES = "stress_instances";
+
+    /** Intent extra used to select the texture filtering (0 = nearest, 1 = bilinear, 2 = trilinear, default, 3 = anisotropic) */
+    public final static String EXTRA_TEXTURE_FILTER = "texture_filter";
+
+    /** Intent extra used to time the frames with each texture filtering in turn (false = disabled, default) */
+    public final static String EXTRA_TEXTURE_BENCHMARK = "texture_benchmark";
+
     GLSurfaceView mSurface;
     SwitchCompat mLightSwitch;
     SwitchCompat mColorsSwitch;
@@ -209,10 +226,19 @@ public class MainActivity extends AppCompatActivity {
         if (activityManager != null) {
             final ConfigurationInfo configurationInfo = activityManager.getDeviceConfigurationInfo();
             final boolean supportsEs2 = configurationInfo.reqGlEsVersion >= 0x20000;
-
-            if (supportsEs2) {
+            final boolean supportsEs3 = configurationInfo.reqGlEsVersion >= 0x30000;
+            int clientVersion = 0;
+
+            if (supportsEs3) {
+                // ES 3.0 backend: vertex array objects, scene uniform buffer, immutable textures and
+                // instanced draws of the stress mode (ES 2.0 backend kept as fallback)
+                Timber.i("OpenGLES 3.0 supported");
+                mSurface.setEGLContextClientVersion(3);
+                clientVersion = 3;
+            } else if (supportsEs2) {
                 Timber.i("OpenGLES 2.0 supported");
                 mSurface.setEGLContextClientVersion(2);
+                clientVersion = 2;
             } else {
                 Toast.makeText(this,"OpenGLES 2.0 not supported, device not compatible",Toast.LENGTH_LONG).show();
                 finish();
@@ -225,6 +251,18 @@ public class MainActivity extends AppCompatActivity {
             }
 
             mGraphicsRenderer.setColorState(mColorsEnabled);
+            mGraphicsRenderer.setBufferObjectState(getIntent().getBooleanExtra(EXTRA_BUFFER_OBJECTS, true));
+            mGraphicsRenderer.setCircleMaskState(getIntent().getBooleanExtra(EXTRA_CIRCLE_MASK, false));
+            mGraphicsRenderer.setStressInstances(getIntent().getIntExtra(EXTRA_STRESS_INSTANCES, 0));
+            mGraphicsRenderer.setTextureFilterMode(getIntent().getIntExtra(EXTRA_TEXTURE_FILTER,
+                    TextureHelper.FILTER_TRILINEAR));
+            mGraphicsRenderer.setTextureBenchmarkState(getIntent().getBooleanExtra(EXTRA_TEXTURE_BENCHMARK, false));
+
+            // Programs (see ShaderWarmUp), textures and buffers built in background uploaded by a
+            // loader context shared with the surface
+            if (clientVersion != 0) {
+                mSurface.setEGLContextFactory(GlLoader.getContextFactory(clientVersion));
+            }
 
             if (mGraphicsRenderer.isKineticManaged()) {
                 mKineticSwitch.setVisibility(View.VISIBLE);
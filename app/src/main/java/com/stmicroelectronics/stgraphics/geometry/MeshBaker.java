@@ -0,0 +1,37 @@
+package com.stmicroelectronics.stgraphics.geometry;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Build time tool writing the meshes in binary assets (see MeshFile), so the application does
+ * not compute them at run time. Run by the bakeMeshes Gradle task.
+ */
+public class MeshBaker {
+
+    /**
+     * Bake the meshes
+     *
+     * @param args assets directory
+     * @throws IOException if a mesh file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: MeshBaker <assets directory>");
+            System.exit(1);
+        }
+
+        final File assetsDir = new File(args[0]);
+
+        // Unit sphere tessellations (radius given by the model matrix), stored packed
+        for (float angleStep : SphereGeometry.LEVEL_ANGLE_STEPS) {
+            SphereGeometry sphere = new SphereGeometry(angleStep);
+            File file = new File(assetsDir, SphereGeometry.getAssetName(angleStep));
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Cannot create " + file.getParentFile());
+            }
+            MeshFile.write(file, sphere.getStreams());
+            System.out.println("Baked " + file + " (" + sphere.getVertexCount() + " vertices)");
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.stmicroelectronics.stgraphics.geometry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary mesh file (little endian), made of a list of streams (packed vertex attributes or indices)
+ * which can be used as is once the file is mapped in memory.
+ *
+ * Layout: magic, version, number of streams, then for each stream its type, its number of
+ * elements and its data (padded to 4 bytes).
+ */
+public class MeshFile {
+
+    /** "STGM" in little endian */
+    private final static int MAGIC = 0x4D475453;
+    private final static int VERSION = 2;
+
+    /** Stream types */
+    private final static int STREAM_FLOAT = 1;
+    private final static int STREAM_UNSIGNED_SHORT = 2;
+    private final static int STREAM_UNSIGNED_INT = 3;
+    private final static int STREAM_BYTE = 4;
+
+    private final Buffer[] mStreams;
+
+    /**
+     * Parse a mesh file already loaded or mapped in memory (no copy, streams are views of data)
+     *
+     * @param data mesh file content
+     * @throws IllegalArgumentException if the content is not a valid mesh file
+     */
+    public MeshFile(final ByteBuffer data) {
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(0);
+
+        if ((buffer.remaining() < 12) || (buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION)) {
+            throw new IllegalArgumentException("Not a mesh file (or unsupported version)");
+        }
+
+        int nbStreams = buffer.getInt();
+        mStreams = new Buffer[nbStreams];
+
+        for (int i = 0; i < nbStreams; i++) {
+            if (buffer.remaining() < 8) {
+                throw new IllegalArgumentException("Truncated mesh file");
+            }
+            int type = buffer.getInt();
+            int count = buffer.getInt();
+            if (count < 0) {
+                throw new IllegalArgumentException("Invalid mesh file");
+            }
+            int size = count * getElementSize(type);
+            if (buffer.remaining() < size) {
+                throw new IllegalArgumentException("Truncated mesh file");
+            }
+
+            // Sliced twice so the capacity of the stream is its size
+            ByteBuffer stream = buffer.slice();
+            stream.limit(size);
+            stream = stream.slice().order(ByteOrder.LITTLE_ENDIAN);
+            switch (type) {
+                case STREAM_FLOAT:
+                    mStreams[i] = stream.asFloatBuffer();
+                    break;
+                case STREAM_UNSIGNED_SHORT:
+                    mStreams[i] = stream.asShortBuffer();
+                    break;
+                case STREAM_BYTE:
+                    mStreams[i] = stream;
+                    break;
+                default:
+                    mStreams[i] = stream.asIntBuffer();
+                    break;
+            }
+
+            buffer.position(buffer.position() + align(size));
+        }
+    }
+
+    /**
+     * Get back the number of streams
+     *
+     * @return number of streams
+     */
+    public int getStreamCount() {
+        return mStreams.length;
+    }
+
+    /**
+     * Get back a stream
+     *
+     * @param index stream index
+     * @return FloatBuffer, ByteBuffer (packed vertices, little endian), ShortBuffer (unsigned short
+     * indices) or IntBuffer (unsigned int indices)
+     */
+    public Buffer getStream(int index) {
+        return mStreams[index];
+    }
+
+    /**
+     * Write streams in a mesh file
+     *
+     * @param file destination file
+     * @param streams FloatBuffer, ByteBuffer (packed vertices, little endian), ShortBuffer or
+     *                IntBuffer streams (written from position 0)
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(final File file, final Buffer... streams) throws IOException {
+        int size = 12;
+        for (Buffer stream : streams) {
+            size += 8 + align(stream.capacity() * getElementSize(getType(stream)));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(streams.length);
+
+        for (Buffer stream : streams) {
+            int type = getType(stream);
+            buffer.putInt(type);
+            buffer.putInt(stream.capacity());
+            for (int i = 0; i < stream.capacity(); i++) {
+                switch (type) {
+                    case STREAM_FLOAT:
+                        buffer.putFloat(((FloatBuffer) stream).get(i));
+                        break;
+                    case STREAM_UNSIGNED_SHORT:
+                        buffer.putShort(((ShortBuffer) stream).get(i));
+                        break;
+                    case STREAM_BYTE:
+                        buffer.put(((ByteBuffer) stream).get(i));
+                        break;
+                    default:
+                        buffer.putInt(((IntBuffer) stream).get(i));
+                        break;
+                }
+            }
+            buffer.position(align(buffer.position()));
+        }
+        buffer.position(0);
+
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            FileChannel channel = output.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static int getType(final Buffer stream) {
+        if (stream instanceof FloatBuffer) {
+            return STREAM_FLOAT;
+        } else if (stream instanceof ShortBuffer) {
+            return STREAM_UNSIGNED_SHORT;
+        } else if (stream instanceof IntBuffer) {
+            return STREAM_UNSIGNED_INT;
+        } else if (stream instanceof ByteBuffer) {
+            // Copied as is, multi-byte values shall already be in the file order
+            if (((ByteBuffer) stream).order() != ByteOrder.LITTLE_ENDIAN) {
+                throw new IllegalArgumentException("Packed stream not in little endian");
+            }
+            return STREAM_BYTE;
+        }
+        throw new IllegalArgumentException("Unsupported stream " + stream);
+    }
+
+    private static int getElementSize(int type) {
+        switch (type) {
+            case STREAM_FLOAT:
+            case STREAM_UNSIGNED_INT:
+                return 4;
+            case STREAM_UNSIGNED_SHORT:
+                return 2;
+            case STREAM_BYTE:
+                return 1;
+            default:
+                throw new IllegalArgumentException("Unsupported stream type " + type);
+        }
+    }
+
+    private static int align(int size) {
+        return (size + 3) & ~3;
+    }
+}
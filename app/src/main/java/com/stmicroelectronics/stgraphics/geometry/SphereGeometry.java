@@ -0,0 +1,304 @@
+package com.stmicroelectronics.stgraphics.geometry;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Indexed unit sphere mesh (each vertex stored once, drawn as GL_TRIANGLES), the radius is given
+ * by the model matrix. Vertices are stored in their packed layout (normalized shorts, bytes and half
+ * floats), ready to be uploaded.
+ *
+ * Rings go from the south pole (-90 degrees) to the north pole (+90 degrees), each ring contains
+ * one more vertex than the number of slices (first and last vertices share the same position but
+ * not the same texture coordinates).
+ */
+public class SphereGeometry {
+
+    // How many bytes per short and int
+    private final static int NB_BYTES_PER_SHORT = 2;
+    private final static int NB_BYTES_PER_INT = 4;
+
+    /**
+     * Packed vertex (see SphereLevelOfDetail.VERTEX_FORMAT): position XYZ as normalized shorts
+     * (padded to 8 bytes) then normal XYZ as normalized bytes (padded to 4 bytes)
+     */
+    public final static int VERTEX_STRIDE = 12;
+    private final static int NORMAL_OFFSET = 8;
+
+    /** Packed texture coordinate (see SphereLevelOfDetail.TEXTURE_COORDINATE_FORMAT): XY as half floats */
+    public final static int TEXTURE_COORDINATE_STRIDE = 4;
+
+    /** Highest vertex index which can be stored in an unsigned short */
+    private final static int MAX_SHORT_INDEX = 0xFFFF;
+
+    /** Angle steps of the tessellations used by the renderer (baked at build time, finest first) */
+    public final static float[] LEVEL_ANGLE_STEPS = {2f, 3f, 5f, 10f, 15f};
+
+    /** Number of rings under which a task is not split anymore (parallel build) */
+    private final static int RINGS_THRESHOLD = 8;
+
+    private final int mNbRings;
+    private final int mNbSlices;
+
+    private final ByteBuffer mVertices;
+    private final ByteBuffer mTextureCoordinates;
+    private final Buffer mIndices;
+
+    /** Writers of the packed vertices (null if the mesh is not generated) */
+    private final VertexWriter mVertexWriter;
+    private final VertexWriter mTextureCoordinateWriter;
+
+    /** Longitude cosines and sines shared by all the rings (null if the mesh is not generated) */
+    private final float[] mCosTable;
+    private final float[] mSinTable;
+
+    /**
+     * Build the sphere mesh in the calling thread
+     *
+     * @param angleStep angle step between sphere points in degrees
+     */
+    public SphereGeometry(float angleStep) {
+        this(angleStep, (ForkJoinPool) null);
+    }
+
+    /**
+     * Build the sphere mesh, latitude rings are generated in parallel (each ring written in its
+     * own region of the buffers)
+     *
+     * @param angleStep angle step between sphere points in degrees
+     * @param pool fork/join pool used to generate the rings (null to build in the calling thread)
+     */
+    public SphereGeometry(float angleStep, ForkJoinPool pool) {
+        mNbRings = Math.round(180.0f / angleStep);
+        mNbSlices = Math.round(360.0f / angleStep);
+
+        // Vertices written in their final packed layout (no float copy)
+        mVertexWriter = new VertexWriter(getVertexCount(), VERTEX_STRIDE);
+        mTextureCoordinateWriter = new VertexWriter(getVertexCount(), TEXTURE_COORDINATE_STRIDE);
+        mVertices = mVertexWriter.getBuffer();
+        mTextureCoordinates = mTextureCoordinateWriter.getBuffer();
+
+        if (isShortIndexed()) {
+            mIndices = ByteBuffer.allocateDirect(getIndexCount() * NB_BYTES_PER_SHORT)
+                    .order(ByteOrder.nativeOrder()).asShortBuffer();
+        } else {
+            mIndices = ByteBuffer.allocateDirect(getIndexCount() * NB_BYTES_PER_INT)
+                    .order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+
+        // Longitudes are the same for all the rings, computed once
+        mCosTable = new float[mNbSlices + 1];
+        mSinTable = new float[mNbSlices + 1];
+        for (int j = 0; j <= mNbSlices; j++) {
+            final float angleB = (360.0f * j) / mNbSlices;
+            mCosTable[j] = (float) Math.cos(angleB * Math.PI / 180.0);
+            mSinTable[j] = (float) Math.sin(angleB * Math.PI / 180.0);
+        }
+
+        if (pool != null) {
+            pool.invoke(new RingsTask(0, mNbRings + 1));
+        } else {
+            fillRings(0, mNbRings + 1);
+        }
+    }
+
+    /**
+     * Get back the sphere mesh from a mesh file baked at build time (see MeshBaker)
+     *
+     * @param angleStep angle step between sphere points in degrees
+     * @param mesh mesh file (packed vertices, packed texture coordinates and indices streams)
+     * @throws IllegalArgumentException if the mesh file does not match the angle step
+     */
+    public SphereGeometry(float angleStep, final MeshFile mesh) {
+        mNbRings = Math.round(180.0f / angleStep);
+        mNbSlices = Math.round(360.0f / angleStep);
+
+        if ((mesh.getStreamCount() != 3)
+                || !(mesh.getStream(0) instanceof ByteBuffer)
+                || (mesh.getStream(0).capacity() != getVertexCount() * VERTEX_STRIDE)
+                || !(mesh.getStream(1) instanceof ByteBuffer)
+                || (mesh.getStream(1).capacity() != getVertexCount() * TEXTURE_COORDINATE_STRIDE)
+                || ((mesh.getStream(2) instanceof ShortBuffer) != isShortIndexed())
+                || (mesh.getStream(2).capacity() != getIndexCount())) {
+            throw new IllegalArgumentException("Mesh does not match the sphere tessellation");
+        }
+
+        // Mapped packed streams used as is
+        mVertices = (ByteBuffer) mesh.getStream(0);
+        mTextureCoordinates = (ByteBuffer) mesh.getStream(1);
+        mIndices = mesh.getStream(2);
+        mVertexWriter = null;
+        mTextureCoordinateWriter = null;
+        mCosTable = null;
+        mSinTable = null;
+    }
+
+    /**
+     * Get back the name of the asset containing the baked sphere mesh
+     *
+     * @param angleStep angle step between sphere points in degrees
+     * @return asset name
+     */
+    public static String getAssetName(float angleStep) {
+        return "meshes/sphere_" + String.valueOf(angleStep).replace('.', '_') + ".mesh";
+    }
+
+    /**
+     * Get back the streams which shall be written in a mesh file
+     *
+     * @return vertices, texture coordinates and indices streams
+     */
+    public Buffer[] getStreams() {
+        return new Buffer[]{mVertices, mTextureCoordinates, mIndices};
+    }
+
+    /**
+     * Get back the number of unique vertices
+     *
+     * @return number of vertices
+     */
+    public int getVertexCount() {
+        return (mNbRings + 1) * (mNbSlices + 1);
+    }
+
+    /**
+     * Get back the number of indices (two triangles per quad)
+     *
+     * @return number of indices
+     */
+    public int getIndexCount() {
+        return mNbRings * mNbSlices * 6;
+    }
+
+    /**
+     * Check if the indices fit in unsigned shorts
+     *
+     * @return true if indices are stored as unsigned shorts, false if stored as unsigned ints
+     */
+    public boolean isShortIndexed() {
+        return getVertexCount() - 1 <= MAX_SHORT_INDEX;
+    }
+
+    /**
+     * Get back the packed vertices (XYZ + normal XYZ interleaved, see VERTEX_STRIDE)
+     *
+     * @return vertices buffer (position 0)
+     */
+    public ByteBuffer getVertices() {
+        return mVertices;
+    }
+
+    /**
+     * Get back the packed texture coordinates (XY, see TEXTURE_COORDINATE_STRIDE)
+     *
+     * @return texture coordinates buffer (position 0)
+     */
+    public ByteBuffer getTextureCoordinates() {
+        return mTextureCoordinates;
+    }
+
+    /**
+     * Get back the indices
+     *
+     * @return ShortBuffer if isShortIndexed() returns true, IntBuffer otherwise (position 0)
+     */
+    public Buffer getIndices() {
+        return mIndices;
+    }
+
+    /**
+     * Fill vertices, texture coordinates and indices of a set of rings (absolute accesses only, so
+     * several sets can be filled at the same time)
+     *
+     * @param firstRing first ring (0 = south pole)
+     * @param lastRing last ring (excluded)
+     */
+    private void fillRings(int firstRing, int lastRing) {
+        float angleA, angleB;
+        float r, h;
+        float cos, sin;
+        int v, n;
+
+        for (int i = firstRing; i < lastRing; i++) {
+            // Fixed latitude (from south pole to north pole)
+            angleA = -90.0f + (180.0f * i) / mNbRings;
+            r = (float) Math.cos(angleA * Math.PI / 180.0);
+            h = (float) Math.sin(angleA * Math.PI / 180.0);
+
+            v = i * (mNbSlices + 1);
+
+            // 360 degrees rotation to traverse a weft
+            for (int j = 0; j <= mNbSlices; j++) {
+                angleB = (360.0f * j) / mNbSlices;
+                cos = mCosTable[j];
+                sin = mSinTable[j];
+
+                // coordinates XYZ (normalized shorts)
+                mVertexWriter.putShorts(v, 0, r * cos, h, r * sin);
+
+                // normal XYZ (normalized bytes, same values on a unit sphere)
+                mVertexWriter.putBytes(v, NORMAL_OFFSET, r * cos, h, r * sin);
+
+                // texture coordinates XY (half floats)
+                mTextureCoordinateWriter.putHalfFloats(v, 0, angleB / 360.0f, 1.0f - ((angleA + 90.0f) / 180.0f));
+                v++;
+            }
+
+            // Two triangles per quad between this ring and the next one
+            if (i < mNbRings) {
+                n = i * mNbSlices * 6;
+                for (int j = 0; j < mNbSlices; j++) {
+                    int bottom = i * (mNbSlices + 1) + j;
+                    int top = bottom + mNbSlices + 1;
+
+                    // Same winding as the former triangle strip (top, bottom, next top, ...)
+                    putIndex(n++, top);
+                    putIndex(n++, bottom);
+                    putIndex(n++, top + 1);
+
+                    putIndex(n++, top + 1);
+                    putIndex(n++, bottom);
+                    putIndex(n++, bottom + 1);
+                }
+            }
+        }
+    }
+
+    private void putIndex(int position, int index) {
+        if (mIndices instanceof ShortBuffer) {
+            ((ShortBuffer) mIndices).put(position, (short) index);
+        } else {
+            ((IntBuffer) mIndices).put(position, index);
+        }
+    }
+
+    /**
+     * Split the rings until the number of rings is small enough to be filled by one task
+     */
+    private class RingsTask extends RecursiveAction {
+        private final static long serialVersionUID = 1L;
+
+        private final int mFirstRing;
+        private final int mLastRing;
+
+        RingsTask(int firstRing, int lastRing) {
+            mFirstRing = firstRing;
+            mLastRing = lastRing;
+        }
+
+        @Override
+        protected void compute() {
+            if (mLastRing - mFirstRing <= RINGS_THRESHOLD) {
+                fillRings(mFirstRing, mLastRing);
+            } else {
+                int middle = (mFirstRing + mLastRing) >>> 1;
+                invokeAll(new RingsTask(mFirstRing, middle), new RingsTask(middle, mLastRing));
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.stmicroelectronics.stgraphics.geometry;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Write vertex attributes in their packed types directly in a direct buffer (conversions shared with
+ * VertexFormat, pure Java so the meshes can be packed by the build time tools):
+ * - normalized shorts and bytes, values between -1.0 and 1.0
+ * - normalized unsigned bytes, values between 0.0 and 1.0
+ * - half floats (IEEE 754 binary16, rounded to nearest even)
+ */
+public class VertexWriter {
+
+    private final ByteBuffer mBuffer;
+    private final int mStride;
+
+    /**
+     * Allocate the buffer of a mesh
+     *
+     * @param vertexCount number of vertices
+     * @param stride number of bytes per vertex
+     */
+    public VertexWriter(int vertexCount, int stride) {
+        mStride = stride;
+        mBuffer = ByteBuffer.allocateDirect(vertexCount * stride).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Get back the packed vertices
+     *
+     * @return direct buffer (native order, position 0)
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Write a 3 components attribute as normalized shorts (absolute access)
+     *
+     * @param vertex vertex index
+     * @param offset attribute offset in the vertex in bytes
+     * @param x first component
+     * @param y second component
+     * @param z third component
+     */
+    public void putShorts(int vertex, int offset, float x, float y, float z) {
+        final int position = vertex * mStride + offset;
+        mBuffer.putShort(position, toNormalizedShort(x));
+        mBuffer.putShort(position + 2, toNormalizedShort(y));
+        mBuffer.putShort(position + 4, toNormalizedShort(z));
+    }
+
+    /**
+     * Write a 3 components attribute as normalized bytes (absolute access)
+     *
+     * @param vertex vertex index
+     * @param offset attribute offset in the vertex in bytes
+     * @param x first component
+     * @param y second component
+     * @param z third component
+     */
+    public void putBytes(int vertex, int offset, float x, float y, float z) {
+        final int position = vertex * mStride + offset;
+        mBuffer.put(position, toNormalizedByte(x));
+        mBuffer.put(position + 1, toNormalizedByte(y));
+        mBuffer.put(position + 2, toNormalizedByte(z));
+    }
+
+    /**
+     * Write a 2 components attribute as half floats (absolute access)
+     *
+     * @param vertex vertex index
+     * @param offset attribute offset in the vertex in bytes
+     * @param x first component
+     * @param y second component
+     */
+    public void putHalfFloats(int vertex, int offset, float x, float y) {
+        final int position = vertex * mStride + offset;
+        mBuffer.putShort(position, toHalf(x));
+        mBuffer.putShort(position + 2, toHalf(y));
+    }
+
+    /**
+     * Convert a value to a normalized short
+     *
+     * @param value value between -1.0 and 1.0 (clamped)
+     * @return normalized short
+     */
+    public static short toNormalizedShort(float value) {
+        return (short) Math.round(clamp(value, -1.0f, 1.0f) * Short.MAX_VALUE);
+    }
+
+    /**
+     * Convert a value to a normalized byte
+     *
+     * @param value value between -1.0 and 1.0 (clamped)
+     * @return normalized byte
+     */
+    public static byte toNormalizedByte(float value) {
+        return (byte) Math.round(clamp(value, -1.0f, 1.0f) * Byte.MAX_VALUE);
+    }
+
+    /**
+     * Convert a value to a normalized unsigned byte
+     *
+     * @param value value between 0.0 and 1.0 (clamped)
+     * @return normalized unsigned byte
+     */
+    public static byte toNormalizedUnsignedByte(float value) {
+        return (byte) Math.round(clamp(value, 0.0f, 1.0f) * 255.0f);
+    }
+
+    /**
+     * Convert a float to a half float
+     *
+     * @param value float value
+     * @return half float bits (rounded to nearest even, infinity if too large)
+     */
+    public static short toHalf(float value) {
+        final int bits = Float.floatToRawIntBits(value);
+        final int sign = (bits >>> 16) & 0x8000;
+        final int floatExponent = (bits >>> 23) & 0xFF;
+        int mantissa = bits & 0x7FFFFF;
+
+        if (floatExponent == 0xFF) {
+            // Infinity or NaN (kept quiet)
+            return (short) (sign | 0x7C00 | ((mantissa != 0) ? 0x200 : 0));
+        }
+
+        final int exponent = floatExponent - 127 + 15;
+        if (exponent >= 0x1F) {
+            return (short) (sign | 0x7C00);
+        }
+
+        int shift = 13;
+        int half;
+        if (exponent <= 0) {
+            if (exponent < -10) {
+                return (short) sign;
+            }
+            // Subnormal half float: implicit bit of the float mantissa kept
+            mantissa |= 0x800000;
+            shift = 14 - exponent;
+            half = mantissa >> shift;
+        } else {
+            half = (exponent << 10) | (mantissa >> shift);
+        }
+
+        // Round to nearest even (a carry in the exponent gives the next power of two or infinity)
+        final int remainder = mantissa & ((1 << shift) - 1);
+        final int halfway = 1 << (shift - 1);
+        if ((remainder > halfway) || ((remainder == halfway) && ((half & 1) != 0))) {
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    /**
+     * Convert a half float to a float
+     *
+     * @param half half float bits
+     * @return float value (exact)
+     */
+    public static float toFloat(short half) {
+        final int sign = (half & 0x8000) << 16;
+        final int exponent = (half >>> 10) & 0x1F;
+        final int mantissa = half & 0x3FF;
+
+        if (exponent == 0) {
+            // Zero or subnormal
+            final float value = mantissa / (float) (1 << 24);
+            return (sign != 0) ? -value : value;
+        }
+        if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
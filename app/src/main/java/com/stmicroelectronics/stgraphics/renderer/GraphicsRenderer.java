@@ -12,7 +12,15 @@ import com.stmicroelectronics.stgraphics.renderer.TwoD.CircleRenderer;
 import com.stmicroelectronics.stgraphics.renderer.TwoD.Shape2DRenderer;
 import com.stmicroelectronics.stgraphics.renderer.TwoD.SquareRenderer;
 import com.stmicroelectronics.stgraphics.renderer.TwoD.TriangleRenderer;
-
+import com.stmicroelectronics.stgraphics.utils.BufferHelper;
+import com.stmicroelectronics.stgraphics.utils.GlStateCache;
+import com.stmicroelectronics.stgraphics.utils.ProgramBinaryCache;
+import com.stmicroelectronics.stgraphics.utils.SceneUniforms;
+import com.stmicroelectronics.stgraphics.utils.ShaderWarmUp;
+import com.stmicroelectronics.stgraphics.utils.TextureHelper;
+import com.stmicroelectronics.stgraphics.utils.VertexFormat;
+
+import java.io.File;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -56,7 +64,15 @@ public class GraphicsRenderer implements GLSurfaceView.Renderer {
     private boolean mColorGradientEnabled = false;
     private boolean mTextureEnabled = false;
     private boolean mKineticEnabled = false;
+    private boolean mCircleMaskEnabled = false;
     private boolean m3DEnabled;
+    private int mStressInstances = 0;
+
+    /** Surface creation time of the current shape (0 once its first frame is drawn) */
+    private long mSurfaceCreatedTime;
+
+    /** Filter modes measured in turn (null if the texture benchmark is disabled) */
+    private TextureBenchmark mTextureBenchmark;
 
     private final Context mContext;
 
@@ -72,6 +88,9 @@ public class GraphicsRenderer implements GLSurfaceView.Renderer {
         // mCircleRenderer = new CircleRenderer(context);
         mContext = context;
 
+        // Linked programs kept between contexts and application starts
+        ProgramBinaryCache.setDirectory(new File(context.getCodeCacheDir(), "programs"));
+
         Timber.d("Shape %s START", shape);
 
         mCurrentShape = shape;
@@ -114,6 +133,7 @@ public class GraphicsRenderer implements GLSurfaceView.Renderer {
             case CIRCLE:
                 if (mCircleRenderer == null) {
                     mCircleRenderer = new CircleRenderer(mContext);
+                    mCircleRenderer.setMaskState(mCircleMaskEnabled);
                 }
                 return mCircleRenderer;
             default:
@@ -194,8 +214,13 @@ public class GraphicsRenderer implements GLSurfaceView.Renderer {
                     mCurrent2DRenderer.setColorState(mColorsEnabled);
                     mCurrent2DRenderer.setColorGradient(mColorGradientEnabled);
                     mCurrent2DRenderer.setTextureState(mTextureEnabled);
+                    mCurrent2DRenderer.setStressInstances(mStressInstances);
                 }
             } else {
+                if ((mCurrent3DRenderer != null) && (mCurrent3DRenderer != get3DRenderer(shape))) {
+                    // Release the program of the previous 3D shape (nothing done if already released)
+                    mCurrent3DRenderer.cancelRendering();
+                }
                 mCurrent3DRenderer = get3DRenderer(shape);
                 if (mCurrent3DRenderer != null) {
                     mCurrent3DRenderer.setColorState(mColorsEnabled);
@@ -203,6 +228,7 @@ public class GraphicsRenderer implements GLSurfaceView.Renderer {
                     mCurrent3DRenderer.setLightState(mLightEnabled);
                     mCurrent3DRenderer.setColorGradient(mColorGradientEnabled);
                     mCurrent3DRenderer.setKineticState(mKineticEnabled);
+                    mCurrent3DRenderer.setStressInstances(mStressInstances);
                 }
             }
             mCurrentShape = shape;
@@ -212,6 +238,18 @@ public class GraphicsRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        mSurfaceCreatedTime = System.nanoTime();
+
+        // Check the vertex attribute types supported before packing the vertex buffers
+        VertexFormat.resolve();
+
+        // New context, previous GL state and scene uniform buffer lost
+        GlStateCache.reset();
+        SceneUniforms.reset();
+
+        // Programs of all the shapes linked in the loader context, before the first draw
+        ShaderWarmUp.start();
+
         if ((m3DEnabled) && (mCurrent3DRenderer != null)) {
             mCurrent3DRenderer.onSurfaceCreated(gl, config);
         } else if ((!m3DEnabled) && (mCurrent2DRenderer != null)) {
@@ -230,13 +268,29 @@ public class GraphicsRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        GlStateCache.beginFrame();
+
+        if (mTextureBenchmark != null) {
+            mTextureBenchmark.beginFrame();
+        }
+
         if ((m3DEnabled) && (mCurrent3DRenderer != null)) {
             mCurrent3DRenderer.onDrawFrame(gl);
         } else if ((!m3DEnabled) && (mCurrent2DRenderer != null)) {
             mCurrent2DRenderer.onDrawFrame(gl);
         }
-    }
 
+        if (mTextureBenchmark != null) {
+            mTextureBenchmark.endFrame();
+        }
+
+        if (mSurfaceCreatedTime != 0) {
+            // Programs, buffers and textures created (see ShaderWarmUp)
+            Timber.i("Shape %s first frame in %d ms", mCurrentShape,
+                    (System.nanoTime() - mSurfaceCreatedTime) / 1000000);
+            mSurfaceCreatedTime = 0;
+        }
+    }
 
 
 
@@ -389,5 +443,63 @@ public class GraphicsRenderer implements GLSurfaceView.Renderer {
         mLightEnabled = state;
     }
 
+    /**
+     * Change the vertex data path for all shape renderers
+     *
+     * @param state new buffer objects state (true if vertex data drawn from GPU buffer objects,
+     *              false if drawn from client side arrays)
+     */
+    public void setBufferObjectState(boolean state) {
+        BufferHelper.setBufferObjectState(state);
+    }
 
+    /**
+     * Change the circle drawing path
+     *
+     * @param state new circle mask state (true if the circle is drawn from a square masked per
+     *              fragment, false if drawn from its triangle fan)
+     */
+    public void setCircleMaskState(boolean state) {
+        if (mCircleRenderer != null) {
+            mCircleRenderer.setMaskState(state);
+        }
+        mCircleMaskEnabled = state;
+    }
+
+    /**
+     * Change the texture filtering for all shape renderers (textures loaded again with it)
+     *
+     * @param mode TextureHelper.FILTER_NEAREST, FILTER_BILINEAR, FILTER_TRILINEAR (default) or
+     *             FILTER_ANISOTROPIC
+     */
+    public void setTextureFilterMode(int mode) {
+        TextureHelper.setFilterMode(mode);
+    }
+
+    /**
+     * Start the texture benchmark: the frames of the active shape are timed with each filter mode
+     * in turn, results logged (shall be called before the surface is created, stress mode advised)
+     *
+     * @param state true to run the benchmark
+     */
+    public void setTextureBenchmarkState(boolean state) {
+        mTextureBenchmark = state ? new TextureBenchmark() : null;
+    }
+
+    /**
+     * Change the stress mode for all shape renderers (taken into account the next time the surface
+     * is created)
+     *
+     * @param count number of shape instances (3D) or sprites (2D) drawn in a grid (0 to disable the
+     *              stress mode)
+     */
+    public void setStressInstances(int count) {
+        if (mCurrent3DRenderer != null) {
+            mCurrent3DRenderer.setStressInstances(count);
+        }
+        if (mCurrent2DRenderer != null) {
+            mCurrent2DRenderer.setStressInstances(count);
+        }
+        mStressInstances = count;
+    }
 }
@@ -0,0 +1,86 @@
+package com.stmicroelectronics.stgraphics.renderer;
+
+import android.opengl.GLES20;
+
+import com.stmicroelectronics.stgraphics.utils.TextureHelper;
+
+import timber.log.Timber;
+
+/**
+ * Texture fetch cost of each filter mode (see TextureHelper.setFilterMode()): the frames of the
+ * active shape are drawn with each mode in turn, each frame timed between two glFinish() calls so
+ * that the GPU time is measured instead of the display rate. The fetches are the bulk of the frame
+ * only in stress mode with the texture enabled, the benchmark shall be run that way.
+ */
+class TextureBenchmark {
+
+    /** Frames drawn after a mode change before the measure (textures loaded again) */
+    private final static int WARM_UP_FRAMES = 30;
+    private final static int MEASURED_FRAMES = 120;
+
+    private final int mInitialMode;
+    private final float[] mFrameTimes = new float[TextureHelper.NB_FILTER_MODES];
+
+    private int mMode = TextureHelper.FILTER_NEAREST;
+    private int mFrame;
+    private long mFrameStart;
+    private long mMeasuredTime;
+    private boolean mDone;
+
+    TextureBenchmark() {
+        mInitialMode = TextureHelper.getFilterMode();
+        TextureHelper.setFilterMode(mMode);
+    }
+
+    /**
+     * Start the measure of a frame (GL thread, before the frame is drawn)
+     */
+    void beginFrame() {
+        if (mDone) {
+            return;
+        }
+        // Previous frame not counted
+        GLES20.glFinish();
+        mFrameStart = System.nanoTime();
+    }
+
+    /**
+     * End the measure of a frame (GL thread, after the frame is drawn), switch to the next mode
+     * once enough frames are measured
+     */
+    void endFrame() {
+        if (mDone) {
+            return;
+        }
+        GLES20.glFinish();
+        if (mFrame >= WARM_UP_FRAMES) {
+            mMeasuredTime += System.nanoTime() - mFrameStart;
+        }
+        mFrame++;
+        if (mFrame < WARM_UP_FRAMES + MEASURED_FRAMES) {
+            return;
+        }
+
+        mFrameTimes[mMode] = mMeasuredTime / (MEASURED_FRAMES * 1000000.0f);
+        Timber.i("Texture benchmark: %s filtering %.3f ms per frame",
+                TextureHelper.getFilterName(mMode), mFrameTimes[mMode]);
+
+        mFrame = 0;
+        mMeasuredTime = 0;
+        mMode++;
+        if (mMode < TextureHelper.NB_FILTER_MODES) {
+            TextureHelper.setFilterMode(mMode);
+            return;
+        }
+
+        // Cost of each mode compared to nearest filtering (no fetch cost added)
+        for (int mode = TextureHelper.FILTER_BILINEAR; mode < TextureHelper.NB_FILTER_MODES; mode++) {
+            Timber.i("Texture benchmark: %s filtering %+.3f ms per frame compared to %s",
+                    TextureHelper.getFilterName(mode), mFrameTimes[mode] - mFrameTimes[TextureHelper.FILTER_NEAREST],
+                    TextureHelper.getFilterName(TextureHelper.FILTER_NEAREST));
+        }
+
+        TextureHelper.setFilterMode(mInitialMode);
+        mDone = true;
+    }
+}
@@ -5,32 +5,34 @@ import android.opengl.GLES20;
 import android.opengl.Matrix;
 
 import com.stmicroelectronics.stgraphics.R;
+import com.stmicroelectronics.stgraphics.texture.TextureAssets;
+import com.stmicroelectronics.stgraphics.utils.AsyncTexture;
+import com.stmicroelectronics.stgraphics.utils.GlStateCache;
+import com.stmicroelectronics.stgraphics.utils.IndexBuffer;
+import com.stmicroelectronics.stgraphics.utils.ProgramVariants;
+import com.stmicroelectronics.stgraphics.utils.RenderQueue;
+import com.stmicroelectronics.stgraphics.utils.SceneUniforms;
 import com.stmicroelectronics.stgraphics.utils.ShaderHelper;
-import com.stmicroelectronics.stgraphics.utils.TextureHelper;
+import com.stmicroelectronics.stgraphics.utils.TextureAtlas;
 import com.stmicroelectronics.stgraphics.utils.Utility;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 public class CubeRenderer extends Shape3DRenderer{
 
-    /** Store our model data in a float buffer */
-    final private int VERTICES_ARRAY_SIZE = 8;
-    private final FloatBuffer[] mVerticesArray = new FloatBuffer[VERTICES_ARRAY_SIZE];
-    private int mVerticesIndex = 0;
+    /** Face textures (used in turn, drawables of TextureAssets.CUBE) */
+    private final static int[] TEXTURE_IDS = {R.drawable.logo_st_256, R.drawable.logo_stm32_256, R.drawable.logo_stm32mp1_256};
+
+    /** Store our model data in vertex buffers (interleaved geometry of all faces, kinetic effect applied by the shader) */
+    private final VertexBuffer mVerticesBuffer;
 
-    private final FloatBuffer mNormalsBuffer;
-    private final FloatBuffer mNoColorBuffer;
-    private final FloatBuffer mColorBuffer;
-    private final FloatBuffer mColorGradientBuffer;
-    private final FloatBuffer mTextureCoordinateBuffer;
+    private final VertexBuffer mNoColorBuffer;
+    private final VertexBuffer mColorBuffer;
+    private final VertexBuffer mColorGradientBuffer;
 
-    private final ShortBuffer mDrawOrderBuffer;
+    private final IndexBuffer mDrawOrderBuffer;
 
     /**
      * Store the view matrix. This can be thought of as our camera. This matrix transforms world space to eye space;
@@ -49,18 +51,34 @@ public class CubeRenderer extends Shape3DRenderer{
      */
     private final float[] mLightPos = new float[4];
 
-    /** This is a handle to our texture data. */
-    private int[] mTextureDataHandles;
+    /** This is a handle to our texture data (all face textures in one atlas). */
+    private int mTextureDataHandle;
+    private final TextureAtlas mTextureAtlas;
 
+    /** Atlas decoded in background (placeholder until available) */
+    private final AsyncTexture mTexture;
+
+    /** Program variants used (texture and light states) and program of the current one */
+    private final ProgramVariants mPrograms = new ProgramVariants(ShaderHelper.SHADER_TEXTURE_LIGHT);
     private int mProgramHandle;
-    private int mVertexShaderHandle;
-    private int mFragmentShaderHandle;
 
     private final Context mContext;
     private Cube mCube;
 
-    private boolean mTextureEnabled = false;
-    private boolean mLightEnabled = false;
+    /** Cube queued as a draw item (sorted with any other item before being drawn) */
+    private final RenderQueue mRenderQueue = new RenderQueue(1);
+    private float mKineticOffset;
+
+    private final RenderQueue.Drawer mCubeDrawer = new RenderQueue.Drawer() {
+        @Override
+        public void draw(RenderQueue.Item item) {
+            mCube.draw(mVerticesBuffer, getColorBuffer(), mTextureDataHandle, mDrawOrderBuffer,
+                    getInstanceGrid(), mKineticOffset, mLightPos, item.getModelMatrix());
+        }
+    };
+
+    private volatile boolean mTextureEnabled = false;
+    private volatile boolean mLightEnabled = false;
 
     private final float[] mAccumulatedRotation = new float[16];
     private final float[] mCurrentRotation = new float[16];
@@ -77,118 +95,112 @@ public class CubeRenderer extends Shape3DRenderer{
         color3 = Utility.normalizeColor(mContext.getColor(R.color.colorShape3));
         color4 = Utility.normalizeColor(mContext.getColor(R.color.colorShape4));
 
-        /* How many bytes per float. */
-        int bytesPerFloat = 4;
-
+        // Faces in their final position (no per-face rotation when drawn)
         final float[] cubeVertices = {
-                // X, Y, Z,
+                // X, Y, Z (front)
                 -0.5f, 0.5f, 0.5f,
                 -0.5f, -0.5f, 0.5f,
                 0.5f, 0.5f, 0.5f,
-                0.5f, -0.5f, 0.5f};
+                0.5f, -0.5f, 0.5f,
+                // X, Y, Z (left)
+                -0.5f, 0.5f, -0.5f,
+                -0.5f, -0.5f, -0.5f,
+                -0.5f, 0.5f, 0.5f,
+                -0.5f, -0.5f, 0.5f,
+                // X, Y, Z (right)
+                0.5f, 0.5f, 0.5f,
+                0.5f, -0.5f, 0.5f,
+                0.5f, 0.5f, -0.5f,
+                0.5f, -0.5f, -0.5f,
+                // X, Y, Z (back)
+                0.5f, 0.5f, -0.5f,
+                0.5f, -0.5f, -0.5f,
+                -0.5f, 0.5f, -0.5f,
+                -0.5f, -0.5f, -0.5f,
+                // X, Y, Z (top)
+                0.5f, 0.5f, 0.5f,
+                0.5f, 0.5f, -0.5f,
+                -0.5f, 0.5f, 0.5f,
+                -0.5f, 0.5f, -0.5f,
+                // X, Y, Z (bottom)
+                0.5f, -0.5f, -0.5f,
+                0.5f, -0.5f, 0.5f,
+                -0.5f, -0.5f, -0.5f,
+                -0.5f, -0.5f, 0.5f};
 
         final float[] cubeNormals = {
-                // X, Y, Z,
+                // X, Y, Z (front)
                 0.0f, 0.0f, 1.0f,
                 0.0f, 0.0f, 1.0f,
                 0.0f, 0.0f, 1.0f,
-                0.0f, 0.0f, 1.0f};
-
-        final float[] cubeColor = {
+                0.0f, 0.0f, 1.0f,
+                // X, Y, Z (left)
+                -1.0f, 0.0f, 0.0f,
+                -1.0f, 0.0f, 0.0f,
+                -1.0f, 0.0f, 0.0f,
+                -1.0f, 0.0f, 0.0f,
+                // X, Y, Z (right)
+                1.0f, 0.0f, 0.0f,
+                1.0f, 0.0f, 0.0f,
+                1.0f, 0.0f, 0.0f,
+                1.0f, 0.0f, 0.0f,
+                // X, Y, Z (back)
+                0.0f, 0.0f, -1.0f,
+                0.0f, 0.0f, -1.0f,
+                0.0f, 0.0f, -1.0f,
+                0.0f, 0.0f, -1.0f,
+                // X, Y, Z (top)
+                0.0f, 1.0f, 0.0f,
+                0.0f, 1.0f, 0.0f,
+                0.0f, 1.0f, 0.0f,
+                0.0f, 1.0f, 0.0f,
+                // X, Y, Z (bottom)
+                0.0f, -1.0f, 0.0f,
+                0.0f, -1.0f, 0.0f,
+                0.0f, -1.0f, 0.0f,
+                0.0f, -1.0f, 0.0f};
+
+        final float[][] cubeColor = {
                 // R, G, B, A (front)
-                color3[0], color3[1], color3[2], 1.0f,
-                color3[0], color3[1], color3[2], 1.0f,
-                color3[0], color3[1], color3[2], 1.0f,
-                color3[0], color3[1], color3[2], 1.0f,
+                color3, color3, color3, color3,
                 // R, G, B, A (left)
-                color4[0], color4[1], color4[2], 1.0f,
-                color4[0], color4[1], color4[2], 1.0f,
-                color4[0], color4[1], color4[2], 1.0f,
-                color4[0], color4[1], color4[2], 1.0f,
+                color4, color4, color4, color4,
                 // R, G, B, A (right)
-                color4[0], color4[1], color4[2], 1.0f,
-                color4[0], color4[1], color4[2], 1.0f,
-                color4[0], color4[1], color4[2], 1.0f,
-                color4[0], color4[1], color4[2], 1.0f,
+                color4, color4, color4, color4,
                 // R, G, B, A (back)
-                color3[0], color3[1], color3[2], 1.0f,
-                color3[0], color3[1], color3[2], 1.0f,
-                color3[0], color3[1], color3[2], 1.0f,
-                color3[0], color3[1], color3[2], 1.0f,
+                color3, color3, color3, color3,
                 // R, G, B, A (top)
-                color1[0], color1[1], color1[2], 1.0f,
-                color1[0], color1[1], color1[2], 1.0f,
-                color1[0], color1[1], color1[2], 1.0f,
-                color1[0], color1[1], color1[2], 1.0f,
+                color1, color1, color1, color1,
                 // R, G, B, A (bottom)
-                color1[0], color1[1], color1[2], 1.0f,
-                color1[0], color1[1], color1[2], 1.0f,
-                color1[0], color1[1], color1[2], 1.0f,
-                color1[0], color1[1], color1[2], 1.0f};
+                color1, color1, color1, color1};
 
-        final float[] cubeColorGradient = {
+        final float[][] cubeColorGradient = {
                 // R, G, B, A (front)
-                color1[0], color1[1], color1[2], 1.0f,
-                color3[0], color3[1], color3[2], 1.0f,
-                color2[0], color2[1], color2[2], 1.0f,
-                color4[0], color4[1], color4[2], 1.0f,
+                color1, color3, color2, color4,
                 // R, G, B, A (left)
-                color2[0], color2[1], color2[2], 1.0f,
-                color4[0], color4[1], color4[2], 1.0f,
-                color1[0], color1[1], color1[2], 1.0f,
-                color3[0], color3[1], color3[2], 1.0f,
+                color2, color4, color1, color3,
                 // R, G, B, A (right)
-                color2[0], color2[1], color2[2], 1.0f,
-                color4[0], color4[1], color4[2], 1.0f,
-                color1[0], color1[1], color1[2], 1.0f,
-                color3[0], color3[1], color3[2], 1.0f,
+                color2, color4, color1, color3,
                 // R, G, B, A (back)
-                color1[0], color1[1], color1[2], 1.0f,
-                color3[0], color3[1], color3[2], 1.0f,
-                color2[0], color2[1], color2[2], 1.0f,
-                color4[0], color4[1], color4[2], 1.0f,
+                color1, color3, color2, color4,
                 // R, G, B, A (top)
-                color2[0], color2[1], color2[2], 1.0f,
-                color1[0], color1[1], color1[2], 1.0f,
-                color1[0], color1[1], color1[2], 1.0f,
-                color2[0], color2[1], color2[2], 1.0f,
+                color2, color1, color1, color2,
                 // R, G, B, A (bottom)
-                color3[0], color3[1], color3[2], 1.0f,
-                color4[0], color4[1], color4[2], 1.0f,
-                color4[0], color4[1], color4[2], 1.0f,
-                color3[0], color3[1], color3[2], 1.0f};
+                color3, color4, color4, color3};
 
-        final float[] cubeNoColor = {
+        final float[][] cubeNoColor = {
                 // R, G, B, A (front)
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
+                colorLight, colorLight, colorLight, colorLight,
                 // R, G, B, A (left)
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
+                colorLight, colorLight, colorLight, colorLight,
                 // R, G, B, A (right)
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
+                colorLight, colorLight, colorLight, colorLight,
                 // R, G, B, A (back)
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
+                colorLight, colorLight, colorLight, colorLight,
                 // R, G, B, A (top)
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
+                colorLight, colorLight, colorLight, colorLight,
                 // R, G, B, A (bottom)
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f,
-                colorLight[0], colorLight[1], colorLight[2], 1.0f};
+                colorLight, colorLight, colorLight, colorLight};
 
         final float[] squareTextureCoordinate = {
                 0.0f, 0.0f,
@@ -197,79 +209,33 @@ public class CubeRenderer extends Shape3DRenderer{
                 1.0f, 1.0f};
 
         // square = two triangles
-        final short[] cubeDrawOrder = new short[]{0, 1, 2, 1, 3, 2};
-        FloatBuffer verticesBuffer;
-
-        verticesBuffer = ByteBuffer.allocateDirect(cubeVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        verticesBuffer.put(cubeVertices).position(0);
+        final short[] squareDrawOrder = new short[]{0, 1, 2, 1, 3, 2};
 
-        mVerticesArray[0] = verticesBuffer;
+        // Faces use the textures in turn, texture coordinates mapped to the texture area in the atlas
+        mTextureAtlas = new TextureAtlas(mContext, TEXTURE_IDS, TextureAssets.CUBE);
+        mTexture = AsyncTexture.decodeAtlas(mContext, mTextureAtlas);
 
-        verticesBuffer = ByteBuffer.allocateDirect(cubeVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        verticesBuffer.put(Utility.zTranslateVertices(cubeVertices,0.05f)).position(0);
+        final float[] cubeTextureCoordinate = new float[Cube.NB_FACES * squareTextureCoordinate.length];
+        final short[] cubeDrawOrder = new short[Cube.NB_ELEMENTS];
+        for (int face = 0; face < Cube.NB_FACES; face++) {
+            System.arraycopy(squareTextureCoordinate, 0, cubeTextureCoordinate,
+                    face * squareTextureCoordinate.length, squareTextureCoordinate.length);
+            mTextureAtlas.mapTextureCoordinates(cubeTextureCoordinate, 4 * face, 4, face % TEXTURE_IDS.length);
 
-        mVerticesArray[1] = verticesBuffer;
-        mVerticesArray[7] = verticesBuffer;
-
-        verticesBuffer = ByteBuffer.allocateDirect(cubeVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        verticesBuffer.put(Utility.zTranslateVertices(cubeVertices,0.1f)).position(0);
-
-        mVerticesArray[2] = verticesBuffer;
-        mVerticesArray[6] = verticesBuffer;
-
-        verticesBuffer = ByteBuffer.allocateDirect(cubeVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        verticesBuffer.put(Utility.zTranslateVertices(cubeVertices,0.15f)).position(0);
-
-        mVerticesArray[3] = verticesBuffer;
-        mVerticesArray[5] = verticesBuffer;
-
-        verticesBuffer = ByteBuffer.allocateDirect(cubeVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        verticesBuffer.put(Utility.zTranslateVertices(cubeVertices,0.2f)).position(0);
-
-        mVerticesArray[4] = verticesBuffer;
-
-        mNormalsBuffer = ByteBuffer.allocateDirect(cubeNormals.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mNormalsBuffer.put(cubeNormals).position(0);
-
-        mNoColorBuffer = ByteBuffer.allocateDirect(cubeNoColor.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mNoColorBuffer.put(cubeNoColor).position(0);
-
-        mColorBuffer = ByteBuffer.allocateDirect(cubeColor.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mColorBuffer.put(cubeColor).position(0);
+            for (int i = 0; i < squareDrawOrder.length; i++) {
+                cubeDrawOrder[face * squareDrawOrder.length + i] = (short) (4 * face + squareDrawOrder[i]);
+            }
+        }
 
-        mColorGradientBuffer = ByteBuffer.allocateDirect(cubeColorGradient.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mColorGradientBuffer.put(cubeColorGradient).position(0);
+        // Write position, normal and texture coordinates of each vertex (compact types)
+        mVerticesBuffer = createGeometryBuffer(cubeVertices, cubeNormals, cubeTextureCoordinate);
 
-        mTextureCoordinateBuffer = ByteBuffer.allocateDirect(squareTextureCoordinate.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mTextureCoordinateBuffer.put(squareTextureCoordinate).position(0);
+        // Colors stored as normalized unsigned bytes
+        mNoColorBuffer = createColorBuffer(cubeNoColor);
+        mColorBuffer = createColorBuffer(cubeColor);
+        mColorGradientBuffer = createColorBuffer(cubeColorGradient);
 
-        mDrawOrderBuffer = ByteBuffer.allocateDirect(cubeDrawOrder.length * 2)
-                .order(ByteOrder.nativeOrder()).asShortBuffer();
-        mDrawOrderBuffer.put(cubeDrawOrder).position(0);
-    }
-
-    /**
-     * Update vertices index (loop)
-     */
-    private void updateVerticesIndex() {
-        if (isStarted()) {
-            if (ismKineticEnable() || mVerticesIndex != 0) {
-                mVerticesIndex++;
-                if (mVerticesIndex >= VERTICES_ARRAY_SIZE) {
-                    mVerticesIndex = 0;
-                }
-            }
-        }
+        mDrawOrderBuffer = new IndexBuffer(cubeDrawOrder);
     }
 
     @Override
@@ -283,9 +249,9 @@ public class CubeRenderer extends Shape3DRenderer{
         // GLES20.glFrontFace(GLES20.GL_CCW);
 
         // Enable depth test (tracks vertex's distance to the viewer)
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        GlStateCache.setCapability(GLES20.GL_DEPTH_TEST, true);
         // LESS (default value), passes if vertex's distance (depth) less than stored one
-        GLES20.glDepthFunc(GLES20.GL_LESS);
+        GlStateCache.depthFunc(GLES20.GL_LESS);
 
         // Position the eye behind the origin.
         final float eyeX = 0.0f;
@@ -305,39 +271,28 @@ public class CubeRenderer extends Shape3DRenderer{
         // Set the view matrix. This matrix can be said to represent the camera position.
         Matrix.setLookAtM(mViewMatrix, 0, eyeX, eyeY, eyeZ, lookX, lookY, lookZ, upX, upY, upZ);
 
-        // Load in the vertex shader.
-        mVertexShaderHandle = ShaderHelper.compileVertexShader(ShaderHelper.SHADER_TEXTURE_LIGHT);
-        if (mVertexShaderHandle == 0)
-        {
-            throw new RuntimeException("Error creating vertex shader.");
-        }
-
-        // Load in the fragment shader.
-        mFragmentShaderHandle = ShaderHelper.compileFragmentShader(ShaderHelper.SHADER_TEXTURE_LIGHT);
-        if (mFragmentShaderHandle == 0)
-        {
-            throw new RuntimeException("Error creating fragment shader.");
-        }
-
-        // Create and link a program object and store the handle to it.
-        mProgramHandle = ShaderHelper.linkProgram(ShaderHelper.SHADER_TEXTURE_LIGHT, mVertexShaderHandle, mFragmentShaderHandle);
-        if (mProgramHandle == 0)
-        {
-            throw new RuntimeException("Error creating program.");
-        }
+        // Programs of the previous context lost (instanced variants in stress mode).
+        mPrograms.reset(updateInstanceGrid());
+        mProgramHandle = 0;
 
         Matrix.setIdentityM(mAccumulatedRotation, 0);
         initDelta();
 
         mCube = new Cube();
-        mCube.initCube(mProgramHandle, mViewMatrix, mTextureEnabled, mLightEnabled);
+        updateProgram();
 
         // Tell OpenGL to use this program when rendering.
-        GLES20.glUseProgram(mProgramHandle);
+        GlStateCache.useProgram(mProgramHandle);
 
         // Prepare texture unit
-        int[] textureIds = {R.drawable.logo_st_256, R.drawable.logo_stm32_256, R.drawable.logo_stm32mp1_256};
-        mTextureDataHandles = TextureHelper.loadTextures(mContext, textureIds, textureIds.length);
+        mTextureDataHandle = mTexture.upload();
+
+        // Upload vertices in GPU buffer objects (previous ones lost with the previous context)
+        mVerticesBuffer.upload();
+        mNoColorBuffer.upload();
+        mColorBuffer.upload();
+        mColorGradientBuffer.upload();
+        mDrawOrderBuffer.upload();
     }
 
     @Override
@@ -348,10 +303,16 @@ public class CubeRenderer extends Shape3DRenderer{
     @Override
     public void onDrawFrame(GL10 gl) {
 
-        if (isStationary()) {
+        // Atlas uploaded once decoded (placeholder drawn until then)
+        boolean textureUpdated = mTexture.update();
+        mTextureDataHandle = mTexture.getHandle();
+
+        if (isStationary() && !textureUpdated) {
             return;
         }
 
+        updateProgram();
+
         GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
 
         float[] delta = getDeltaAngle();
@@ -371,46 +332,71 @@ public class CubeRenderer extends Shape3DRenderer{
         mLightPos[2] = 0.0f;
         mLightPos[3] = 0.0f;
 
+        // Light position in eye space shared by all programs (scene uniform buffer, ES 3.0 only)
+        SceneUniforms.setLight(mViewMatrix, mLightPos);
+
+        // Kinetic displacement depending on the elapsed time (not on the frame rate)
+        mKineticOffset = getKineticOffset();
+
+        beginStressFrame();
+        mRenderQueue.begin(mViewMatrix);
+        mRenderQueue.add(mCubeDrawer, 0, mProgramHandle, mTextureDataHandle, mModelMatrix);
+        mRenderQueue.submit();
+        endStressFrame();
+    }
+
+    /**
+     * Select the program variant matching the texture and light states (shared with the other
+     * renderers, compiled the first time it is used)
+     */
+    private void updateProgram() {
+        int variant = 0;
+        if (mTextureEnabled) {
+            variant |= ShaderHelper.VARIANT_TEXTURE;
+        }
+        if (mLightEnabled) {
+            variant |= ShaderHelper.VARIANT_LIGHT;
+        }
+
+        final int programHandle = mPrograms.get(variant);
+        if (programHandle != mProgramHandle) {
+            mProgramHandle = programHandle;
+            mCube.initCube(mProgramHandle, mViewMatrix);
+        }
+    }
+
+    /**
+     * Get back the color buffer matching the color options
+     *
+     * @return vertex buffer (R,G,B,A)
+     */
+    private VertexBuffer getColorBuffer() {
         if (isColored()) {
             if (isColorGradient()) {
-                mCube.draw(mVerticesArray[mVerticesIndex], mNormalsBuffer, mColorGradientBuffer, mTextureCoordinateBuffer, mTextureDataHandles,
-                        mDrawOrderBuffer, mLightPos, mModelMatrix);
-            } else {
-                mCube.draw(mVerticesArray[mVerticesIndex], mNormalsBuffer, mColorBuffer, mTextureCoordinateBuffer, mTextureDataHandles,
-                        mDrawOrderBuffer, mLightPos, mModelMatrix);
+                return mColorGradientBuffer;
             }
-        } else {
-            mCube.draw(mVerticesArray[mVerticesIndex], mNormalsBuffer, mNoColorBuffer, mTextureCoordinateBuffer, mTextureDataHandles,
-                    mDrawOrderBuffer, mLightPos, mModelMatrix);
+            return mColorBuffer;
         }
-        updateVerticesIndex();
+        return mNoColorBuffer;
     }
 
     @Override
     public void setTextureState(boolean state) {
-        if (mCube != null) {
-            mCube.setTextureState(state);
-        }
+        // Program variant selected at the next frame
         mTextureEnabled = state;
     }
 
     @Override
     public void setLightState(boolean state) {
-        if (mCube != null) {
-            mCube.setLightState(state);
-        }
+        // Program variant selected at the next frame
         mLightEnabled = state;
     }
 
     @Override
     public void cancelRendering() {
-        GLES20.glDetachShader(mProgramHandle, mVertexShaderHandle);
-        GLES20.glDeleteShader(mVertexShaderHandle);
-
-        GLES20.glDetachShader(mProgramHandle, mFragmentShaderHandle);
-        GLES20.glDeleteShader(mFragmentShaderHandle);
-
-        GLES20.glDeleteProgram(mProgramHandle);
+        // Programs deleted once no more used by any renderer
+        mPrograms.release();
+        mProgramHandle = 0;
     }
 
     @Override
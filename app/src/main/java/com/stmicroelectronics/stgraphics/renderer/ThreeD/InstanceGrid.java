@@ -0,0 +1,363 @@
+package com.stmicroelectronics.stgraphics.renderer.ThreeD;
+
+import android.opengl.GLES20;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.stmicroelectronics.stgraphics.utils.BufferHelper;
+import com.stmicroelectronics.stgraphics.utils.GlStateCache;
+import com.stmicroelectronics.stgraphics.utils.IndexBuffer;
+import com.stmicroelectronics.stgraphics.utils.MeshBuilder;
+import com.stmicroelectronics.stgraphics.utils.ShaderHelper;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
+import com.stmicroelectronics.stgraphics.utils.VertexFormat;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import timber.log.Timber;
+
+/**
+ * Grid of shape instances drawn in stress mode (GPU throughput measurement). Each instance has its
+ * own position, scale and rotation (axis and speed), the rotation is computed in the vertex shader
+ * from the elapsed time so no instance data is updated per frame.
+ * - ES 3.0 contexts: instance data in per instance attributes, one instanced draw per part
+ * - ES 2.0 contexts: pseudo-instancing, the mesh is replicated (instance index attribute) and the
+ *   instance data of each batch is passed in a uniform array, one draw per batch and per part
+ * Shall only be used in GL thread.
+ */
+class InstanceGrid {
+
+    /** Maximum number of instances */
+    final static int MAX_INSTANCES = 10000;
+
+    /** Grid half size (model space) and instance radius relative to the grid cell (shapes fit in a unit sphere) */
+    private final static float GRID_EXTENT = 0.9f;
+    private final static float INSTANCE_SIZE = 0.4f;
+
+    /** Instance angular speeds in radians per second */
+    private final static float MIN_SPEED = 0.5f;
+    private final static float MAX_SPEED = 3.0f;
+
+    /** Pseudo-instancing: instances per draw, limited by the vertex uniform vectors left by the shaders */
+    private final static int MAX_BATCH_SIZE = 64;
+    private final static int RESERVED_UNIFORM_VECTORS = 16;
+
+    /** Elapsed time wrapped to keep its precision in the shader */
+    private final static long TIME_WRAP_MS = 3600000;
+
+    /** Statistics reported once per period */
+    private final static long REPORT_PERIOD_MS = 1000;
+
+    /** Instance data: offset (X,Y,Z) + scale, rotation axis (X,Y,Z) + angular speed */
+    private final static int NB_FLOATS_PER_INSTANCE = 8;
+    private final static VertexFormat INSTANCE_FORMAT = new VertexFormat(
+            4, VertexFormat.TYPE_FLOAT,
+            4, VertexFormat.TYPE_FLOAT);
+    private final static int ATTRIBUTE_OFFSET = 0;
+    private final static int ATTRIBUTE_ROTATION = 1;
+
+    /** Instance index of each vertex of a replicated mesh */
+    private final static VertexFormat INSTANCE_INDEX_FORMAT = new VertexFormat(1, VertexFormat.TYPE_FLOAT);
+
+    private final int mCount;
+    private final float[] mInstances;
+    private final VertexBuffer mInstanceBuffer;
+
+    private boolean mInstanced;
+    private int mBatchSize;
+    private float[] mBatchUniforms;
+
+    /** Replicated meshes (pseudo-instancing), built the first time they are drawn */
+    private final HashMap<VertexBuffer, VertexBuffer> mVertexReplicas = new HashMap<>();
+    private final HashMap<IndexBuffer, IndexBuffer> mIndexReplicas = new HashMap<>();
+    private final SparseArray<VertexBuffer> mInstanceIndices = new SparseArray<>();
+
+    /** This will be used to pass in model the instance information (locations of mProgramHandle). */
+    private int mProgramHandle;
+    private int mTimeUniformHandle;
+    private int mInstancesUniformHandle;
+    private int mInstanceIndexHandle;
+    private int mInstanceOffsetHandle;
+    private int mInstanceRotationHandle;
+
+    private final long mStartTime = SystemClock.uptimeMillis();
+    private float mTime;
+
+    /** Statistics of the current period */
+    private long mPeriodStart;
+    private int mFrames;
+    private long mTriangles;
+    private int mDraws;
+
+    /**
+     * Create the instance grid (cubic grid, instances filled row by row then layer by layer)
+     *
+     * @param count number of instances (1 to MAX_INSTANCES)
+     */
+    InstanceGrid(int count) {
+        mCount = Math.max(1, Math.min(count, MAX_INSTANCES));
+        mInstances = new float[NB_FLOATS_PER_INSTANCE * mCount];
+
+        final int side = (int) Math.ceil(Math.cbrt(mCount) - 1e-6);
+        final int columns = Math.min(mCount, side);
+        final int rows = Math.min((mCount + side - 1) / side, side);
+        final int layers = (mCount + side * side - 1) / (side * side);
+        final float cell = 2.0f * GRID_EXTENT / side;
+
+        // Same rotations from one run to another
+        final Random random = new Random(mCount);
+
+        // Instance attributes written directly, the array is kept for the uniforms (pseudo-instancing)
+        final MeshBuilder builder = new MeshBuilder(INSTANCE_FORMAT, mCount);
+
+        for (int i = 0; i < mCount; i++) {
+            final int offset = NB_FLOATS_PER_INSTANCE * i;
+
+            mInstances[offset] = (i % side - (columns - 1) / 2.0f) * cell;
+            mInstances[offset + 1] = ((i / side) % side - (rows - 1) / 2.0f) * cell;
+            mInstances[offset + 2] = (i / (side * side) - (layers - 1) / 2.0f) * cell;
+            mInstances[offset + 3] = INSTANCE_SIZE * cell;
+
+            float x = (float) random.nextGaussian();
+            float y = (float) random.nextGaussian();
+            float z = (float) random.nextGaussian();
+            float length = (float) Math.sqrt(x * x + y * y + z * z);
+            if (length < 1e-3f) {
+                x = 0.0f;
+                y = 1.0f;
+                z = 0.0f;
+                length = 1.0f;
+            }
+            float speed = MIN_SPEED + random.nextFloat() * (MAX_SPEED - MIN_SPEED);
+
+            mInstances[offset + 4] = x / length;
+            mInstances[offset + 5] = y / length;
+            mInstances[offset + 6] = z / length;
+            mInstances[offset + 7] = random.nextBoolean() ? speed : -speed;
+
+            builder.put(i, ATTRIBUTE_OFFSET, mInstances[offset], mInstances[offset + 1],
+                    mInstances[offset + 2], mInstances[offset + 3]);
+            builder.put(i, ATTRIBUTE_ROTATION, mInstances[offset + 4], mInstances[offset + 5],
+                    mInstances[offset + 6], mInstances[offset + 7]);
+        }
+
+        mInstanceBuffer = new VertexBuffer(builder);
+    }
+
+    /**
+     * Select the draw path and upload the instance data (shall be called in GL thread each time the
+     * surface is created, before the shaders are compiled)
+     */
+    void onSurfaceCreated() {
+        mInstanced = BufferHelper.isInstancingSupported();
+
+        int batchSize = 0;
+        if (!mInstanced) {
+            final int[] maxVectors = new int[1];
+            GLES20.glGetIntegerv(GLES20.GL_MAX_VERTEX_UNIFORM_VECTORS, maxVectors, 0);
+            batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, (maxVectors[0] - RESERVED_UNIFORM_VECTORS) / 2));
+        }
+        if (batchSize != mBatchSize) {
+            // Replicas built for another batch size
+            mVertexReplicas.clear();
+            mIndexReplicas.clear();
+            mInstanceIndices.clear();
+            mBatchSize = batchSize;
+            mBatchUniforms = new float[NB_FLOATS_PER_INSTANCE * batchSize];
+        }
+
+        Timber.i("Stress mode: %d instances, %s", mCount,
+                mInstanced ? "instanced draws" : "pseudo-instancing (" + mBatchSize + " instances per draw)");
+
+        // Previous buffer objects lost with the previous context
+        if (mInstanced) {
+            mInstanceBuffer.upload();
+        }
+        for (VertexBuffer replica : mVertexReplicas.values()) {
+            replica.upload();
+        }
+        for (IndexBuffer replica : mIndexReplicas.values()) {
+            replica.upload();
+        }
+        for (int i = 0; i < mInstanceIndices.size(); i++) {
+            mInstanceIndices.valueAt(i).upload();
+        }
+
+        // Instance handles queried again for the programs of the new context
+        mProgramHandle = 0;
+
+        mPeriodStart = SystemClock.uptimeMillis();
+        mFrames = 0;
+        mTriangles = 0;
+        mDraws = 0;
+    }
+
+    /**
+     * Get back the defines selecting the vertex shader variant matching the draw path (shall be
+     * called after onSurfaceCreated())
+     *
+     * @return defines which shall be given to ShaderHelper.compileVertexShader()
+     */
+    String getShaderDefines() {
+        return ShaderHelper.getInstancingDefines(mInstanced ? 0 : mBatchSize);
+    }
+
+    /**
+     * Initialize the instance handles
+     *
+     * @param programHandle linked program (instanced variant)
+     */
+    private void init(int programHandle) {
+        mProgramHandle = programHandle;
+        mTimeUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_Time");
+        mInstancesUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_Instances");
+        mInstanceIndexHandle = ShaderHelper.getAttribLocation(programHandle, "a_InstanceIndex");
+        mInstanceOffsetHandle = ShaderHelper.getAttribLocation(programHandle, "a_InstanceOffset");
+        mInstanceRotationHandle = ShaderHelper.getAttribLocation(programHandle, "a_InstanceRotation");
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Get back the number of copies of a mesh drawn at once (16 bits indices kept)
+     *
+     * @param vertexCount number of vertices of the mesh
+     * @return 1 for instanced draws, number of instances per draw for pseudo-instancing
+     */
+    private int getCopies(int vertexCount) {
+        if (mInstanced) {
+            return 1;
+        }
+        return Math.max(1, Math.min(mBatchSize, 0x10000 / vertexCount));
+    }
+
+    /**
+     * Get back the vertex buffer which shall be drawn (shall be called in GL thread)
+     *
+     * @param buffer mesh vertices
+     * @return mesh vertices for instanced draws, replicated mesh vertices for pseudo-instancing
+     */
+    VertexBuffer getVertices(final VertexBuffer buffer) {
+        if (mInstanced) {
+            return buffer;
+        }
+        VertexBuffer replica = mVertexReplicas.get(buffer);
+        if (replica == null) {
+            replica = buffer.replicate(getCopies(buffer.getVertexCount()));
+            replica.upload();
+            mVertexReplicas.put(buffer, replica);
+        }
+        return replica;
+    }
+
+    /**
+     * Get back the draw order which shall be drawn (shall be called in GL thread)
+     *
+     * @param buffer mesh draw order (triangles)
+     * @param vertexCount number of vertices of the mesh
+     * @return mesh draw order for instanced draws, replicated draw order for pseudo-instancing
+     */
+    IndexBuffer getDrawOrder(final IndexBuffer buffer, int vertexCount) {
+        if (mInstanced) {
+            return buffer;
+        }
+        IndexBuffer replica = mIndexReplicas.get(buffer);
+        if (replica == null) {
+            replica = buffer.replicate(getCopies(vertexCount), vertexCount);
+            replica.upload();
+            mIndexReplicas.put(buffer, replica);
+        }
+        return replica;
+    }
+
+    private VertexBuffer getInstanceIndices(int vertexCount) {
+        VertexBuffer indices = mInstanceIndices.get(vertexCount);
+        if (indices == null) {
+            final int copies = getCopies(vertexCount);
+            final MeshBuilder builder = new MeshBuilder(INSTANCE_INDEX_FORMAT, copies * vertexCount);
+            for (int c = 0; c < copies; c++) {
+                for (int v = 0; v < vertexCount; v++) {
+                    builder.putComponent(c * vertexCount + v, 0, 0, c);
+                }
+            }
+            indices = new VertexBuffer(builder);
+            indices.upload();
+            mInstanceIndices.put(vertexCount, indices);
+        }
+        return indices;
+    }
+
+    /**
+     * Start a new frame (instance rotations)
+     */
+    void beginFrame() {
+        mTime = ((SystemClock.uptimeMillis() - mStartTime) % TIME_WRAP_MS) / 1000.0f;
+    }
+
+    /**
+     * Draw a range of elements for all the instances (mesh attributes already bound from the
+     * buffers given back by getVertices())
+     *
+     * @param programHandle program in use (instanced variant, shapes may switch between variants)
+     * @param drawOrder draw order given back by getDrawOrder()
+     * @param vertexCount number of vertices of the mesh (not replicated)
+     * @param mode primitive mode (GL_TRIANGLES only for pseudo-instancing)
+     * @param count number of elements of the mesh which shall be drawn
+     * @param first index of the first element of the mesh which shall be drawn
+     */
+    void draw(int programHandle, final IndexBuffer drawOrder, int vertexCount, int mode, int count, int first) {
+        if (programHandle != mProgramHandle) {
+            init(programHandle);
+        }
+        GlStateCache.uniform1f(mTimeUniformHandle, mTime);
+
+        if (mInstanced) {
+            mInstanceBuffer.bindInstanceAttribute(mInstanceOffsetHandle, ATTRIBUTE_OFFSET);
+            mInstanceBuffer.bindInstanceAttribute(mInstanceRotationHandle, ATTRIBUTE_ROTATION);
+            drawOrder.drawInstanced(mode, count, first, mCount);
+            mDraws++;
+        } else {
+            final int copies = getCopies(vertexCount);
+            getInstanceIndices(vertexCount).bindAttribute(mInstanceIndexHandle, 0);
+
+            for (int start = 0; start < mCount; start += copies) {
+                final int nbInstances = Math.min(copies, mCount - start);
+                System.arraycopy(mInstances, NB_FLOATS_PER_INSTANCE * start, mBatchUniforms, 0,
+                        NB_FLOATS_PER_INSTANCE * nbInstances);
+                // Copies not used by the last batch scaled to 0 (degenerated triangles)
+                Arrays.fill(mBatchUniforms, NB_FLOATS_PER_INSTANCE * nbInstances,
+                        NB_FLOATS_PER_INSTANCE * copies, 0.0f);
+
+                GlStateCache.uniform4fv(mInstancesUniformHandle, 2 * copies, mBatchUniforms, 0);
+                drawOrder.draw(mode, count * copies, first * copies);
+                mDraws++;
+            }
+        }
+        mTriangles += (long) (count / 3) * mCount;
+    }
+
+    /**
+     * End of the frame: statistics reported once per period
+     */
+    void endFrame() {
+        mFrames++;
+
+        final long time = SystemClock.uptimeMillis();
+        final long elapsed = time - mPeriodStart;
+        if (elapsed < REPORT_PERIOD_MS) {
+            return;
+        }
+
+        Timber.i("Stress mode: %d instances, %.1f frames/s, %d triangles/s, %d draws/s",
+                mCount, mFrames * 1000.0f / elapsed, mTriangles * 1000 / elapsed, mDraws * 1000L / elapsed);
+
+        mPeriodStart = time;
+        mFrames = 0;
+        mTriangles = 0;
+        mDraws = 0;
+    }
+}
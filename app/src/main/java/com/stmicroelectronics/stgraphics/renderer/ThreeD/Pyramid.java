@@ -3,20 +3,33 @@ package com.stmicroelectronics.stgraphics.renderer.ThreeD;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import com.stmicroelectronics.stgraphics.utils.GlStateCache;
+import com.stmicroelectronics.stgraphics.utils.IndexBuffer;
+import com.stmicroelectronics.stgraphics.utils.ShaderHelper;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
 
 /**
  * Draw Pyramid (GLES 2.0)
  */
 class Pyramid {
 
-    private boolean mTextureEnabled;
-    private boolean mLightEnabled;
+    /** 4 triangle sides (3 vertices each) then a square base (4 vertices, 2 triangles) */
+    final static int NB_SIDES = 4;
+    final static int NB_SIDE_VERTICES = NB_SIDES * 3;
+    final static int NB_SIDE_ELEMENTS = NB_SIDES * 3;
+    final static int NB_BASE_ELEMENTS = 6;
+
+    /** Parts drawn separately (base neither textured nor moved by the kinetic effect, drawn with its
+     *  own program variant) */
+    final static int PART_SIDES = 0;
+    final static int PART_BASE = 1;
 
     /** Allocate storage for the final combined matrix. This will be passed into the shader program. */
     private final float[] mMVPMatrix = new float[16];
 
+    /** This will be used to record the attributes setup (vertex array object of the mesh). */
+    private int mProgramHandle;
+
     /** This will be used to pass in model the transformation matrix. */
     private int mMVMatrixHandle;
 
@@ -35,17 +48,14 @@ class Pyramid {
     /** This will be used to pass in model the texture information. */
     private int mTextureUniformHandle;
 
-    /** This will be used to pass in model the texture state information. */
-    private int mTextStateUniformHandle;
-
     /** This will be used to pass in model the texture coordinate information. */
     private int mTextureCoordinateHandle;
 
     /** This will be used to pass in model the light coordinate information. */
     private int mLightPosUniformHandle;
 
-    /** This will be used to pass in model the light state information. */
-    private int mLightStateUniformHandle;
+    /** This will be used to pass in model the kinetic displacement. */
+    private int mKineticUniformHandle;
 
     private final float[] mProjectionMatrix = new float[16];
     private float[] mViewMatrix = new float[16];
@@ -55,28 +65,26 @@ class Pyramid {
     /**
      * Initialize Pyramid parameters
      *
-     * @param programHandle linked vertex + fragment shader program
+     * @param programHandle linked vertex + fragment shader program (variant matching the texture
+     *                      and light states of the drawn parts, unused handles set to -1)
      * @param viewMatrix view matrix
-     * @param texture initial texture state (true = texture enabled in shader)
      */
-    void initPyramid(int programHandle, float[] viewMatrix, boolean texture, boolean light) {
+    void initPyramid(int programHandle, float[] viewMatrix) {
         // Set program handles. These will later be used to pass in values to the program.
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVPMatrix");
-        mMVMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVMatrix");
+        mProgramHandle = programHandle;
+        mMVPMatrixHandle = ShaderHelper.getUniformLocation(programHandle, "u_MVPMatrix");
+        mMVMatrixHandle = ShaderHelper.getUniformLocation(programHandle, "u_MVMatrix");
 
-        mPositionHandle = GLES20.glGetAttribLocation(programHandle, "a_Position");
-        mNormalHandle = GLES20.glGetAttribLocation(programHandle, "a_Normal");
-        mColorHandle = GLES20.glGetAttribLocation(programHandle, "a_Color");
+        mPositionHandle = ShaderHelper.getAttribLocation(programHandle, "a_Position");
+        mNormalHandle = ShaderHelper.getAttribLocation(programHandle, "a_Normal");
+        mColorHandle = ShaderHelper.getAttribLocation(programHandle, "a_Color");
 
-        mTextureUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_Texture");
-        mTextStateUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_TextState");
-        mTextureCoordinateHandle = GLES20.glGetAttribLocation(programHandle, "a_TexCoordinate");
+        mTextureUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_Texture");
+        mTextureCoordinateHandle = ShaderHelper.getAttribLocation(programHandle, "a_TexCoordinate");
 
-        mLightPosUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_LightPos");
-        mLightStateUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_LightState");
+        mLightPosUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_LightPos");
+        mKineticUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_Kinetic");
 
-        mTextureEnabled = texture;
-        mLightEnabled = light;
         mViewMatrix = viewMatrix;
     }
 
@@ -97,265 +105,85 @@ class Pyramid {
     }
 
     /**
-     * Give Texture state (used to enable texture in shader)
-     *
-     * @param state The texture state (true = texture enabled)
-     */
-    void setTextureState(boolean state) {
-        mTextureEnabled = state;
-    }
-
-    /**
-     * Give light state (used to enable light in shader)
-     *
-     * @param state The light state (true = texture enabled)
-     */
-    void setLightState(boolean state) {
-        mLightEnabled = state;
-    }
-
-    /**
-     * Draws pyramid sides from the given vertex data.
+     * Draws a part of the pyramid from the given vertex data (sides and base in one mesh, one draw
+     * per part).
      *
-     * @param aVerticesBuffer The buffer containing the vertex data.
-     * @param aColorBuffer The buffer containing the color data.
-     * @param aTextureCoordinateBuffer The buffer containing the texture coordinates data.
-     * @param textureDataHandle The handle associated with the texture handle.
+     * @param aGeometryBuffer The buffer containing the interleaved vertex data (position, normal and
+     *                        texture coordinates) of the sides then of the base.
+     * @param aColorBuffer The buffer containing the color data (sides then base).
+     * @param textureDataHandle The handle associated with the texture atlas (texture coordinates of
+     *                          each side already mapped to its texture).
+     * @param drawOrderBuffer The buffer containing vertices draw order (sides then base).
+     * @param part The part to draw (PART_SIDES or PART_BASE).
+     * @param instances The instances drawn in stress mode (null to draw one pyramid).
+     * @param kineticOffset The displacement of the sides along their normal.
      * @param lightPos The light position in eye space.
      * @param modelMatrix The model matrix (rotation data).
      */
-    void drawSide(final FloatBuffer aVerticesBuffer, final FloatBuffer aNormalBuffer,
-                  final FloatBuffer aColorBuffer, final FloatBuffer aTextureCoordinateBuffer,
-                  final int[] textureDataHandle, float[] lightPos, float[] modelMatrix){
-
-        int textureIndex = 0;
-
-        // Pass in the vertices attributes (X,Y,Z)
-        aVerticesBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, 3, GLES20.GL_FLOAT, false,
-                0, aVerticesBuffer);
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-
-        // Pass in the normal attributes (X,Y,Z)
-        aNormalBuffer.position(0);
-        GLES20.glVertexAttribPointer(mNormalHandle, 3, GLES20.GL_FLOAT, false,
-                0, aNormalBuffer);
-        GLES20.glEnableVertexAttribArray(mNormalHandle);
-
-        // Pass in the color attributes (R,G,B)
-        aColorBuffer.position(0);
-        GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false,
-                0, aColorBuffer);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
-
-        // Pass in the texture coordinates (X,Y)
-        aTextureCoordinateBuffer.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, 2, GLES20.GL_FLOAT, false,
-                0, aTextureCoordinateBuffer);
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-
-        // Pass in the texture state (on or off)
-        if (mTextureEnabled) {
-            GLES20.glUniform1i(mTextStateUniformHandle, 1);
-        } else {
-            GLES20.glUniform1i(mTextStateUniformHandle, 0);
+    void draw(final VertexBuffer aGeometryBuffer, final VertexBuffer aColorBuffer,
+              int textureDataHandle, final IndexBuffer drawOrderBuffer, int part, final InstanceGrid instances,
+              float kineticOffset, float[] lightPos, float[] modelMatrix){
+
+        // Stress mode: meshes replicated for pseudo-instancing
+        final VertexBuffer geometryBuffer = (instances != null) ? instances.getVertices(aGeometryBuffer) : aGeometryBuffer;
+        final VertexBuffer colorBuffer = (instances != null) ? instances.getVertices(aColorBuffer) : aColorBuffer;
+        final IndexBuffer drawOrder = (instances != null)
+                ? instances.getDrawOrder(drawOrderBuffer, aGeometryBuffer.getVertexCount()) : drawOrderBuffer;
+
+        // Attributes setup recorded once per program in the vertex array objects of the colors
+        // (sides and base drawn with different programs, ES 3.0)
+        if (!colorBuffer.getVertexArray().bind(mProgramHandle)) {
+            // Pass in the vertices attributes (X,Y,Z)
+            geometryBuffer.bindAttribute(mPositionHandle, Shape3DRenderer.ATTRIBUTE_POSITION);
+
+            // Pass in the normal attributes (X,Y,Z)
+            geometryBuffer.bindAttribute(mNormalHandle, Shape3DRenderer.ATTRIBUTE_NORMAL);
+
+            // Pass in the color attributes (R,G,B)
+            colorBuffer.bindAttribute(mColorHandle, 0);
+
+            // Pass in the texture coordinates (X,Y)
+            geometryBuffer.bindAttribute(mTextureCoordinateHandle, Shape3DRenderer.ATTRIBUTE_TEXTURE_COORDINATE);
         }
 
-        // Set the active texture unit to texture unit 0.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
-        GLES20.glUniform1i(mTextureUniformHandle, 0);
+        GlStateCache.uniform1i(mTextureUniformHandle, 0);
 
-        if (mLightEnabled) {
-            GLES20.glUniform1i(mLightStateUniformHandle, 1);
+        // Pass in the kinetic displacement (computed from the elapsed time, base not moved)
+        if (part == PART_SIDES) {
+            GlStateCache.uniform1f(mKineticUniformHandle, kineticOffset);
         } else {
-            GLES20.glUniform1i(mLightStateUniformHandle, 0);
-        }
-
-        // This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
-        // (which currently contains model * view).
-        Matrix.multiplyMV(mLightPos, 0, mViewMatrix, 0, lightPos, 0);
-
-        // Pass in the light position in eye space.
-        GLES20.glUniform3f(mLightPosUniformHandle, mLightPos[0], mLightPos[1], mLightPos[2]);
-
-        float[] mModelMatrix = modelMatrix;
-
-        // This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
-        // (which currently contains model * view).
-        Matrix.multiplyMM(mMVPMatrix, 0, mViewMatrix, 0, mModelMatrix, 0);
-
-        GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mMVPMatrix, 0);
-
-        // This multiplies the modelview matrix by the projection matrix, and stores the result in the MVP matrix
-        // (which now contains model * view * projection).
-        Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVPMatrix, 0);
-
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mMVPMatrix, 0);
-
-        // Bind the texture to this unit.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureDataHandle[textureIndex]);
-        textureIndex++;
-        if (textureIndex >= textureDataHandle.length) {
-            textureIndex = 0;
-        }
-
-        // 6 elements in drawSide order buffer, can be given as parameter
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 3);
-
-        mModelMatrix = modelMatrix;
-
-        Matrix.rotateM(mModelMatrix,0,90.0f, 0f, 1f, 0f);
-
-        // This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
-        // (which currently contains model * view).
-        Matrix.multiplyMM(mMVPMatrix, 0, mViewMatrix, 0, mModelMatrix, 0);
-
-        GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mMVPMatrix, 0);
-
-        // This multiplies the model-view matrix by the projection matrix, and stores the result in the MVP matrix
-        // (which now contains model * view * projection).
-        Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVPMatrix, 0);
-
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mMVPMatrix, 0);
-
-        // Bind the texture to this unit.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureDataHandle[textureIndex]);
-        textureIndex++;
-        if (textureIndex >= textureDataHandle.length) {
-            textureIndex = 0;
+            GlStateCache.uniform1f(mKineticUniformHandle, 0.0f);
         }
 
-        // Pass in the color attributes (R,G,B)
-        aColorBuffer.position(12);
-        GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false,
-                0, aColorBuffer);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
-
-        // 6 elements in drawSide order buffer, can be given as parameter
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 3);
-
-        mModelMatrix = modelMatrix;
-
-        Matrix.rotateM(mModelMatrix,0,90.0f, 0f, 1f, 0f);
-
-        // This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
-        // (which currently contains model * view).
-        Matrix.multiplyMM(mMVPMatrix, 0, mViewMatrix, 0, mModelMatrix, 0);
-
-        GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mMVPMatrix, 0);
-
-        // This multiplies the model-view matrix by the projection matrix, and stores the result in the MVP matrix
-        // (which now contains model * view * projection).
-        Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVPMatrix, 0);
-
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mMVPMatrix, 0);
-
-
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureDataHandle[textureIndex]);
-        textureIndex++;
-        if (textureIndex >= textureDataHandle.length) {
-            textureIndex = 0;
+        // Pass in the light position in eye space (shared by all programs through the scene
+        // uniform buffer on ES 3.0, see SceneUniforms).
+        if (mLightPosUniformHandle >= 0) {
+            Matrix.multiplyMV(mLightPos, 0, mViewMatrix, 0, lightPos, 0);
+            GlStateCache.uniform3f(mLightPosUniformHandle, mLightPos[0], mLightPos[1], mLightPos[2]);
         }
 
-        // Pass in the color attributes (R,G,B)
-        aColorBuffer.position(24);
-        GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false,
-                0, aColorBuffer);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
-
-        // 6 elements in drawSide order buffer, can be given as parameter
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 3);
-
-        mModelMatrix = modelMatrix;
-
-        Matrix.rotateM(mModelMatrix,0,90.0f, 0f, 1f, 0f);
-
         // This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
         // (which currently contains model * view).
-        Matrix.multiplyMM(mMVPMatrix, 0, mViewMatrix, 0, mModelMatrix, 0);
+        Matrix.multiplyMM(mMVPMatrix, 0, mViewMatrix, 0, modelMatrix, 0);
 
-        GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mMVPMatrix, 0);
+        GlStateCache.uniformMatrix4fv(mMVMatrixHandle, mMVPMatrix, 0);
 
         // This multiplies the model-view matrix by the projection matrix, and stores the result in the MVP matrix
         // (which now contains model * view * projection).
         Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVPMatrix, 0);
 
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mMVPMatrix, 0);
+        GlStateCache.uniformMatrix4fv(mMVPMatrixHandle, mMVPMatrix, 0);
 
         // Bind the texture to this unit.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureDataHandle[textureIndex]);
-
-        // Pass in the color attributes (R,G,B)
-        aColorBuffer.position(36);
-        GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false,
-                0, aColorBuffer);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
+        GlStateCache.bindTexture(0, textureDataHandle);
 
-        // 6 elements in drawSide order buffer, can be given as parameter
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 3);
-    }
-
-    /**
-     * Draws pyramid base from the given vertex data.
-     *
-     * @param aVerticesBuffer The buffer containing the vertex data.
-     * @param aColorBuffer The buffer containing the color data.
-     * @param drawOrderBuffer The buffer containing vertices draw order.
-     * @param modelMatrix The model matrix (rotation data).
-     */
-    void drawBase(final FloatBuffer aVerticesBuffer, final FloatBuffer aNormalBuffer,
-                  final FloatBuffer aColorBuffer, final ShortBuffer drawOrderBuffer,
-                  float[] lightPos, float[] modelMatrix){
-
-        // Pass in the vertices attributes (X,Y,Z)
-        aVerticesBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, 3, GLES20.GL_FLOAT, false,
-                0, aVerticesBuffer);
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-
-        // Pass in the normal attributes (X,Y,Z)
-        aNormalBuffer.position(0);
-        GLES20.glVertexAttribPointer(mNormalHandle, 3, GLES20.GL_FLOAT, false,
-                0, aNormalBuffer);
-        GLES20.glEnableVertexAttribArray(mNormalHandle);
-
-        // Pass in the color attributes (R,G,B)
-        aColorBuffer.position(0);
-        GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false,
-                0, aColorBuffer);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
-
-        // Disable texture for the pyramid base
-        GLES20.glUniform1i(mTextStateUniformHandle, 0);
-
-        if (mLightEnabled) {
-            GLES20.glUniform1i(mLightStateUniformHandle, 1);
+        final int count = (part == PART_SIDES) ? NB_SIDE_ELEMENTS : NB_BASE_ELEMENTS;
+        final int first = (part == PART_SIDES) ? 0 : NB_SIDE_ELEMENTS;
+        if (instances != null) {
+            instances.draw(mProgramHandle, drawOrder, aGeometryBuffer.getVertexCount(), GLES20.GL_TRIANGLES, count, first);
         } else {
-            GLES20.glUniform1i(mLightStateUniformHandle, 0);
+            drawOrder.draw(GLES20.GL_TRIANGLES, count, first);
         }
-
-        // This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
-        // (which currently contains model * view).
-        Matrix.multiplyMV(mLightPos, 0, mViewMatrix, 0, lightPos, 0);
-
-        // Pass in the light position in eye space.
-        GLES20.glUniform3f(mLightPosUniformHandle, mLightPos[0], mLightPos[1], mLightPos[2]);
-
-        // This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
-        // (which currently contains model * view).
-        Matrix.multiplyMM(mMVPMatrix, 0, mViewMatrix, 0, modelMatrix, 0);
-
-        GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mMVPMatrix, 0);
-
-        // This multiplies the modelview matrix by the projection matrix, and stores the result in the MVP matrix
-        // (which now contains model * view * projection).
-        Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVPMatrix, 0);
-
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mMVPMatrix, 0);
-
-        // Draw following order buffer (6 elements)
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES,6,GLES20.GL_UNSIGNED_SHORT, drawOrderBuffer);
     }
-
 }
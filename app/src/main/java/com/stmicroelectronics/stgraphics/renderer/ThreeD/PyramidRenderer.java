@@ -5,38 +5,34 @@ import android.opengl.GLES20;
 import android.opengl.Matrix;
 
 import com.stmicroelectronics.stgraphics.R;
+import com.stmicroelectronics.stgraphics.texture.TextureAssets;
+import com.stmicroelectronics.stgraphics.utils.AsyncTexture;
+import com.stmicroelectronics.stgraphics.utils.GlStateCache;
+import com.stmicroelectronics.stgraphics.utils.IndexBuffer;
+import com.stmicroelectronics.stgraphics.utils.ProgramVariants;
+import com.stmicroelectronics.stgraphics.utils.RenderQueue;
+import com.stmicroelectronics.stgraphics.utils.SceneUniforms;
 import com.stmicroelectronics.stgraphics.utils.ShaderHelper;
-import com.stmicroelectronics.stgraphics.utils.TextureHelper;
+import com.stmicroelectronics.stgraphics.utils.TextureAtlas;
 import com.stmicroelectronics.stgraphics.utils.Utility;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 public class PyramidRenderer extends Shape3DRenderer {
 
-    /** Store our model data in a float buffer */
-    // private final FloatBuffer mVerticesBuffer;
-    final private int VERTICES_ARRAY_SIZE = 8;
-    private final FloatBuffer[] mVerticesArray = new FloatBuffer[VERTICES_ARRAY_SIZE];
-    private int mVerticesIndex = 0;
+    /** Side textures (used in turn, drawables of TextureAssets.PYRAMID) */
+    private final static int[] TEXTURE_IDS = {R.drawable.logo_st_256, R.drawable.logo_stm32mp1_256};
 
-    private final FloatBuffer mNormalsBuffer;
-    private final FloatBuffer mNoColorBuffer;
-    private final FloatBuffer mColorBuffer;
-    private final FloatBuffer mColorGradientBuffer;
-    private final FloatBuffer mTextureCoordinateBuffer;
+    /** Store our model data in vertex buffers (interleaved geometry of sides and base, kinetic effect applied by the shader) */
+    private final VertexBuffer mVerticesBuffer;
 
-    private final FloatBuffer mBaseVerticesBuffer;
-    private final FloatBuffer mBaseNormalsBuffer;
-    private final FloatBuffer mBaseColorBuffer;
-    private final FloatBuffer mBaseNoColorBuffer;
+    private final VertexBuffer mNoColorBuffer;
+    private final VertexBuffer mColorBuffer;
+    private final VertexBuffer mColorGradientBuffer;
 
-    private final ShortBuffer mBaseDrawOrderBuffer;
+    private final IndexBuffer mDrawOrderBuffer;
 
     /**
      * Store the view matrix. This can be thought of as our camera. This matrix transforms world space to eye space;
@@ -55,22 +51,41 @@ public class PyramidRenderer extends Shape3DRenderer {
      */
     private final float[] mLightPos = new float[4];
 
-    /** This is a handle to our texture data. */
-    private int[] mTextureDataHandles;
+    /** This is a handle to our texture data (all side textures in one atlas). */
+    private int mTextureDataHandle;
+    private final TextureAtlas mTextureAtlas;
+
+    /** Atlas decoded in background (placeholder until available) */
+    private final AsyncTexture mTexture;
 
+    /** Program variants used (texture and light states) and programs of the sides and of the base */
+    private final ProgramVariants mPrograms = new ProgramVariants(ShaderHelper.SHADER_TEXTURE_LIGHT);
     private int mProgramHandle;
-    private int mVertexShaderHandle;
-    private int mFragmentShaderHandle;
+    private int mBaseProgramHandle;
 
     private final Context mContext;
     private final Pyramid mPyramid;
+    private final Pyramid mPyramidBase;
 
-    private boolean mTextureEnabled = false;
-    private boolean mLightEnabled = false;
+    private volatile boolean mTextureEnabled = false;
+    private volatile boolean mLightEnabled = false;
 
     private final float[] mAccumulatedRotation = new float[16];
     private final float[] mCurrentRotation = new float[16];
 
+    /** Sides and base queued as separate draw items (sorted before being drawn) */
+    private final RenderQueue mRenderQueue = new RenderQueue(2);
+    private float mKineticOffset;
+
+    private final RenderQueue.Drawer mPyramidDrawer = new RenderQueue.Drawer() {
+        @Override
+        public void draw(RenderQueue.Item item) {
+            final Pyramid pyramid = (item.getPart() == Pyramid.PART_SIDES) ? mPyramid : mPyramidBase;
+            pyramid.draw(mVerticesBuffer, getColorBuffer(), item.getTexture(), mDrawOrderBuffer,
+                    item.getPart(), getInstanceGrid(), mKineticOffset, mLightPos, item.getModelMatrix());
+        }
+    };
+
     public PyramidRenderer(Context context) {
         mContext = context;
 
@@ -82,79 +97,91 @@ public class PyramidRenderer extends Shape3DRenderer {
         color3 = Utility.normalizeColor(mContext.getColor(R.color.colorShape3));
         color4 = Utility.normalizeColor(mContext.getColor(R.color.colorShape4));
 
-        /* How many bytes per float. */
-        int bytesPerFloat = 4;
-
-        // Create pyramid side (triangles) buffers
-
-        /* Equilateral Triangle
+        /* Equilateral Triangle sides then square base, in their final position (no per-side
+         * rotation when drawn)
          * h = (square_root(3) / 2) *  a
          * z (pyramid case) = 1/3 * h */
-        float[] triangleVertices = {
-                // X, Y, Z (a = 2 * 0.7f)
+        final float[] pyramidVertices = {
+                // X, Y, Z (a = 2 * 0.7f) (front)
                 -0.7f, -0.4041452f, 0.7f,
                 0.7f, -0.4041452f, 0.7f,
-                0.0f, 0.8082904f, 0.0f};
+                0.0f, 0.8082904f, 0.0f,
+                // X, Y, Z (left)
+                0.7f, -0.4041452f, 0.7f,
+                0.7f, -0.4041452f, -0.7f,
+                0.0f, 0.8082904f, 0.0f,
+                // X, Y, Z (back)
+                0.7f, -0.4041452f, -0.7f,
+                -0.7f, -0.4041452f, -0.7f,
+                0.0f, 0.8082904f, 0.0f,
+                // X, Y, Z (right)
+                -0.7f, -0.4041452f, -0.7f,
+                -0.7f, -0.4041452f, 0.7f,
+                0.0f, 0.8082904f, 0.0f,
+                // X, Y, Z (base)
+                -0.7f, -0.4041452f, 0.7f,
+                -0.7f, -0.4041452f, -0.7f,
+                0.7f, -0.4041452f, -0.7f,
+                0.7f, -0.4041452f, 0.7f};
 
-        float[] triangleNormals = {
-                // X, Y, Z
+        final float[] pyramidNormals = {
+                // X, Y, Z (front)
                 0.0f, 0.57735f, 1.0f,
                 0.0f, 0.57735f, 1.0f,
-                0.0f, 0.57735f, 1.0f};
+                0.0f, 0.57735f, 1.0f,
+                // X, Y, Z (left)
+                1.0f, 0.57735f, 0.0f,
+                1.0f, 0.57735f, 0.0f,
+                1.0f, 0.57735f, 0.0f,
+                // X, Y, Z (back)
+                0.0f, 0.57735f, -1.0f,
+                0.0f, 0.57735f, -1.0f,
+                0.0f, 0.57735f, -1.0f,
+                // X, Y, Z (right)
+                -1.0f, 0.57735f, 0.0f,
+                -1.0f, 0.57735f, 0.0f,
+                -1.0f, 0.57735f, 0.0f,
+                // X, Y, Z (base)
+                0.0f, 1.0f, 0.0f,
+                0.0f, 1.0f, 0.0f,
+                0.0f, 1.0f, 0.0f,
+                0.0f, 1.0f, 0.0f};
 
-        float[] triangleColor = {
+        final float[][] pyramidColor = {
                 // R, G, B, A (front)
-                color1[0], color1[1], color1[2], color1[3],
-                color1[0], color1[1], color1[2], color1[3],
-                color1[0], color1[1], color1[2], color1[3],
+                color1, color1, color1,
                 // R, G, B, A (left)
-                color3[0], color3[1], color3[2], color3[3],
-                color3[0], color3[1], color3[2], color3[3],
-                color3[0], color3[1], color3[2], color3[3],
+                color3, color3, color3,
                 // R, G, B, A (back)
-                color1[0], color1[1], color1[2], color1[3],
-                color1[0], color1[1], color1[2], color1[3],
-                color1[0], color1[1], color1[2], color1[3],
+                color1, color1, color1,
                 // R, G, B, A (right)
-                color3[0], color3[1], color3[2], color3[3],
-                color3[0], color3[1], color3[2], color3[3],
-                color3[0], color3[1], color3[2], color3[3]};
+                color3, color3, color3,
+                // R, G, B, A (base)
+                color4, color4, color4, color4};
 
-        float[] triangleColorGradient = {
+        final float[][] pyramidColorGradient = {
                 // R, G, B, A (front)
-                color4[0], color4[1], color4[2], color4[3],
-                color4[0], color4[1], color4[2], color4[3],
-                color3[0], color3[1], color3[2], color3[3],
+                color4, color4, color3,
                 // R, G, B, A (left)
-                color4[0], color4[1], color4[2], color4[3],
-                color4[0], color4[1], color4[2], color4[3],
-                color3[0], color3[1], color3[2], color3[3],
+                color4, color4, color3,
                 // R, G, B, A (back)
-                color4[0], color4[1], color4[2], color4[3],
-                color4[0], color4[1], color4[2], color4[3],
-                color3[0], color3[1], color3[2], color3[3],
+                color4, color4, color3,
                 // R, G, B, A (right)
-                color4[0], color4[1], color4[2], color4[3],
-                color4[0], color4[1], color4[2], color4[3],
-                color3[0], color3[1], color3[2], color3[3]};
+                color4, color4, color3,
+                // R, G, B, A (base)
+                color4, color4, color4, color4};
 
-        float[] triangleNoColor = {
+        final float[][] pyramidNoColor = {
                 // R, G, B, A (front)
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
+                colorLight, colorLight, colorLight,
                 // R, G, B, A (left)
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
+                colorLight, colorLight, colorLight,
                 // R, G, B, A (back)
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
+                colorLight, colorLight, colorLight,
                 // R, G, B, A (right)
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3]};
+                colorLight, colorLight, colorLight,
+                // R, G, B, A (base)
+                colorLight, colorLight, colorLight, colorLight};
 
         /*
          * Texture size = square of 1.0f
@@ -170,155 +197,60 @@ public class PyramidRenderer extends Shape3DRenderer {
                 0.9330127f, 0.75f,
                 0.5f, 0.0f};
 
-        FloatBuffer verticesBuffer;
-
-        verticesBuffer = ByteBuffer.allocateDirect(triangleVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        verticesBuffer.put(triangleVertices).position(0);
-
-        mVerticesArray[0] = verticesBuffer;
-
-        verticesBuffer = ByteBuffer.allocateDirect(triangleVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        verticesBuffer.put(Utility.zTranslateVertices(triangleVertices,0.05f)).position(0);
-
-        mVerticesArray[1] = verticesBuffer;
-        mVerticesArray[7] = verticesBuffer;
-
-        verticesBuffer = ByteBuffer.allocateDirect(triangleVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        verticesBuffer.put(Utility.zTranslateVertices(triangleVertices,0.1f)).position(0);
-
-        mVerticesArray[2] = verticesBuffer;
-        mVerticesArray[6] = verticesBuffer;
-
-        verticesBuffer = ByteBuffer.allocateDirect(triangleVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        verticesBuffer.put(Utility.zTranslateVertices(triangleVertices,0.15f)).position(0);
-
-        mVerticesArray[3] = verticesBuffer;
-        mVerticesArray[5] = verticesBuffer;
-
-        verticesBuffer = ByteBuffer.allocateDirect(triangleVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        verticesBuffer.put(Utility.zTranslateVertices(triangleVertices,0.2f)).position(0);
-
-        mVerticesArray[4] = verticesBuffer;
-
-        mNormalsBuffer = ByteBuffer.allocateDirect(triangleNormals.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mNormalsBuffer.put(triangleNormals).position(0);
-
-        mNoColorBuffer = ByteBuffer.allocateDirect(triangleNoColor.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mNoColorBuffer.put(triangleNoColor).position(0);
-
-        mColorBuffer = ByteBuffer.allocateDirect(triangleColor.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mColorBuffer.put(triangleColor).position(0);
-
-        mColorGradientBuffer = ByteBuffer.allocateDirect(triangleColorGradient.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mColorGradientBuffer.put(triangleColorGradient).position(0);
-
-        mTextureCoordinateBuffer = ByteBuffer.allocateDirect(triangleTextureCoordinate.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mTextureCoordinateBuffer.put(triangleTextureCoordinate).position(0);
-
-        // Create pyramid base (square) buffers
-
-        final float[] squareVertices = {
-                // X, Y, Z
-                -0.7f, -0.4041452f, 0.7f,
-                -0.7f, -0.4041452f, -0.7f,
-                0.7f, -0.4041452f, -0.7f,
-                0.7f, -0.4041452f, 0.7f};
+        // Sides use the textures in turn, texture coordinates mapped to the texture area in the atlas
+        // (base not textured, coordinates left to 0 to keep the same vertex format)
+        mTextureAtlas = new TextureAtlas(mContext, TEXTURE_IDS, TextureAssets.PYRAMID);
+        mTexture = AsyncTexture.decodeAtlas(mContext, mTextureAtlas);
 
-        final float[] squareNormals = {
-                // X, Y, Z
-                0.0f, 1.0f, 0.0f,
-                0.0f, 1.0f, 0.0f,
-                0.0f, 1.0f, 0.0f,
-                0.0f, 1.0f, 0.0f};
-
-        final float[] squareColor = {
-                // R, G, B, A
-                color4[0], color4[1], color4[2], color4[3],
-                color4[0], color4[1], color4[2], color4[3],
-                color4[0], color4[1], color4[2], color4[3],
-                color4[0], color4[1], color4[2], color4[3]};
-
-        final float[] squareNoColor = {
-                // R, G, B, A
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3]};
+        final float[] pyramidTextureCoordinate = new float[2 * pyramidColor.length];
+        for (int side = 0; side < Pyramid.NB_SIDES; side++) {
+            System.arraycopy(triangleTextureCoordinate, 0, pyramidTextureCoordinate,
+                    side * triangleTextureCoordinate.length, triangleTextureCoordinate.length);
+            mTextureAtlas.mapTextureCoordinates(pyramidTextureCoordinate, 3 * side, 3, side % TEXTURE_IDS.length);
+        }
 
+        // Sides then base (square = two triangles)
+        final short[] pyramidDrawOrder = new short[Pyramid.NB_SIDE_ELEMENTS + Pyramid.NB_BASE_ELEMENTS];
+        for (int i = 0; i < Pyramid.NB_SIDE_VERTICES; i++) {
+            pyramidDrawOrder[i] = (short) i;
+        }
         final short[] squareDrawOrder = new short[]{0, 1, 2, 0, 2, 3};
+        for (int i = 0; i < squareDrawOrder.length; i++) {
+            pyramidDrawOrder[Pyramid.NB_SIDE_ELEMENTS + i] = (short) (Pyramid.NB_SIDE_VERTICES + squareDrawOrder[i]);
+        }
 
-        mBaseVerticesBuffer = ByteBuffer.allocateDirect(squareVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mBaseVerticesBuffer.put(squareVertices).position(0);
-
-        mBaseNormalsBuffer = ByteBuffer.allocateDirect(squareNormals.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mBaseNormalsBuffer.put(squareNormals).position(0);
-
-        mBaseColorBuffer = ByteBuffer.allocateDirect(squareColor.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mBaseColorBuffer.put(squareColor).position(0);
+        // Write position, normal and texture coordinates of each vertex (compact types)
+        mVerticesBuffer = createGeometryBuffer(pyramidVertices, pyramidNormals, pyramidTextureCoordinate);
 
-        mBaseNoColorBuffer = ByteBuffer.allocateDirect(squareNoColor.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mBaseNoColorBuffer.put(squareNoColor).position(0);
+        // Colors stored as normalized unsigned bytes
+        mNoColorBuffer = createColorBuffer(pyramidNoColor);
+        mColorBuffer = createColorBuffer(pyramidColor);
+        mColorGradientBuffer = createColorBuffer(pyramidColorGradient);
 
-        mBaseDrawOrderBuffer = ByteBuffer.allocateDirect(squareDrawOrder.length * 2)
-                .order(ByteOrder.nativeOrder()).asShortBuffer();
-        mBaseDrawOrderBuffer.put(squareDrawOrder).position(0);
+        mDrawOrderBuffer = new IndexBuffer(pyramidDrawOrder);
 
         mPyramid = new Pyramid();
-    }
-
-    /**
-     * Update vertices index (loop)
-     */
-    private void updateVerticesIndex() {
-        if (isStarted()) {
-            if (ismKineticEnable() || mVerticesIndex != 0) {
-                mVerticesIndex++;
-                if (mVerticesIndex >= VERTICES_ARRAY_SIZE) {
-                    mVerticesIndex = 0;
-                }
-            }
-        }
+        mPyramidBase = new Pyramid();
     }
 
     @Override
     public void setTextureState(boolean state) {
-        if (mPyramid != null) {
-            mPyramid.setTextureState(state);
-        }
+        // Program variant selected at the next frame
         mTextureEnabled = state;
     }
 
     @Override
     public void setLightState(boolean state) {
-        if (mPyramid != null) {
-            mPyramid.setLightState(state);
-        }
+        // Program variant selected at the next frame
         mLightEnabled = state;
     }
 
     @Override
     public void cancelRendering() {
-        GLES20.glDetachShader(mProgramHandle, mVertexShaderHandle);
-        GLES20.glDeleteShader(mVertexShaderHandle);
-
-        GLES20.glDetachShader(mProgramHandle, mFragmentShaderHandle);
-        GLES20.glDeleteShader(mFragmentShaderHandle);
-
-        GLES20.glDeleteProgram(mProgramHandle);
+        // Programs deleted once no more used by any renderer
+        mPrograms.release();
+        mProgramHandle = 0;
+        mBaseProgramHandle = 0;
     }
 
     @Override
@@ -342,9 +274,9 @@ public class PyramidRenderer extends Shape3DRenderer {
         // GLES20.glFrontFace(GLES20.GL_CCW);
 
         // Enable depth test (tracks vertex's distance to the viewer)
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        GlStateCache.setCapability(GLES20.GL_DEPTH_TEST, true);
         // LESS (default value), passes if vertex's distance (depth) less than stored one
-        GLES20.glDepthFunc(GLES20.GL_LESS);
+        GlStateCache.depthFunc(GLES20.GL_LESS);
 
         // Position the eye behind the origin.
         final float eyeX = 0.0f;
@@ -366,53 +298,49 @@ public class PyramidRenderer extends Shape3DRenderer {
         // view matrix. In OpenGL 2, we can keep track of these matrices separately if we choose.
         Matrix.setLookAtM(mViewMatrix, 0, eyeX, eyeY, eyeZ, lookX, lookY, lookZ, upX, upY, upZ);
 
-        // Load in the vertex shader.
-        mVertexShaderHandle = ShaderHelper.compileVertexShader(ShaderHelper.SHADER_TEXTURE_LIGHT);
-        if (mVertexShaderHandle == 0)
-        {
-            throw new RuntimeException("Error creating vertex shader.");
-        }
-
-        // Load in the fragment shader.
-        mFragmentShaderHandle = ShaderHelper.compileFragmentShader(ShaderHelper.SHADER_TEXTURE_LIGHT);
-        if (mFragmentShaderHandle == 0)
-        {
-            throw new RuntimeException("Error creating fragment shader.");
-        }
-
-        // Create and link a program object and store the handle to it.
-        mProgramHandle = ShaderHelper.linkProgram(ShaderHelper.SHADER_TEXTURE_LIGHT, mVertexShaderHandle, mFragmentShaderHandle);
-        if (mProgramHandle == 0)
-        {
-            throw new RuntimeException("Error creating program.");
-        }
+        // Programs of the previous context lost (instanced variants in stress mode).
+        mPrograms.reset(updateInstanceGrid());
+        mProgramHandle = 0;
+        mBaseProgramHandle = 0;
 
         Matrix.setIdentityM(mAccumulatedRotation, 0);
         initDelta();
 
-        mPyramid.initPyramid(mProgramHandle, mViewMatrix, mTextureEnabled, mLightEnabled);
+        updateProgram();
 
         // Tell OpenGL to use this program when rendering.
-        GLES20.glUseProgram(mProgramHandle);
+        GlStateCache.useProgram(mProgramHandle);
 
         // Prepare texture unit
-        int[] textureIds = {R.drawable.logo_st_256, R.drawable.logo_stm32mp1_256};
-
-        mTextureDataHandles = TextureHelper.loadTextures(mContext, textureIds, textureIds.length, 0.25f);
+        mTextureDataHandle = mTexture.upload();
+
+        // Upload vertices in GPU buffer objects (previous ones lost with the previous context)
+        mVerticesBuffer.upload();
+        mNoColorBuffer.upload();
+        mColorBuffer.upload();
+        mColorGradientBuffer.upload();
+        mDrawOrderBuffer.upload();
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         mPyramid.updatePyramid(width,height);
+        mPyramidBase.updatePyramid(width,height);
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
 
-        if (isStationary()) {
+        // Atlas uploaded once decoded (placeholder drawn until then)
+        boolean textureUpdated = mTexture.update();
+        mTextureDataHandle = mTexture.getHandle();
+
+        if (isStationary() && !textureUpdated) {
             return;
         }
 
+        updateProgram();
+
         GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
 
         float[] delta = getDeltaAngle();
@@ -432,20 +360,54 @@ public class PyramidRenderer extends Shape3DRenderer {
         mLightPos[2] = 0.0f;
         mLightPos[3] = 0.0f;
 
+        // Light position in eye space shared by all programs (scene uniform buffer, ES 3.0 only)
+        SceneUniforms.setLight(mViewMatrix, mLightPos);
+
+        // Kinetic displacement depending on the elapsed time (not on the frame rate)
+        mKineticOffset = getKineticOffset();
+
+        beginStressFrame();
+        mRenderQueue.begin(mViewMatrix);
+        mRenderQueue.add(mPyramidDrawer, Pyramid.PART_SIDES, mProgramHandle, mTextureDataHandle, mModelMatrix);
+        // Base program sampling no texture
+        mRenderQueue.add(mPyramidDrawer, Pyramid.PART_BASE, mBaseProgramHandle, 0, mModelMatrix);
+        mRenderQueue.submit();
+        endStressFrame();
+    }
+
+    /**
+     * Select the program variants matching the texture and light states (shared with the other
+     * renderers, compiled the first time they are used, base never textured)
+     */
+    private void updateProgram() {
+        final int baseVariant = mLightEnabled ? ShaderHelper.VARIANT_LIGHT : 0;
+        final int variant = mTextureEnabled ? (baseVariant | ShaderHelper.VARIANT_TEXTURE) : baseVariant;
+
+        int programHandle = mPrograms.get(variant);
+        if (programHandle != mProgramHandle) {
+            mProgramHandle = programHandle;
+            mPyramid.initPyramid(mProgramHandle, mViewMatrix);
+        }
+
+        programHandle = mPrograms.get(baseVariant);
+        if (programHandle != mBaseProgramHandle) {
+            mBaseProgramHandle = programHandle;
+            mPyramidBase.initPyramid(mBaseProgramHandle, mViewMatrix);
+        }
+    }
+
+    /**
+     * Get back the color buffer matching the color options
+     *
+     * @return vertex buffer (R,G,B,A)
+     */
+    private VertexBuffer getColorBuffer() {
         if (isColored()) {
             if (isColorGradient()) {
-                mPyramid.drawSide(mVerticesArray[mVerticesIndex], mNormalsBuffer, mColorGradientBuffer, mTextureCoordinateBuffer,
-                        mTextureDataHandles, mLightPos, mModelMatrix);
-            } else {
-                mPyramid.drawSide(mVerticesArray[mVerticesIndex], mNormalsBuffer, mColorBuffer, mTextureCoordinateBuffer,
-                        mTextureDataHandles, mLightPos, mModelMatrix);
+                return mColorGradientBuffer;
             }
-            mPyramid.drawBase(mBaseVerticesBuffer, mBaseNormalsBuffer, mBaseColorBuffer, mBaseDrawOrderBuffer, mLightPos, mModelMatrix);
-        } else {
-            mPyramid.drawSide(mVerticesArray[mVerticesIndex], mNormalsBuffer, mNoColorBuffer, mTextureCoordinateBuffer,
-                    mTextureDataHandles,  mLightPos, mModelMatrix);
-            mPyramid.drawBase(mBaseVerticesBuffer, mBaseNormalsBuffer, mBaseNoColorBuffer, mBaseDrawOrderBuffer, mLightPos, mModelMatrix);
+            return mColorBuffer;
         }
-        updateVerticesIndex();
+        return mNoColorBuffer;
     }
 }
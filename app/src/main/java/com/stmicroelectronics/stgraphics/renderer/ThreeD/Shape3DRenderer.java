@@ -3,8 +3,68 @@ package com.stmicroelectronics.stgraphics.renderer.ThreeD;
 import android.opengl.GLSurfaceView;
 import android.os.SystemClock;
 
+import com.stmicroelectronics.stgraphics.utils.MeshBuilder;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
+import com.stmicroelectronics.stgraphics.utils.VertexFormat;
+
 public abstract class Shape3DRenderer implements GLSurfaceView.Renderer {
 
+    /** Interleaved geometry vertex format: position (X,Y,Z), normal (X,Y,Z), texture coordinates (X,Y) */
+    final static VertexFormat GEOMETRY_FORMAT = new VertexFormat(
+            3, VertexFormat.TYPE_SHORT,
+            3, VertexFormat.TYPE_BYTE,
+            2, VertexFormat.TYPE_HALF_FLOAT);
+    final static int ATTRIBUTE_POSITION = 0;
+    final static int ATTRIBUTE_NORMAL = 1;
+    final static int ATTRIBUTE_TEXTURE_COORDINATE = 2;
+
+    /** Color vertex format (R,G,B,A), kept apart as several faces share the same geometry */
+    final static VertexFormat COLOR_FORMAT = new VertexFormat(4, VertexFormat.TYPE_UNSIGNED_BYTE);
+
+    /**
+     * Build an interleaved geometry buffer (attributes written directly in the packed buffer)
+     *
+     * @param vertices vertices coordinates (X,Y,Z)
+     * @param normals normals (X,Y,Z)
+     * @param textureCoordinates texture coordinates (X,Y)
+     * @return vertex buffer
+     */
+    static VertexBuffer createGeometryBuffer(final float[] vertices, final float[] normals,
+                                             final float[] textureCoordinates) {
+        final MeshBuilder builder = new MeshBuilder(GEOMETRY_FORMAT, vertices.length / 3);
+
+        builder.putAll(ATTRIBUTE_POSITION, vertices);
+        builder.putAll(ATTRIBUTE_NORMAL, normals);
+        builder.putAll(ATTRIBUTE_TEXTURE_COORDINATE, textureCoordinates);
+
+        return new VertexBuffer(builder);
+    }
+
+    /**
+     * Build a color buffer (colors written directly in the packed buffer)
+     *
+     * @param colors one color (R,G,B,A) per vertex
+     * @return vertex buffer
+     */
+    static VertexBuffer createColorBuffer(final float[][] colors) {
+        final MeshBuilder builder = new MeshBuilder(COLOR_FORMAT, colors.length);
+
+        for (int i = 0; i < colors.length; i++) {
+            builder.put(i, 0, colors[i][0], colors[i][1], colors[i][2], colors[i][3]);
+        }
+
+        return new VertexBuffer(builder);
+    }
+
+    /** Kinetic effect: maximum displacement along the face normal */
+    private final static float KINETIC_AMPLITUDE = 0.2f;
+
+    /** Kinetic effect: duration of one push and return cycle in ms (wall-clock time) */
+    private final static long KINETIC_PERIOD_MS = 135;
+
+    private long mKineticPhase = 0;
+    private long mKineticTime = 0;
+
     private volatile float[] mDeltaAngle = new float[2];
 
     private final static int MAX_FIXED_ANGLE_INSTANCES = 2;
@@ -12,6 +72,10 @@ public abstract class Shape3DRenderer implements GLSurfaceView.Renderer {
     private final float[] mSpeedFixed = new float[] {0.0f, 0.0f};
     private final long[] mStoreTimeFixedSpeed = new long[MAX_FIXED_ANGLE_INSTANCES];
 
+    /** Stress mode: number of instances drawn (0 if disabled) and their grid */
+    private volatile int mStressInstances = 0;
+    private InstanceGrid mInstanceGrid;
+
     private boolean mPause = false;
     private boolean mColored = false;
     private boolean mColorGradientEnabled = false;
@@ -119,6 +183,82 @@ public abstract class Shape3DRenderer implements GLSurfaceView.Renderer {
         return mKineticEnable;
     }
 
+    /**
+     * Get the kinetic displacement for the frame to draw (triangle wave driven by the elapsed time,
+     * current cycle completed once disabled, frozen while paused)
+     * @return displacement along the face normal (0 if no kinetic effect)
+     */
+    float getKineticOffset() {
+        long time = SystemClock.uptimeMillis();
+        long elapsed = (mKineticTime == 0) ? 0 : time - mKineticTime;
+        mKineticTime = time;
+
+        if (isStarted() && (mKineticEnable || (mKineticPhase != 0))) {
+            long phase = mKineticPhase + elapsed;
+            if (!mKineticEnable && (phase >= KINETIC_PERIOD_MS)) {
+                phase = 0;
+            }
+            mKineticPhase = phase % KINETIC_PERIOD_MS;
+        }
+
+        float cycle = (float) mKineticPhase / KINETIC_PERIOD_MS;
+        return KINETIC_AMPLITUDE * (1.0f - Math.abs(2.0f * cycle - 1.0f));
+    }
+
+    /**
+     * Enable/Disable the stress mode (taken into account the next time the surface is created)
+     * @param count number of shape instances drawn in a grid (1 to 10000, 0 to disable)
+     */
+    public void setStressInstances(int count) {
+        mStressInstances = Math.max(0, Math.min(count, InstanceGrid.MAX_INSTANCES));
+    }
+
+    /**
+     * Update the stress mode instance grid (shall be called in GL thread when the surface is
+     * created, before the vertex shader is compiled)
+     * @return defines selecting the vertex shader variant ("" if stress mode disabled)
+     */
+    String updateInstanceGrid() {
+        final int count = mStressInstances;
+        if (count == 0) {
+            mInstanceGrid = null;
+            return "";
+        }
+        if ((mInstanceGrid == null) || (mInstanceGrid.getCount() != count)) {
+            mInstanceGrid = new InstanceGrid(count);
+        }
+        mInstanceGrid.onSurfaceCreated();
+        return mInstanceGrid.getShaderDefines();
+    }
+
+    /**
+     * Get back the stress mode instance grid
+     * @return instance grid (null if stress mode disabled)
+     */
+    InstanceGrid getInstanceGrid() {
+        return mInstanceGrid;
+    }
+
+    /**
+     * Start drawing a frame (stress mode instance rotations)
+     */
+    void beginStressFrame() {
+        if (mInstanceGrid != null) {
+            mInstanceGrid.beginFrame();
+        }
+    }
+
+    /**
+     * End of the frame drawn (stress mode statistics)
+     */
+    void endStressFrame() {
+        if (mInstanceGrid != null) {
+            mInstanceGrid.endFrame();
+        }
+    }
+
+
+
     /**
      * Enable/Disable textures (abstract)
      * @param state new texture state
@@ -132,7 +272,7 @@ public abstract class Shape3DRenderer implements GLSurfaceView.Renderer {
     public abstract void setLightState(boolean state);
 
     /**
-     * Cancel rendering (detach shader and program)
+     * Cancel rendering (release the program, deleted once no more used by any renderer)
      */
     public abstract void cancelRendering();
 
@@ -150,10 +290,11 @@ public abstract class Shape3DRenderer implements GLSurfaceView.Renderer {
 
     /**
      * Check if the shape is moving or not
-     * @return true if the shape is stationary
+     * @return true if the shape is stationary (never in stress mode, instances always rotating)
      */
     boolean isStationary() {
-        return (Math.abs(mDeltaAngle[0]) < 0.1f) && (Math.abs(mDeltaAngle[1]) < 0.1f);
+        return (mInstanceGrid == null)
+                && (Math.abs(mDeltaAngle[0]) < 0.1f) && (Math.abs(mDeltaAngle[1]) < 0.1f);
     }
 
     /**
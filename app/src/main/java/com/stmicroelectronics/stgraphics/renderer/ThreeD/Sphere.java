@@ -3,18 +3,30 @@ package com.stmicroelectronics.stgraphics.renderer.ThreeD;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 
-import java.nio.FloatBuffer;
+import com.stmicroelectronics.stgraphics.utils.GlStateCache;
+import com.stmicroelectronics.stgraphics.utils.IndexBuffer;
+import com.stmicroelectronics.stgraphics.utils.ShaderHelper;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
 
 /**
  * Draw Sphere (GLES 2.0)
  */
 class Sphere {
-    private boolean mTextureEnabled;
-    private boolean mLightEnabled;
+
+    /** Color modes (color computed in shader from the vertex latitude) */
+    final static int COLOR_MODE_FLAT = 0;
+    final static int COLOR_MODE_BANDS = 1;
+    final static int COLOR_MODE_GRADIENT = 2;
+
+    /** Number of colors in the palette */
+    final static int PALETTE_SIZE = 3;
 
     /** Allocate storage for the final combined matrix. This will be passed into the shader program. */
     private final float[] mMVPMatrix = new float[16];
 
+    /** This will be used to record the attributes setup (vertex array object of the mesh). */
+    private int mProgramHandle;
+
     /** This will be used to pass in model the transformation matrix. */
     private int mMVMatrixHandle;
 
@@ -27,25 +39,26 @@ class Sphere {
     /** This will be used to pass in model the normal information. */
     private int mNormalHandle;
 
-    /** This will be used to pass in model the color information. */
-    private int mColorHandle;
+    /** This will be used to pass in model the color mode information. */
+    private int mColorModeUniformHandle;
+
+    /** This will be used to pass in model the palette information. */
+    private int mPaletteUniformHandle;
 
     /** This will be used to pass in model the texture information. */
     private int mTextureUniformHandle;
 
-    /** This will be used to pass in model the texture state information. */
-    private int mTextStateUniformHandle;
-
     /** This will be used to pass in model the texture coordinate information. */
     private int mTextureCoordinateHandle;
 
+    /** This will be used to pass in model the texture area in the atlas. */
+    private int mTextureRectUniformHandle;
+
     /** This will be used to pass in model the light coordinate information. */
     private int mLightPosUniformHandle;
 
-    /** This will be used to pass in model the light state information. */
-    private int mLightStateUniformHandle;
-
     private final float[] mProjectionMatrix = new float[16];
+    private int mViewportHeight;
     private float[] mViewMatrix = new float[16];
 
     private final float[] mLightPos = new float[4];
@@ -53,28 +66,29 @@ class Sphere {
     /**
      * Initialize Sphere parameters
      *
-     * @param programHandle linked vertex + fragment shader program
+     * @param programHandle linked vertex + fragment shader program (variant matching the texture
+     *                      and light states, unused handles set to -1)
      * @param viewMatrix view matrix
      */
-    void initSphere(int programHandle, float[] viewMatrix, boolean texture, boolean light) {
+    void initSphere(int programHandle, float[] viewMatrix) {
         // Set program handles. These will later be used to pass in values to the program.
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVPMatrix");
-        mMVMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVMatrix");
+        mProgramHandle = programHandle;
+        mMVPMatrixHandle = ShaderHelper.getUniformLocation(programHandle, "u_MVPMatrix");
+        mMVMatrixHandle = ShaderHelper.getUniformLocation(programHandle, "u_MVMatrix");
 
-        mPositionHandle = GLES20.glGetAttribLocation(programHandle, "a_Position");
-        mNormalHandle = GLES20.glGetAttribLocation(programHandle, "a_Normal");
-        mColorHandle = GLES20.glGetAttribLocation(programHandle, "a_Color");
+        mPositionHandle = ShaderHelper.getAttribLocation(programHandle, "a_Position");
+        mNormalHandle = ShaderHelper.getAttribLocation(programHandle, "a_Normal");
 
-        mTextureUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_Texture");
-        mTextStateUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_TextState");
-        mTextureCoordinateHandle = GLES20.glGetAttribLocation(programHandle, "a_TexCoordinate");
+        mColorModeUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_ColorMode");
+        mPaletteUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_Palette");
 
-        mLightPosUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_LightPos");
-        mLightStateUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_LightState");
+        mTextureUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_Texture");
+        mTextureCoordinateHandle = ShaderHelper.getAttribLocation(programHandle, "a_TexCoordinate");
+        mTextureRectUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_TextureRect");
+
+        mLightPosUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_LightPos");
 
         mViewMatrix = viewMatrix;
-        mTextureEnabled = texture;
-        mLightEnabled = light;
     }
 
     /**
@@ -88,6 +102,7 @@ class Sphere {
         GLES20.glViewport(0, 0, width, height);
 
         final float ratio = (float) width / height;
+        mViewportHeight = height;
 
         // Create a new perspective projection matrix. The height will stay the same
         // while the width will vary as per aspect ratio.
@@ -112,110 +127,99 @@ class Sphere {
     }
 
     /**
-     * Give Texture state (used to enable texture in shader)
+     * Get back the radius on screen of the unit sphere scaled by the model matrix
      *
-     * @param state The texture state (true = texture enabled)
+     * @param modelMatrix The model matrix (scale = sphere radius).
+     * @return radius in pixels
      */
-    void setTextureState(boolean state) {
-        mTextureEnabled = state;
-    }
-
-    /**
-     * Give light state (used to enable light in shader)
-     *
-     * @param state The light state (true = texture enabled)
-     */
-    void setLightState(boolean state) {
-        mLightEnabled = state;
+    float getProjectedRadius(float[] modelMatrix) {
+        // Largest axis scale of the model matrix (view matrix has no scale)
+        float scale = Math.max(Matrix.length(modelMatrix[0], modelMatrix[1], modelMatrix[2]),
+                Math.max(Matrix.length(modelMatrix[4], modelMatrix[5], modelMatrix[6]),
+                        Matrix.length(modelMatrix[8], modelMatrix[9], modelMatrix[10])));
+
+        // Orthogonal projection, 2.0 units along the viewport height
+        return scale * mViewportHeight / 2.0f;
     }
 
     /**
      * Draws a sphere from the given vertex data.
      *
-     * @param aVerticesBuffer The buffer containing vertices and associated colors.
-     * @param aTextureCoordinateBuffer The buffer containing the texture coordinates data.
-     * @param textureDataHandle The handle associated with the texture handle.
+     * @param aLevels The sphere tessellations (vertices, normals, texture coordinates and draw order).
+     * @param level The selected tessellation.
+     * @param textureDataHandle The handle associated with the texture atlas.
+     * @param textureRect The area of the selected texture in the atlas (U, V, width, height).
+     * @param palette The palette colors (PALETTE_SIZE RGBA colors).
+     * @param colorMode The color mode (COLOR_MODE_FLAT, COLOR_MODE_BANDS or COLOR_MODE_GRADIENT).
+     * @param instances The instances drawn in stress mode (null to draw one sphere).
      * @param lightPos The light position in eye space.
      * @param modelMatrix The model matrix (rotation data).
-     * @param count The number of vertices which shall be drawn.
-     * @param index The selected texture.
      */
-    void draw(final FloatBuffer aVerticesBuffer, final FloatBuffer aTextureCoordinateBuffer,
-              final int[] textureDataHandle, float[] lightPos, float[] modelMatrix,
-              int count, int index){
-
-        int bytesPerFloat = 4;
-
-        // Pass in the position information
-        aVerticesBuffer.position(0);
-        /* Size of the position data in elements. */
-        GLES20.glVertexAttribPointer(mPositionHandle, 3, GLES20.GL_FLOAT, false,
-                10 * bytesPerFloat, aVerticesBuffer);
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-
-        // Pass in the normal information
-        aVerticesBuffer.position(3);
-        GLES20.glVertexAttribPointer(mNormalHandle, 3, GLES20.GL_FLOAT, false,
-                10 * bytesPerFloat, aVerticesBuffer);
-        GLES20.glEnableVertexAttribArray(mNormalHandle);
-
-        // Pass in the color information
-        aVerticesBuffer.position(6);
-        GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false,
-                10 * bytesPerFloat, aVerticesBuffer);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
-
-        // Pass in the texture coordinates (X,Y)
-        aTextureCoordinateBuffer.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, 2, GLES20.GL_FLOAT, false,
-                0, aTextureCoordinateBuffer);
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-
-        // Pass in the texture state (on or off)
-        if (mTextureEnabled) {
-            GLES20.glUniform1i(mTextStateUniformHandle, 1);
-        } else {
-            GLES20.glUniform1i(mTextStateUniformHandle, 0);
+    void draw(final SphereLevelOfDetail aLevels, int level,
+              int textureDataHandle, final float[] textureRect, final float[] palette, int colorMode,
+              final InstanceGrid instances, float[] lightPos, float[] modelMatrix){
+
+        // Stress mode: meshes replicated for pseudo-instancing
+        VertexBuffer vertices = aLevels.getVertices(level);
+        VertexBuffer textureCoordinates = aLevels.getTextureCoordinates(level);
+        IndexBuffer drawOrder = aLevels.getDrawOrder(level);
+        if (instances != null) {
+            vertices = instances.getVertices(vertices);
+            textureCoordinates = instances.getVertices(textureCoordinates);
+            drawOrder = instances.getDrawOrder(drawOrder, aLevels.getVertexCount(level));
         }
 
-        // Set the active texture unit to texture unit 0.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        // Bind the texture to this unit.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureDataHandle[index]);
-        // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
-        GLES20.glUniform1i(mTextureUniformHandle, 0);
-
-        if (mLightEnabled) {
-            if (mTextureEnabled) {
-                // Light not taken into account in this condition
-                GLES20.glUniform1i(mLightStateUniformHandle, 0);
-            } else {
-                GLES20.glUniform1i(mLightStateUniformHandle, 1);
-            }
-        } else {
-            GLES20.glUniform1i(mLightStateUniformHandle, 0);
+        // Attributes setup recorded once per tessellation in the vertex array object of the vertices
+        // (ES 3.0)
+        if (!vertices.getVertexArray().bind(mProgramHandle)) {
+            // Pass in the position information (XYZ + normal XYZ interleaved)
+            vertices.bindAttribute(mPositionHandle, SphereLevelOfDetail.ATTRIBUTE_POSITION);
+
+            // Pass in the normal information
+            vertices.bindAttribute(mNormalHandle, SphereLevelOfDetail.ATTRIBUTE_NORMAL);
+
+            // Pass in the texture coordinates (X,Y)
+            textureCoordinates.bindAttribute(mTextureCoordinateHandle, 0);
         }
 
-        // This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
-        // (which currently contains model * view).
-        Matrix.multiplyMV(mLightPos, 0, mViewMatrix, 0, lightPos, 0);
+        // Pass in the color information (computed in shader from the latitude)
+        GlStateCache.uniform1i(mColorModeUniformHandle, colorMode);
+        GlStateCache.uniform4fv(mPaletteUniformHandle, PALETTE_SIZE, palette, 0);
 
-        // Pass in the light position in eye space.
-        GLES20.glUniform3f(mLightPosUniformHandle, mLightPos[0], mLightPos[1], mLightPos[2]);
+        // Pass in the selected texture area in the atlas (texture coordinates shared by all textures)
+        GlStateCache.uniform4fv(mTextureRectUniformHandle, 1, textureRect, 0);
+
+        // Bind the texture to this unit.
+        GlStateCache.bindTexture(0, textureDataHandle);
+        // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
+        GlStateCache.uniform1i(mTextureUniformHandle, 0);
+
+        // Pass in the light position in eye space (shared by all programs through the scene
+        // uniform buffer on ES 3.0, see SceneUniforms).
+        if (mLightPosUniformHandle >= 0) {
+            Matrix.multiplyMV(mLightPos, 0, mViewMatrix, 0, lightPos, 0);
+            GlStateCache.uniform3f(mLightPosUniformHandle, mLightPos[0], mLightPos[1], mLightPos[2]);
+        }
 
         // This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
         // (which currently contains model * view).
         Matrix.multiplyMM(mMVPMatrix, 0, mViewMatrix, 0, modelMatrix, 0);
 
-        GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mMVPMatrix, 0);
+        GlStateCache.uniformMatrix4fv(mMVMatrixHandle, mMVPMatrix, 0);
 
         // This multiplies the modelview matrix by the projection matrix, and stores the result in the MVP matrix
         // (which now contains model * view * projection).
         Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVPMatrix, 0);
 
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mMVPMatrix, 0);
+        GlStateCache.uniformMatrix4fv(mMVPMatrixHandle, mMVPMatrix, 0);
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP,0, count);
+        // Draw following order buffer (each vertex shared between adjacent triangles)
+        if (instances != null) {
+            instances.draw(mProgramHandle, drawOrder, aLevels.getVertexCount(level), GLES20.GL_TRIANGLES,
+                    aLevels.getIndexCount(level), 0);
+        } else {
+            drawOrder.draw(GLES20.GL_TRIANGLES, aLevels.getIndexCount(level));
+        }
     }
 
 }
@@ -0,0 +1,325 @@
+package com.stmicroelectronics.stgraphics.renderer.ThreeD;
+
+import android.content.Context;
+
+import com.stmicroelectronics.stgraphics.geometry.MeshFile;
+import com.stmicroelectronics.stgraphics.geometry.SphereGeometry;
+import com.stmicroelectronics.stgraphics.utils.BufferHelper;
+import com.stmicroelectronics.stgraphics.utils.GlLoader;
+import com.stmicroelectronics.stgraphics.utils.IndexBuffer;
+import com.stmicroelectronics.stgraphics.utils.MeshHelper;
+import com.stmicroelectronics.stgraphics.utils.TaskHelper;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
+import com.stmicroelectronics.stgraphics.utils.VertexFormat;
+
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import timber.log.Timber;
+
+/**
+ * Chain of pre-generated unit sphere tessellations (level 0 = finest), the level is selected
+ * depending on the sphere size on screen.
+ * Levels are mapped from the meshes baked at build time and used as is (already packed). If not
+ * available, only the coarsest level is built when created, it is used as placeholder until the other levels are built in background
+ * and uploaded by the loader thread (see GlLoader).
+ */
+class SphereLevelOfDetail {
+
+    /** Angle steps between sphere points in degrees (one tessellation per level, finest first) */
+    final static float[] ANGLE_STEPS = SphereGeometry.LEVEL_ANGLE_STEPS;
+
+    /**
+     * Vertex format: position (X,Y,Z) and normal (X,Y,Z), unit sphere so normalized types fit (layout
+     * written by SphereGeometry)
+     */
+    final static VertexFormat VERTEX_FORMAT = new VertexFormat(
+            3, VertexFormat.TYPE_SHORT,
+            3, VertexFormat.TYPE_BYTE);
+    final static int ATTRIBUTE_POSITION = 0;
+    final static int ATTRIBUTE_NORMAL = 1;
+
+    /** Texture coordinates format (X,Y), layout written by SphereGeometry */
+    final static VertexFormat TEXTURE_COORDINATE_FORMAT = new VertexFormat(2, VertexFormat.TYPE_HALF_FLOAT);
+
+    /** Maximum distance in pixels between the tessellated silhouette and the perfect one */
+    private final static float PIXEL_TOLERANCE = 0.25f;
+
+    /** Projected radius margin required before switching to a coarser level (avoid popping) */
+    private final static float HYSTERESIS = 0.1f;
+
+    /** Level built synchronously and drawn until the other levels are available */
+    private final static int PLACEHOLDER_LEVEL = ANGLE_STEPS.length - 1;
+
+    private final VertexBuffer[] mVertices = new VertexBuffer[ANGLE_STEPS.length];
+    private final VertexBuffer[] mTextureCoordinates = new VertexBuffer[ANGLE_STEPS.length];
+    private final IndexBuffer[] mDrawOrders = new IndexBuffer[ANGLE_STEPS.length];
+
+    private final int[] mVertexCounts = new int[ANGLE_STEPS.length];
+    private final int[] mIndexCounts = new int[ANGLE_STEPS.length];
+
+    /** Silhouette error of each level for a projected radius of 1 pixel */
+    private final float[] mErrorFactors = new float[ANGLE_STEPS.length];
+
+    /** Levels built in background (null once taken into account) */
+    private Future<SphereGeometry[]> mPendingLevels;
+
+    /** Levels whose buffers are uploaded in the current context (can be drawn) */
+    private final boolean[] mUploaded = new boolean[ANGLE_STEPS.length];
+
+    /** Upload of the levels built in background by the loader thread (null if none pending) */
+    private GlLoader.Upload mPendingUpload;
+    private boolean[] mPendingUploadLevels;
+
+    /**
+     * Map the baked levels, levels not available are built in background (unit sphere, radius
+     * given by the model matrix scale)
+     *
+     * @param context application context (assets access)
+     */
+    SphereLevelOfDetail(Context context) {
+        boolean missingLevels = false;
+
+        for (int i = 0; i < ANGLE_STEPS.length; i++) {
+            // distance between the circle and the middle of a chord (angle step)
+            mErrorFactors[i] = (float) (1.0 - Math.cos(Math.toRadians(ANGLE_STEPS[i] / 2.0)));
+
+            MeshFile mesh = MeshHelper.loadMesh(context, SphereGeometry.getAssetName(ANGLE_STEPS[i]));
+            if (mesh != null) {
+                try {
+                    setLevel(i, new SphereGeometry(ANGLE_STEPS[i], mesh));
+                } catch (IllegalArgumentException e) {
+                    Timber.w("Mesh not used: %s", e.getMessage());
+                }
+            }
+            missingLevels |= !isLevelAvailable(i);
+        }
+
+        if (!missingLevels) {
+            return;
+        }
+
+        if (!isLevelAvailable(PLACEHOLDER_LEVEL)) {
+            setLevel(PLACEHOLDER_LEVEL, new SphereGeometry(ANGLE_STEPS[PLACEHOLDER_LEVEL]));
+        }
+
+        final boolean[] buildRequired = new boolean[ANGLE_STEPS.length];
+        for (int i = 0; i < ANGLE_STEPS.length; i++) {
+            buildRequired[i] = !isLevelAvailable(i);
+        }
+
+        mPendingLevels = TaskHelper.getBackgroundExecutor().submit(new Callable<SphereGeometry[]>() {
+            @Override
+            public SphereGeometry[] call() {
+                SphereGeometry[] spheres = new SphereGeometry[ANGLE_STEPS.length];
+                for (int i = 0; i < ANGLE_STEPS.length; i++) {
+                    if (buildRequired[i]) {
+                        // latitude rings generated in parallel, packed in this thread
+                        spheres[i] = new SphereGeometry(ANGLE_STEPS[i], TaskHelper.getComputePool());
+                    }
+                }
+                return spheres;
+            }
+        });
+    }
+
+    private void setLevel(int level, SphereGeometry sphere) {
+        mVertices[level] = new VertexBuffer(sphere.getVertices(), VERTEX_FORMAT);
+        mTextureCoordinates[level] = new VertexBuffer(sphere.getTextureCoordinates(), TEXTURE_COORDINATE_FORMAT);
+        if (sphere.isShortIndexed()) {
+            mDrawOrders[level] = new IndexBuffer((ShortBuffer) sphere.getIndices());
+        } else {
+            mDrawOrders[level] = new IndexBuffer((IntBuffer) sphere.getIndices());
+        }
+
+        mVertexCounts[level] = sphere.getVertexCount();
+        mIndexCounts[level] = sphere.getIndexCount();
+    }
+
+    private boolean isLevelAvailable(int level) {
+        return mVertices[level] != null;
+    }
+
+    private void checkLevel(int level) {
+        // Check 32 bits indices support (required only for very thin angle steps)
+        if (mDrawOrders[level].isIntIndexed() && !BufferHelper.isElementIndexUintSupported()) {
+            throw new RuntimeException("Error unsigned int indices not supported.");
+        }
+    }
+
+    private void uploadLevel(int level) {
+        checkLevel(level);
+        mVertices[level].upload();
+        mTextureCoordinates[level].upload();
+        mDrawOrders[level].upload();
+        mUploaded[level] = true;
+    }
+
+    /**
+     * Upload the available levels in GPU buffer objects (shall be called in GL thread each time
+     * the surface is created, previous handles are lost with the previous context)
+     */
+    void upload() {
+        // Pending upload lost with the previous context
+        mPendingUpload = null;
+        mPendingUploadLevels = null;
+
+        for (int i = 0; i < ANGLE_STEPS.length; i++) {
+            mUploaded[i] = false;
+            if (isLevelAvailable(i)) {
+                uploadLevel(i);
+            }
+        }
+    }
+
+    /**
+     * Take into account the levels built in background once available (shall be called in GL
+     * thread, after upload())
+     *
+     * @return true if new levels are available (redraw required)
+     */
+    boolean update() {
+        if (mPendingUpload != null) {
+            return commitLevels();
+        }
+
+        if ((mPendingLevels == null) || !mPendingLevels.isDone()) {
+            return false;
+        }
+
+        try {
+            SphereGeometry[] spheres = mPendingLevels.get();
+            final boolean[] levels = new boolean[spheres.length];
+            for (int i = 0; i < spheres.length; i++) {
+                if (spheres[i] != null) {
+                    setLevel(i, spheres[i]);
+                    checkLevel(i);
+                    levels[i] = true;
+                }
+            }
+            mPendingLevels = null;
+
+            if (GlLoader.isActive()) {
+                // Buffers uploaded by the loader thread, available levels drawn until then
+                mPendingUploadLevels = levels;
+                mPendingUpload = GlLoader.submit(new GlLoader.Upload() {
+                    @Override
+                    protected void load() {
+                        for (int i = 0; i < levels.length; i++) {
+                            if (levels[i]) {
+                                mVertices[i].uploadShared();
+                                mTextureCoordinates[i].uploadShared();
+                                mDrawOrders[i].uploadShared();
+                            }
+                        }
+                    }
+
+                    @Override
+                    protected void discard() {
+                        // Levels already uploaded before the failure, uploaded again in GL thread
+                        for (int i = 0; i < levels.length; i++) {
+                            if (levels[i]) {
+                                mVertices[i].discardUpload();
+                                mTextureCoordinates[i].discardUpload();
+                                mDrawOrders[i].discardUpload();
+                            }
+                        }
+                    }
+                });
+                return false;
+            }
+
+            for (int i = 0; i < levels.length; i++) {
+                if (levels[i]) {
+                    uploadLevel(i);
+                }
+            }
+            Timber.d("Sphere levels of detail available");
+        } catch (ExecutionException | InterruptedException e) {
+            Timber.e(e, "Sphere levels of detail not built, placeholder kept");
+        }
+        mPendingLevels = null;
+        return true;
+    }
+
+    /**
+     * Use the levels uploaded by the loader thread once the upload is complete (uploaded in GL
+     * thread if it failed)
+     *
+     * @return true if new levels are available (redraw required)
+     */
+    private boolean commitLevels() {
+        if (!mPendingUpload.isDone()) {
+            return false;
+        }
+
+        for (int i = 0; i < mPendingUploadLevels.length; i++) {
+            if (!mPendingUploadLevels[i]) {
+                continue;
+            }
+            if (mPendingUpload.isFailed()) {
+                uploadLevel(i);
+            } else {
+                mVertices[i].commitUpload();
+                mTextureCoordinates[i].commitUpload();
+                mDrawOrders[i].commitUpload();
+                mUploaded[i] = true;
+            }
+        }
+        Timber.d("Sphere levels of detail available");
+
+        mPendingUpload = null;
+        mPendingUploadLevels = null;
+        return true;
+    }
+
+    /**
+     * Select the coarsest level which keeps the silhouette error under the pixel tolerance
+     *
+     * @param currentLevel level used for the previous frame
+     * @param projectedRadius sphere radius on screen in pixels
+     * @return level which shall be used for this frame
+     */
+    int selectLevel(int currentLevel, float projectedRadius) {
+        int level = 0;
+        while ((level + 1 < ANGLE_STEPS.length)
+                && (mErrorFactors[level + 1] * projectedRadius <= PIXEL_TOLERANCE)) {
+            level++;
+        }
+
+        // Going to a coarser level requires the radius to be clearly under the switch point
+        while ((level > currentLevel)
+                && (mErrorFactors[level] * projectedRadius * (1.0f + HYSTERESIS) > PIXEL_TOLERANCE)) {
+            level--;
+        }
+
+        // Closest coarser level if not yet built or uploaded
+        while (!mUploaded[level]) {
+            level++;
+        }
+        return level;
+    }
+
+    VertexBuffer getVertices(int level) {
+        return mVertices[level];
+    }
+
+    VertexBuffer getTextureCoordinates(int level) {
+        return mTextureCoordinates[level];
+    }
+
+    IndexBuffer getDrawOrder(int level) {
+        return mDrawOrders[level];
+    }
+
+    int getVertexCount(int level) {
+        return mVertexCounts[level];
+    }
+
+    int getIndexCount(int level) {
+        return mIndexCounts[level];
+    }
+}
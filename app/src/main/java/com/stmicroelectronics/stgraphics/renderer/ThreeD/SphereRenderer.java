@@ -5,14 +5,16 @@ import android.opengl.GLES20;
 import android.opengl.Matrix;
 
 import com.stmicroelectronics.stgraphics.R;
+import com.stmicroelectronics.stgraphics.texture.TextureAssets;
+import com.stmicroelectronics.stgraphics.utils.AsyncTexture;
+import com.stmicroelectronics.stgraphics.utils.GlStateCache;
+import com.stmicroelectronics.stgraphics.utils.ProgramVariants;
+import com.stmicroelectronics.stgraphics.utils.RenderQueue;
+import com.stmicroelectronics.stgraphics.utils.SceneUniforms;
 import com.stmicroelectronics.stgraphics.utils.ShaderHelper;
-import com.stmicroelectronics.stgraphics.utils.TextureHelper;
+import com.stmicroelectronics.stgraphics.utils.TextureAtlas;
 import com.stmicroelectronics.stgraphics.utils.Utility;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -23,10 +25,6 @@ import timber.log.Timber;
  */
 public class SphereRenderer extends Shape3DRenderer {
 
-    // Angle step between sphere points in degrees
-    private final static float SPHERE_ANGLE_STEP = 2f;
-    private final static float SATELITE_ANGLE_STEP = 5f;
-
     // Sphere radius (normalized)
     private final static float SPHERE_RADIUS = 0.6f;
     private final static float SATELITE_RADIUS = 0.1f;
@@ -34,20 +32,15 @@ public class SphereRenderer extends Shape3DRenderer {
     private final static float SATELITE_ORBIT_RADIUS = 0.85f;
     private final static float SATELITE_ORBIT_ANGLE = 35.0f;
 
-    // How many bytes per float
-    private final static int NB_BYTES_PER_FLOAT = 4;
-
-    /** Store our model data in a float buffer */
-    private final FloatBuffer mVerticesNoColor;
-    private final FloatBuffer mVerticesColor;
-    private final FloatBuffer mVerticesColorGradient;
-
-    private final FloatBuffer mVerticesSateliteNoColor;
-    private final FloatBuffer mVerticesSateliteColorGradient;
-    private final FloatBuffer mVerticesSateliteColor;
+    /**
+     * Store our model data (unit sphere tessellations shared by the sphere and the satelite,
+     * colors computed in shader)
+     */
+    private final SphereLevelOfDetail mLevels;
 
-    private final FloatBuffer mTextureCoordinateBuffer;
-    private final FloatBuffer mTextureSateliteCoordinateBuffer;
+    /** Levels of detail selected for the last frame */
+    private int mSphereLevel = 0;
+    private int mSateliteLevel = 0;
 
     /**
      * Store the view matrix. This can be thought of as our camera. This matrix transforms world space to eye space;
@@ -73,21 +66,50 @@ public class SphereRenderer extends Shape3DRenderer {
     private final float[] mLightPos = new float[4];
 
     /** This is a handle to our texture data. */
-    private int[] mTextureDataHandles;
+    private int mTextureDataHandle;
+
+    /** Planet and satelite textures packed in one atlas (no texture switch between both draws) */
+    private final TextureAtlas mTextureAtlas;
 
-    /** This is a handles to program and shader. */
+    /** Atlas decoded in background (placeholder until available) */
+    private final AsyncTexture mTexture;
+    private final float[][] mTextureRects;
+
+    /** Program variants used (texture and light states) and program of the current one */
+    private final ProgramVariants mPrograms = new ProgramVariants(ShaderHelper.SHADER_SPHERE);
     private int mProgramHandle;
-    private int mVertexShaderHandle;
-    private int mFragmentShaderHandle;
 
-    private final int mNbVertices;
-    private final int mNbVerticesSatelite;
+    /** Sphere and satelite queued as separate draw items (sorted front to back before being drawn) */
+    private final static int PART_SPHERE = 0;
+    private final static int PART_SATELITE = 1;
+    private final RenderQueue mRenderQueue = new RenderQueue(2);
+
+    /** Level, palette and color mode of each part for the frame to draw */
+    private final int[] mPartLevels = new int[2];
+    private final float[][] mPartPalettes = new float[2][];
+    private final int[] mPartColorModes = new int[2];
+
+    private final RenderQueue.Drawer mSphereDrawer = new RenderQueue.Drawer() {
+        @Override
+        public void draw(RenderQueue.Item item) {
+            int part = item.getPart();
+            mSphere.draw(mLevels, mPartLevels[part], mTextureDataHandle, mTextureRects[part],
+                    mPartPalettes[part], mPartColorModes[part], getInstanceGrid(), mLightPos,
+                    item.getModelMatrix());
+        }
+    };
+
+    /** Store the palettes used to color the spheres (RGBA x PALETTE_SIZE) */
+    private final float[] mPaletteNoColor;
+    private final float[] mPaletteColor;
+    private final float[] mPaletteSateliteColor;
+    private final float[] mPaletteSateliteColorGradient;
 
     private final Context mContext;
     private Sphere mSphere;
 
-    private boolean mTextureEnabled = false;
-    private boolean mLightEnabled = false;
+    private volatile boolean mTextureEnabled = false;
+    private volatile boolean mLightEnabled = false;
 
     public SphereRenderer(Context context) {
         mContext = context;
@@ -100,239 +122,58 @@ public class SphereRenderer extends Shape3DRenderer {
         color2 = Utility.normalizeColor(mContext.getColor(R.color.colorShape3));
         color3 = Utility.normalizeColor(mContext.getColor(R.color.colorShape4));
 
-        // Calculate number of vertices required
-        mNbVertices = 2 * Math.round((180 / SPHERE_ANGLE_STEP) * ((360 / SPHERE_ANGLE_STEP) + 1));
-        mNbVerticesSatelite = 2 * Math.round((180 / SATELITE_ANGLE_STEP) * ((360 / SATELITE_ANGLE_STEP) + 1));
-
-        // add non colored sphere in float buffer (XYZ + RGBA)
-        mVerticesNoColor = getSphereVertices(colorLight, colorLight, colorLight, false,1, mNbVertices, SPHERE_ANGLE_STEP, SPHERE_RADIUS);
-
-        // add colored sphere in float buffer (XYZ + RGBA)
-        mVerticesColor = getSphereVertices(color1, color2, color3, false, 3, mNbVertices, SPHERE_ANGLE_STEP, SPHERE_RADIUS);
-
-        // add non colored sphere in float buffer (XYZ + RGBA)
-        mVerticesColorGradient = getSphereVertices(color1, color2, color3, true, 3, mNbVertices, SPHERE_ANGLE_STEP,  SPHERE_RADIUS);
-
-        // add non colored sphere in float buffer (XYZ + RGBA)
-        mVerticesSateliteNoColor = getSphereVertices(colorLight, colorLight, colorLight,false, 1, mNbVerticesSatelite, SATELITE_ANGLE_STEP, SATELITE_RADIUS);
-
-        // add non gradient colored sphere in float buffer (XYZ + RGBA)
-        mVerticesSateliteColor = getSphereVertices(color2, color3, color2,false, 1, mNbVerticesSatelite, SATELITE_ANGLE_STEP, SATELITE_RADIUS);
-
-        // add gradient colored sphere in float buffer (XYZ + RGBA)
-        mVerticesSateliteColorGradient = getSphereVertices(color2, color3, color2,true, 2, mNbVerticesSatelite, SATELITE_ANGLE_STEP, SATELITE_RADIUS);
-
-        // add texture coordinates in float buffer (XY)
-        mTextureCoordinateBuffer = getSphereTextureCoordinates(mNbVertices, SPHERE_ANGLE_STEP);
-
-        // add texture coordinates (case satelite) in float buffer (XY)
-        mTextureSateliteCoordinateBuffer = getSphereTextureCoordinates(mNbVerticesSatelite, SATELITE_ANGLE_STEP);
+        // Map indexed unit sphere tessellations baked at build time (each vertex stored once), if
+        // not available only the coarsest one is built here, the others are built in background
+        // to not stall the UI thread
+        mLevels = new SphereLevelOfDetail(mContext);
+
+        // Planet texture used as is, satelite logo rescaled
+        mTextureAtlas = new TextureAtlas(mContext, new int[] {R.drawable.planet, R.drawable.logo_st_256},
+                TextureAssets.SPHERE);
+        mTextureRects = new float[][] {mTextureAtlas.getRect(0), mTextureAtlas.getRect(1)};
+        mTexture = AsyncTexture.decodeAtlas(mContext, mTextureAtlas);
+
+        // palettes (rings and 3 colors gradient share the same palette)
+        mPaletteNoColor = getPalette(colorLight, colorLight, colorLight);
+        mPaletteColor = getPalette(color1, color2, color3);
+        mPaletteSateliteColor = getPalette(color2, color2, color2);
+        // 2 colors gradient between the two poles (middle color at the equator)
+        mPaletteSateliteColorGradient = getPalette(color2, mixColor(color2, color3), color3);
     }
 
     /**
-     * Get back float buffer with all vertices and associated colors
+     * Get back the palette used by the shader to color the sphere
      *
-     * @param color1 start color value(normalized)
-     * @param color2 end color value(normalized)
-     * @return float buffer containing the sphere vertices and the associated colors
+     * @param color1 first color (south pole, odd rings)(normalized)
+     * @param color2 second color (equator for gradient, even rings)(normalized)
+     * @param color3 third color (north pole for gradient, poles and equator rings)(normalized)
+     * @return palette (RGBA x 3, opaque)
      */
-    private FloatBuffer getSphereVertices(float[] color1, float[] color2, float[] color3,
-                                          boolean gradient, int nbColors,
-                                          int nbVertices, float angleStep, float radius) {
-        float angleA, angleB;
-        float cos, sin;
-        float r1, r2;
-        float h1, h2;
-
-        FloatBuffer vBuf;
-        float[][] v = new float[nbVertices][10];
-
-        vBuf = ByteBuffer.allocateDirect(v.length * v[0].length * NB_BYTES_PER_FLOAT).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        vBuf.position(0);
-
-        float[] colorStep = new float[]{0.0f, 0.0f, 0.0f};
-        if (gradient) {
-            if (nbColors == 2) {
-                colorStep = calculateColorSteps(color1, color2, 1.0f, angleStep);
-            } else if (nbColors == 3) {
-                colorStep = calculateColorSteps(color1, color2, 2.0f, angleStep);
-            }
+    private float[] getPalette(float[] color1, float[] color2, float[] color3) {
+        float[][] colors = {color1, color2, color3};
+        float[] palette = new float[4 * Sphere.PALETTE_SIZE];
+        for (int i = 0; i < Sphere.PALETTE_SIZE; i++) {
+            palette[4 * i] = colors[i][0];
+            palette[4 * i + 1] = colors[i][1];
+            palette[4 * i + 2] = colors[i][2];
+            palette[4 * i + 3] = 1.0f;
         }
-
-        float[] color = new float[]{color1[0],color1[1],color1[2]};
-        float[] colorPrevious = new float[]{color1[0],color1[1],color1[2]};
-
-        for (angleA = -90.0f; angleA < 90.0f; angleA += angleStep) {
-            int n = 0;
-
-            r1 = (float) Math.cos(angleA * Math.PI / 180.0);
-            r2 = (float) Math.cos((angleA + angleStep) * Math.PI / 180.0);
-            h1 = (float) Math.sin(angleA * Math.PI / 180.0);
-            h2 = (float) Math.sin((angleA + angleStep) * Math.PI / 180.0);
-
-            if ((! gradient) && (nbColors > 1)) {
-                // Case color rings
-                if ((angleA < -85.0f) || (angleA > 85.0f)) {
-                    if (nbColors == 3) {
-                        color[0] = color3[0];
-                        color[1] = color3[1];
-                        color[2] = color3[2];
-                    } else {
-                        color[0] = color1[0];
-                        color[1] = color1[1];
-                        color[2] = color1[2];
-                    }
-                } else if (((angleA >= -85.0f) && (angleA < -75.0f)) || ((angleA <= 85.0f) && (angleA > 75.0f))) {
-                    color[0] = color2[0];
-                    color[1] = color2[1];
-                    color[2] = color2[2];
-                } else if (((angleA >= -75.0f) && (angleA < -65.0f)) || ((angleA <= 75.0f) && (angleA > 65.0f))) {
-                    color[0] = color1[0];
-                    color[1] = color1[1];
-                    color[2] = color1[2];
-                } else if (((angleA >= -65.0f) && (angleA < -55.0f)) || ((angleA <= 65.0f) && (angleA > 55.0f))) {
-                    color[0] = color2[0];
-                    color[1] = color2[1];
-                    color[2] = color2[2];
-                } else if (((angleA >= -55.0f) && (angleA < -45.0f)) || ((angleA <= 55.0f) && (angleA > 45.0f))) {
-                    color[0] = color1[0];
-                    color[1] = color1[1];
-                    color[2] = color1[2];
-                } else if (((angleA >= -45.0f) && (angleA < -35.0f)) || ((angleA <= 45.0f) && (angleA > 35.0f))) {
-                    color[0] = color2[0];
-                    color[1] = color2[1];
-                    color[2] = color2[2];
-                } else if (((angleA >= -35.0f) && (angleA < -25.0f)) || ((angleA <= 35.0f) && (angleA > 25.0f))) {
-                    color[0] = color1[0];
-                    color[1] = color1[1];
-                    color[2] = color1[2];
-                } else if (((angleA >= -25.0f) && (angleA < -15.0f)) || ((angleA <= 25.0f) && (angleA > 15.0f))) {
-                    color[0] = color2[0];
-                    color[1] = color2[1];
-                    color[2] = color2[2];
-                } else if (((angleA >= -15.0f) && (angleA < -5.0f)) || ((angleA <= 15.0f) && (angleA > 5.0f))) {
-                    color[0] = color1[0];
-                    color[1] = color1[1];
-                    color[2] = color1[2];
-                } else {
-                    if (nbColors == 3) {
-                        color[0] = color3[0];
-                        color[1] = color3[1];
-                        color[2] = color3[2];
-                    } else {
-                        color[0] = color2[0];
-                        color[1] = color2[1];
-                        color[2] = color2[2];
-                    }
-                }
-                colorPrevious = color;
-            }
-
-            // Fixed latitude, 360 degrees rotation to traverse a weft
-            for (angleB = 0.0f; angleB <= 360.0f; angleB += angleStep) {
-
-                cos = (float) Math.cos(angleB * Math.PI / 180.0);
-                sin = (float) Math.sin(angleB * Math.PI / 180.0);
-
-                // coordinates XYZ
-                v[n][0] = radius * r2 * cos;
-                v[n][1] = radius * h2;
-                v[n][2] = radius * r2 * sin;
-
-                // normal XYZ
-                v[n][3] = r2 * cos;
-                v[n][4] = h2;
-                v[n][5] = r2 * sin;
-
-                // color RGBA
-                v[n][6] = color[0];
-                v[n][7] = color[1];
-                v[n][8] = color[2];
-                v[n][9] = 1.0f;
-
-                // coordinates XYZ
-                v[n + 1][0] = radius * r1 * cos;
-                v[n + 1][1] = radius * h1;
-                v[n + 1][2] = radius * r1 * sin;
-
-                // normal XYZ
-                v[n + 1][3] = r1 * cos;
-                v[n + 1][4] = h1;
-                v[n + 1][5] = r1 * sin;
-
-                // color RGBA
-                v[n + 1][6] = colorPrevious[0];
-                v[n + 1][7] = colorPrevious[1];
-                v[n + 1][8] = colorPrevious[2];
-                v[n + 1][9] = 1.0f;
-
-                vBuf.put(v[n]);
-                vBuf.put(v[n + 1]);
-
-                n += 2;
-            }
-
-            // Case color gradient between two poles
-            if (gradient) {
-                colorPrevious = color;
-                if ((angleA == 0) && (nbColors == 3)) {
-                    colorStep = calculateColorSteps(color2, color3, 2.0f, angleStep);
-                }
-                if ((angleA >= -85.0f) && (angleA <= 85.0f)) {
-                    for (int i = 0; i < 3; i++) {
-                        color[i] = color[i] + colorStep[i];
-                        if (color[i] < 0.0f)
-                            color[i] = 0.0f;
-                    }
-                }
-            }
-        }
-
-        vBuf.position(0);
-        return vBuf;
-    }
-
-    private FloatBuffer getSphereTextureCoordinates(int nbVertices, float angleStep) {
-        float angleA, angleB;
-
-        FloatBuffer vBuf;
-        float[][] v = new float[nbVertices][2];
-
-        vBuf = ByteBuffer.allocateDirect(v.length * v[0].length * NB_BYTES_PER_FLOAT).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        vBuf.position(0);
-
-        for (angleA = -90.0f; angleA < 90.0f; angleA += angleStep) {
-            int n = 0;
-            for (angleB = 0.0f; angleB <= 360.0f; angleB += angleStep) {
-                v[n + 1][0] = angleB / 360.0f;
-                v[n + 1][1] = 1.0f - ((angleA + 90.0f) / 180.0f);
-
-                v[n][0] = angleB / 360.0f;
-                v[n][1] = 1.0f - ((angleA + 90.0f + angleStep) / 180.0f);
-
-                vBuf.put(v[n]);
-                vBuf.put(v[n+1]);
-                n += 2;
-            }
-        }
-
-        vBuf.position(0);
-        return vBuf;
+        return palette;
     }
 
     /**
-     * Calculate the RGBA delta expected between first and last vertices of the sphere
+     * Get back the color in the middle of two colors
      *
      * @param color1 start color(normalized)
      * @param color2 end color(normalized)
-     * @return RGBA steps
+     * @return middle color
      */
-    private float[] calculateColorSteps(float[] color1, float[] color2, float speed, float angleStep) {
-        float[] colorStep = new float[3];
-        for (int i=0; i < 3; i++) {
-            colorStep[i] = (color2[i] - color1[i]) * (speed * angleStep / 180);
+    private float[] mixColor(float[] color1, float[] color2) {
+        float[] color = new float[3];
+        for (int i = 0; i < 3; i++) {
+            color[i] = (color1[i] + color2[i]) / 2.0f;
         }
-        return colorStep;
+        return color;
     }
 
     /**
@@ -371,14 +212,14 @@ public class SphereRenderer extends Shape3DRenderer {
         GLES20.glClearColor(0.5f, 0.5f, 0.5f, 0.5f);
 
         // Use culling to remove back faces.
-        GLES20.glEnable(GLES20.GL_CULL_FACE);
+        GlStateCache.setCapability(GLES20.GL_CULL_FACE, true);
         GLES20.glCullFace(GLES20.GL_BACK);
         GLES20.glFrontFace(GLES20.GL_CCW);
 
         // Enable depth test (tracks vertex's distance to the viewer)
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        GlStateCache.setCapability(GLES20.GL_DEPTH_TEST, true);
         // LESS (default value), passes if vertex's distance (depth) less than stored one
-        GLES20.glDepthFunc(GLES20.GL_LESS);
+        GlStateCache.depthFunc(GLES20.GL_LESS);
 
 
         // initialize fixed speed used for earth and satelite
@@ -403,26 +244,9 @@ public class SphereRenderer extends Shape3DRenderer {
         // Set the view matrix. This matrix can be said to represent the camera position.
         Matrix.setLookAtM(mViewMatrix, 0, eyeX, eyeY, eyeZ, lookX, lookY, lookZ, upX, upY, upZ);
 
-        // Load in the vertex shader.
-        mVertexShaderHandle = ShaderHelper.compileVertexShader(ShaderHelper.SHADER_TEXTURE_LIGHT);
-        if (mVertexShaderHandle == 0)
-        {
-            throw new RuntimeException("Error creating vertex shader.");
-        }
-
-        // Load in the fragment shader.
-        mFragmentShaderHandle = ShaderHelper.compileFragmentShader(ShaderHelper.SHADER_TEXTURE_LIGHT);
-        if (mFragmentShaderHandle == 0)
-        {
-            throw new RuntimeException("Error creating fragment shader.");
-        }
-
-        // Create and link a program object and store the handle to it.
-        mProgramHandle = ShaderHelper.linkProgram(ShaderHelper.SHADER_TEXTURE_LIGHT, mVertexShaderHandle, mFragmentShaderHandle);
-        if (mProgramHandle == 0)
-        {
-            throw new RuntimeException("Error creating program.");
-        }
+        // Programs of the previous context lost (instanced variants in stress mode).
+        mPrograms.reset(updateInstanceGrid());
+        mProgramHandle = 0;
 
         Matrix.setIdentityM(mAccumulatedRotation, 0);
 
@@ -430,16 +254,16 @@ public class SphereRenderer extends Shape3DRenderer {
         mSateliteAngle = 0.0f;
 
         mSphere = new Sphere();
-        mSphere.initSphere(mProgramHandle, mViewMatrix, mTextureEnabled, mLightEnabled);
+        updateProgram();
 
         // Tell OpenGL to use this program when rendering.
-        GLES20.glUseProgram(mProgramHandle);
+        GlStateCache.useProgram(mProgramHandle);
 
         // Prepare texture unit (planet and satelite)
-        int[] textureIds = {R.drawable.planet, R.drawable.logo_st_256};
-        mTextureDataHandles = new int[textureIds.length];
-        mTextureDataHandles[0] = TextureHelper.loadTexture(mContext, textureIds[0]);
-        mTextureDataHandles[1] = TextureHelper.loadTexture(mContext, textureIds[1], 0.2f);
+        mTextureDataHandle = mTexture.upload();
+
+        // Upload vertices in GPU buffer objects (previous ones lost with the previous context)
+        mLevels.upload();
     }
 
     @Override
@@ -450,11 +274,20 @@ public class SphereRenderer extends Shape3DRenderer {
     @Override
     public void onDrawFrame(GL10 gl) {
 
-        if (isStationary()) {
+        // Take into account the levels of detail built in background (placeholder drawn until then)
+        boolean levelsUpdated = mLevels.update();
+
+        // Atlas uploaded once decoded (placeholder drawn until then)
+        boolean textureUpdated = mTexture.update();
+        mTextureDataHandle = mTexture.getHandle();
+
+        if (isStationary() && !levelsUpdated && !textureUpdated) {
             // do not re-draw the shape if not required
             return;
         }
 
+        updateProgram();
+
         GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
 
         float[] delta;
@@ -470,6 +303,7 @@ public class SphereRenderer extends Shape3DRenderer {
 
             float angleSateliteInDegrees = getAngleInDegreesFixedSpeed(1);
             Matrix.rotateM(mModelSateliteMatrix, 0, angleSateliteInDegrees, 0.0f, 1.0f, 0.0f);
+            Matrix.scaleM(mModelSateliteMatrix, 0, SATELITE_RADIUS, SATELITE_RADIUS, SATELITE_RADIUS);
 
             Matrix.setIdentityM(mModelMatrix, 0);
             Matrix.rotateM(mModelMatrix, 0, angleInDegrees, 0.0f, 1.0f, 0.0f);
@@ -489,57 +323,151 @@ public class SphereRenderer extends Shape3DRenderer {
             Matrix.multiplyMM(mModelMatrix, 0, mAccumulatedRotation, 0, mModelMatrix, 0);
         }
 
+        // Unit sphere scaled to the sphere radius
+        Matrix.scaleM(mModelMatrix, 0, SPHERE_RADIUS, SPHERE_RADIUS, SPHERE_RADIUS);
+
+        // Select the tessellations depending on the size on screen
+        int level = mLevels.selectLevel(mSphereLevel, mSphere.getProjectedRadius(mModelMatrix));
+        if (level != mSphereLevel) {
+            Timber.d("Sphere level of detail %d (%d vertices)", level, mLevels.getVertexCount(level));
+            mSphereLevel = level;
+        }
+        if (mTextureEnabled) {
+            level = mLevels.selectLevel(mSateliteLevel, mSphere.getProjectedRadius(mModelSateliteMatrix));
+            if (level != mSateliteLevel) {
+                Timber.d("Satelite level of detail %d (%d vertices)", level, mLevels.getVertexCount(level));
+                mSateliteLevel = level;
+            }
+        }
+
         // Light position (fixed)
         mLightPos[0] = 1.0f;
         mLightPos[1] = 1.0f;
         mLightPos[2] = 0.0f;
         mLightPos[3] = 0.0f;
 
+        // Light position in eye space shared by all programs (scene uniform buffer, ES 3.0 only)
+        SceneUniforms.setLight(mViewMatrix, mLightPos);
+
+        beginStressFrame();
+        mRenderQueue.begin(mViewMatrix);
+
         if (mTextureEnabled) {
-            mSphere.draw(mVerticesNoColor, mTextureCoordinateBuffer, mTextureDataHandles, mLightPos, mModelMatrix, mNbVertices,0);
-            if (isColored() && isColorGradient()) {
-                mSphere.draw(mVerticesSateliteColorGradient, mTextureSateliteCoordinateBuffer, mTextureDataHandles, mLightPos, mModelSateliteMatrix, mNbVerticesSatelite, 1);
+            queuePart(PART_SPHERE, mSphereLevel, mPaletteNoColor, Sphere.COLOR_MODE_FLAT, mModelMatrix);
+            if (getInstanceGrid() != null) {
+                // Stress mode: satelite not drawn (its orbit would be replicated on each instance)
+            } else if (isColored() && isColorGradient()) {
+                queuePart(PART_SATELITE, mSateliteLevel, mPaletteSateliteColorGradient,
+                        Sphere.COLOR_MODE_GRADIENT, mModelSateliteMatrix);
             } else if (isColored() && ! isColorGradient()) {
-                mSphere.draw(mVerticesSateliteColor, mTextureSateliteCoordinateBuffer, mTextureDataHandles, mLightPos, mModelSateliteMatrix, mNbVerticesSatelite, 1);
+                queuePart(PART_SATELITE, mSateliteLevel, mPaletteSateliteColor,
+                        Sphere.COLOR_MODE_FLAT, mModelSateliteMatrix);
             } else {
-                mSphere.draw(mVerticesSateliteNoColor, mTextureSateliteCoordinateBuffer, mTextureDataHandles, mLightPos, mModelSateliteMatrix, mNbVerticesSatelite, 1);
+                queuePart(PART_SATELITE, mSateliteLevel, mPaletteNoColor,
+                        Sphere.COLOR_MODE_FLAT, mModelSateliteMatrix);
             }
         } else {
             if (isColored() && isColorGradient()) {
-                mSphere.draw(mVerticesColorGradient, mTextureCoordinateBuffer, mTextureDataHandles, mLightPos, mModelMatrix, mNbVertices,0);
+                queuePart(PART_SPHERE, mSphereLevel, mPaletteColor, Sphere.COLOR_MODE_GRADIENT, mModelMatrix);
             } else if (isColored() && ! isColorGradient()) {
-                mSphere.draw(mVerticesColor, mTextureCoordinateBuffer, mTextureDataHandles, mLightPos, mModelMatrix, mNbVertices,0);
+                queuePart(PART_SPHERE, mSphereLevel, mPaletteColor, Sphere.COLOR_MODE_BANDS, mModelMatrix);
             } else {
-                mSphere.draw(mVerticesNoColor, mTextureCoordinateBuffer, mTextureDataHandles, mLightPos, mModelMatrix, mNbVertices,0);
+                queuePart(PART_SPHERE, mSphereLevel, mPaletteNoColor, Sphere.COLOR_MODE_FLAT, mModelMatrix);
             }
         }
+
+        mRenderQueue.submit();
+        endStressFrame();
+    }
+
+    /**
+     * Queue the draw of a part (sphere or satelite)
+     *
+     * @param part PART_SPHERE or PART_SATELITE (also index of its texture in the atlas)
+     * @param level selected tessellation
+     * @param palette palette colors (PALETTE_SIZE RGBA colors)
+     * @param colorMode color mode (Sphere.COLOR_MODE_xxx)
+     * @param modelMatrix model matrix of the part
+     */
+    private void queuePart(int part, int level, final float[] palette, int colorMode, final float[] modelMatrix) {
+        mPartLevels[part] = level;
+        mPartPalettes[part] = palette;
+        mPartColorModes[part] = colorMode;
+        mRenderQueue.add(mSphereDrawer, part, mProgramHandle, mTextureDataHandle, modelMatrix);
+    }
+
+    /**
+     * Get back the sphere level of detail used for the last frame
+     *
+     * @return level (0 = finest tessellation)
+     */
+    public int getSphereLevel() {
+        return mSphereLevel;
+    }
+
+    /**
+     * Select the program variant matching the texture and light states (shared with the other
+     * renderers, compiled the first time it is used, light not taken into account with the texture)
+     */
+    private void updateProgram() {
+        int variant = 0;
+        if (mTextureEnabled) {
+            variant = ShaderHelper.VARIANT_TEXTURE;
+        } else if (mLightEnabled) {
+            variant = ShaderHelper.VARIANT_LIGHT;
+        }
+
+        final int programHandle = mPrograms.get(variant);
+        if (programHandle != mProgramHandle) {
+            mProgramHandle = programHandle;
+            mSphere.initSphere(mProgramHandle, mViewMatrix);
+        }
+    }
+
+    /**
+     * Get back the number of vertices of the sphere used for the last frame
+     *
+     * @return number of vertices
+     */
+    public int getSphereVertexCount() {
+        return mLevels.getVertexCount(mSphereLevel);
+    }
+
+    /**
+     * Get back the satelite level of detail used for the last frame
+     *
+     * @return level (0 = finest tessellation)
+     */
+    public int getSateliteLevel() {
+        return mSateliteLevel;
+    }
+
+    /**
+     * Get back the number of vertices of the satelite used for the last frame
+     *
+     * @return number of vertices
+     */
+    public int getSateliteVertexCount() {
+        return mLevels.getVertexCount(mSateliteLevel);
     }
 
     @Override
     public void setTextureState(boolean state) {
-        if (mSphere != null) {
-            mSphere.setTextureState(state);
-        }
+        // Program variant selected at the next frame
         mTextureEnabled = state;
     }
 
     @Override
     public void setLightState(boolean state) {
-        if (mSphere != null) {
-            mSphere.setLightState(state);
-        }
+        // Program variant selected at the next frame
         mLightEnabled = state;
     }
 
     @Override
     public void cancelRendering() {
-        GLES20.glDetachShader(mProgramHandle, mVertexShaderHandle);
-        GLES20.glDeleteShader(mVertexShaderHandle);
-
-        GLES20.glDetachShader(mProgramHandle, mFragmentShaderHandle);
-        GLES20.glDeleteShader(mFragmentShaderHandle);
-
-        GLES20.glDeleteProgram(mProgramHandle);
+        // Programs deleted once no more used by any renderer
+        mPrograms.release();
+        mProgramHandle = 0;
     }
 
     @Override
@@ -4,20 +4,30 @@ import android.graphics.Point;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import com.stmicroelectronics.stgraphics.utils.GlStateCache;
+import com.stmicroelectronics.stgraphics.utils.IndexBuffer;
+import com.stmicroelectronics.stgraphics.utils.ShaderHelper;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
 
 import timber.log.Timber;
 
 /**
- * Draw Circle (GLES 2.0)
+ * Draw Circle (GLES 2.0): triangle fan tessellated from the radius on screen, or square masked per
+ * fragment by the circle (previous path, kept for comparison)
  */
 class Circle {
-    private boolean mTextureEnabled;
+
+    /** Fan tessellation: maximum distance in pixels between the fan edges and the circle */
+    private final static float MAX_SEGMENT_ERROR = 0.5f;
+    private final static int MIN_SEGMENTS = 16;
+    private final static int MAX_SEGMENTS = 256;
 
     /** Allocate storage for the final combined matrix. This will be passed into the shader program. */
     private final float[] mMVPMatrix = new float[16];
 
+    /** This will be used to record the attributes setup (vertex array object of the mesh). */
+    private int mProgramHandle;
+
     /** This will be used to pass in model the transformation matrix. */
     private int mMVPMatrixHandle;
 
@@ -36,9 +46,6 @@ class Circle {
     /** This will be used to pass in model the texture information. */
     private int mTextureUniformHandle;
 
-    /** This will be used to pass in model the texture state information. */
-    private int mTextStateUniformHandle;
-
     /** This will be used to pass in model the texture coordinate information. */
     private int mTextureCoordinateHandle;
 
@@ -47,31 +54,30 @@ class Circle {
 
     /** Create circle parameters (center position and radius (init with ratio value) */
     private final Point mCenter = new Point(0,0);
-    private float mRadius = CircleRenderer.CIRCLE_RADIUS_RATIO;
+    private float mRadius;
 
     /**
      * Initialize Circle parameters
      *
-     * @param programHandle linked vertex + fragment shader program
+     * @param programHandle linked vertex + fragment shader program (variant matching the texture
+     *                      state, unused handles set to -1)
      * @param viewMatrix view matrix
-     * @param texture initial texture state (true = texture enabled in shader)
      */
-    void initCircle(int programHandle, float[] viewMatrix, boolean texture) {
+    void initCircle(int programHandle, float[] viewMatrix) {
         // Set program handles. These will later be used to pass in values to the program.
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVPMatrix");
-        mPositionHandle = GLES20.glGetAttribLocation(programHandle, "a_Position");
-        mColorHandle = GLES20.glGetAttribLocation(programHandle, "a_Color");
+        mProgramHandle = programHandle;
+        mMVPMatrixHandle = ShaderHelper.getUniformLocation(programHandle, "u_MVPMatrix");
+        mPositionHandle = ShaderHelper.getAttribLocation(programHandle, "a_Position");
+        mColorHandle = ShaderHelper.getAttribLocation(programHandle, "a_Color");
 
         // Circle associated handles
-        mCirclePositionUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_CirclePosition");
-        mCircleRadiusUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_CircleRadius");
+        mCirclePositionUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_CirclePosition");
+        mCircleRadiusUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_CircleRadius");
 
         // Texture associated handles
-        mTextureUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_Texture");
-        mTextStateUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_TextState");
-        mTextureCoordinateHandle = GLES20.glGetAttribLocation(programHandle, "a_TexCoordinate");
+        mTextureUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_Texture");
+        mTextureCoordinateHandle = ShaderHelper.getAttribLocation(programHandle, "a_TexCoordinate");
 
-        mTextureEnabled = texture;
         mViewMatrix = viewMatrix;
     }
 
@@ -92,69 +98,101 @@ class Circle {
 
         mCenter.x = (int) (width * 0.5);
         mCenter.y = (int) (height * 0.5);
-        mRadius = mRadius * Math.min(width, height) / 2;
+        mRadius = CircleRenderer.CIRCLE_RADIUS_RATIO * Math.min(width, height) / 2;
 
         Timber.d("Center position (x,y) = (%d,%d) with radius = %f", mCenter.x, mCenter.y, mRadius);
     }
 
     /**
-     * Give Texture state (used to enable texture in shader)
+     * Get back the circle radius on screen (shall be called after updateCircle())
      *
-     * @param state The texture state (true = texture enabled)
+     * @return radius in pixels
      */
-    void setTextureState(boolean state) {
-        mTextureEnabled = state;
+    float getRadius() {
+        return mRadius;
+    }
+
+    /**
+     * Get back the number of fan segments needed to draw a circle without visible edges
+     *
+     * @param radius circle radius in pixels
+     * @return number of segments (MIN_SEGMENTS to MAX_SEGMENTS)
+     */
+    static int getSegmentCount(float radius) {
+        if (radius <= MAX_SEGMENT_ERROR) {
+            return MIN_SEGMENTS;
+        }
+        // Segment of angle a away from the circle by radius * (1 - cos(a / 2))
+        final double angle = 2.0 * Math.acos(1.0 - MAX_SEGMENT_ERROR / radius);
+        final int segments = (int) Math.ceil(2.0 * Math.PI / angle);
+        return Math.max(MIN_SEGMENTS, Math.min(MAX_SEGMENTS, segments));
     }
 
     /**
-     * Draws a circle from the given vertex data.
+     * Draws a circle from the square masked per fragment (CIRCLE_MASK program variant).
      *
-     * @param aVerticesBuffer The buffer containing the vertex data.
-     * @param aColorBuffer The buffer containing the color data.
-     * @param aTextureCoordinateBuffer The buffer containing the texture coordinates data.
+     * @param aVertexBuffer The buffer containing the interleaved vertex data (position, color and
+     *                      texture coordinates) of the square.
      * @param textureDataHandle The handle associated with the texture handle.
      * @param drawOrderBuffer The buffer containing vertices draw order.
      * @param modelMatrix The model matrix (rotation data).
      */
-    void draw(final FloatBuffer aVerticesBuffer, final FloatBuffer aColorBuffer,
-              final FloatBuffer aTextureCoordinateBuffer, final int textureDataHandle,
-              final ShortBuffer drawOrderBuffer, float[] modelMatrix){
-
-        // Pass in the vertices attributes (X,Y,Z)
-        aVerticesBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, 3, GLES20.GL_FLOAT, false,
-                0, aVerticesBuffer);
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-
-        // Pass in the color attributes (R,G,B)
-        aColorBuffer.position(0);
-        GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false,
-                0, aColorBuffer);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
-
-        // Pass in the texture coordinates (X,Y)
-        aTextureCoordinateBuffer.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, 2, GLES20.GL_FLOAT, false,
-                0, aTextureCoordinateBuffer);
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-
-        // Pass in the texture state (on or off)
-        if (mTextureEnabled) {
-            GLES20.glUniform1i(mTextStateUniformHandle, 1);
-        } else {
-            GLES20.glUniform1i(mTextStateUniformHandle, 0);
-        }
+    void draw(final VertexBuffer aVertexBuffer, final int textureDataHandle,
+              final IndexBuffer drawOrderBuffer, float[] modelMatrix){
+
+        setup(aVertexBuffer, textureDataHandle, modelMatrix);
 
         // Pass in the circle information (center position and radius)
-        GLES20.glUniform2f(mCirclePositionUniformHandle, (float)mCenter.x, (float)mCenter.y);
-        GLES20.glUniform1f(mCircleRadiusUniformHandle, mRadius);
+        GlStateCache.uniform2f(mCirclePositionUniformHandle, (float)mCenter.x, (float)mCenter.y);
+        GlStateCache.uniform1f(mCircleRadiusUniformHandle, mRadius);
+
+        // Draw following order buffer (6 elements)
+        drawOrderBuffer.draw(GLES20.GL_TRIANGLES, 6);
+    }
+
+    /**
+     * Draws a circle from its triangle fan (no per fragment test, no fragment outside of the
+     * circle).
+     *
+     * @param aFanBuffer The buffer containing the interleaved vertex data (position, color and
+     *                   texture coordinates) of the fan: center then rim (first rim vertex
+     *                   repeated at the end).
+     * @param textureDataHandle The handle associated with the texture handle.
+     * @param modelMatrix The model matrix (rotation data).
+     */
+    void drawFan(final VertexBuffer aFanBuffer, final int textureDataHandle, float[] modelMatrix){
+
+        setup(aFanBuffer, textureDataHandle, modelMatrix);
+
+        // Draw the fan around the center
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, aFanBuffer.getVertexCount());
+    }
+
+    /**
+     * Pass in the attributes, the texture and the transformation of the circle
+     *
+     * @param aVertexBuffer The buffer containing the interleaved vertex data.
+     * @param textureDataHandle The handle associated with the texture handle.
+     * @param modelMatrix The model matrix (rotation data).
+     */
+    private void setup(final VertexBuffer aVertexBuffer, final int textureDataHandle, float[] modelMatrix){
+
+        // Attributes setup recorded once in the vertex array object of the mesh (ES 3.0)
+        if (!aVertexBuffer.getVertexArray().bind(mProgramHandle)) {
+            // Pass in the vertices attributes (X,Y,Z)
+            aVertexBuffer.bindAttribute(mPositionHandle, Shape2DRenderer.ATTRIBUTE_POSITION);
+
+            // Pass in the color attributes (R,G,B)
+            aVertexBuffer.bindAttribute(mColorHandle, Shape2DRenderer.ATTRIBUTE_COLOR);
+
+            // Pass in the texture coordinates (X,Y)
+            aVertexBuffer.bindAttribute(mTextureCoordinateHandle, Shape2DRenderer.ATTRIBUTE_TEXTURE_COORDINATE);
+        }
 
-        // Set the active texture unit to texture unit 0.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         // Bind the texture to this unit.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureDataHandle);
+        GlStateCache.bindTexture(0, textureDataHandle);
         // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
-        GLES20.glUniform1i(mTextureUniformHandle, 0);
+        GlStateCache.uniform1i(mTextureUniformHandle, 0);
 
         // This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
         // (which currently contains model * view).
@@ -164,9 +202,6 @@ class Circle {
         // (which now contains model * view * projection).
         Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVPMatrix, 0);
 
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mMVPMatrix, 0);
-
-        // Draw following order buffer (6 elements)
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES,6,GLES20.GL_UNSIGNED_SHORT, drawOrderBuffer);
+        GlStateCache.uniformMatrix4fv(mMVPMatrixHandle, mMVPMatrix, 0);
     }
 }
@@ -5,18 +5,20 @@ import android.opengl.GLES20;
 import android.opengl.Matrix;
 
 import com.stmicroelectronics.stgraphics.R;
+import com.stmicroelectronics.stgraphics.texture.TextureAssets;
+import com.stmicroelectronics.stgraphics.utils.AsyncTexture;
+import com.stmicroelectronics.stgraphics.utils.GlStateCache;
+import com.stmicroelectronics.stgraphics.utils.IndexBuffer;
+import com.stmicroelectronics.stgraphics.utils.ProgramVariants;
 import com.stmicroelectronics.stgraphics.utils.ShaderHelper;
-import com.stmicroelectronics.stgraphics.utils.TextureHelper;
 import com.stmicroelectronics.stgraphics.utils.Utility;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import timber.log.Timber;
+
 /**
  * GL surface renderer for Circle
  */
@@ -25,14 +27,30 @@ public class CircleRenderer extends Shape2DRenderer {
     /** Circle radius ratio value (radius depends on the GLSurface area */
     final static float CIRCLE_RADIUS_RATIO = 0.6f;
 
-    /** Store our model data in a float buffers */
-    private final FloatBuffer mVerticesBuffer;
-    private final FloatBuffer mNoColorBuffer;
-    private final FloatBuffer mColorBuffer;
-    private final FloatBuffer mColorGradientBuffer;
-    private final FloatBuffer mTextureCoordinateBuffer;
+    /** Eye distance to the circle plane (visible half height of the plane with the projection) */
+    private final static float EYE_DISTANCE = 1.5f;
+
+    /** Store our model data in vertex buffers (one interleaved buffer per color mode) */
+    private final VertexBuffer mNoColorBuffer;
+    private final VertexBuffer mColorBuffer;
+    private final VertexBuffer mColorGradientBuffer;
+
+    private final IndexBuffer mDrawOrderBuffer;
 
-    private final ShortBuffer mDrawOrderBuffer;
+    /** Square corner colors kept to build the fans (same colors as the masked square) */
+    private final float[][] mSquareNoColor;
+    private final float[][] mSquareColor;
+    private final float[][] mSquareColorGradient;
+
+    /** Triangle fans (one interleaved buffer per color mode), built from the radius on screen */
+    private VertexBuffer mNoColorFanBuffer;
+    private VertexBuffer mColorFanBuffer;
+    private VertexBuffer mColorGradientFanBuffer;
+    private int mFanSegments;
+    private float mFanRadius;
+
+    /** Circle drawn from the square masked per fragment instead of the fan (comparison) */
+    private volatile boolean mMaskEnabled = false;
 
     /**
      * Store the view matrix. This can be thought of as our camera. This matrix transforms world
@@ -49,17 +67,21 @@ public class CircleRenderer extends Shape2DRenderer {
     /** This is a handle to our texture data. */
     private int mTextureDataHandle;
 
+    /** Texture decoded in background (placeholder until available) */
+    private final AsyncTexture mTexture;
+
+    /** Program variants used (texture state) and program of the current one */
+    private final ProgramVariants mPrograms = new ProgramVariants(ShaderHelper.SHADER_TEXTURE);
     private int mProgramHandle;
-    private int mVertexShaderHandle;
-    private int mFragmentShaderHandle;
 
     private final Context mContext;
     private Circle mCircle;
 
-    private boolean mTextureEnabled = false;
+    private volatile boolean mTextureEnabled = false;
 
     public CircleRenderer(Context context) {
         mContext = context;
+        mTexture = AsyncTexture.decode(mContext, R.drawable.logo_st_256, TextureAssets.CIRCLE);
 
         float[] colorLight, color1, color2, color3, color4;
 
@@ -70,9 +92,6 @@ public class CircleRenderer extends Shape2DRenderer {
         color3 = Utility.normalizeColor(mContext.getColor(R.color.colorShape3));
         color4 = Utility.normalizeColor(mContext.getColor(R.color.colorShape4));
 
-        // How many bytes per float
-        int bytesPerFloat = 4;
-
         // Circle is in the middle of a Square
         final float[] squareVertices = {
                 // X, Y, Z
@@ -81,26 +100,17 @@ public class CircleRenderer extends Shape2DRenderer {
                 1.0f, -1.0f, 0.0f,
                 1.0f, 1.0f, 0.0f};
 
-        final float[] squareColorGradient = {
+        final float[][] squareColorGradient = {
                 // R, G, B, A
-                color1[0], color1[1], color1[2], color1[3],
-                color3[0], color3[1], color3[2], color3[3],
-                color2[0], color2[1], color2[2], color2[3],
-                color4[0], color4[1], color4[2], color4[3]};
+                color1, color3, color2, color4};
 
-        final float[] squareColor = {
+        final float[][] squareColor = {
                 // R, G, B, A
-                color3[0], color3[1], color3[2], color3[3],
-                color3[0], color3[1], color3[2], color3[3],
-                color3[0], color3[1], color3[2], color3[3],
-                color3[0], color3[1], color3[2], color3[3]};
+                color3, color3, color3, color3};
 
-        final float[] squareNoColor = {
+        final float[][] squareNoColor = {
                 // R, G, B, A
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3]};
+                colorLight, colorLight, colorLight, colorLight};
 
         final float[] squareTextureCoordinate = {
                 // X, Y
@@ -112,29 +122,110 @@ public class CircleRenderer extends Shape2DRenderer {
         // square = two triangles
         final short[] squareDrawOrder = new short[]{0, 1, 2, 0, 2, 3};
 
-        mVerticesBuffer = ByteBuffer.allocateDirect(squareVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mVerticesBuffer.put(squareVertices).position(0);
+        // Write position, color and texture coordinates of each vertex (compact types)
+        mNoColorBuffer = createVertexBuffer(squareVertices, squareNoColor, squareTextureCoordinate);
+        mColorBuffer = createVertexBuffer(squareVertices, squareColor, squareTextureCoordinate);
+        mColorGradientBuffer = createVertexBuffer(squareVertices, squareColorGradient, squareTextureCoordinate);
+
+        // Same shape drawn by the sprites in stress mode
+        setSprite(new SpriteBatch.Sprite(squareVertices,
+                new float[][][] {squareNoColor, squareColor, squareColorGradient},
+                squareTextureCoordinate, squareDrawOrder, true));
+
+        mDrawOrderBuffer = new IndexBuffer(squareDrawOrder);
+
+        mSquareNoColor = squareNoColor;
+        mSquareColor = squareColor;
+        mSquareColorGradient = squareColorGradient;
+    }
+
+    /**
+     * Build the triangle fan of a circle (center then rim), the attributes of each vertex being
+     * interpolated from the square corners the same way as the square triangles (0,1,2) and
+     * (0,2,3) do
+     *
+     * @param squareColors square corner colors (R,G,B,A)
+     * @param segments number of rim segments
+     * @param radius circle radius in model space (square from -1.0 to 1.0)
+     * @return vertex buffer (segments + 2 vertices)
+     */
+    private static VertexBuffer createFanBuffer(final float[][] squareColors, int segments, float radius) {
+        // Square corners (see the square vertices and texture coordinates)
+        final float[][] squareTextureCoordinate = {{1.0f, 1.0f}, {1.0f, 0.0f}, {0.0f, 0.0f}, {0.0f, 1.0f}};
+
+        final int count = segments + 2;
+        final float[] vertices = new float[3 * count];
+        final float[][] colors = new float[count][4];
+        final float[] textureCoordinates = new float[2 * count];
+        final float[] weights = new float[4];
+
+        for (int i = 0; i < count; i++) {
+            float x = 0.0f;
+            float y = 0.0f;
+            if (i > 0) {
+                // Rim closed by repeating its first vertex
+                final double angle = 2.0 * Math.PI * (i - 1) / segments;
+                x = radius * (float) Math.cos(angle);
+                y = radius * (float) Math.sin(angle);
+            }
+            vertices[3 * i] = x;
+            vertices[3 * i + 1] = y;
+
+            // Barycentric weights of the corners in the square triangle containing the vertex
+            final float u = (x + 1.0f) / 2.0f;
+            final float v = (y + 1.0f) / 2.0f;
+            if (u + v <= 1.0f) {
+                weights[0] = v;
+                weights[1] = 1.0f - u - v;
+                weights[2] = u;
+                weights[3] = 0.0f;
+            } else {
+                weights[0] = 1.0f - u;
+                weights[1] = 0.0f;
+                weights[2] = 1.0f - v;
+                weights[3] = u + v - 1.0f;
+            }
+
+            for (int corner = 0; corner < 4; corner++) {
+                for (int c = 0; c < 4; c++) {
+                    colors[i][c] += weights[corner] * squareColors[corner][c];
+                }
+                textureCoordinates[2 * i] += weights[corner] * squareTextureCoordinate[corner][0];
+                textureCoordinates[2 * i + 1] += weights[corner] * squareTextureCoordinate[corner][1];
+            }
+        }
 
-        mNoColorBuffer = ByteBuffer.allocateDirect(squareNoColor.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mNoColorBuffer.put(squareNoColor).position(0);
+        return createVertexBuffer(vertices, colors, textureCoordinates);
+    }
 
-        mColorBuffer = ByteBuffer.allocateDirect(squareColor.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mColorBuffer.put(squareColor).position(0);
+    /**
+     * Build the triangle fans matching the circle radius on screen (shall be called in GL thread)
+     *
+     * @param height GLSurface height
+     */
+    private void updateFanBuffers(int height) {
+        final int segments = Circle.getSegmentCount(mCircle.getRadius());
+        final float radius = mCircle.getRadius() * 2.0f * EYE_DISTANCE / height;
+        if ((mNoColorFanBuffer != null) && (segments == mFanSegments) && (radius == mFanRadius)) {
+            return;
+        }
 
-        mColorGradientBuffer = ByteBuffer.allocateDirect(squareColorGradient.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mColorGradientBuffer.put(squareColorGradient).position(0);
+        if (mNoColorFanBuffer != null) {
+            mNoColorFanBuffer.release();
+            mColorFanBuffer.release();
+            mColorGradientFanBuffer.release();
+        }
 
-        mTextureCoordinateBuffer = ByteBuffer.allocateDirect(squareTextureCoordinate.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mTextureCoordinateBuffer.put(squareTextureCoordinate).position(0);
+        mNoColorFanBuffer = createFanBuffer(mSquareNoColor, segments, radius);
+        mColorFanBuffer = createFanBuffer(mSquareColor, segments, radius);
+        mColorGradientFanBuffer = createFanBuffer(mSquareColorGradient, segments, radius);
+        mNoColorFanBuffer.upload();
+        mColorFanBuffer.upload();
+        mColorGradientFanBuffer.upload();
+        mFanSegments = segments;
+        mFanRadius = radius;
 
-        mDrawOrderBuffer = ByteBuffer.allocateDirect(squareDrawOrder.length * 2)
-                .order(ByteOrder.nativeOrder()).asShortBuffer();
-        mDrawOrderBuffer.put(squareDrawOrder).position(0);
+        Timber.d("Circle fan: %d segments", segments);
     }
 
     @Override
@@ -148,7 +239,7 @@ public class CircleRenderer extends Shape2DRenderer {
         // Position the eye behind the origin.
         final float eyeX = 0.0f;
         final float eyeY = 0.0f;
-        final float eyeZ = 1.5f;
+        final float eyeZ = EYE_DISTANCE;
 
         // We are looking toward the distance
         final float lookX = 0.0f;
@@ -165,83 +256,117 @@ public class CircleRenderer extends Shape2DRenderer {
         // view matrix. In OpenGL 2, we can keep track of these matrices separately if we choose.
         Matrix.setLookAtM(mViewMatrix, 0, eyeX, eyeY, eyeZ, lookX, lookY, lookZ, upX, upY, upZ);
 
-        // Load in the vertex shader.
-        mVertexShaderHandle = ShaderHelper.compileVertexShader(ShaderHelper.SHADER_TEXTURE_CIRCLE);
-        if (mVertexShaderHandle == 0)
-        {
-            throw new RuntimeException("Error creating vertex shader.");
-        }
-
-        // Load in the fragment shader.
-        mFragmentShaderHandle = ShaderHelper.compileFragmentShader(ShaderHelper.SHADER_TEXTURE_CIRCLE);
-        if (mFragmentShaderHandle == 0)
-        {
-            throw new RuntimeException("Error creating fragment shader.");
+        // Stress mode: sprite batch drawn instead of the shape
+        if (updateSpriteBatch(mContext, mViewMatrix)) {
+            return;
         }
 
-        // Create and link a program object and store the handle to it.
-        mProgramHandle = ShaderHelper.linkProgram(ShaderHelper.SHADER_TEXTURE_CIRCLE,
-                mVertexShaderHandle, mFragmentShaderHandle);
-        if (mProgramHandle == 0)
-        {
-            throw new RuntimeException("Error creating program.");
-        }
+        // Programs of the previous context lost
+        mPrograms.reset("");
+        mProgramHandle = 0;
 
         mCircle = new Circle();
-        mCircle.initCircle(mProgramHandle, mViewMatrix, mTextureEnabled);
-
-        // Tell OpenGL to use this program when rendering.
-        GLES20.glUseProgram(mProgramHandle);
+        updateProgram(mMaskEnabled);
 
         // Prepare texture
-        mTextureDataHandle = TextureHelper.loadTexture(mContext, R.drawable.logo_st_256, 0.4f);
+        mTextureDataHandle = mTexture.upload();
+
+        // Upload vertices in GPU buffer objects (previous ones lost with the previous context)
+        mNoColorBuffer.upload();
+        mColorBuffer.upload();
+        mColorGradientBuffer.upload();
+        mDrawOrderBuffer.upload();
+        if (mNoColorFanBuffer != null) {
+            mNoColorFanBuffer.upload();
+            mColorFanBuffer.upload();
+            mColorGradientFanBuffer.upload();
+        }
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
+        if (getSpriteBatch() != null) {
+            getSpriteBatch().onSurfaceChanged(width, height);
+            return;
+        }
         mCircle.updateCircle(width,height);
+        updateFanBuffers(height);
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        // Texture uploaded once decoded (placeholder drawn until then)
+        mTexture.update();
+        mTextureDataHandle = mTexture.getHandle();
+
         GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
 
         float angleInDegrees = getAngleInDegrees();
 
+        if (getSpriteBatch() != null) {
+            getSpriteBatch().draw(angleInDegrees, mTextureEnabled);
+            return;
+        }
+
+        final boolean masked = mMaskEnabled;
+        updateProgram(masked);
+
         // Draw the triangle facing straight on.
         Matrix.setIdentityM(mModelMatrix, 0);
         Matrix.rotateM(mModelMatrix, 0, angleInDegrees, 0.0f, 0.0f, 1.0f);
-        if (isColored()) {
-            if (isColorGradient()) {
-                mCircle.draw(mVerticesBuffer, mColorGradientBuffer, mTextureCoordinateBuffer, mTextureDataHandle,
-                        mDrawOrderBuffer, mModelMatrix);
+        if (masked) {
+            // Square masked per fragment (about 21% of the square fragments outside of the circle)
+            if (isColored()) {
+                if (isColorGradient()) {
+                    mCircle.draw(mColorGradientBuffer, mTextureDataHandle,
+                            mDrawOrderBuffer, mModelMatrix);
+                } else {
+                    mCircle.draw(mColorBuffer, mTextureDataHandle,
+                            mDrawOrderBuffer, mModelMatrix);
+                }
             } else {
-                mCircle.draw(mVerticesBuffer, mColorBuffer, mTextureCoordinateBuffer, mTextureDataHandle,
+                mCircle.draw(mNoColorBuffer, mTextureDataHandle,
                         mDrawOrderBuffer, mModelMatrix);
             }
         } else {
-            mCircle.draw(mVerticesBuffer, mNoColorBuffer, mTextureCoordinateBuffer, mTextureDataHandle,
-                    mDrawOrderBuffer, mModelMatrix);
+            if (isColored()) {
+                if (isColorGradient()) {
+                    mCircle.drawFan(mColorGradientFanBuffer, mTextureDataHandle, mModelMatrix);
+                } else {
+                    mCircle.drawFan(mColorFanBuffer, mTextureDataHandle, mModelMatrix);
+                }
+            } else {
+                mCircle.drawFan(mNoColorFanBuffer, mTextureDataHandle, mModelMatrix);
+            }
         }
     }
 
     @Override
     public void setTextureState(boolean state) {
-        if (mCircle != null) {
-            mCircle.setTextureState(state);
-        }
+        // Program variant selected at the next frame
         mTextureEnabled = state;
     }
 
+    /**
+     * Select the circle drawing path (comparison of the two paths)
+     *
+     * @param state true to draw the square masked per fragment by the circle, false to draw the
+     *              triangle fan of the circle (default)
+     */
+    public void setMaskState(boolean state) {
+        mMaskEnabled = state;
+    }
+
     @Override
     public void cancelRendering() {
-        GLES20.glDetachShader(mProgramHandle, mVertexShaderHandle);
-        GLES20.glDeleteShader(mVertexShaderHandle);
-
-        GLES20.glDetachShader(mProgramHandle, mFragmentShaderHandle);
-        GLES20.glDeleteShader(mFragmentShaderHandle);
+        if (getSpriteBatch() != null) {
+            getSpriteBatch().cancelRendering();
+            return;
+        }
 
-        GLES20.glDeleteProgram(mProgramHandle);
+        // Programs deleted once no more used by any renderer
+        mPrograms.release();
+        mProgramHandle = 0;
     }
 
     @Override
@@ -253,4 +378,26 @@ public class CircleRenderer extends Shape2DRenderer {
     public boolean isLightManaged() {
         return false;
     }
+
+    /**
+     * Select the program variant matching the texture state and the drawing path (shared with the
+     * other renderers, compiled the first time it is used)
+     *
+     * @param masked true if the square is masked per fragment by the circle
+     */
+    private void updateProgram(boolean masked) {
+        int variant = masked ? ShaderHelper.VARIANT_CIRCLE_MASK : 0;
+        if (mTextureEnabled) {
+            variant |= ShaderHelper.VARIANT_TEXTURE;
+        }
+
+        final int programHandle = mPrograms.get(variant);
+        if (programHandle != mProgramHandle) {
+            mProgramHandle = programHandle;
+            mCircle.initCircle(mProgramHandle, mViewMatrix);
+        }
+
+        // Tell OpenGL to use this program when rendering.
+        GlStateCache.useProgram(mProgramHandle);
+    }
 }
@@ -1,12 +1,46 @@
 package com.stmicroelectronics.stgraphics.renderer.TwoD;
 
+import android.content.Context;
 import android.opengl.GLSurfaceView;
 import android.os.SystemClock;
 
+import com.stmicroelectronics.stgraphics.utils.MeshBuilder;
 import com.stmicroelectronics.stgraphics.utils.Utility;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
+import com.stmicroelectronics.stgraphics.utils.VertexFormat;
 
 public abstract class Shape2DRenderer implements GLSurfaceView.Renderer {
 
+    /** Interleaved vertex format: position (X,Y,Z), color (R,G,B,A), texture coordinates (X,Y) */
+    final static VertexFormat VERTEX_FORMAT = new VertexFormat(
+            3, VertexFormat.TYPE_SHORT,
+            4, VertexFormat.TYPE_UNSIGNED_BYTE,
+            2, VertexFormat.TYPE_HALF_FLOAT);
+    final static int ATTRIBUTE_POSITION = 0;
+    final static int ATTRIBUTE_COLOR = 1;
+    final static int ATTRIBUTE_TEXTURE_COORDINATE = 2;
+
+    /**
+     * Build an interleaved vertex buffer (attributes written directly in the packed buffer)
+     *
+     * @param vertices vertices coordinates (X,Y,Z)
+     * @param colors one color (R,G,B,A) per vertex
+     * @param textureCoordinates texture coordinates (X,Y)
+     * @return vertex buffer
+     */
+    static VertexBuffer createVertexBuffer(final float[] vertices, final float[][] colors,
+                                           final float[] textureCoordinates) {
+        final MeshBuilder builder = new MeshBuilder(VERTEX_FORMAT, colors.length);
+
+        builder.putAll(ATTRIBUTE_POSITION, vertices);
+        for (int i = 0; i < colors.length; i++) {
+            builder.put(i, ATTRIBUTE_COLOR, colors[i][0], colors[i][1], colors[i][2], colors[i][3]);
+        }
+        builder.putAll(ATTRIBUTE_TEXTURE_COORDINATE, textureCoordinates);
+
+        return new VertexBuffer(builder);
+    }
+
     private volatile float mAngle;
     private volatile float mDeltaAngle;
     private boolean mPause = false;
@@ -20,6 +54,11 @@ public abstract class Shape2DRenderer implements GLSurfaceView.Renderer {
     private float mFullTurnTime = 10000.0f;
     private boolean mClockwise = false;
 
+    /** Stress mode: number of sprites drawn (0 if disabled), their shape and their batch */
+    private volatile int mStressInstances = 0;
+    private SpriteBatch.Sprite mSprite;
+    private SpriteBatch mSpriteBatch;
+
     /**
      * Get current angle value
      *
@@ -179,6 +218,56 @@ public abstract class Shape2DRenderer implements GLSurfaceView.Renderer {
         return angleInDegrees;
     }
 
+    /**
+     * Set the shape drawn by the sprites in stress mode
+     *
+     * @param sprite sprite shape
+     */
+    void setSprite(final SpriteBatch.Sprite sprite) {
+        mSprite = sprite;
+    }
+
+    /**
+     * Enable/Disable the stress mode (taken into account the next time the surface is created)
+     *
+     * @param count number of shape sprites drawn in a grid (1 to 10000, 0 to disable)
+     */
+    public void setStressInstances(int count) {
+        mStressInstances = Math.max(0, Math.min(count, SpriteBatch.MAX_INSTANCES));
+    }
+
+    /**
+     * Update the stress mode sprite batch (shall be called in GL thread when the surface is
+     * created)
+     *
+     * @param context current application context
+     * @param viewMatrix view matrix (camera)
+     * @return true if the sprite batch is drawn instead of the shape (stress mode)
+     */
+    boolean updateSpriteBatch(final Context context, final float[] viewMatrix) {
+        final int count = mStressInstances;
+        if ((count == 0) || (mSprite == null)) {
+            mSpriteBatch = null;
+            return false;
+        }
+        if ((mSpriteBatch == null) || (mSpriteBatch.getCount() != count)) {
+            mSpriteBatch = new SpriteBatch(context, count, mSprite);
+        }
+        mSpriteBatch.onSurfaceCreated(context, viewMatrix);
+        return true;
+    }
+
+    /**
+     * Get back the stress mode sprite batch
+     *
+     * @return sprite batch (null if stress mode disabled)
+     */
+    SpriteBatch getSpriteBatch() {
+        return mSpriteBatch;
+    }
+
+
+
     /**
      * Enable/Disable textures (abstract)
      * @param state new texture state
@@ -186,7 +275,7 @@ public abstract class Shape2DRenderer implements GLSurfaceView.Renderer {
     public abstract void setTextureState(boolean state);
 
     /**
-     * Cancel rendering (detach shader and program)
+     * Cancel rendering (release the program, deleted once no more used by any renderer)
      */
     public abstract void cancelRendering();
 
@@ -0,0 +1,381 @@
+package com.stmicroelectronics.stgraphics.renderer.TwoD;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.SystemClock;
+
+import com.stmicroelectronics.stgraphics.R;
+import com.stmicroelectronics.stgraphics.texture.TextureAssets;
+import com.stmicroelectronics.stgraphics.utils.AsyncTexture;
+import com.stmicroelectronics.stgraphics.utils.GlStateCache;
+import com.stmicroelectronics.stgraphics.utils.IndexBuffer;
+import com.stmicroelectronics.stgraphics.utils.MeshBuilder;
+import com.stmicroelectronics.stgraphics.utils.ProgramVariants;
+import com.stmicroelectronics.stgraphics.utils.ShaderHelper;
+import com.stmicroelectronics.stgraphics.utils.TextureAtlas;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
+import com.stmicroelectronics.stgraphics.utils.VertexFormat;
+
+import java.util.Random;
+
+import timber.log.Timber;
+
+/**
+ * Grid of 2D shape sprites drawn in stress mode (fill-rate and vertex throughput measurement on
+ * ES 2.0, no instancing required). Each sprite has its own angle, angular speed, color mode and
+ * texture sub-rect (one atlas for all the sprites). The sprites are transformed on the CPU each
+ * frame into one dynamic vertex buffer (positions only, the other attributes are static) and all
+ * drawn with a single glDrawElements.
+ * Shall only be used in GL thread.
+ */
+class SpriteBatch {
+
+    /** Maximum number of sprites (16 bits indices kept for 4 vertices sprites) */
+    final static int MAX_INSTANCES = 10000;
+
+    /** Grid half size (world space, visible part of the plane Z = 0 is about 1.5) and sprite size relative to the grid cell */
+    private final static float GRID_EXTENT = 1.2f;
+    private final static float SPRITE_SIZE = 0.35f;
+
+    /** Sprite angular speeds in degrees per second */
+    private final static float MIN_SPEED = 30.0f;
+    private final static float MAX_SPEED = 180.0f;
+
+    /** Statistics reported once per period */
+    private final static long REPORT_PERIOD_MS = 1000;
+
+    /** Sprite textures (packed in one atlas, drawables of TextureAssets.SPRITES) */
+    private final static int[] TEXTURE_IDS = {R.drawable.logo_st_128, R.drawable.logo_stm32_128, R.drawable.logo_stm32mp1_128};
+
+    /** Sprite color modes (no color, flat color, color gradient) */
+    private final static int NB_COLOR_MODES = 3;
+
+    /** Dynamic vertex format: position (X,Y) */
+    private final static VertexFormat POSITION_FORMAT = new VertexFormat(2, VertexFormat.TYPE_FLOAT);
+    private final static int ATTRIBUTE_POSITION = 0;
+    private final static int NB_FLOATS_PER_POSITION = 2;
+
+    /** Static vertex format: color (R,G,B,A), texture coordinates (X,Y), circle coordinates (X,Y) */
+    private final static VertexFormat ATTRIBUTE_FORMAT = new VertexFormat(
+            4, VertexFormat.TYPE_UNSIGNED_BYTE,
+            2, VertexFormat.TYPE_HALF_FLOAT,
+            2, VertexFormat.TYPE_BYTE);
+    private final static int ATTRIBUTE_COLOR = 0;
+    private final static int ATTRIBUTE_TEXTURE_COORDINATE = 1;
+    private final static int ATTRIBUTE_CIRCLE_COORDINATE = 2;
+
+    /**
+     * Shape drawn by the sprites
+     */
+    static class Sprite {
+        private final float[] mVertices;
+        private final float[][][] mColors;
+        private final float[] mTextureCoordinates;
+        private final short[] mDrawOrder;
+        private final boolean mCircle;
+
+        /**
+         * Create a sprite shape
+         *
+         * @param vertices vertices coordinates (X,Y,Z), Z ignored
+         * @param colors one color (R,G,B,A) per vertex for each color mode (no color, flat color,
+         *               color gradient)
+         * @param textureCoordinates texture coordinates (X,Y) in the sprite texture
+         * @param drawOrder vertices draw order (triangles)
+         * @param circle true if masked by the circle inscribed in the shape (square shapes)
+         */
+        Sprite(final float[] vertices, final float[][][] colors, final float[] textureCoordinates,
+               final short[] drawOrder, boolean circle) {
+            mVertices = vertices;
+            mColors = colors;
+            mTextureCoordinates = textureCoordinates;
+            mDrawOrder = drawOrder;
+            mCircle = circle;
+        }
+
+        int getVertexCount() {
+            return mTextureCoordinates.length / 2;
+        }
+    }
+
+    private final int mCount;
+    private final Sprite mSprite;
+    private final int mVertexCount;
+    private final int mIndexCount;
+
+    /** Sprite state: grid position, angle (degrees) and angular speed (degrees per second) */
+    private final float[] mCenters;
+    private final float[] mAngles;
+    private final float[] mSpeeds;
+    private final float mScale;
+
+    /** Positions transformed each frame, then copied in the dynamic vertex buffer */
+    private final float[] mPositions;
+    private final VertexBuffer mPositionBuffer;
+    private final VertexBuffer mAttributeBuffer;
+    private final IndexBuffer mDrawOrderBuffer;
+
+    private final TextureAtlas mTextureAtlas;
+
+    /** Atlas decoded in background (placeholder until available) */
+    private final AsyncTexture mTexture;
+
+    /** This is a handle to our texture data. */
+    private int mTextureDataHandle;
+
+    /** Program variants used (texture state, circle mask) and program of the current one */
+    private final ProgramVariants mPrograms = new ProgramVariants(ShaderHelper.SHADER_SPRITE);
+    private int mProgramHandle;
+
+    /** This will be used to pass in model the sprite information. */
+    private int mMVPMatrixHandle;
+    private int mPositionHandle;
+    private int mColorHandle;
+    private int mTextureCoordinateHandle;
+    private int mCircleCoordinateHandle;
+    private int mTextureUniformHandle;
+
+    private final float[] mViewMatrix = new float[16];
+    private final float[] mProjectionMatrix = new float[16];
+    private final float[] mMVPMatrix = new float[16];
+
+    private long mPreviousTime;
+
+    /** Statistics of the current period */
+    private long mPeriodStart;
+    private int mFrames;
+
+    /**
+     * Create the sprite batch (square grid, sprites filled row by row)
+     *
+     * @param context current application context
+     * @param count number of sprites (1 to MAX_INSTANCES)
+     * @param sprite shape drawn by the sprites
+     */
+    SpriteBatch(final Context context, int count, final Sprite sprite) {
+        mCount = Math.max(1, Math.min(count, MAX_INSTANCES));
+        mSprite = sprite;
+        mVertexCount = sprite.getVertexCount();
+        mIndexCount = sprite.mDrawOrder.length;
+
+        final int side = (int) Math.ceil(Math.sqrt(mCount) - 1e-6);
+        final int rows = (mCount + side - 1) / side;
+        final float cell = 2.0f * GRID_EXTENT / side;
+
+        mCenters = new float[2 * mCount];
+        mAngles = new float[mCount];
+        mSpeeds = new float[mCount];
+        mScale = SPRITE_SIZE * cell;
+
+        mTextureAtlas = new TextureAtlas(context, TEXTURE_IDS, TextureAssets.SPRITES);
+        mTexture = AsyncTexture.decodeAtlas(context, mTextureAtlas);
+
+        // Same sprites from one run to another
+        final Random random = new Random(mCount);
+
+        // Static attributes: color mode and texture sub-rect of each sprite
+        final MeshBuilder builder = new MeshBuilder(ATTRIBUTE_FORMAT, mCount * mVertexCount);
+        final float[] textureCoordinates = new float[2 * mVertexCount];
+        final short[] drawOrder = new short[mCount * mIndexCount];
+
+        for (int i = 0; i < mCount; i++) {
+            mCenters[2 * i] = (i % side - (side - 1) / 2.0f) * cell;
+            mCenters[2 * i + 1] = ((rows - 1) / 2.0f - i / side) * cell;
+            mAngles[i] = random.nextFloat() * 360.0f;
+            final float speed = MIN_SPEED + random.nextFloat() * (MAX_SPEED - MIN_SPEED);
+            mSpeeds[i] = random.nextBoolean() ? speed : -speed;
+
+            final float[][] colors = sprite.mColors[random.nextInt(NB_COLOR_MODES)];
+            System.arraycopy(sprite.mTextureCoordinates, 0, textureCoordinates, 0, textureCoordinates.length);
+            mTextureAtlas.mapTextureCoordinates(textureCoordinates, 0, mVertexCount, random.nextInt(TEXTURE_IDS.length));
+
+            final int firstVertex = i * mVertexCount;
+            for (int v = 0; v < mVertexCount; v++) {
+                builder.put(firstVertex + v, ATTRIBUTE_COLOR, colors[v][0], colors[v][1], colors[v][2], colors[v][3]);
+                builder.put(firstVertex + v, ATTRIBUTE_TEXTURE_COORDINATE,
+                        textureCoordinates[2 * v], textureCoordinates[2 * v + 1]);
+                if (sprite.mCircle) {
+                    // Circle inscribed in the square (-1.0 to 1.0)
+                    builder.put(firstVertex + v, ATTRIBUTE_CIRCLE_COORDINATE,
+                            Math.signum(sprite.mVertices[3 * v]), Math.signum(sprite.mVertices[3 * v + 1]));
+                } else {
+                    builder.put(firstVertex + v, ATTRIBUTE_CIRCLE_COORDINATE, 0.0f, 0.0f);
+                }
+            }
+
+            // Sprites drawn one after the other (overlapping sprites keep their order)
+            for (int e = 0; e < mIndexCount; e++) {
+                drawOrder[i * mIndexCount + e] = (short) (firstVertex + sprite.mDrawOrder[e]);
+            }
+        }
+
+        mAttributeBuffer = new VertexBuffer(builder);
+        mDrawOrderBuffer = new IndexBuffer(drawOrder);
+
+        mPositions = new float[NB_FLOATS_PER_POSITION * mCount * mVertexCount];
+        mPositionBuffer = new VertexBuffer(POSITION_FORMAT, mCount * mVertexCount);
+    }
+
+    /**
+     * Create the sprite program, load the atlas and upload the buffers (shall be called in GL thread
+     * each time the surface is created)
+     *
+     * @param context current application context
+     * @param viewMatrix view matrix (camera)
+     */
+    void onSurfaceCreated(final Context context, final float[] viewMatrix) {
+        System.arraycopy(viewMatrix, 0, mViewMatrix, 0, 16);
+
+        // Programs of the previous context lost (variant selected when drawn)
+        mPrograms.reset("");
+        mProgramHandle = 0;
+
+        mTextureDataHandle = mTexture.upload();
+
+        // Upload vertices in GPU buffer objects (previous ones lost with the previous context)
+        mPositionBuffer.upload();
+        mAttributeBuffer.upload();
+        mDrawOrderBuffer.upload();
+
+        Timber.i("Stress mode: %d sprites (%d vertices, one draw)", mCount, mCount * mVertexCount);
+
+        mPreviousTime = SystemClock.uptimeMillis();
+        mPeriodStart = mPreviousTime;
+        mFrames = 0;
+    }
+
+    /**
+     * Update the projection depending on surface parameters
+     *
+     * @param width GLSurface width
+     * @param height GLSurface height
+     */
+    void onSurfaceChanged(int width, int height) {
+        // Set the OpenGL viewport to the same size as the surface.
+        GLES20.glViewport(0, 0, width, height);
+
+        final float ratio = (float) width / height;
+        Matrix.frustumM(mProjectionMatrix, 0, -ratio, ratio, -1.0f, 1.0f, 1.0f, 10.0f);
+        Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mViewMatrix, 0);
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Transform and draw all the sprites
+     *
+     * @param angleInDegrees angle added to the angle of each sprite (shape renderer rotation)
+     * @param textureState true if texture enabled
+     */
+    void draw(float angleInDegrees, boolean textureState) {
+        final long time = SystemClock.uptimeMillis();
+        final float elapsed = (time - mPreviousTime) / 1000.0f;
+        mPreviousTime = time;
+
+        // Atlas uploaded once decoded (placeholder drawn until then)
+        mTexture.update();
+        mTextureDataHandle = mTexture.getHandle();
+
+        // Rotate, scale and move the sprite vertices (X,Y)
+        final float[] vertices = mSprite.mVertices;
+        int p = 0;
+        for (int i = 0; i < mCount; i++) {
+            mAngles[i] = (mAngles[i] + mSpeeds[i] * elapsed) % 360.0f;
+
+            final double angle = Math.toRadians(mAngles[i] + angleInDegrees);
+            final float cos = (float) Math.cos(angle) * mScale;
+            final float sin = (float) Math.sin(angle) * mScale;
+            final float x = mCenters[2 * i];
+            final float y = mCenters[2 * i + 1];
+
+            for (int v = 0; v < 3 * mVertexCount; v += 3) {
+                mPositions[p++] = x + cos * vertices[v] - sin * vertices[v + 1];
+                mPositions[p++] = y + sin * vertices[v] + cos * vertices[v + 1];
+            }
+        }
+        mPositionBuffer.update(mPositions, p);
+
+        updateProgram(textureState);
+        GlStateCache.useProgram(mProgramHandle);
+
+        // Attributes setup recorded once (ES 3.0, positions rewritten in the same buffer object)
+        if (!mAttributeBuffer.getVertexArray().bind(mProgramHandle)) {
+            mPositionBuffer.bindAttribute(mPositionHandle, ATTRIBUTE_POSITION);
+            mAttributeBuffer.bindAttribute(mColorHandle, ATTRIBUTE_COLOR);
+            mAttributeBuffer.bindAttribute(mTextureCoordinateHandle, ATTRIBUTE_TEXTURE_COORDINATE);
+            mAttributeBuffer.bindAttribute(mCircleCoordinateHandle, ATTRIBUTE_CIRCLE_COORDINATE);
+        }
+
+        // Bind the atlas to texture unit 0
+        GlStateCache.bindTexture(0, mTextureDataHandle);
+        GlStateCache.uniform1i(mTextureUniformHandle, 0);
+
+        // Sprites already in world space: view * projection only
+        GlStateCache.uniformMatrix4fv(mMVPMatrixHandle, mMVPMatrix, 0);
+
+        mDrawOrderBuffer.draw(GLES20.GL_TRIANGLES, mCount * mIndexCount);
+
+        updateStatistics(time);
+    }
+
+    /**
+     * Statistics reported once per period
+     *
+     * @param time current time
+     */
+    private void updateStatistics(long time) {
+        mFrames++;
+
+        final long elapsed = time - mPeriodStart;
+        if (elapsed < REPORT_PERIOD_MS) {
+            return;
+        }
+
+        // One draw per frame
+        Timber.i("Stress mode: %d sprites, %.1f frames/s, %d triangles/s, %d draws/s",
+                mCount, mFrames * 1000.0f / elapsed, (long) mFrames * mCount * (mIndexCount / 3) * 1000 / elapsed,
+                mFrames * 1000L / elapsed);
+
+        mPeriodStart = time;
+        mFrames = 0;
+    }
+
+    /**
+     * Cancel rendering (release the program)
+     */
+    void cancelRendering() {
+        // Programs deleted once no more used by any renderer
+        mPrograms.release();
+        mProgramHandle = 0;
+    }
+
+    /**
+     * Select the program variant matching the texture state and the sprite shape (shared with
+     * the other renderers, compiled the first time it is used)
+     *
+     * @param textureState true if texture enabled
+     */
+    private void updateProgram(boolean textureState) {
+        int variant = mSprite.mCircle ? ShaderHelper.VARIANT_CIRCLE_MASK : 0;
+        if (textureState) {
+            variant |= ShaderHelper.VARIANT_TEXTURE;
+        }
+
+        final int programHandle = mPrograms.get(variant);
+        if (programHandle == mProgramHandle) {
+            return;
+        }
+
+        // Set program handles. These will later be used to pass in values to the program.
+        mProgramHandle = programHandle;
+        mMVPMatrixHandle = ShaderHelper.getUniformLocation(mProgramHandle, "u_MVPMatrix");
+        mPositionHandle = ShaderHelper.getAttribLocation(mProgramHandle, "a_Position");
+        mColorHandle = ShaderHelper.getAttribLocation(mProgramHandle, "a_Color");
+        mTextureCoordinateHandle = ShaderHelper.getAttribLocation(mProgramHandle, "a_TexCoordinate");
+        mCircleCoordinateHandle = ShaderHelper.getAttribLocation(mProgramHandle, "a_CircleCoordinate");
+        mTextureUniformHandle = ShaderHelper.getUniformLocation(mProgramHandle, "u_Texture");
+    }
+}
@@ -5,14 +5,14 @@ import android.opengl.GLES20;
 import android.opengl.Matrix;
 
 import com.stmicroelectronics.stgraphics.R;
+import com.stmicroelectronics.stgraphics.texture.TextureAssets;
+import com.stmicroelectronics.stgraphics.utils.AsyncTexture;
+import com.stmicroelectronics.stgraphics.utils.GlStateCache;
+import com.stmicroelectronics.stgraphics.utils.IndexBuffer;
+import com.stmicroelectronics.stgraphics.utils.ProgramVariants;
 import com.stmicroelectronics.stgraphics.utils.ShaderHelper;
-import com.stmicroelectronics.stgraphics.utils.TextureHelper;
 import com.stmicroelectronics.stgraphics.utils.Utility;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -22,14 +22,12 @@ import javax.microedition.khronos.opengles.GL10;
  */
 public class SquareRenderer extends Shape2DRenderer {
 
-    /** Store our model data in a float buffer */
-    private final FloatBuffer mVerticesBuffer;
-    private final FloatBuffer mNoColorBuffer;
-    private final FloatBuffer mColorBuffer;
-    private final FloatBuffer mColorGradientBuffer;
-    private final FloatBuffer mTextureCoordinateBuffer;
+    /** Store our model data in vertex buffers (one interleaved buffer per color mode) */
+    private final VertexBuffer mNoColorBuffer;
+    private final VertexBuffer mColorBuffer;
+    private final VertexBuffer mColorGradientBuffer;
 
-    private final ShortBuffer mDrawOrderBuffer;
+    private final IndexBuffer mDrawOrderBuffer;
 
     /**
      * Store the view matrix. This can be thought of as our camera. This matrix transforms world space to eye space;
@@ -46,17 +44,21 @@ public class SquareRenderer extends Shape2DRenderer {
     /** This is a handle to our texture data. */
     private int mTextureDataHandle;
 
+    /** Texture decoded in background (placeholder until available) */
+    private final AsyncTexture mTexture;
+
+    /** Program variants used (texture state) and program of the current one */
+    private final ProgramVariants mPrograms = new ProgramVariants(ShaderHelper.SHADER_TEXTURE);
     private int mProgramHandle;
-    private int mVertexShaderHandle;
-    private int mFragmentShaderHandle;
 
     private final Context mContext;
     private final Square mSquare;
 
-    private boolean mTextureEnabled = false;
+    private volatile boolean mTextureEnabled = false;
 
     public SquareRenderer(Context context) {
         mContext = context;
+        mTexture = AsyncTexture.decode(mContext, R.drawable.logo_st_256, TextureAssets.SQUARE);
 
         float[] colorLight, color1, color2, color3, color4;
 
@@ -67,9 +69,6 @@ public class SquareRenderer extends Shape2DRenderer {
         color3 = Utility.normalizeColor(mContext.getColor(R.color.colorShape3));
         color4 = Utility.normalizeColor(mContext.getColor(R.color.colorShape4));
 
-        /* How many bytes per float. */
-        int bytesPerFloat = 4;
-
         final float[] squareVertices = {
                 // X, Y, Z
                 -0.75f, 0.75f, 0.0f,
@@ -77,26 +76,17 @@ public class SquareRenderer extends Shape2DRenderer {
                 0.75f, -0.75f, 0.0f,
                 0.75f, 0.75f, 0.0f};
 
-        final float[] squareNoColor = {
+        final float[][] squareNoColor = {
                 // R, G, B, A
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3]};
+                colorLight, colorLight, colorLight, colorLight};
 
-        final float[] squareColor = {
+        final float[][] squareColor = {
                 // R, G, B, A
-                color3[0], color3[1], color3[2], color3[3],
-                color3[0], color3[1], color3[2], color3[3],
-                color3[0], color3[1], color3[2], color3[3],
-                color3[0], color3[1], color3[2], color3[3]};
+                color3, color3, color3, color3};
 
-        final float[] squareColorGradient = {
+        final float[][] squareColorGradient = {
                 // R, G, B, A
-                color1[0], color1[1], color1[2], color1[3],
-                color3[0], color3[1], color3[2], color3[3],
-                color2[0], color2[1], color2[2], color2[3],
-                color4[0], color4[1], color4[2], color4[3]};
+                color1, color3, color2, color4};
 
         final float[] squareTextureCoordinate = {
                 // X, Y
@@ -108,29 +98,17 @@ public class SquareRenderer extends Shape2DRenderer {
         // square = two triangles
         final short[] squareDrawOrder = new short[]{0, 1, 2, 0, 2, 3};
 
-        mVerticesBuffer = ByteBuffer.allocateDirect(squareVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mVerticesBuffer.put(squareVertices).position(0);
-
-        mNoColorBuffer = ByteBuffer.allocateDirect(squareNoColor.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mNoColorBuffer.put(squareNoColor).position(0);
+        // Write position, color and texture coordinates of each vertex (compact types)
+        mNoColorBuffer = createVertexBuffer(squareVertices, squareNoColor, squareTextureCoordinate);
+        mColorBuffer = createVertexBuffer(squareVertices, squareColor, squareTextureCoordinate);
+        mColorGradientBuffer = createVertexBuffer(squareVertices, squareColorGradient, squareTextureCoordinate);
 
-        mColorBuffer = ByteBuffer.allocateDirect(squareColor.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mColorBuffer.put(squareColor).position(0);
+        // Same shape drawn by the sprites in stress mode
+        setSprite(new SpriteBatch.Sprite(squareVertices,
+                new float[][][] {squareNoColor, squareColor, squareColorGradient},
+                squareTextureCoordinate, squareDrawOrder, false));
 
-        mColorGradientBuffer = ByteBuffer.allocateDirect(squareColorGradient.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mColorGradientBuffer.put(squareColorGradient).position(0);
-
-        mTextureCoordinateBuffer = ByteBuffer.allocateDirect(squareTextureCoordinate.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mTextureCoordinateBuffer.put(squareTextureCoordinate).position(0);
-
-        mDrawOrderBuffer = ByteBuffer.allocateDirect(squareDrawOrder.length * 2)
-                .order(ByteOrder.nativeOrder()).asShortBuffer();
-        mDrawOrderBuffer.put(squareDrawOrder).position(0);
+        mDrawOrderBuffer = new IndexBuffer(squareDrawOrder);
 
         mSquare = new Square();
     }
@@ -163,45 +141,37 @@ public class SquareRenderer extends Shape2DRenderer {
         // view matrix. In OpenGL 2, we can keep track of these matrices separately if we choose.
         Matrix.setLookAtM(mViewMatrix, 0, eyeX, eyeY, eyeZ, lookX, lookY, lookZ, upX, upY, upZ);
 
-        // Load in the vertex shader.
-        mVertexShaderHandle = ShaderHelper.compileVertexShader(ShaderHelper.SHADER_TEXTURE);
-        if (mVertexShaderHandle == 0)
-        {
-            throw new RuntimeException("Error creating vertex shader.");
-        }
-
-        // Load in the fragment shader.
-        mFragmentShaderHandle = ShaderHelper.compileFragmentShader(ShaderHelper.SHADER_TEXTURE);
-        if (mFragmentShaderHandle == 0)
-        {
-            throw new RuntimeException("Error creating fragment shader.");
-        }
-
-        // Create and link a program object and store the handle to it.
-        mProgramHandle = ShaderHelper.linkProgram(ShaderHelper.SHADER_TEXTURE, mVertexShaderHandle, mFragmentShaderHandle);
-        if (mProgramHandle == 0)
-        {
-            throw new RuntimeException("Error creating program.");
+        // Stress mode: sprite batch drawn instead of the shape
+        if (updateSpriteBatch(mContext, mViewMatrix)) {
+            return;
         }
 
-        mSquare.initSquare(mProgramHandle, mViewMatrix, mTextureEnabled);
+        // Programs of the previous context lost
+        mPrograms.reset("");
+        mProgramHandle = 0;
 
-        // Tell OpenGL to use this program when rendering.
-        GLES20.glUseProgram(mProgramHandle);
+        updateProgram();
 
         // Prepare texture unit
-        mTextureDataHandle = TextureHelper.loadTexture(mContext, R.drawable.logo_st_256);
+        mTextureDataHandle = mTexture.upload();
+
+        // Upload vertices in GPU buffer objects (previous ones lost with the previous context)
+        mNoColorBuffer.upload();
+        mColorBuffer.upload();
+        mColorGradientBuffer.upload();
+        mDrawOrderBuffer.upload();
     }
 
     @Override
     public void cancelRendering() {
-        GLES20.glDetachShader(mProgramHandle, mVertexShaderHandle);
-        GLES20.glDeleteShader(mVertexShaderHandle);
-
-        GLES20.glDetachShader(mProgramHandle, mFragmentShaderHandle);
-        GLES20.glDeleteShader(mFragmentShaderHandle);
+        if (getSpriteBatch() != null) {
+            getSpriteBatch().cancelRendering();
+            return;
+        }
 
-        GLES20.glDeleteProgram(mProgramHandle);
+        // Programs deleted once no more used by any renderer
+        mPrograms.release();
+        mProgramHandle = 0;
     }
 
     @Override
@@ -216,37 +186,67 @@ public class SquareRenderer extends Shape2DRenderer {
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
+        if (getSpriteBatch() != null) {
+            getSpriteBatch().onSurfaceChanged(width, height);
+            return;
+        }
         mSquare.updateSquare(width,height);
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        // Texture uploaded once decoded (placeholder drawn until then)
+        mTexture.update();
+        mTextureDataHandle = mTexture.getHandle();
+
         GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
 
         float angleInDegrees = getAngleInDegrees();
 
+        if (getSpriteBatch() != null) {
+            getSpriteBatch().draw(angleInDegrees, mTextureEnabled);
+            return;
+        }
+
+        updateProgram();
+
         // Draw the triangle facing straight on.
         Matrix.setIdentityM(mModelMatrix, 0);
         Matrix.rotateM(mModelMatrix, 0, angleInDegrees, 0.0f, 0.0f, 1.0f);
         if (isColored()) {
             if (isColorGradient()) {
-                mSquare.draw(mVerticesBuffer, mColorGradientBuffer, mTextureCoordinateBuffer, mTextureDataHandle,
+                mSquare.draw(mColorGradientBuffer, mTextureDataHandle,
                         mDrawOrderBuffer, mModelMatrix);
             } else {
-                mSquare.draw(mVerticesBuffer, mColorBuffer, mTextureCoordinateBuffer, mTextureDataHandle,
+                mSquare.draw(mColorBuffer, mTextureDataHandle,
                         mDrawOrderBuffer, mModelMatrix);
             }
         } else {
-            mSquare.draw(mVerticesBuffer, mNoColorBuffer, mTextureCoordinateBuffer, mTextureDataHandle,
+            mSquare.draw(mNoColorBuffer, mTextureDataHandle,
                     mDrawOrderBuffer, mModelMatrix);
         }
     }
 
     @Override
     public void setTextureState(boolean state) {
-        if (mSquare != null) {
-            mSquare.setTextureState(state);
-        }
+        // Program variant selected at the next frame
         mTextureEnabled = state;
     }
+
+    /**
+     * Select the program variant matching the texture state (shared with the other renderers,
+     * compiled the first time it is used)
+     */
+    private void updateProgram() {
+        final int variant = mTextureEnabled ? ShaderHelper.VARIANT_TEXTURE : 0;
+
+        final int programHandle = mPrograms.get(variant);
+        if (programHandle != mProgramHandle) {
+            mProgramHandle = programHandle;
+            mSquare.initSquare(mProgramHandle, mViewMatrix);
+        }
+
+        // Tell OpenGL to use this program when rendering.
+        GlStateCache.useProgram(mProgramHandle);
+    }
 }
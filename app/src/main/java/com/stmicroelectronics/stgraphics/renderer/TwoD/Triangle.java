@@ -3,17 +3,20 @@ package com.stmicroelectronics.stgraphics.renderer.TwoD;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 
-import java.nio.FloatBuffer;
+import com.stmicroelectronics.stgraphics.utils.GlStateCache;
+import com.stmicroelectronics.stgraphics.utils.ShaderHelper;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
 
 /**
  * Draw Triangle (GLES 2.0)
  */
 class Triangle {
-    private boolean mTextureEnabled;
-
     /** Allocate storage for the final combined matrix. This will be passed into the shader program. */
     private final float[] mMVPMatrix = new float[16];
 
+    /** This will be used to record the attributes setup (vertex array object of the mesh). */
+    private int mProgramHandle;
+
     /** This will be used to pass in the transformation matrix. */
     private int mMVPMatrixHandle;
 
@@ -26,9 +29,6 @@ class Triangle {
     /** This will be used to pass in model the texture information. */
     private int mTextureUniformHandle;
 
-    /** This will be used to pass in model the texture state information. */
-    private int mTextStateUniformHandle;
-
     /** This will be used to pass in model the texture coordinate information. */
     private int mTextureCoordinateHandle;
 
@@ -38,21 +38,20 @@ class Triangle {
     /**
      * Initialize Triangle parameters
      *
-     * @param programHandle linked vertex + fragment shader program
+     * @param programHandle linked vertex + fragment shader program (variant matching the texture
+     *                      state, unused handles set to -1)
      * @param viewMatrix view matrix
-     * @param texture initial texture state (true = texture enabled in shader)
      */
-    void initTriangle(int programHandle, float[] viewMatrix, boolean texture) {
+    void initTriangle(int programHandle, float[] viewMatrix) {
         // Set program handles. These will later be used to pass in values to the program.
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVPMatrix");
-        mPositionHandle = GLES20.glGetAttribLocation(programHandle, "a_Position");
-        mColorHandle = GLES20.glGetAttribLocation(programHandle, "a_Color");
+        mProgramHandle = programHandle;
+        mMVPMatrixHandle = ShaderHelper.getUniformLocation(programHandle, "u_MVPMatrix");
+        mPositionHandle = ShaderHelper.getAttribLocation(programHandle, "a_Position");
+        mColorHandle = ShaderHelper.getAttribLocation(programHandle, "a_Color");
 
-        mTextureUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_Texture");
-        mTextStateUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_TextState");
-        mTextureCoordinateHandle = GLES20.glGetAttribLocation(programHandle, "a_TexCoordinate");
+        mTextureUniformHandle = ShaderHelper.getUniformLocation(programHandle, "u_Texture");
+        mTextureCoordinateHandle = ShaderHelper.getAttribLocation(programHandle, "a_TexCoordinate");
 
-        mTextureEnabled = texture;
         mViewMatrix = viewMatrix;
     }
 
@@ -72,59 +71,33 @@ class Triangle {
         Matrix.frustumM(mProjectionMatrix, 0, -ratio, ratio, -1.0f, 1.0f, 1.0f, 10.0f);
     }
 
-    /**
-     * Give Texture state (used to enable texture in shader)
-     *
-     * @param state The texture state (true = texture enabled)
-     */
-    void setTextureState(boolean state) {
-        mTextureEnabled = state;
-    }
-
     /**
      * Draws a triangle from the given vertex data.
      *
-     * @param aVerticesBuffer The buffer containing the vertex data.
-     * @param aColorBuffer The buffer containing the color data.
-     * @param aTextureCoordinateBuffer The buffer containing the texture coordinates data.
+     * @param aVertexBuffer The buffer containing the interleaved vertex data (position, color and
+     *                      texture coordinates).
      * @param textureDataHandle The handle associated with the texture handle.
      * @param modelMatrix The model matrix (rotation data).
      */
-    void drawTriangle(final FloatBuffer aVerticesBuffer, final FloatBuffer aColorBuffer,
-                      final FloatBuffer aTextureCoordinateBuffer, final int textureDataHandle,
+    void drawTriangle(final VertexBuffer aVertexBuffer, final int textureDataHandle,
                       float[] modelMatrix){
 
-        // Pass in the vertices attributes (X,Y,Z)
-        aVerticesBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, 3, GLES20.GL_FLOAT, false,
-                0, aVerticesBuffer);
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-
-        // Pass in the color attributes (R,G,B)
-        aColorBuffer.position(0);
-        GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false,
-                0, aColorBuffer);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
-
-        // Pass in the texture coordinates (X,Y)
-        aTextureCoordinateBuffer.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, 2, GLES20.GL_FLOAT, false,
-                0, aTextureCoordinateBuffer);
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-
-        // Pass in the texture state (on or off)
-        if (mTextureEnabled) {
-            GLES20.glUniform1i(mTextStateUniformHandle, 1);
-        } else {
-            GLES20.glUniform1i(mTextStateUniformHandle, 0);
+        // Attributes setup recorded once in the vertex array object of the mesh (ES 3.0)
+        if (!aVertexBuffer.getVertexArray().bind(mProgramHandle)) {
+            // Pass in the vertices attributes (X,Y,Z)
+            aVertexBuffer.bindAttribute(mPositionHandle, Shape2DRenderer.ATTRIBUTE_POSITION);
+
+            // Pass in the color attributes (R,G,B)
+            aVertexBuffer.bindAttribute(mColorHandle, Shape2DRenderer.ATTRIBUTE_COLOR);
+
+            // Pass in the texture coordinates (X,Y)
+            aVertexBuffer.bindAttribute(mTextureCoordinateHandle, Shape2DRenderer.ATTRIBUTE_TEXTURE_COORDINATE);
         }
 
-        // Set the active texture unit to texture unit 0.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         // Bind the texture to this unit.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureDataHandle);
+        GlStateCache.bindTexture(0, textureDataHandle);
         // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
-        GLES20.glUniform1i(mTextureUniformHandle, 0);
+        GlStateCache.uniform1i(mTextureUniformHandle, 0);
 
         // This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
         // (which currently contains model * view).
@@ -134,7 +107,7 @@ class Triangle {
         // (which now contains model * view * projection).
         Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVPMatrix, 0);
 
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mMVPMatrix, 0);
+        GlStateCache.uniformMatrix4fv(mMVPMatrixHandle, mMVPMatrix, 0);
 
         // Draw one triangle
         GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 3);
@@ -5,13 +5,13 @@ import android.opengl.GLES20;
 import android.opengl.Matrix;
 
 import com.stmicroelectronics.stgraphics.R;
+import com.stmicroelectronics.stgraphics.texture.TextureAssets;
+import com.stmicroelectronics.stgraphics.utils.AsyncTexture;
+import com.stmicroelectronics.stgraphics.utils.GlStateCache;
+import com.stmicroelectronics.stgraphics.utils.ProgramVariants;
 import com.stmicroelectronics.stgraphics.utils.ShaderHelper;
-import com.stmicroelectronics.stgraphics.utils.TextureHelper;
 import com.stmicroelectronics.stgraphics.utils.Utility;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import com.stmicroelectronics.stgraphics.utils.VertexBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -21,12 +21,10 @@ import javax.microedition.khronos.opengles.GL10;
  */
 public class TriangleRenderer extends Shape2DRenderer {
 
-    /** Store our model data in a float buffer. */
-    private final FloatBuffer mVerticesBuffer;
-    private final FloatBuffer mNoColorBuffer;
-    private final FloatBuffer mColorBuffer;
-    private final FloatBuffer mColorGradientBuffer;
-    private final FloatBuffer mTextureCoordinateBuffer;
+    /** Store our model data in vertex buffers (one interleaved buffer per color mode) */
+    private final VertexBuffer mNoColorBuffer;
+    private final VertexBuffer mColorBuffer;
+    private final VertexBuffer mColorGradientBuffer;
 
     /**
      * Store the view matrix. This can be thought of as our camera. This matrix transforms world space to eye space;
@@ -43,17 +41,21 @@ public class TriangleRenderer extends Shape2DRenderer {
     /** This is a handle to our texture data. */
     private int mTextureDataHandle;
 
+    /** Texture decoded in background (placeholder until available) */
+    private final AsyncTexture mTexture;
+
+    /** Program variants used (texture state) and program of the current one */
+    private final ProgramVariants mPrograms = new ProgramVariants(ShaderHelper.SHADER_TEXTURE);
     private int mProgramHandle;
-    private int mVertexShaderHandle;
-    private int mFragmentShaderHandle;
 
     private final Context mContext;
     private final Triangle mTriangle;
 
-    private boolean mTextureEnabled = false;
+    private volatile boolean mTextureEnabled = false;
 
     public TriangleRenderer(Context context) {
         mContext = context;
+        mTexture = AsyncTexture.decode(mContext, R.drawable.logo_st_256, TextureAssets.TRIANGLE);
 
         float[] colorLight, color1, color2, color3;
 
@@ -63,9 +65,6 @@ public class TriangleRenderer extends Shape2DRenderer {
         color2 = Utility.normalizeColor(mContext.getColor(R.color.colorShape4));
         color3 = Utility.normalizeColor(mContext.getColor(R.color.colorShape3));
 
-        /* How many bytes per float. */
-        int bytesPerFloat = 4;
-
         /* Equilateral Triangle
         * h = (square_root(3) / 2) *  a */
         float[] triangleVertices = {
@@ -74,23 +73,17 @@ public class TriangleRenderer extends Shape2DRenderer {
                 0.85f, -0.4907477f, 0.0f,
                 0.0f, 0.9814955f, 0.0f};
 
-        float[] triangleNoColor = {
+        float[][] triangleNoColor = {
                 // R, G, B, A
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3],
-                colorLight[0], colorLight[1], colorLight[2], colorLight[3]};
+                colorLight, colorLight, colorLight};
 
-        float[] triangleColor = {
+        float[][] triangleColor = {
                 // R, G, B, A
-                color3[0], color3[1], color3[2], color3[3],
-                color3[0], color3[1], color3[2], color3[3],
-                color3[0], color3[1], color3[2], color3[3]};
+                color3, color3, color3};
 
-        float[] triangleColorGradient = {
+        float[][] triangleColorGradient = {
                 // R, G, B, A
-                color1[0], color1[1], color1[2], color1[3],
-                color2[0], color2[1], color2[2], color2[3],
-                color3[0], color3[1], color3[2], color3[3]};
+                color1, color2, color3};
 
         /*
          * Texture size = square of 1.0f
@@ -106,25 +99,15 @@ public class TriangleRenderer extends Shape2DRenderer {
                 0.9330127f, 0.75f,
                 0.5f, 0.0f};
 
-        mVerticesBuffer = ByteBuffer.allocateDirect(triangleVertices.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mVerticesBuffer.put(triangleVertices).position(0);
-
-        mNoColorBuffer = ByteBuffer.allocateDirect(triangleNoColor.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mNoColorBuffer.put(triangleNoColor).position(0);
+        // Write position, color and texture coordinates of each vertex (compact types)
+        mNoColorBuffer = createVertexBuffer(triangleVertices, triangleNoColor, triangleTextureCoordinate);
+        mColorBuffer = createVertexBuffer(triangleVertices, triangleColor, triangleTextureCoordinate);
+        mColorGradientBuffer = createVertexBuffer(triangleVertices, triangleColorGradient, triangleTextureCoordinate);
 
-        mColorBuffer = ByteBuffer.allocateDirect(triangleColor.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mColorBuffer.put(triangleColor).position(0);
-
-        mColorGradientBuffer = ByteBuffer.allocateDirect(triangleColorGradient.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mColorGradientBuffer.put(triangleColorGradient).position(0);
-
-        mTextureCoordinateBuffer = ByteBuffer.allocateDirect(triangleTextureCoordinate.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mTextureCoordinateBuffer.put(triangleTextureCoordinate).position(0);
+        // Same shape drawn by the sprites in stress mode
+        setSprite(new SpriteBatch.Sprite(triangleVertices,
+                new float[][][] {triangleNoColor, triangleColor, triangleColorGradient},
+                triangleTextureCoordinate, new short[] {0, 1, 2}, false));
 
         mTriangle = new Triangle();
     }
@@ -154,45 +137,36 @@ public class TriangleRenderer extends Shape2DRenderer {
         // Set the view matrix (represent the camera position)
         Matrix.setLookAtM(mViewMatrix, 0, eyeX, eyeY, eyeZ, lookX, lookY, lookZ, upX, upY, upZ);
 
-        // Load in the vertex shader.
-        mVertexShaderHandle = ShaderHelper.compileVertexShader(ShaderHelper.SHADER_TEXTURE);
-        if (mVertexShaderHandle == 0)
-        {
-            throw new RuntimeException("Error creating vertex shader.");
-        }
-
-        // Load in the fragment shader.
-        mFragmentShaderHandle = ShaderHelper.compileFragmentShader(ShaderHelper.SHADER_TEXTURE);
-        if (mFragmentShaderHandle == 0)
-        {
-            throw new RuntimeException("Error creating fragment shader.");
-        }
-
-        // Create and link a program object and store the handle to it.
-        mProgramHandle = ShaderHelper.linkProgram(ShaderHelper.SHADER_TEXTURE, mVertexShaderHandle, mFragmentShaderHandle);
-        if (mProgramHandle == 0)
-        {
-            throw new RuntimeException("Error creating program.");
+        // Stress mode: sprite batch drawn instead of the shape
+        if (updateSpriteBatch(mContext, mViewMatrix)) {
+            return;
         }
 
-        mTriangle.initTriangle(mProgramHandle, mViewMatrix, mTextureEnabled);
+        // Programs of the previous context lost
+        mPrograms.reset("");
+        mProgramHandle = 0;
 
-        // Tell OpenGL to use this program when rendering.
-        GLES20.glUseProgram(mProgramHandle);
+        updateProgram();
 
         // Prepare texture unit (resize required for logo case)
-        mTextureDataHandle = TextureHelper.loadTexture(mContext, R.drawable.logo_st_256, 0.25f);
+        mTextureDataHandle = mTexture.upload();
+
+        // Upload vertices in GPU buffer objects (previous ones lost with the previous context)
+        mNoColorBuffer.upload();
+        mColorBuffer.upload();
+        mColorGradientBuffer.upload();
     }
 
     @Override
     public void cancelRendering() {
-        GLES20.glDetachShader(mProgramHandle, mVertexShaderHandle);
-        GLES20.glDeleteShader(mVertexShaderHandle);
-
-        GLES20.glDetachShader(mProgramHandle, mFragmentShaderHandle);
-        GLES20.glDeleteShader(mFragmentShaderHandle);
+        if (getSpriteBatch() != null) {
+            getSpriteBatch().cancelRendering();
+            return;
+        }
 
-        GLES20.glDeleteProgram(mProgramHandle);
+        // Programs deleted once no more used by any renderer
+        mPrograms.release();
+        mProgramHandle = 0;
     }
 
     @Override
@@ -207,38 +181,68 @@ public class TriangleRenderer extends Shape2DRenderer {
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
+        if (getSpriteBatch() != null) {
+            getSpriteBatch().onSurfaceChanged(width, height);
+            return;
+        }
         mTriangle.updateTriangle(width,height);
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        // Texture uploaded once decoded (placeholder drawn until then)
+        mTexture.update();
+        mTextureDataHandle = mTexture.getHandle();
+
         GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
 
         float angleInDegrees = getAngleInDegrees();
 
+        if (getSpriteBatch() != null) {
+            getSpriteBatch().draw(angleInDegrees, mTextureEnabled);
+            return;
+        }
+
+        updateProgram();
+
         // Draw the triangle facing straight on.
         Matrix.setIdentityM(mModelMatrix, 0);
         Matrix.rotateM(mModelMatrix, 0, angleInDegrees, 0.0f, 0.0f, 1.0f);
 
         if (isColored()) {
             if (isColorGradient()) {
-                mTriangle.drawTriangle(mVerticesBuffer, mColorGradientBuffer, mTextureCoordinateBuffer,
+                mTriangle.drawTriangle(mColorGradientBuffer,
                         mTextureDataHandle, mModelMatrix);
             } else {
-                mTriangle.drawTriangle(mVerticesBuffer, mColorBuffer, mTextureCoordinateBuffer,
+                mTriangle.drawTriangle(mColorBuffer,
                         mTextureDataHandle, mModelMatrix);
             }
         } else {
-            mTriangle.drawTriangle(mVerticesBuffer, mNoColorBuffer, mTextureCoordinateBuffer,
+            mTriangle.drawTriangle(mNoColorBuffer,
                     mTextureDataHandle, mModelMatrix);
         }
     }
 
     @Override
     public void setTextureState(boolean state) {
-        if (mTriangle != null) {
-            mTriangle.setTextureState(state);
-        }
+        // Program variant selected at the next frame
         mTextureEnabled = state;
     }
+
+    /**
+     * Select the program variant matching the texture state (shared with the other renderers,
+     * compiled the first time it is used)
+     */
+    private void updateProgram() {
+        final int variant = mTextureEnabled ? ShaderHelper.VARIANT_TEXTURE : 0;
+
+        final int programHandle = mPrograms.get(variant);
+        if (programHandle != mProgramHandle) {
+            mProgramHandle = programHandle;
+            mTriangle.initTriangle(mProgramHandle, mViewMatrix);
+        }
+
+        // Tell OpenGL to use this program when rendering.
+        GlStateCache.useProgram(mProgramHandle);
+    }
 }
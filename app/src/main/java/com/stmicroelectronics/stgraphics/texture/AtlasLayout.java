@@ -0,0 +1,132 @@
+package com.stmicroelectronics.stgraphics.texture;
+
+/**
+ * Layout of several textures packed in one power of two atlas (shelf packing, tallest textures
+ * first), each texture surrounded by a gutter. Only the texture sizes are required, so the same
+ * layout is computed at run time (see TextureAtlas) and at build time (see TextureBaker).
+ */
+public class AtlasLayout {
+
+    /** Maximum atlas size (supported by all the targeted GPUs) */
+    private final static int MAX_SIZE = 2048;
+
+    /** Gutter around each texture in texels (mipmap levels 0 to 2 not mixing neighbour textures) */
+    public final static int PADDING = 4;
+
+    /** Position and size of each texture in the atlas (pixels) */
+    private final int[] mX;
+    private final int[] mY;
+    private final int[] mWidths;
+    private final int[] mHeights;
+
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * Compute the atlas layout
+     *
+     * @param widths width of each texture (pixels)
+     * @param heights height of each texture (pixels)
+     */
+    public AtlasLayout(final int[] widths, final int[] heights) {
+        final int nbTextures = widths.length;
+
+        mX = new int[nbTextures];
+        mY = new int[nbTextures];
+        mWidths = widths.clone();
+        mHeights = heights.clone();
+
+        int maxWidth = 0;
+        int area = 0;
+        for (int i = 0; i < nbTextures; i++) {
+            maxWidth = Math.max(maxWidth, mWidths[i] + 2 * PADDING);
+            area += (mWidths[i] + 2 * PADDING) * (mHeights[i] + 2 * PADDING);
+        }
+
+        // Tallest textures first (each shelf height given by its first texture)
+        final int[] order = new int[nbTextures];
+        for (int i = 0; i < nbTextures; i++) {
+            int j = i;
+            while ((j > 0) && (mHeights[order[j - 1]] < mHeights[i])) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+
+        // Smallest square-ish power of two atlas which can contain all the textures
+        mWidth = Math.max(nextPowerOfTwo(maxWidth), nextPowerOfTwo((int) Math.ceil(Math.sqrt(area))));
+        mHeight = nextPowerOfTwo(pack(order, mWidth));
+        while (mHeight > mWidth) {
+            mWidth *= 2;
+            mHeight = nextPowerOfTwo(pack(order, mWidth));
+        }
+
+        if ((mWidth > MAX_SIZE) || (mHeight > MAX_SIZE)) {
+            throw new RuntimeException("Error textures too large for the atlas.");
+        }
+    }
+
+    /**
+     * Place the textures in shelves
+     *
+     * @param order texture indices (tallest first)
+     * @param width atlas width
+     * @return height used
+     */
+    private int pack(final int[] order, int width) {
+        int x = 0;
+        int y = 0;
+        int shelfHeight = 0;
+
+        for (int i : order) {
+            if (x + mWidths[i] + 2 * PADDING > width) {
+                // Start a new shelf
+                x = 0;
+                y += shelfHeight;
+                shelfHeight = 0;
+            }
+            mX[i] = x + PADDING;
+            mY[i] = y + PADDING;
+            x += mWidths[i] + 2 * PADDING;
+            shelfHeight = Math.max(shelfHeight, mHeights[i] + 2 * PADDING);
+        }
+        return y + shelfHeight;
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        int power = 1;
+        while (power < value) {
+            power *= 2;
+        }
+        return power;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getTextureCount() {
+        return mWidths.length;
+    }
+
+    public int getX(int index) {
+        return mX[index];
+    }
+
+    public int getY(int index) {
+        return mY[index];
+    }
+
+    public int getTextureWidth(int index) {
+        return mWidths[index];
+    }
+
+    public int getTextureHeight(int index) {
+        return mHeights[index];
+    }
+}
@@ -0,0 +1,282 @@
+package com.stmicroelectronics.stgraphics.texture;
+
+/**
+ * Build time encoder of the ETC1 (RGB, 4 bits per texel) and ETC2 RGBA8 EAC (ETC1 color block
+ * and EAC alpha block, 8 bits per texel) formats. Each 4x4 block is encoded with the best of the
+ * flip and base color modes tried (no T, H or planar modes: ETC1 blocks are valid ETC2 blocks).
+ */
+public class EtcEncoder {
+
+    /** ETC1 modifiers (small, large) of each table, applied as +small, +large, -small, -large */
+    private final static int[][] ETC1_MODIFIERS = {
+            {2, 8}, {5, 17}, {9, 29}, {13, 42}, {18, 60}, {24, 80}, {33, 106}, {47, 183}
+    };
+
+    /** EAC alpha modifiers of each table (scaled by the block multiplier) */
+    private final static int[][] EAC_MODIFIERS = {
+            {-3, -6, -9, -15, 2, 5, 8, 14},
+            {-3, -7, -10, -13, 2, 6, 9, 12},
+            {-2, -5, -8, -13, 1, 4, 7, 12},
+            {-2, -4, -6, -13, 1, 3, 5, 12},
+            {-3, -6, -8, -12, 2, 5, 7, 11},
+            {-3, -7, -9, -11, 2, 6, 8, 10},
+            {-4, -7, -8, -11, 3, 6, 7, 10},
+            {-3, -5, -8, -11, 2, 4, 7, 10},
+            {-2, -6, -8, -10, 1, 5, 7, 9},
+            {-2, -5, -8, -10, 1, 4, 7, 9},
+            {-2, -4, -8, -10, 1, 3, 7, 9},
+            {-2, -5, -7, -10, 1, 4, 6, 9},
+            {-3, -4, -7, -10, 2, 3, 6, 9},
+            {-1, -2, -3, -10, 0, 1, 2, 9},
+            {-4, -6, -8, -9, 3, 5, 7, 8},
+            {-3, -5, -7, -9, 2, 4, 6, 8}
+    };
+
+    /** EAC table whose fifth modifier is 0 (block of constant alpha) */
+    private final static int EAC_CONSTANT_TABLE = 13;
+    private final static int EAC_CONSTANT_INDEX = 4;
+
+    /**
+     * Encode an image (blocks in rows, each block big endian)
+     *
+     * @param pixels ARGB pixels (rows, top first)
+     * @param width image width
+     * @param height image height (blocks outside the image filled with its edge pixels)
+     * @param alpha true for ETC2 RGBA8 EAC, false for ETC1 (alpha ignored)
+     * @return compressed data
+     */
+    public static byte[] encode(final int[] pixels, int width, int height, boolean alpha) {
+        final int blocksX = (width + 3) / 4;
+        final int blocksY = (height + 3) / 4;
+        final int blockSize = alpha ? 16 : 8;
+        final byte[] data = new byte[blocksX * blocksY * blockSize];
+        final int[] block = new int[16];
+
+        int offset = 0;
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                // Block pixels indexed by y * 4 + x
+                for (int y = 0; y < 4; y++) {
+                    int py = Math.min(by * 4 + y, height - 1);
+                    for (int x = 0; x < 4; x++) {
+                        int px = Math.min(bx * 4 + x, width - 1);
+                        block[y * 4 + x] = pixels[py * width + px];
+                    }
+                }
+                if (alpha) {
+                    offset = put(data, offset, encodeAlphaBlock(block));
+                }
+                offset = put(data, offset, encodeColorBlock(block));
+            }
+        }
+        return data;
+    }
+
+    private static int put(final byte[] data, int offset, long word) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            data[offset++] = (byte) (word >>> shift);
+        }
+        return offset;
+    }
+
+    /**
+     * Encode the colors of a block in ETC1
+     *
+     * @param block ARGB pixels (y * 4 + x)
+     * @return ETC1 block (64 bits)
+     */
+    private static long encodeColorBlock(final int[] block) {
+        long bestWord = 0;
+        long bestError = Long.MAX_VALUE;
+
+        for (int flip = 0; flip < 2; flip++) {
+            // Average color of both sub-blocks (2x4 side by side, or 4x2 on top of each other)
+            final float[][] average = new float[2][3];
+            for (int i = 0; i < 16; i++) {
+                int subBlock = getSubBlock(i, flip);
+                average[subBlock][0] += ((block[i] >> 16) & 0xFF) / 8.0f;
+                average[subBlock][1] += ((block[i] >> 8) & 0xFF) / 8.0f;
+                average[subBlock][2] += (block[i] & 0xFF) / 8.0f;
+            }
+
+            // Differential mode: 5 bits base color, second one given by a 3 bits delta
+            final int[][] base5 = new int[2][3];
+            boolean differential = true;
+            for (int c = 0; c < 3; c++) {
+                base5[0][c] = Math.round(average[0][c] * 31.0f / 255.0f);
+                base5[1][c] = Math.round(average[1][c] * 31.0f / 255.0f);
+                int delta = base5[1][c] - base5[0][c];
+                differential &= (delta >= -4) && (delta <= 3);
+            }
+            if (differential) {
+                long word = (1L << 33) | ((long) flip << 32);
+                int[][] colors = new int[2][3];
+                for (int c = 0; c < 3; c++) {
+                    colors[0][c] = (base5[0][c] << 3) | (base5[0][c] >> 2);
+                    colors[1][c] = (base5[1][c] << 3) | (base5[1][c] >> 2);
+                    word |= (long) base5[0][c] << (59 - 8 * c);
+                    word |= (long) ((base5[1][c] - base5[0][c]) & 0x7) << (56 - 8 * c);
+                }
+                long[] result = encodeSubBlocks(block, flip, colors, word);
+                if (result[1] < bestError) {
+                    bestWord = result[0];
+                    bestError = result[1];
+                }
+            }
+
+            // Individual mode: two 4 bits base colors
+            long word = (long) flip << 32;
+            int[][] colors = new int[2][3];
+            for (int c = 0; c < 3; c++) {
+                int base1 = Math.round(average[0][c] * 15.0f / 255.0f);
+                int base2 = Math.round(average[1][c] * 15.0f / 255.0f);
+                colors[0][c] = (base1 << 4) | base1;
+                colors[1][c] = (base2 << 4) | base2;
+                word |= (long) base1 << (60 - 8 * c);
+                word |= (long) base2 << (56 - 8 * c);
+            }
+            long[] result = encodeSubBlocks(block, flip, colors, word);
+            if (result[1] < bestError) {
+                bestWord = result[0];
+                bestError = result[1];
+            }
+        }
+        return bestWord;
+    }
+
+    /**
+     * Select the best modifier table of both sub-blocks and the modifier of each pixel
+     *
+     * @param block ARGB pixels (y * 4 + x)
+     * @param flip flip bit
+     * @param colors base color of both sub-blocks (8 bits components)
+     * @param word block with its base colors, mode and flip bits set
+     * @return complete block and its squared error
+     */
+    private static long[] encodeSubBlocks(final int[] block, int flip, final int[][] colors, long word) {
+        long error = 0;
+
+        for (int subBlock = 0; subBlock < 2; subBlock++) {
+            long bestTableError = Long.MAX_VALUE;
+            long bestIndices = 0;
+            int bestTable = 0;
+
+            for (int table = 0; table < ETC1_MODIFIERS.length; table++) {
+                long tableError = 0;
+                long indices = 0;
+                for (int i = 0; i < 16; i++) {
+                    if (getSubBlock(i, flip) != subBlock) {
+                        continue;
+                    }
+                    int bestIndex = 0;
+                    int bestPixelError = Integer.MAX_VALUE;
+                    for (int index = 0; index < 4; index++) {
+                        int modifier = ETC1_MODIFIERS[table][index & 1] * (((index & 2) != 0) ? -1 : 1);
+                        int pixelError = 0;
+                        for (int c = 0; c < 3; c++) {
+                            int value = clamp(colors[subBlock][c] + modifier);
+                            int diff = value - ((block[i] >> (16 - 8 * c)) & 0xFF);
+                            pixelError += diff * diff;
+                        }
+                        if (pixelError < bestPixelError) {
+                            bestPixelError = pixelError;
+                            bestIndex = index;
+                        }
+                    }
+                    tableError += bestPixelError;
+
+                    // Pixel indices stored in columns (x * 4 + y), most significant bits first
+                    int bit = (i % 4) * 4 + (i / 4);
+                    indices |= ((long) (bestIndex >> 1) << (16 + bit)) | ((long) (bestIndex & 1) << bit);
+                }
+                if (tableError < bestTableError) {
+                    bestTableError = tableError;
+                    bestIndices = indices;
+                    bestTable = table;
+                }
+            }
+
+            error += bestTableError;
+            word |= bestIndices | ((long) bestTable << ((subBlock == 0) ? 37 : 34));
+        }
+        return new long[] {word, error};
+    }
+
+    /**
+     * Encode the alpha of a block in EAC
+     *
+     * @param block ARGB pixels (y * 4 + x)
+     * @return EAC block (64 bits)
+     */
+    private static long encodeAlphaBlock(final int[] block) {
+        int min = 255;
+        int max = 0;
+        for (int pixel : block) {
+            int alpha = pixel >>> 24;
+            min = Math.min(min, alpha);
+            max = Math.max(max, alpha);
+        }
+
+        if (min == max) {
+            long word = ((long) min << 56) | (1L << 52) | ((long) EAC_CONSTANT_TABLE << 48);
+            for (int bit = 0; bit < 16; bit++) {
+                word |= (long) EAC_CONSTANT_INDEX << (45 - 3 * bit);
+            }
+            return word;
+        }
+
+        long bestWord = 0;
+        long bestError = Long.MAX_VALUE;
+        for (int table = 0; table < EAC_MODIFIERS.length; table++) {
+            int[] modifiers = EAC_MODIFIERS[table];
+            int span = modifiers[7] - modifiers[3];
+            int multiplier = Math.round((float) (max - min) / span);
+
+            // Multiplier and base value around the ones mapping the alpha range to the table range
+            for (int m = Math.max(1, multiplier - 1); m <= Math.min(15, multiplier + 1); m++) {
+                int base = Math.round(((min - modifiers[3] * m) + (max - modifiers[7] * m)) / 2.0f);
+                for (int b = Math.max(0, base - 1); b <= Math.min(255, base + 1); b++) {
+                    long word = ((long) b << 56) | ((long) m << 52) | ((long) table << 48);
+                    long error = 0;
+                    for (int i = 0; i < 16; i++) {
+                        int alpha = block[i] >>> 24;
+                        int bestIndex = 0;
+                        int bestPixelError = Integer.MAX_VALUE;
+                        for (int index = 0; index < 8; index++) {
+                            int diff = clamp(b + modifiers[index] * m) - alpha;
+                            if (diff * diff < bestPixelError) {
+                                bestPixelError = diff * diff;
+                                bestIndex = index;
+                            }
+                        }
+                        error += bestPixelError;
+
+                        // Pixel indices stored in columns (x * 4 + y), first pixel in the most significant bits
+                        int bit = (i % 4) * 4 + (i / 4);
+                        word |= (long) bestIndex << (45 - 3 * bit);
+                    }
+                    if (error < bestError) {
+                        bestError = error;
+                        bestWord = word;
+                    }
+                }
+            }
+        }
+        return bestWord;
+    }
+
+    /**
+     * Get back the sub-block of a pixel
+     *
+     * @param i pixel (y * 4 + x)
+     * @param flip 0 for 2x4 sub-blocks side by side, 1 for 4x2 sub-blocks on top of each other
+     * @return 0 for the first sub-block, 1 for the second one
+     */
+    private static int getSubBlock(int i, int flip) {
+        return ((flip == 0) ? (i % 4) : (i / 4)) / 2;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
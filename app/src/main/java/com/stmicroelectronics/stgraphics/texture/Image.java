@@ -0,0 +1,323 @@
+package com.stmicroelectronics.stgraphics.texture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Build time image (premultiplied ARGB pixels, as the bitmaps uploaded at run time) with the
+ * drawing operations done by TextureHelper on the bitmaps, read from the PNG drawables (8 bits per
+ * component, not interlaced, no palette).
+ */
+public class Image {
+
+    private final static long PNG_SIGNATURE = 0x89504E470D0A1A0AL;
+
+    private final static int PNG_GRAY = 0;
+    private final static int PNG_RGB = 2;
+    private final static int PNG_GRAY_ALPHA = 4;
+    private final static int PNG_RGBA = 6;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mPixels;
+
+    /**
+     * Create a transparent image
+     *
+     * @param width image width
+     * @param height image height
+     */
+    public Image(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mPixels = new int[width * height];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Get back the pixels
+     *
+     * @return premultiplied ARGB pixels (rows, top first)
+     */
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    /**
+     * Read a PNG file
+     *
+     * @param file PNG file
+     * @return image read
+     * @throws IOException if the file cannot be read or is not supported
+     */
+    public static Image readPng(final File file) throws IOException {
+        int width = 0;
+        int height = 0;
+        int colorType = 0;
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            if (input.readLong() != PNG_SIGNATURE) {
+                throw new IOException("Not a PNG file: " + file);
+            }
+            while (true) {
+                int length = input.readInt();
+                int type = input.readInt();
+                byte[] chunk = new byte[length];
+                input.readFully(chunk);
+                input.readInt();    // CRC
+
+                if (type == 0x49484452) {           // IHDR
+                    DataInputStream header = new DataInputStream(new ByteArrayInputStream(chunk));
+                    width = header.readInt();
+                    height = header.readInt();
+                    int bitDepth = header.readUnsignedByte();
+                    colorType = header.readUnsignedByte();
+                    header.readUnsignedByte();      // compression
+                    header.readUnsignedByte();      // filter
+                    int interlace = header.readUnsignedByte();
+                    if ((bitDepth != 8) || (interlace != 0) || ((colorType != PNG_GRAY)
+                            && (colorType != PNG_RGB) && (colorType != PNG_GRAY_ALPHA) && (colorType != PNG_RGBA))) {
+                        throw new IOException("Unsupported PNG format: " + file);
+                    }
+                } else if (type == 0x49444154) {    // IDAT
+                    compressed.write(chunk);
+                } else if (type == 0x49454E44) {    // IEND
+                    break;
+                }
+            }
+        }
+
+        final int channels = (colorType == PNG_GRAY) ? 1 : (colorType == PNG_GRAY_ALPHA) ? 2 : (colorType == PNG_RGB) ? 3 : 4;
+        final int stride = width * channels;
+        final byte[] data = new byte[(stride + 1) * height];
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.toByteArray());
+            int offset = 0;
+            while ((offset < data.length) && !inflater.finished()) {
+                int count = inflater.inflate(data, offset, data.length - offset);
+                if ((count == 0) && inflater.needsInput()) {
+                    throw new IOException("Truncated PNG file: " + file);
+                }
+                offset += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid PNG file: " + file, e);
+        } finally {
+            inflater.end();
+        }
+
+        final Image image = new Image(width, height);
+        final byte[] previous = new byte[stride];
+        final byte[] line = new byte[stride];
+        for (int y = 0; y < height; y++) {
+            int filter = data[y * (stride + 1)];
+            System.arraycopy(data, y * (stride + 1) + 1, line, 0, stride);
+            unfilter(filter, line, previous, channels);
+
+            for (int x = 0; x < width; x++) {
+                int i = x * channels;
+                int r;
+                int g;
+                int b;
+                int a;
+                if (channels <= 2) {
+                    r = g = b = line[i] & 0xFF;
+                    a = (channels == 2) ? (line[i + 1] & 0xFF) : 0xFF;
+                } else {
+                    r = line[i] & 0xFF;
+                    g = line[i + 1] & 0xFF;
+                    b = line[i + 2] & 0xFF;
+                    a = (channels == 4) ? (line[i + 3] & 0xFF) : 0xFF;
+                }
+                image.mPixels[y * width + x] = (a << 24) | (premultiply(r, a) << 16) | (premultiply(g, a) << 8) | premultiply(b, a);
+            }
+            System.arraycopy(line, 0, previous, 0, stride);
+        }
+        return image;
+    }
+
+    private static void unfilter(int filter, final byte[] line, final byte[] previous, int bpp) {
+        for (int i = 0; i < line.length; i++) {
+            int left = (i >= bpp) ? (line[i - bpp] & 0xFF) : 0;
+            int up = previous[i] & 0xFF;
+            int upLeft = (i >= bpp) ? (previous[i - bpp] & 0xFF) : 0;
+            int value;
+            switch (filter) {
+                case 0:
+                    value = 0;
+                    break;
+                case 1:
+                    value = left;
+                    break;
+                case 2:
+                    value = up;
+                    break;
+                case 3:
+                    value = (left + up) / 2;
+                    break;
+                case 4: {
+                    // Paeth predictor
+                    int p = left + up - upLeft;
+                    int pa = Math.abs(p - left);
+                    int pb = Math.abs(p - up);
+                    int pc = Math.abs(p - upLeft);
+                    value = ((pa <= pb) && (pa <= pc)) ? left : (pb <= pc) ? up : upLeft;
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Invalid PNG filter " + filter);
+            }
+            line[i] = (byte) (line[i] + value);
+        }
+    }
+
+    private static int premultiply(int component, int alpha) {
+        return (component * alpha + 127) / 255;
+    }
+
+    /**
+     * Rescale the picture and center it in a white image of the same size (same transformation
+     * as TextureHelper.centerBitmap(), area averaged)
+     *
+     * @param resize rescale ratio (shall be < 1.0f)
+     * @return image created (opaque)
+     */
+    public Image center(float resize) {
+        final Image image = new Image(mWidth, mHeight);
+
+        // Canvas scaled around (left, top): picture drawn from left * (1 - resize)
+        final float left = ((mWidth - (int) (mWidth * resize)) / 2) * (1.0f - resize);
+        final float top = ((mHeight - (int) (mHeight * resize)) / 2) * (1.0f - resize);
+
+        for (int y = 0; y < mHeight; y++) {
+            for (int x = 0; x < mWidth; x++) {
+                int pixel = average((x - left) / resize, (y - top) / resize,
+                        (x + 1 - left) / resize, (y + 1 - top) / resize);
+
+                // Drawn over white
+                int inverse = 255 - (pixel >>> 24);
+                int r = Math.min(255, ((pixel >> 16) & 0xFF) + inverse);
+                int g = Math.min(255, ((pixel >> 8) & 0xFF) + inverse);
+                int b = Math.min(255, (pixel & 0xFF) + inverse);
+                image.mPixels[y * mWidth + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Rescale the image (area averaged)
+     *
+     * @param width new width
+     * @param height new height
+     * @return image created
+     */
+    public Image scale(int width, int height) {
+        final Image image = new Image(width, height);
+        final float scaleX = (float) mWidth / width;
+        final float scaleY = (float) mHeight / height;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.mPixels[y * width + x] = average(x * scaleX, y * scaleY, (x + 1) * scaleX, (y + 1) * scaleY);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Average the pixels of an area (pixels outside the image transparent)
+     *
+     * @return premultiplied ARGB average
+     */
+    private int average(float x0, float y0, float x1, float y1) {
+        final int startX = (int) Math.floor(x0);
+        final int startY = (int) Math.floor(y0);
+        final int endX = Math.max(startX + 1, (int) Math.ceil(x1));
+        final int endY = Math.max(startY + 1, (int) Math.ceil(y1));
+
+        long a = 0;
+        long r = 0;
+        long g = 0;
+        long b = 0;
+        for (int y = startY; y < endY; y++) {
+            for (int x = startX; x < endX; x++) {
+                if ((x < 0) || (y < 0) || (x >= mWidth) || (y >= mHeight)) {
+                    continue;
+                }
+                int pixel = mPixels[y * mWidth + x];
+                a += pixel >>> 24;
+                r += (pixel >> 16) & 0xFF;
+                g += (pixel >> 8) & 0xFF;
+                b += pixel & 0xFF;
+            }
+        }
+        final int count = (endX - startX) * (endY - startY);
+        return (int) ((a + count / 2) / count) << 24 | (int) ((r + count / 2) / count) << 16
+                | (int) ((g + count / 2) / count) << 8 | (int) ((b + count / 2) / count);
+    }
+
+    /**
+     * Copy an image at a position (pixel to pixel)
+     *
+     * @param source image which shall be copied
+     * @param x left position
+     * @param y top position
+     */
+    public void draw(final Image source, int x, int y) {
+        for (int line = 0; line < source.mHeight; line++) {
+            System.arraycopy(source.mPixels, line * source.mWidth, mPixels, (y + line) * mWidth + x, source.mWidth);
+        }
+    }
+
+    /**
+     * Fill the gutter around an area with its edge pixels (see TextureHelper.drawAtlas())
+     *
+     * @param x area left position
+     * @param y area top position
+     * @param width area width
+     * @param height area height
+     * @param padding gutter size
+     */
+    public void fillGutter(int x, int y, int width, int height, int padding) {
+        for (int line = y - padding; line < y + height + padding; line++) {
+            int sourceLine = Math.max(y, Math.min(line, y + height - 1));
+            for (int column = x - padding; column < x + width + padding; column++) {
+                int sourceColumn = Math.max(x, Math.min(column, x + width - 1));
+                mPixels[line * mWidth + column] = mPixels[sourceLine * mWidth + sourceColumn];
+            }
+        }
+    }
+
+    /**
+     * Check if an area is opaque
+     *
+     * @return true if all the pixels of the area are opaque
+     */
+    public boolean isOpaque(int x, int y, int width, int height) {
+        for (int line = y; line < y + height; line++) {
+            for (int column = x; column < x + width; column++) {
+                if ((mPixels[line * mWidth + column] >>> 24) != 0xFF) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
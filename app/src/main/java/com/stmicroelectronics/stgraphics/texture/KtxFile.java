@@ -0,0 +1,176 @@
+package com.stmicroelectronics.stgraphics.texture;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * KTX 1.1 file of a compressed 2D texture (little endian, one face, no array), whose mipmap levels
+ * can be given as is to glCompressedTexImage2D() once the file is mapped in memory.
+ *
+ * Layout: identifier, header (formats, size, number of levels, key/value data size), key/value
+ * data (skipped), then for each level its size and its data (padded to 4 bytes).
+ */
+public class KtxFile {
+
+    /** Compressed formats (values of the GL enums, no GL dependency at build time) */
+    public final static int ETC1_RGB8 = 0x8D64;
+    public final static int ETC2_RGBA8_EAC = 0x9278;
+
+    /** Base formats */
+    private final static int GL_RGB = 0x1907;
+    private final static int GL_RGBA = 0x1908;
+
+    private final static byte[] IDENTIFIER = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'};
+    private final static int ENDIANNESS = 0x04030201;
+    private final static int HEADER_SIZE = 64;
+
+    private final int mInternalFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private final ByteBuffer[] mLevels;
+
+    /**
+     * Parse a KTX file already loaded or mapped in memory (no copy, levels are views of data)
+     *
+     * @param data KTX file content
+     * @throws IllegalArgumentException if the content is not a supported KTX file
+     */
+    public KtxFile(final ByteBuffer data) {
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(0);
+
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IllegalArgumentException("Not a KTX file");
+        }
+        for (byte b : IDENTIFIER) {
+            if (buffer.get() != b) {
+                throw new IllegalArgumentException("Not a KTX file");
+            }
+        }
+        if (buffer.getInt() != ENDIANNESS) {
+            throw new IllegalArgumentException("Unsupported KTX endianness");
+        }
+
+        int glType = buffer.getInt();
+        buffer.getInt();    // glTypeSize
+        buffer.getInt();    // glFormat
+        mInternalFormat = buffer.getInt();
+        buffer.getInt();    // glBaseInternalFormat
+        mWidth = buffer.getInt();
+        mHeight = buffer.getInt();
+        int depth = buffer.getInt();
+        int arrayElements = buffer.getInt();
+        int faces = buffer.getInt();
+        int nbLevels = Math.max(1, buffer.getInt());
+        int keyValueSize = buffer.getInt();
+
+        if ((glType != 0) || (depth != 0) || (arrayElements != 0) || (faces != 1)
+                || (mWidth <= 0) || (mHeight <= 0)) {
+            throw new IllegalArgumentException("Not a compressed 2D texture");
+        }
+        if ((keyValueSize < 0) || (buffer.remaining() < keyValueSize)) {
+            throw new IllegalArgumentException("Truncated KTX file");
+        }
+        buffer.position(buffer.position() + keyValueSize);
+
+        mLevels = new ByteBuffer[nbLevels];
+        for (int i = 0; i < nbLevels; i++) {
+            if (buffer.remaining() < 4) {
+                throw new IllegalArgumentException("Truncated KTX file");
+            }
+            int size = buffer.getInt();
+            if ((size < 0) || (buffer.remaining() < size)) {
+                throw new IllegalArgumentException("Truncated KTX file");
+            }
+
+            ByteBuffer level = buffer.slice();
+            level.limit(size);
+            mLevels[i] = level;
+
+            buffer.position(Math.min(buffer.limit(), buffer.position() + align(size)));
+        }
+    }
+
+    public int getInternalFormat() {
+        return mInternalFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getLevelCount() {
+        return mLevels.length;
+    }
+
+    /**
+     * Get back the data of a mipmap level
+     *
+     * @param level mipmap level (0 for the base level)
+     * @return compressed data (position 0, limit given by its size)
+     */
+    public ByteBuffer getLevel(int level) {
+        return mLevels[level];
+    }
+
+    /**
+     * Write a compressed texture in a KTX file
+     *
+     * @param file destination file
+     * @param internalFormat ETC1_RGB8 or ETC2_RGBA8_EAC
+     * @param width base level width
+     * @param height base level height
+     * @param levels compressed data of each mipmap level (base level first)
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(final File file, int internalFormat, int width, int height,
+                             final byte[]... levels) throws IOException {
+        int size = HEADER_SIZE;
+        for (byte[] level : levels) {
+            size += 4 + align(level.length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(IDENTIFIER);
+        buffer.putInt(ENDIANNESS);
+        buffer.putInt(0);               // glType (compressed)
+        buffer.putInt(1);               // glTypeSize
+        buffer.putInt(0);               // glFormat (compressed)
+        buffer.putInt(internalFormat);
+        buffer.putInt((internalFormat == ETC2_RGBA8_EAC) ? GL_RGBA : GL_RGB);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putInt(0);               // pixelDepth (2D)
+        buffer.putInt(0);               // numberOfArrayElements (no array)
+        buffer.putInt(1);               // numberOfFaces
+        buffer.putInt(levels.length);
+        buffer.putInt(0);               // bytesOfKeyValueData
+
+        for (byte[] level : levels) {
+            buffer.putInt(level.length);
+            buffer.put(level);
+            buffer.position(align(buffer.position()));
+        }
+        buffer.position(0);
+
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            FileChannel channel = output.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static int align(int size) {
+        return (size + 3) & ~3;
+    }
+}
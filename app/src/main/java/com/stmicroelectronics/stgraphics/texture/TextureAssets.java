@@ -0,0 +1,88 @@
+package com.stmicroelectronics.stgraphics.texture;
+
+/**
+ * Textures of the renderers baked at build time in compressed KTX assets (see TextureBaker). The
+ * drawables are given by resource name, in the same order as the resource ids given by the
+ * renderers (bitmaps decoded from them if the asset can not be used).
+ */
+public class TextureAssets {
+
+    /**
+     * Texture made of one drawable or of an atlas of drawables (see AtlasLayout)
+     */
+    public static class Texture {
+        private final String mName;
+        private final boolean mAtlas;
+        private final String[] mDrawables;
+        private final float[] mResizes;
+
+        Texture(String name, boolean atlas, String[] drawables, float[] resizes) {
+            mName = name;
+            mAtlas = atlas;
+            mDrawables = drawables;
+            mResizes = resizes;
+        }
+
+        /**
+         * Get back the name of the KTX asset
+         *
+         * @return asset name
+         */
+        public String getAssetName() {
+            return "textures/" + mName + ".ktx";
+        }
+
+        public boolean isAtlas() {
+            return mAtlas;
+        }
+
+        public int getDrawableCount() {
+            return mDrawables.length;
+        }
+
+        /**
+         * Get back a drawable of the texture
+         *
+         * @param index drawable index
+         * @return drawable resource name (PNG file name without extension)
+         */
+        public String getDrawable(int index) {
+            return mDrawables[index];
+        }
+
+        /**
+         * Get back the rescale ratio of each drawable (picture rescaled and centered in a white
+         * bitmap of the same size, see TextureHelper.decodeBitmap())
+         *
+         * @return rescale ratios (1.0f if not rescaled)
+         */
+        public float[] getResizes() {
+            return mResizes.clone();
+        }
+
+        public float getResize(int index) {
+            return mResizes[index];
+        }
+    }
+
+    // 2D shapes
+    public final static Texture TRIANGLE = new Texture("triangle", false,
+            new String[] {"logo_st_256"}, new float[] {0.25f});
+    public final static Texture SQUARE = new Texture("square", false,
+            new String[] {"logo_st_256"}, new float[] {1.0f});
+    public final static Texture CIRCLE = new Texture("circle", false,
+            new String[] {"logo_st_256"}, new float[] {0.4f});
+    public final static Texture SPRITES = new Texture("sprites", true,
+            new String[] {"logo_st_128", "logo_stm32_128", "logo_stm32mp1_128"}, new float[] {1.0f, 1.0f, 1.0f});
+
+    // 3D shapes (planet texture used as is, satelite logo rescaled)
+    public final static Texture CUBE = new Texture("cube", true,
+            new String[] {"logo_st_256", "logo_stm32_256", "logo_stm32mp1_256"}, new float[] {1.0f, 1.0f, 1.0f});
+    public final static Texture PYRAMID = new Texture("pyramid", true,
+            new String[] {"logo_st_256", "logo_stm32mp1_256"}, new float[] {0.25f, 0.25f});
+    public final static Texture SPHERE = new Texture("sphere", true,
+            new String[] {"planet", "logo_st_256"}, new float[] {1.0f, 0.2f});
+
+    /** All the textures baked */
+    public final static Texture[] ALL = {TRIANGLE, SQUARE, CIRCLE, SPRITES, CUBE, PYRAMID, SPHERE};
+}
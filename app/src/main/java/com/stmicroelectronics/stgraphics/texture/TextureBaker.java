@@ -0,0 +1,102 @@
+package com.stmicroelectronics.stgraphics.texture;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Build time tool encoding the textures of the renderers (see TextureAssets) in compressed KTX
+ * assets with their full mipmap chain, so the application does not decode the PNG drawables at
+ * run time. Opaque textures are encoded in ETC1, textures with alpha in ETC2 RGBA8 EAC. Run by the
+ * bakeTextures Gradle task.
+ */
+public class TextureBaker {
+
+    /**
+     * Bake the textures
+     *
+     * @param args drawables directory, assets directory
+     * @throws IOException if a drawable cannot be read or a texture file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: TextureBaker <drawables directory> <assets directory>");
+            System.exit(1);
+        }
+
+        final File drawablesDir = new File(args[0]);
+        final File assetsDir = new File(args[1]);
+
+        for (TextureAssets.Texture texture : TextureAssets.ALL) {
+            final long start = System.nanoTime();
+
+            final Image[] images = new Image[texture.getDrawableCount()];
+            for (int i = 0; i < images.length; i++) {
+                images[i] = Image.readPng(new File(drawablesDir, texture.getDrawable(i) + ".png"));
+                if (texture.getResize(i) < 1.0f) {
+                    images[i] = images[i].center(texture.getResize(i));
+                }
+            }
+
+            Image image;
+            boolean opaque = true;
+            if (texture.isAtlas()) {
+                // Same layout and gutter as the atlas drawn at run time (see TextureHelper.drawAtlas())
+                final int[] widths = new int[images.length];
+                final int[] heights = new int[images.length];
+                for (int i = 0; i < images.length; i++) {
+                    widths[i] = images[i].getWidth();
+                    heights[i] = images[i].getHeight();
+                }
+                final AtlasLayout layout = new AtlasLayout(widths, heights);
+
+                image = new Image(layout.getWidth(), layout.getHeight());
+                for (int i = 0; i < images.length; i++) {
+                    image.draw(images[i], layout.getX(i), layout.getY(i));
+                    image.fillGutter(layout.getX(i), layout.getY(i), widths[i], heights[i], AtlasLayout.PADDING);
+                    // Area out of the textures never sampled
+                    opaque &= images[i].isOpaque(0, 0, widths[i], heights[i]);
+                }
+            } else {
+                image = images[0];
+                opaque = image.isOpaque(0, 0, image.getWidth(), image.getHeight());
+            }
+
+            // Power of two size, as the mipmapped textures loaded from bitmaps (see TextureHelper.texImage())
+            final int width = nextPowerOfTwo(image.getWidth());
+            final int height = nextPowerOfTwo(image.getHeight());
+            if ((width != image.getWidth()) || (height != image.getHeight())) {
+                image = image.scale(width, height);
+            }
+
+            // Full mipmap chain down to 1x1
+            int nbLevels = 1;
+            for (int size = Math.max(width, height); size > 1; size /= 2) {
+                nbLevels++;
+            }
+            final byte[][] levels = new byte[nbLevels][];
+            for (int level = 0; level < nbLevels; level++) {
+                if (level > 0) {
+                    image = image.scale(Math.max(1, image.getWidth() / 2), Math.max(1, image.getHeight() / 2));
+                }
+                levels[level] = EtcEncoder.encode(image.getPixels(), image.getWidth(), image.getHeight(), !opaque);
+            }
+
+            final File file = new File(assetsDir, texture.getAssetName());
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Cannot create " + file.getParentFile());
+            }
+            KtxFile.write(file, opaque ? KtxFile.ETC1_RGB8 : KtxFile.ETC2_RGBA8_EAC, width, height, levels);
+            System.out.println("Baked " + file + " (" + width + "x" + height + ", " + nbLevels + " levels, "
+                    + (opaque ? "ETC1" : "ETC2 RGBA8 EAC") + ", " + file.length() / 1024 + " KB, "
+                    + (System.nanoTime() - start) / 1000000 + " ms)");
+        }
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        int power = 1;
+        while (power < value) {
+            power *= 2;
+        }
+        return power;
+    }
+}
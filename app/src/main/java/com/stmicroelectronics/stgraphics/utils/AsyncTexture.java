@@ -0,0 +1,345 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+
+import com.stmicroelectronics.stgraphics.texture.KtxFile;
+import com.stmicroelectronics.stgraphics.texture.TextureAssets;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Texture loaded in background (see TaskHelper.getDecodeExecutor()): its compressed asset baked at
+ * build time is mapped, or if not available (or its format not supported by the GPU) the bitmap is
+ * decoded, the textures of an atlas in parallel, then drawn in the atlas by the last decode task.
+ * Until the texture is available, the texture handle holds a 1x1 white placeholder. The texture
+ * is then uploaded by the loader thread in another texture (see GlLoader), which replaces the
+ * placeholder once the upload is complete (in GL thread if the loader is not active).
+ * The mapped asset or the decoded bitmap is kept so that the texture is uploaded again without
+ * decoding at each surface creation.
+ */
+public class AsyncTexture {
+
+    /** Placeholder texel (opaque white, RGBA) */
+    private final static byte[] PLACEHOLDER = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+
+    /** Compressed texture mapped (null until available, or if its format is not supported) */
+    private volatile KtxFile mCompressed;
+
+    /** Bitmap decoded (null until available) */
+    private volatile Bitmap mBitmap;
+
+    /** Decode of the bitmap, run in a decode thread (set before the texture is loaded) */
+    private Runnable mDecode;
+
+    private final long mStart = System.nanoTime();
+    private final String mName;
+
+    /** Texture handle of the current context */
+    private int mTextureHandle;
+
+    /** Bitmap uploaded in the texture of the current context, with this filter mode */
+    private boolean mUploaded;
+    private int mFilterMode;
+
+    /** Upload pending in the loader thread (null if none) */
+    private TextureUpload mUpload;
+
+    /**
+     * Upload of the bitmap in a new texture (loader thread)
+     */
+    private static class TextureUpload extends GlLoader.Upload {
+        private final KtxFile mCompressed;
+        private final Bitmap mBitmap;
+        private final int mFilterMode;
+        private int mTextureHandle;
+
+        TextureUpload(KtxFile compressed, Bitmap bitmap, int filterMode) {
+            mCompressed = compressed;
+            mBitmap = bitmap;
+            mFilterMode = filterMode;
+        }
+
+        @Override
+        protected void load() {
+            final int[] textureHandle = new int[1];
+
+            GLES20.glGenTextures(1, textureHandle, 0);
+
+            if (textureHandle[0] == 0)
+            {
+                throw new RuntimeException("Error loading texture.");
+            }
+
+            // Kept before the texture is loaded so that it is deleted if the load fails
+            mTextureHandle = textureHandle[0];
+
+            // Loader context: bound without GlStateCache
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandle);
+            texImage(mCompressed, mBitmap, mFilterMode);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        }
+
+        @Override
+        protected void discard() {
+            if (mTextureHandle != 0) {
+                GLES20.glDeleteTextures(1, new int[]{mTextureHandle}, 0);
+                mTextureHandle = 0;
+            }
+        }
+    }
+
+    private AsyncTexture(String name) {
+        mName = name;
+    }
+
+    /**
+     * Start the load of a texture (can be called outside GL thread)
+     *
+     * @param context current application context
+     * @param resourceId required drawable resource (id), decoded if the baked texture can not be used
+     * @param baked texture baked at build time (compressed asset and rescale ratio)
+     * @return texture (placeholder until loaded)
+     */
+    public static AsyncTexture decode(final Context context, final int resourceId, final TextureAssets.Texture baked) {
+        final AsyncTexture texture = new AsyncTexture("texture " + resourceId);
+        texture.mDecode = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    texture.setBitmap(TextureHelper.decodeBitmap(context, resourceId, baked.getResize(0)));
+                } catch (RuntimeException e) {
+                    Timber.e(e, "Texture %d not decoded, placeholder kept", resourceId);
+                }
+            }
+        };
+        texture.load(context, baked.getAssetName(), 0, 0);
+        return texture;
+    }
+
+    /**
+     * Start the load of an atlas, each texture decoded in parallel if the baked atlas can not be
+     * used (can be called outside GL thread)
+     *
+     * @param context current application context
+     * @param atlas atlas layout (textures and their position)
+     * @return texture (placeholder until loaded, or until all the textures are decoded and drawn in
+     *         the atlas)
+     */
+    public static AsyncTexture decodeAtlas(final Context context, final TextureAtlas atlas) {
+        final AsyncTexture texture = new AsyncTexture("atlas of " + atlas.getTextureCount() + " textures");
+        texture.mDecode = new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap[] bitmaps = new Bitmap[atlas.getTextureCount()];
+                final AtomicInteger remaining = new AtomicInteger(bitmaps.length);
+
+                for (int i = 0; i < bitmaps.length; i++) {
+                    final int index = i;
+                    TaskHelper.getDecodeExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                bitmaps[index] = TextureHelper.decodeBitmap(context, atlas.getResourceId(index),
+                                        atlas.getResize(index));
+                            } catch (RuntimeException e) {
+                                Timber.e(e, "Texture %d not decoded, atlas area left empty", atlas.getResourceId(index));
+                            }
+
+                            // Last texture decoded: atlas drawn (bitmaps published by the atomic counter)
+                            if (remaining.decrementAndGet() == 0) {
+                                texture.setBitmap(TextureHelper.drawAtlas(atlas, bitmaps));
+                            }
+                        }
+                    });
+                }
+            }
+        };
+        texture.load(context, atlas.getAssetName(), atlas.getWidth(), atlas.getHeight());
+        return texture;
+    }
+
+    /**
+     * Map the compressed texture in a decode thread, decode the bitmap instead if not available
+     *
+     * @param context current application context
+     * @param assetName compressed texture asset (null if not baked)
+     * @param width width expected (atlas layout), 0 if any
+     * @param height height expected (atlas layout), 0 if any
+     */
+    private void load(final Context context, final String assetName, final int width, final int height) {
+        TaskHelper.getDecodeExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final KtxFile compressed = (assetName != null) ? TextureHelper.mapCompressedTexture(context, assetName) : null;
+                if ((compressed != null) && (width != 0)
+                        && ((compressed.getWidth() != width) || (compressed.getHeight() != height))) {
+                    // Texture coordinates remapped to the atlas layout computed at run time
+                    Timber.w("%s: %s does not match the atlas layout, bitmaps decoded", mName, assetName);
+                } else if (compressed != null) {
+                    mCompressed = compressed;
+                    Timber.d("%s mapped in %d ms", mName, (System.nanoTime() - mStart) / 1000000);
+                    return;
+                }
+                mDecode.run();
+            }
+        });
+    }
+
+    /**
+     * Get back the compressed texture if its format is supported, otherwise the bitmap decode is
+     * started (shall be called in GL thread)
+     *
+     * @return compressed texture, null if not available or not supported
+     */
+    private KtxFile getCompressed() {
+        final KtxFile compressed = mCompressed;
+        if ((compressed != null) && !TextureHelper.isCompressedFormatSupported(compressed.getInternalFormat())) {
+            Timber.w("%s: compressed format 0x%x not supported, bitmap decoded", mName, compressed.getInternalFormat());
+            mCompressed = null;
+            TaskHelper.getDecodeExecutor().execute(mDecode);
+            return null;
+        }
+        return compressed;
+    }
+
+    /**
+     * Load the compressed texture, or the bitmap if not available, into the bound texture
+     */
+    private static void texImage(KtxFile compressed, Bitmap bitmap, int filterMode) {
+        if (compressed != null) {
+            TextureHelper.compressedTexImage(compressed, filterMode);
+        } else {
+            TextureHelper.texImage(bitmap, filterMode);
+        }
+    }
+
+    private void setBitmap(Bitmap bitmap) {
+        mBitmap = bitmap;
+        Timber.d("%s decoded in %d ms", mName, (System.nanoTime() - mStart) / 1000000);
+    }
+
+    /**
+     * Create the texture in the texture unit 0 with the placeholder (shall be called in GL thread
+     * each time the surface is created, previous handle and pending upload lost with the previous
+     * context). The mapped or decoded texture, if already available, is submitted to the loader
+     * thread at once, or loaded here if the loader is not active.
+     *
+     * @return texture handle
+     */
+    public int upload() {
+        final int[] textureHandle = new int[1];
+
+        GLES20.glGenTextures(1, textureHandle, 0);
+
+        if (textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error loading texture.");
+        }
+
+        mTextureHandle = textureHandle[0];
+        mUploaded = false;
+        mUpload = null;
+
+        // Bind to the texture in OpenGL (texture unit 0)
+        GlStateCache.bindTexture(0, mTextureHandle);
+
+        // Set filtering
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+
+        final KtxFile compressed = getCompressed();
+        final Bitmap bitmap = mBitmap;
+        if (((compressed != null) || (bitmap != null)) && !GlLoader.isActive()) {
+            // No loader: compressed levels or bitmap loaded into the bound texture (filtering set)
+            mFilterMode = TextureHelper.getFilterMode();
+            texImage(compressed, bitmap, mFilterMode);
+            mUploaded = true;
+        } else {
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 1, 1, 0, GLES20.GL_RGBA,
+                    GLES20.GL_UNSIGNED_BYTE, ByteBuffer.wrap(PLACEHOLDER));
+            if ((compressed != null) || (bitmap != null)) {
+                submit(compressed, bitmap);
+            }
+        }
+
+        return mTextureHandle;
+    }
+
+    /**
+     * Queue the upload of the texture in the loader thread (GL thread, loader active)
+     */
+    private void submit(KtxFile compressed, Bitmap bitmap) {
+        mUpload = new TextureUpload(compressed, bitmap, TextureHelper.getFilterMode());
+        GlLoader.submit(mUpload);
+    }
+
+    /**
+     * Get back the texture handle (placeholder replaced by update())
+     *
+     * @return texture handle of the current context
+     */
+    public int getHandle() {
+        return mTextureHandle;
+    }
+
+    /**
+     * Upload the mapped or decoded texture once available, the texture handle being replaced once the upload
+     * is complete (shall be called in GL thread, after upload(), getHandle() shall be called again)
+     *
+     * @return true if the placeholder has just been replaced (redraw required)
+     */
+    public boolean update() {
+        if (mUploaded && (mUpload == null) && (mFilterMode != TextureHelper.getFilterMode())) {
+            // Filter mode changed (see TextureBenchmark): loaded again from the mapped or decoded
+            // texture, the current texture sampled until the new one is complete
+            if (GlLoader.isActive()) {
+                submit(getCompressed(), mBitmap);
+                return false;
+            }
+            GlStateCache.deleteTexture(mTextureHandle);
+            upload();
+            return true;
+        }
+
+        if (mUpload != null) {
+            if (!mUpload.isDone()) {
+                // Placeholder sampled until the upload is fully complete
+                return false;
+            }
+            if (!mUpload.isFailed()) {
+                GlStateCache.deleteTexture(mTextureHandle);
+                mTextureHandle = mUpload.mTextureHandle;
+                mFilterMode = mUpload.mFilterMode;
+                mUploaded = true;
+                mUpload = null;
+                return true;
+            }
+            mUpload = null;
+        } else {
+            if (mUploaded || (mTextureHandle == 0)) {
+                return false;
+            }
+            final KtxFile compressed = getCompressed();
+            final Bitmap bitmap = mBitmap;
+            if ((compressed == null) && (bitmap == null)) {
+                return false;
+            }
+            if (GlLoader.isActive()) {
+                submit(compressed, bitmap);
+                return false;
+            }
+        }
+
+        // Loader not active or upload failed: loaded into the texture in GL thread (texture unit 0)
+        GlStateCache.bindTexture(0, mTextureHandle);
+        mFilterMode = TextureHelper.getFilterMode();
+        texImage(getCompressed(), mBitmap, mFilterMode);
+        mUploaded = true;
+        return true;
+    }
+}
@@ -0,0 +1,172 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+
+/**
+ * Helper used to manage GPU buffer objects (vertex and index data)
+ */
+public class BufferHelper {
+
+    /** Buffer objects usage (true = GPU buffer objects, false = client side arrays) */
+    private static volatile boolean sBufferObjectEnabled = true;
+
+    /**
+     * Select the draw path used by all vertex and index buffers
+     *
+     * @param state true to draw from GPU buffer objects, false to draw from client side arrays
+     */
+    public static void setBufferObjectState(boolean state) {
+        sBufferObjectEnabled = state;
+    }
+
+    /**
+     * Get back the draw path used by all vertex and index buffers
+     *
+     * @return true if GPU buffer objects are used, false if client side arrays are used
+     */
+    public static boolean isBufferObjectEnabled() {
+        return sBufferObjectEnabled;
+    }
+
+    /**
+     * Check if unsigned int indices are supported (shall be called in GL thread)
+     *
+     * @return true if GL_OES_element_index_uint extension is available
+     */
+    public static boolean isElementIndexUintSupported() {
+        final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        return (extensions != null) && extensions.contains("GL_OES_element_index_uint");
+    }
+
+    /**
+     * Check if instanced draws are supported (shall be called in GL thread, after
+     * GlStateCache.reset())
+     *
+     * @return true if the current context is an OpenGL ES 3.x context
+     */
+    public static boolean isInstancingSupported() {
+        return GlStateCache.isEs3();
+    }
+
+    /**
+     * Create a buffer object and load the data in it (static usage)
+     *
+     * @param target buffer target (GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER)
+     * @param data data which shall be uploaded (from position 0)
+     * @param size data size in bytes
+     * @return buffer handle
+     */
+    public static int loadBuffer(int target, final Buffer data, int size) {
+        return loadBuffer(target, data, size, GLES20.GL_STATIC_DRAW);
+    }
+
+    /**
+     * Create a buffer object and load the data in it
+     *
+     * @param target buffer target (GL_ARRAY_BUFFER, GL_ELEMENT_ARRAY_BUFFER or GL_UNIFORM_BUFFER)
+     * @param data data which shall be uploaded (from position 0)
+     * @param size data size in bytes
+     * @param usage GL_STATIC_DRAW (uploaded once), GL_DYNAMIC_DRAW (updated sometimes) or
+     *              GL_STREAM_DRAW (rewritten each frame)
+     * @return buffer handle
+     */
+    public static int loadBuffer(int target, final Buffer data, int size, int usage) {
+        final int[] bufferHandle = new int[1];
+
+        GLES20.glGenBuffers(1, bufferHandle, 0);
+
+        if (bufferHandle[0] != 0) {
+            data.position(0);
+
+            if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+                // Element array binding is part of the vertex array object state
+                GlStateCache.bindVertexArray(0);
+            }
+
+            // Bind the buffer and upload the data once (left bound, client side arrays bind 0
+            // when drawn)
+            GlStateCache.bindBuffer(target, bufferHandle[0]);
+            GLES20.glBufferData(target, size, data, usage);
+        }
+
+        if (bufferHandle[0] == 0) {
+            throw new RuntimeException("Error loading buffer.");
+        }
+
+        return bufferHandle[0];
+    }
+
+    /**
+     * Create a buffer object and load the data in it from the loader thread (static usage, see
+     * GlLoader): bound without GlStateCache, GL state of the GL thread not being there
+     *
+     * @param target buffer target (GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER)
+     * @param data data which shall be uploaded (from position 0)
+     * @param size data size in bytes
+     * @return buffer handle
+     */
+    public static int loadSharedBuffer(int target, final Buffer data, int size) {
+        final int[] bufferHandle = new int[1];
+
+        GLES20.glGenBuffers(1, bufferHandle, 0);
+
+        if (bufferHandle[0] == 0) {
+            throw new RuntimeException("Error loading buffer.");
+        }
+
+        try {
+            data.position(0);
+            GLES20.glBindBuffer(target, bufferHandle[0]);
+            GLES20.glBufferData(target, size, data, GLES20.GL_STATIC_DRAW);
+            GLES20.glBindBuffer(target, 0);
+        } catch (RuntimeException e) {
+            deleteSharedBuffer(bufferHandle[0]);
+            throw e;
+        }
+
+        return bufferHandle[0];
+    }
+
+    /**
+     * Delete a buffer object created by loadSharedBuffer() and never used in GL thread (loader
+     * thread or GL thread, GlStateCache not used)
+     *
+     * @param bufferHandle buffer handle (nothing done if 0)
+     */
+    public static void deleteSharedBuffer(int bufferHandle) {
+        if (bufferHandle != 0) {
+            GLES20.glDeleteBuffers(1, new int[]{bufferHandle}, 0);
+        }
+    }
+
+    /**
+     * Load new data in a buffer object created with GL_STREAM_DRAW usage (previous storage orphaned,
+     * no wait for the draws still using it)
+     *
+     * @param target buffer target (GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER)
+     * @param bufferHandle buffer handle
+     * @param data data which shall be uploaded (from position 0)
+     * @param size data size in bytes
+     */
+    public static void updateBuffer(int target, int bufferHandle, final Buffer data, int size) {
+        data.position(0);
+
+        GlStateCache.bindBuffer(target, bufferHandle);
+        GLES20.glBufferData(target, size, null, GLES20.GL_STREAM_DRAW);
+        GLES20.glBufferSubData(target, 0, size, data);
+    }
+
+    /**
+     * Delete a buffer object
+     *
+     * @param bufferHandle buffer handle (nothing done if 0)
+     */
+    public static void deleteBuffer(int bufferHandle) {
+        if (bufferHandle != 0) {
+            GLES20.glDeleteBuffers(1, new int[]{bufferHandle}, 0);
+            GlStateCache.forgetBuffer(bufferHandle);
+        }
+    }
+}
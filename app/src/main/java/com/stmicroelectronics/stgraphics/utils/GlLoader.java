@@ -0,0 +1,350 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLSurfaceView;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+import timber.log.Timber;
+
+/**
+ * Loader thread uploading textures and buffers, and linking programs (see ShaderWarmUp), outside
+ * of the render loop. It owns a context shared with the surface one, created and destroyed with it
+ * (see getContextFactory()) so that the objects of a surface are still freed with its context.
+ * The GL thread uses the objects of an upload only once it is complete: fence signaled on ES 3.0
+ * (checked without waiting), glFinish() returned on ES 2.0. If the loader context can not be
+ * created, isActive() returns false and the uploads shall be done in GL thread.
+ */
+public class GlLoader {
+
+    private final static int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+
+    private final static int STATE_PENDING = 0;
+    private final static int STATE_FENCED = 1;
+    private final static int STATE_COMPLETE = 2;
+    private final static int STATE_FAILED = 3;
+
+    private static ExecutorService sExecutor;
+
+    /** Loader context attached to the current surface context (GL thread only) */
+    private static boolean sActive;
+
+    /** Incremented each time the loader context is detached (uploads of the previous one skipped) */
+    private static volatile int sGeneration;
+
+    // Loader context (loader thread only, except when attached and detached)
+    private static EGL10 sEgl;
+    private static EGLDisplay sDisplay;
+    private static EGLContext sContext;
+    private static EGLSurface sSurface;
+    private static boolean sEs3;
+
+    /** Uploads whose fence may not be checked yet by the GL thread (loader thread only) */
+    private static final ArrayList<Upload> sFencedUploads = new ArrayList<>();
+
+    /**
+     * Upload done in the loader thread, its objects used by the GL thread once isDone() returns
+     * true (and isFailed() false)
+     */
+    public static abstract class Upload {
+        private volatile int mState = STATE_PENDING;
+        private long mFence;
+        private int mGeneration;
+
+        /**
+         * Create the GL objects and load their data (called in loader thread: the GL state of the
+         * GL thread is not there, GlStateCache shall not be used)
+         */
+        protected abstract void load();
+
+        /**
+         * Delete the objects created by load() when the upload fails, before isFailed() returns
+         * true (called in loader thread if load() throws, in GL thread if the fence wait fails:
+         * GlStateCache shall not be used, the objects were never bound in GL thread). Nothing
+         * done by default.
+         */
+        protected void discard() {
+        }
+
+        /**
+         * Check if the upload is finished (shall be called in GL thread, never waits)
+         *
+         * @return true if the upload is complete or failed
+         */
+        public boolean isDone() {
+            if (mState == STATE_FENCED) {
+                final int status = GLES30.glClientWaitSync(mFence, 0, 0);
+                if ((status == GLES30.GL_ALREADY_SIGNALED) || (status == GLES30.GL_CONDITION_SATISFIED)) {
+                    GLES30.glDeleteSync(mFence);
+                    mState = STATE_COMPLETE;
+                } else if (status == GLES30.GL_WAIT_FAILED) {
+                    GLES30.glDeleteSync(mFence);
+                    discardObjects(this);
+                    mState = STATE_FAILED;
+                }
+            }
+            return mState >= STATE_COMPLETE;
+        }
+
+        /**
+         * Check if the upload failed (the objects shall then be uploaded in GL thread)
+         *
+         * @return true if the upload failed
+         */
+        public boolean isFailed() {
+            return mState == STATE_FAILED;
+        }
+    }
+
+    /**
+     * Get back the context factory of the surface: a loader context sharing its objects is created
+     * with each surface context and destroyed before it
+     *
+     * @param clientVersion OpenGL ES version requested for the surface (2 or 3)
+     * @return context factory which shall be given to GLSurfaceView.setEGLContextFactory()
+     */
+    public static GLSurfaceView.EGLContextFactory getContextFactory(final int clientVersion) {
+        return new GLSurfaceView.EGLContextFactory() {
+            @Override
+            public EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig config) {
+                final int[] attributes = {EGL_CONTEXT_CLIENT_VERSION, clientVersion, EGL10.EGL_NONE};
+                final EGLContext context = egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT, attributes);
+                if (context != EGL10.EGL_NO_CONTEXT) {
+                    attach(egl, display, config, context, attributes);
+                }
+                return context;
+            }
+
+            @Override
+            public void destroyContext(EGL10 egl, EGLDisplay display, EGLContext context) {
+                detach();
+                if (!egl.eglDestroyContext(display, context)) {
+                    throw new RuntimeException("Error destroying context (0x" + Integer.toHexString(egl.eglGetError()) + ").");
+                }
+            }
+        };
+    }
+
+    /**
+     * Check if the uploads can be done in the loader thread (shall be called in GL thread)
+     *
+     * @return true if a loader context shares the objects of the current context
+     */
+    public static boolean isActive() {
+        return sActive;
+    }
+
+    /**
+     * Queue an upload in the loader thread (shall be called in GL thread, loader active)
+     *
+     * @param upload upload which shall be done
+     * @return upload given
+     */
+    public static Upload submit(final Upload upload) {
+        upload.mGeneration = sGeneration;
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                load(upload);
+            }
+        });
+        return upload;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "STGraphics-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Create the loader context and make it current in the loader thread (GL thread, waits until
+     * done so that isActive() is known before the surface is created)
+     */
+    private static void attach(final EGL10 egl, final EGLDisplay display, final EGLConfig config,
+                               EGLContext sharedContext, int[] attributes) {
+        final EGLContext context = egl.eglCreateContext(display, config, sharedContext, attributes);
+        if (context == EGL10.EGL_NO_CONTEXT) {
+            Timber.w("Loader context not created (0x%x), uploads done in GL thread", egl.eglGetError());
+            return;
+        }
+
+        final Future<Boolean> attached = getExecutor().submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return makeCurrent(egl, display, config, context);
+            }
+        });
+        try {
+            sActive = attached.get();
+        } catch (ExecutionException | InterruptedException e) {
+            Timber.e(e, "Loader context not attached");
+            sActive = false;
+        }
+
+        if (!sActive) {
+            egl.eglDestroyContext(display, context);
+        }
+    }
+
+    /**
+     * Make the loader context current (loader thread): surfaceless if supported
+     * (EGL_KHR_surfaceless_context), 1x1 pbuffer otherwise
+     *
+     * @return true if the context is current
+     */
+    private static boolean makeCurrent(EGL10 egl, EGLDisplay display, EGLConfig config, EGLContext context) {
+        EGLSurface surface = EGL10.EGL_NO_SURFACE;
+        if (!egl.eglMakeCurrent(display, surface, surface, context)) {
+            final int[] surfaceAttributes = {EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE};
+            surface = egl.eglCreatePbufferSurface(display, config, surfaceAttributes);
+            if ((surface == EGL10.EGL_NO_SURFACE) || !egl.eglMakeCurrent(display, surface, surface, context)) {
+                Timber.w("Loader context not current (0x%x), uploads done in GL thread", egl.eglGetError());
+                if (surface != EGL10.EGL_NO_SURFACE) {
+                    egl.eglDestroySurface(display, surface);
+                }
+                return false;
+            }
+        }
+
+        sEgl = egl;
+        sDisplay = display;
+        sContext = context;
+        sSurface = surface;
+
+        // Same client version and configuration as the surface context
+        GlStateCache.resolveVersion();
+        sEs3 = GlStateCache.isEs3();
+        return true;
+    }
+
+    /**
+     * Destroy the loader context (GL thread, waits until done so that the objects of the surface
+     * are freed with its context)
+     */
+    private static void detach() {
+        if (!sActive) {
+            return;
+        }
+        sActive = false;
+        sGeneration++;
+
+        final Future<?> detached = getExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                // Fences never checked by the GL thread (surface context destroyed): deleted here,
+                // the objects of the uploads being freed with the contexts
+                for (Upload upload : sFencedUploads) {
+                    if (upload.mState == STATE_FENCED) {
+                        GLES30.glDeleteSync(upload.mFence);
+                        upload.mState = STATE_FAILED;
+                    }
+                }
+                sFencedUploads.clear();
+
+                sEgl.eglMakeCurrent(sDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+                if (sSurface != EGL10.EGL_NO_SURFACE) {
+                    sEgl.eglDestroySurface(sDisplay, sSurface);
+                }
+                sEgl.eglDestroyContext(sDisplay, sContext);
+                sContext = null;
+                sSurface = null;
+            }
+        });
+        try {
+            detached.get();
+        } catch (ExecutionException | InterruptedException e) {
+            Timber.e(e, "Loader context not detached");
+        }
+    }
+
+    /**
+     * Do an upload then publish its completion (loader thread)
+     *
+     * @param upload upload queued
+     */
+    private static void load(Upload upload) {
+        if ((sContext == null) || (upload.mGeneration != sGeneration)) {
+            // Surface context destroyed meanwhile: upload no more expected
+            upload.mState = STATE_FAILED;
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            upload.load();
+            if (sEs3) {
+                upload.mFence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+                // Fence sent to the GPU now (not waiting for the next command of this context)
+                GLES20.glFlush();
+                trackFence(upload);
+                upload.mState = STATE_FENCED;
+            } else {
+                GLES20.glFinish();
+                upload.mState = STATE_COMPLETE;
+            }
+            Timber.d("Upload queued in loader thread in %d ms", (System.nanoTime() - start) / 1000000);
+        } catch (RuntimeException e) {
+            Timber.e(e, "Upload failed in loader thread");
+            discardObjects(upload);
+            upload.mState = STATE_FAILED;
+        }
+    }
+
+    /**
+     * Keep a fenced upload until its fence is checked by the GL thread or deleted by detach()
+     * (loader thread)
+     *
+     * @param upload upload whose fence is created
+     */
+    private static void trackFence(Upload upload) {
+        // Uploads already checked by the GL thread forgotten
+        for (int i = sFencedUploads.size() - 1; i >= 0; i--) {
+            if (sFencedUploads.get(i).mState != STATE_FENCED) {
+                sFencedUploads.remove(i);
+            }
+        }
+        sFencedUploads.add(upload);
+    }
+
+    /**
+     * Delete the objects of a failed upload (the upload is marked as failed even if it throws)
+     *
+     * @param upload failed upload
+     */
+    private static void discardObjects(Upload upload) {
+        try {
+            upload.discard();
+        } catch (RuntimeException e) {
+            Timber.e(e, "Objects of the failed upload not deleted");
+        }
+    }
+}
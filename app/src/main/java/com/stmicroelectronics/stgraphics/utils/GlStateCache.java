@@ -0,0 +1,520 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+
+import timber.log.Timber;
+
+/**
+ * Facade over GLES20 for the state changes done at each draw: keep track of the current GL state
+ * (program, buffers, textures, vertex array object, enabled attribute arrays and their instance
+ * divisors, capabilities, uniform values) and skip the calls which would not change anything.
+ * The element array buffer and the attribute arrays are tracked per vertex array object (part of
+ * the vertex array object state on ES 3.0).
+ * Shall only be used in GL thread, reset() shall be called each time the surface is created (state
+ * lost with the previous context).
+ */
+public class GlStateCache {
+
+    /** Texture units tracked (GL_TEXTURE0 to GL_TEXTURE0 + MAX_TEXTURE_UNITS - 1) */
+    private final static int MAX_TEXTURE_UNITS = 8;
+
+    /** Vertex attribute arrays tracked (GLES 2.0 guarantees at least 8) */
+    private final static int MAX_VERTEX_ATTRIBS = 16;
+
+    /** Element array buffer unknown (deleted while attached to a vertex array object) */
+    private final static int UNKNOWN_BUFFER = -1;
+
+    /**
+     * State of a vertex array object (default one on ES 2.0)
+     */
+    private static class VertexArrayState {
+        int mElementArrayBuffer;
+        final boolean[] mAttribArrays = new boolean[MAX_VERTEX_ATTRIBS];
+        final int[] mAttribDivisors = new int[MAX_VERTEX_ATTRIBS];
+    }
+
+    /** OpenGL ES 3.0 context (vertex array objects, uniform buffers, immutable textures) */
+    private static volatile boolean sEs3;
+
+    /** Incremented each time the surface is created (objects of the previous context lost) */
+    private static int sGeneration;
+
+    private static int sProgram;
+    private static int sArrayBuffer;
+    private static int sActiveTexture;
+    private static final int[] sTextures = new int[MAX_TEXTURE_UNITS];
+    private static int sVertexArray;
+    private static final VertexArrayState sDefaultVertexArrayState = new VertexArrayState();
+    private static final SparseArray<VertexArrayState> sVertexArrayStates = new SparseArray<>();
+    private static VertexArrayState sVertexArrayState = sDefaultVertexArrayState;
+
+    /** Program changed while another vertex array object was bound (default one not cleaned) */
+    private static boolean sDefaultVertexArrayStale;
+
+    private static final SparseArray<Boolean> sCapabilities = new SparseArray<>();
+    private static int sDepthFunc;
+
+    /** Last uniform values set, per program then per location */
+    private static final SparseArray<SparseArray<float[]>> sUniforms = new SparseArray<>();
+    private static final float[] sScratch = new float[4];
+
+    /** Calls issued and elided during the current and the previous frame */
+    private static int sIssuedCount;
+    private static int sElidedCount;
+    private static int sLastIssuedCount;
+    private static int sLastElidedCount;
+
+    /**
+     * Forget the tracked state (shall be called in GL thread each time the surface is created)
+     */
+    public static void reset() {
+        resolveVersion();
+        Timber.i("GL backend: %s", sEs3 ? "OpenGL ES 3.0" : "OpenGL ES 2.0");
+        sGeneration++;
+
+        sProgram = 0;
+        sArrayBuffer = 0;
+        sActiveTexture = GLES20.GL_TEXTURE0;
+        Arrays.fill(sTextures, 0);
+        sVertexArray = 0;
+        sVertexArrayStates.clear();
+        sVertexArrayState = sDefaultVertexArrayState;
+        sDefaultVertexArrayStale = false;
+        sVertexArrayState.mElementArrayBuffer = 0;
+        Arrays.fill(sVertexArrayState.mAttribArrays, false);
+        Arrays.fill(sVertexArrayState.mAttribDivisors, 0);
+        sCapabilities.clear();
+        sDepthFunc = GLES20.GL_LESS;
+        sUniforms.clear();
+    }
+
+    /**
+     * Check the version of the current context (also called by the shader warm-up thread, its
+     * context being created with the same client version as the surface one)
+     */
+    static void resolveVersion() {
+        // "OpenGL ES N.M ..."
+        final String version = GLES20.glGetString(GLES20.GL_VERSION);
+        sEs3 = (version != null) && version.startsWith("OpenGL ES ") && (version.length() > 10)
+                && (version.charAt(10) >= '3') && (version.charAt(10) <= '9');
+    }
+
+    /**
+     * Check the current context version (shall be called after reset())
+     *
+     * @return true for an OpenGL ES 3.x context, false for an OpenGL ES 2.0 context
+     */
+    public static boolean isEs3() {
+        return sEs3;
+    }
+
+    /**
+     * Get back the context generation (objects created with another generation are lost)
+     *
+     * @return generation incremented by reset()
+     */
+    static int getGeneration() {
+        return sGeneration;
+    }
+
+    /**
+     * Start a new frame: counters of the previous frame are logged when they change
+     */
+    public static void beginFrame() {
+        if ((sIssuedCount != sLastIssuedCount) || (sElidedCount != sLastElidedCount)) {
+            Timber.d("GL state calls per frame: %d issued, %d elided", sIssuedCount, sElidedCount);
+        }
+        sLastIssuedCount = sIssuedCount;
+        sLastElidedCount = sElidedCount;
+        sIssuedCount = 0;
+        sElidedCount = 0;
+    }
+
+    private static boolean elide(boolean unchanged) {
+        if (unchanged) {
+            sElidedCount++;
+        } else {
+            sIssuedCount++;
+        }
+        return unchanged;
+    }
+
+    /**
+     * Use a program, the vertex attribute arrays enabled for the previous program are disabled
+     * (default vertex array object only, the other ones are recorded for one program, see
+     * VertexArray)
+     *
+     * @param program program handle
+     */
+    public static void useProgram(int program) {
+        if (elide(program == sProgram)) {
+            return;
+        }
+        if (sVertexArray == 0) {
+            disableVertexAttribArrays();
+        } else {
+            sDefaultVertexArrayStale = true;
+        }
+        GLES20.glUseProgram(program);
+        sProgram = program;
+    }
+
+    /**
+     * Delete a program (its uniform values are forgotten, the handle may be reused)
+     *
+     * @param program program handle
+     */
+    public static void deleteProgram(int program) {
+        GLES20.glDeleteProgram(program);
+        sUniforms.remove(program);
+        if (program == sProgram) {
+            sProgram = 0;
+        }
+    }
+
+    /**
+     * Bind a buffer object
+     *
+     * @param target GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER (other targets not tracked)
+     * @param buffer buffer handle (0 for client side arrays)
+     */
+    public static void bindBuffer(int target, int buffer) {
+        if (target == GLES20.GL_ARRAY_BUFFER) {
+            if (elide(buffer == sArrayBuffer)) {
+                return;
+            }
+            sArrayBuffer = buffer;
+        } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            if (elide(buffer == sVertexArrayState.mElementArrayBuffer)) {
+                return;
+            }
+            sVertexArrayState.mElementArrayBuffer = buffer;
+        } else {
+            sIssuedCount++;
+        }
+        GLES20.glBindBuffer(target, buffer);
+    }
+
+    /**
+     * Forget a deleted buffer object (binding reverted to 0 by GL if bound)
+     *
+     * @param buffer buffer handle
+     */
+    static void forgetBuffer(int buffer) {
+        if (buffer == sArrayBuffer) {
+            sArrayBuffer = 0;
+        }
+        if (buffer == sVertexArrayState.mElementArrayBuffer) {
+            sVertexArrayState.mElementArrayBuffer = 0;
+        }
+        // Still attached to the other vertex array objects, handle may be reused
+        for (int i = 0; i < sVertexArrayStates.size(); i++) {
+            if (buffer == sVertexArrayStates.valueAt(i).mElementArrayBuffer) {
+                sVertexArrayStates.valueAt(i).mElementArrayBuffer = UNKNOWN_BUFFER;
+            }
+        }
+    }
+
+    /**
+     * Bind a vertex array object (ES 3.0 only, never issued on ES 2.0 as long as the default one
+     * is used)
+     *
+     * @param vertexArray vertex array object handle (0 for the default one)
+     */
+    public static void bindVertexArray(int vertexArray) {
+        if (elide(vertexArray == sVertexArray)) {
+            return;
+        }
+        GLES30.glBindVertexArray(vertexArray);
+        sVertexArray = vertexArray;
+
+        if (vertexArray == 0) {
+            sVertexArrayState = sDefaultVertexArrayState;
+            if (sDefaultVertexArrayStale) {
+                // Arrays enabled for a previous program
+                disableVertexAttribArrays();
+                sDefaultVertexArrayStale = false;
+            }
+        } else {
+            sVertexArrayState = sVertexArrayStates.get(vertexArray);
+            if (sVertexArrayState == null) {
+                // New vertex array object: nothing bound, no array enabled
+                sVertexArrayState = new VertexArrayState();
+                sVertexArrayStates.put(vertexArray, sVertexArrayState);
+            }
+        }
+    }
+
+    /**
+     * Delete a vertex array object (binding reverted to the default one if bound)
+     *
+     * @param vertexArray vertex array object handle
+     */
+    public static void deleteVertexArray(int vertexArray) {
+        GLES30.glDeleteVertexArrays(1, new int[]{vertexArray}, 0);
+        sVertexArrayStates.remove(vertexArray);
+        if (vertexArray == sVertexArray) {
+            // Back to the default vertex array object
+            sVertexArray = 0;
+            sVertexArrayState = sDefaultVertexArrayState;
+            sDefaultVertexArrayStale = true;
+        }
+    }
+
+    /**
+     * Bind a 2D texture in a texture unit
+     *
+     * @param unit texture unit index (0 for GL_TEXTURE0)
+     * @param texture texture handle
+     */
+    public static void bindTexture(int unit, int texture) {
+        if (elide(sTextures[unit] == texture)) {
+            return;
+        }
+        activeTexture(GLES20.GL_TEXTURE0 + unit);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        sTextures[unit] = texture;
+    }
+
+    /**
+     * Delete a 2D texture (unbound from the texture units tracked, the handle may be reused)
+     *
+     * @param texture texture handle
+     */
+    public static void deleteTexture(int texture) {
+        GLES20.glDeleteTextures(1, new int[]{texture}, 0);
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            if (sTextures[i] == texture) {
+                sTextures[i] = 0;
+            }
+        }
+    }
+
+    private static void activeTexture(int texture) {
+        if (elide(texture == sActiveTexture)) {
+            return;
+        }
+        GLES20.glActiveTexture(texture);
+        sActiveTexture = texture;
+    }
+
+    /**
+     * Enable a vertex attribute array
+     *
+     * @param index attribute handle (ignored if -1, attribute not used by the program)
+     */
+    public static void enableVertexAttribArray(int index) {
+        if (index < 0) {
+            return;
+        }
+        if (elide(sVertexArrayState.mAttribArrays[index])) {
+            return;
+        }
+        GLES20.glEnableVertexAttribArray(index);
+        sVertexArrayState.mAttribArrays[index] = true;
+    }
+
+    /**
+     * Disable a vertex attribute array
+     *
+     * @param index attribute handle
+     */
+    public static void disableVertexAttribArray(int index) {
+        if ((index < 0) || !sVertexArrayState.mAttribArrays[index]) {
+            return;
+        }
+        sIssuedCount++;
+        GLES20.glDisableVertexAttribArray(index);
+        sVertexArrayState.mAttribArrays[index] = false;
+    }
+
+    /**
+     * Disable all the vertex attribute arrays of the bound vertex array object
+     */
+    public static void disableVertexAttribArrays() {
+        for (int i = 0; i < MAX_VERTEX_ATTRIBS; i++) {
+            disableVertexAttribArray(i);
+        }
+    }
+
+    /**
+     * Set the instance divisor of a vertex attribute (ES 3.0 only, never issued on ES 2.0 as long
+     * as the divisor stays 0)
+     *
+     * @param index attribute handle (ignored if -1, attribute not used by the program)
+     * @param divisor 0 for per vertex attributes, 1 for per instance attributes
+     */
+    public static void vertexAttribDivisor(int index, int divisor) {
+        if (index < 0) {
+            return;
+        }
+        if (elide(sVertexArrayState.mAttribDivisors[index] == divisor)) {
+            return;
+        }
+        GLES30.glVertexAttribDivisor(index, divisor);
+        sVertexArrayState.mAttribDivisors[index] = divisor;
+    }
+
+    /**
+     * Enable or disable a capability (GL_CULL_FACE, GL_DEPTH_TEST, GL_BLEND...)
+     *
+     * @param capability GL capability
+     * @param state true to enable the capability
+     */
+    public static void setCapability(int capability, boolean state) {
+        final Boolean current = sCapabilities.get(capability);
+        if (elide((current != null) && (current == state))) {
+            return;
+        }
+        if (state) {
+            GLES20.glEnable(capability);
+        } else {
+            GLES20.glDisable(capability);
+        }
+        sCapabilities.put(capability, state);
+    }
+
+    /**
+     * Set the depth comparison function
+     *
+     * @param func GL_LESS, GL_LEQUAL...
+     */
+    public static void depthFunc(int func) {
+        if (elide(func == sDepthFunc)) {
+            return;
+        }
+        GLES20.glDepthFunc(func);
+        sDepthFunc = func;
+    }
+
+    /**
+     * Check if the uniform value is already set, store it otherwise
+     *
+     * @param location uniform location in the current program
+     * @param values new value
+     * @param offset offset of the value in values
+     * @param count number of floats
+     * @return true if unchanged (call shall be skipped)
+     */
+    private static boolean isUniformSet(int location, final float[] values, int offset, int count) {
+        if (location < 0) {
+            // Uniform not used by the program, call ignored by GL
+            return elide(true);
+        }
+
+        SparseArray<float[]> uniforms = sUniforms.get(sProgram);
+        if (uniforms == null) {
+            uniforms = new SparseArray<>();
+            sUniforms.put(sProgram, uniforms);
+        }
+
+        float[] current = uniforms.get(location);
+        if ((current != null) && (current.length == count)) {
+            boolean unchanged = true;
+            for (int i = 0; i < count; i++) {
+                if (current[i] != values[offset + i]) {
+                    unchanged = false;
+                    break;
+                }
+            }
+            if (elide(unchanged)) {
+                return true;
+            }
+        } else {
+            current = new float[count];
+            uniforms.put(location, current);
+            sIssuedCount++;
+        }
+        System.arraycopy(values, offset, current, 0, count);
+        return false;
+    }
+
+    /**
+     * Set an int uniform of the current program (int and sampler uniforms)
+     *
+     * @param location uniform location
+     * @param value new value
+     */
+    public static void uniform1i(int location, int value) {
+        sScratch[0] = value;
+        if (!isUniformSet(location, sScratch, 0, 1)) {
+            GLES20.glUniform1i(location, value);
+        }
+    }
+
+    /**
+     * Set a float uniform of the current program
+     *
+     * @param location uniform location
+     * @param value new value
+     */
+    public static void uniform1f(int location, float value) {
+        sScratch[0] = value;
+        if (!isUniformSet(location, sScratch, 0, 1)) {
+            GLES20.glUniform1f(location, value);
+        }
+    }
+
+    /**
+     * Set a vec2 uniform of the current program
+     *
+     * @param location uniform location
+     * @param x first component
+     * @param y second component
+     */
+    public static void uniform2f(int location, float x, float y) {
+        sScratch[0] = x;
+        sScratch[1] = y;
+        if (!isUniformSet(location, sScratch, 0, 2)) {
+            GLES20.glUniform2f(location, x, y);
+        }
+    }
+
+    /**
+     * Set a vec3 uniform of the current program
+     *
+     * @param location uniform location
+     * @param x first component
+     * @param y second component
+     * @param z third component
+     */
+    public static void uniform3f(int location, float x, float y, float z) {
+        sScratch[0] = x;
+        sScratch[1] = y;
+        sScratch[2] = z;
+        if (!isUniformSet(location, sScratch, 0, 3)) {
+            GLES20.glUniform3f(location, x, y, z);
+        }
+    }
+
+    /**
+     * Set a vec4 (or vec4 array) uniform of the current program
+     *
+     * @param location uniform location
+     * @param count number of vec4
+     * @param values new values
+     * @param offset offset of the first value
+     */
+    public static void uniform4fv(int location, int count, final float[] values, int offset) {
+        if (!isUniformSet(location, values, offset, 4 * count)) {
+            GLES20.glUniform4fv(location, count, values, offset);
+        }
+    }
+
+    /**
+     * Set a mat4 uniform of the current program (not transposed)
+     *
+     * @param location uniform location
+     * @param values new matrix
+     * @param offset offset of the matrix
+     */
+    public static void uniformMatrix4fv(int location, final float[] values, int offset) {
+        if (!isUniformSet(location, values, offset, 16)) {
+            GLES20.glUniformMatrix4fv(location, 1, false, values, offset);
+        }
+    }
+}
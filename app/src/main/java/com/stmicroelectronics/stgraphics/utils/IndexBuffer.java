@@ -0,0 +1,219 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Draw order buffer, drawn from a GPU buffer object once uploaded or from the client side array
+ * otherwise
+ */
+public class IndexBuffer {
+
+    // How many bytes per short and per int
+    private final static int NB_BYTES_PER_SHORT = 2;
+    private final static int NB_BYTES_PER_INT = 4;
+
+    /** Client side copy (kept to upload again after a context loss) */
+    private final Buffer mBuffer;
+
+    /** Indices type (GL_UNSIGNED_SHORT or GL_UNSIGNED_INT) */
+    private final int mType;
+    private final int mBytesPerIndex;
+
+    /** GPU buffer object handle (0 if not uploaded) */
+    private int mBufferHandle;
+
+    /** Buffer object uploaded by the loader thread (used once committed, see uploadShared()) */
+    private int mSharedBufferHandle;
+
+    /**
+     * Create index buffer from short values
+     *
+     * @param values vertices draw order
+     */
+    public IndexBuffer(final short[] values) {
+        this(ByteBuffer.allocateDirect(values.length * NB_BYTES_PER_SHORT)
+                .order(ByteOrder.nativeOrder()).asShortBuffer().put(values));
+    }
+
+    /**
+     * Create index buffer from an already filled short buffer (unsigned short indices)
+     *
+     * @param buffer vertices draw order
+     */
+    public IndexBuffer(final ShortBuffer buffer) {
+        mBuffer = buffer;
+        mBuffer.position(0);
+        mType = GLES20.GL_UNSIGNED_SHORT;
+        mBytesPerIndex = NB_BYTES_PER_SHORT;
+    }
+
+    /**
+     * Create index buffer from an already filled int buffer (unsigned int indices, requires
+     * GL_OES_element_index_uint extension, see BufferHelper.isElementIndexUintSupported())
+     *
+     * @param buffer vertices draw order
+     */
+    public IndexBuffer(final IntBuffer buffer) {
+        mBuffer = buffer;
+        mBuffer.position(0);
+        mType = GLES20.GL_UNSIGNED_INT;
+        mBytesPerIndex = NB_BYTES_PER_INT;
+    }
+
+    /**
+     * Check if the indices are 32 bits wide
+     *
+     * @return true if unsigned int indices, false if unsigned short indices
+     */
+    public boolean isIntIndexed() {
+        return mType == GLES20.GL_UNSIGNED_INT;
+    }
+
+    /**
+     * Create an index buffer drawing several copies of the mesh in one draw (pseudo-instancing):
+     * each triangle is followed by its copies, copy c using the vertices c * vertexCount to
+     * (c + 1) * vertexCount - 1 (see VertexBuffer.replicate()).
+     * A range of elements (first, count) of this buffer is then drawn for all the copies with the
+     * range (first * copies, count * copies).
+     *
+     * @param copies number of copies
+     * @param vertexCount number of vertices of one copy
+     * @return new index buffer (unsigned int indices if more than 65536 vertices, not uploaded)
+     */
+    public IndexBuffer replicate(int copies, int vertexCount) {
+        final int nbIndices = mBuffer.capacity();
+        final boolean intIndexed = copies * vertexCount > 0x10000;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(copies * nbIndices
+                * (intIndexed ? NB_BYTES_PER_INT : NB_BYTES_PER_SHORT)).order(ByteOrder.nativeOrder());
+
+        for (int triangle = 0; triangle < nbIndices; triangle += 3) {
+            for (int c = 0; c < copies; c++) {
+                for (int i = triangle; i < triangle + 3; i++) {
+                    final int index = getIndex(i) + c * vertexCount;
+                    if (intIndexed) {
+                        buffer.putInt(index);
+                    } else {
+                        buffer.putShort((short) index);
+                    }
+                }
+            }
+        }
+        buffer.position(0);
+
+        if (intIndexed) {
+            return new IndexBuffer(buffer.asIntBuffer());
+        }
+        return new IndexBuffer(buffer.asShortBuffer());
+    }
+
+    private int getIndex(int position) {
+        if (isIntIndexed()) {
+            return ((IntBuffer) mBuffer).get(position);
+        }
+        return ((ShortBuffer) mBuffer).get(position) & 0xFFFF;
+    }
+
+    /**
+     * Upload the draw order in a GPU buffer object (shall be called in GL thread each time the
+     * surface is created, previous handle is lost with the previous context)
+     */
+    public void upload() {
+        // Buffer object of a pending shared upload lost with the previous context
+        mSharedBufferHandle = 0;
+
+        mBufferHandle = BufferHelper.loadBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBuffer,
+                mBuffer.capacity() * mBytesPerIndex);
+    }
+
+    /**
+     * Upload the draw order from the loader thread (see GlLoader), the buffer object being used
+     * once commitUpload() is called
+     */
+    public void uploadShared() {
+        mSharedBufferHandle = BufferHelper.loadSharedBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBuffer,
+                mBuffer.capacity() * mBytesPerIndex);
+    }
+
+    /**
+     * Use the buffer object uploaded by uploadShared() (shall be called in GL thread once the
+     * upload is complete)
+     */
+    public void commitUpload() {
+        mBufferHandle = mSharedBufferHandle;
+        mSharedBufferHandle = 0;
+    }
+
+    /**
+     * Delete the buffer object uploaded by uploadShared() when the upload failed (see
+     * GlLoader.Upload.discard())
+     */
+    public void discardUpload() {
+        BufferHelper.deleteSharedBuffer(mSharedBufferHandle);
+        mSharedBufferHandle = 0;
+    }
+
+    /**
+     * Draw elements following the draw order (GPU buffer object or client side array)
+     *
+     * @param mode primitive mode (GL_TRIANGLES...)
+     * @param count number of elements which shall be drawn
+     */
+    public void draw(int mode, int count) {
+        draw(mode, count, 0);
+    }
+
+    /**
+     * Draw a range of elements following the draw order (GPU buffer object or client side array)
+     *
+     * @param mode primitive mode (GL_TRIANGLES...)
+     * @param count number of elements which shall be drawn
+     * @param first index of the first element which shall be drawn
+     */
+    public void draw(int mode, int count, int first) {
+        if ((mBufferHandle != 0) && BufferHelper.isBufferObjectEnabled()) {
+            GlStateCache.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBufferHandle);
+            GLES20.glDrawElements(mode, count, mType, first * mBytesPerIndex);
+        } else {
+            // No buffer object bound for client side arrays
+            GlStateCache.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+            mBuffer.position(first);
+            GLES20.glDrawElements(mode, count, mType, mBuffer);
+        }
+    }
+
+    /**
+     * Draw a range of elements for several instances in one draw (ES 3.0 only, per instance
+     * attributes bound with VertexBuffer.bindInstanceAttribute())
+     *
+     * @param mode primitive mode (GL_TRIANGLES...)
+     * @param count number of elements which shall be drawn
+     * @param first index of the first element which shall be drawn
+     * @param instanceCount number of instances
+     */
+    public void drawInstanced(int mode, int count, int first, int instanceCount) {
+        if ((mBufferHandle != 0) && BufferHelper.isBufferObjectEnabled()) {
+            GlStateCache.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBufferHandle);
+            GLES30.glDrawElementsInstanced(mode, count, mType, first * mBytesPerIndex, instanceCount);
+        } else {
+            // No buffer object bound for client side arrays
+            GlStateCache.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+            mBuffer.position(first);
+            GLES30.glDrawElementsInstanced(mode, count, mType, mBuffer, instanceCount);
+        }
+    }
+
+    /**
+     * Delete the GPU buffer object (shall be called in GL thread)
+     */
+    public void release() {
+        BufferHelper.deleteBuffer(mBufferHandle);
+        mBufferHandle = 0;
+    }
+}
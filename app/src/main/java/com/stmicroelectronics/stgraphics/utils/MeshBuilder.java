@@ -0,0 +1,148 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Write vertex attributes directly in a direct buffer following a vertex format (no intermediate
+ * float arrays, each value converted and written at its computed offset).
+ */
+public class MeshBuilder {
+
+    private final VertexFormat mFormat;
+    private final ByteBuffer mBuffer;
+    private final int mVertexCount;
+
+    /**
+     * Allocate the buffer of a mesh
+     *
+     * @param format vertex format
+     * @param vertexCount number of vertices
+     */
+    public MeshBuilder(final VertexFormat format, int vertexCount) {
+        mFormat = format;
+        mVertexCount = vertexCount;
+        mBuffer = ByteBuffer.allocateDirect(vertexCount * format.getPackedStride())
+                .order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Get back the vertex format
+     *
+     * @return vertex format
+     */
+    public VertexFormat getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Get back the number of vertices
+     *
+     * @return number of vertices
+     */
+    public int getVertexCount() {
+        return mVertexCount;
+    }
+
+    /**
+     * Get back the packed vertices
+     *
+     * @return direct buffer (native order, position 0)
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Write one component of a vertex attribute
+     *
+     * @param vertex vertex index
+     * @param attribute attribute index in the vertex format
+     * @param component component index (0 = X or R)
+     * @param value component value
+     */
+    public void putComponent(int vertex, int attribute, int component, float value) {
+        mFormat.putComponent(mBuffer, vertex * mFormat.getPackedStride() + mFormat.getPackedOffset(attribute)
+                + component * mFormat.getPackedComponentSize(attribute), attribute, value);
+    }
+
+    /**
+     * Write a 2 components vertex attribute (texture coordinates)
+     *
+     * @param vertex vertex index
+     * @param attribute attribute index in the vertex format
+     * @param x first component
+     * @param y second component
+     */
+    public void put(int vertex, int attribute, float x, float y) {
+        final int position = vertex * mFormat.getPackedStride() + mFormat.getPackedOffset(attribute);
+        final int size = mFormat.getPackedComponentSize(attribute);
+        mFormat.putComponent(mBuffer, position, attribute, x);
+        mFormat.putComponent(mBuffer, position + size, attribute, y);
+    }
+
+    /**
+     * Write a 3 components vertex attribute (position, normal)
+     *
+     * @param vertex vertex index
+     * @param attribute attribute index in the vertex format
+     * @param x first component
+     * @param y second component
+     * @param z third component
+     */
+    public void put(int vertex, int attribute, float x, float y, float z) {
+        final int position = vertex * mFormat.getPackedStride() + mFormat.getPackedOffset(attribute);
+        final int size = mFormat.getPackedComponentSize(attribute);
+        mFormat.putComponent(mBuffer, position, attribute, x);
+        mFormat.putComponent(mBuffer, position + size, attribute, y);
+        mFormat.putComponent(mBuffer, position + 2 * size, attribute, z);
+    }
+
+    /**
+     * Write a 4 components vertex attribute (color)
+     *
+     * @param vertex vertex index
+     * @param attribute attribute index in the vertex format
+     * @param x first component
+     * @param y second component
+     * @param z third component
+     * @param w fourth component
+     */
+    public void put(int vertex, int attribute, float x, float y, float z, float w) {
+        final int position = vertex * mFormat.getPackedStride() + mFormat.getPackedOffset(attribute);
+        final int size = mFormat.getPackedComponentSize(attribute);
+        mFormat.putComponent(mBuffer, position, attribute, x);
+        mFormat.putComponent(mBuffer, position + size, attribute, y);
+        mFormat.putComponent(mBuffer, position + 2 * size, attribute, z);
+        mFormat.putComponent(mBuffer, position + 3 * size, attribute, w);
+    }
+
+    /**
+     * Write the same 4 components attribute in a range of vertices (flat color)
+     *
+     * @param firstVertex first vertex index
+     * @param nbVertices number of vertices
+     * @param attribute attribute index in the vertex format
+     * @param values components (RGBA)
+     */
+    public void fill(int firstVertex, int nbVertices, int attribute, final float[] values) {
+        for (int i = firstVertex; i < firstVertex + nbVertices; i++) {
+            put(i, attribute, values[0], values[1], values[2], values[3]);
+        }
+    }
+
+    /**
+     * Write an attribute from its values given for each vertex
+     *
+     * @param attribute attribute index in the vertex format
+     * @param values components (getSize(attribute) values per vertex)
+     */
+    public void putAll(int attribute, final float[] values) {
+        final int size = mFormat.getSize(attribute);
+        for (int i = 0; i < values.length / size; i++) {
+            for (int c = 0; c < size; c++) {
+                putComponent(i, attribute, c, values[size * i + c]);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import com.stmicroelectronics.stgraphics.geometry.MeshFile;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import timber.log.Timber;
+
+/**
+ * Helper used to load the meshes baked at build time (assets stored uncompressed in the APK)
+ */
+public class MeshHelper {
+
+    /**
+     * Map a mesh asset in memory (no copy, no parsing of the vertices)
+     *
+     * @param context application context
+     * @param assetName mesh asset name
+     * @return mesh file, null if the asset is not available or not valid
+     */
+    public static MeshFile loadMesh(final Context context, final String assetName) {
+        try (AssetFileDescriptor descriptor = context.getAssets().openFd(assetName);
+             FileInputStream stream = descriptor.createInputStream()) {
+            // Mapping still valid once the channel is closed
+            MappedByteBuffer data = stream.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getLength());
+            return new MeshFile(data);
+        } catch (IOException | IllegalArgumentException e) {
+            Timber.w("Mesh %s not available: %s", assetName, e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import timber.log.Timber;
+
+/**
+ * Persistent cache of the linked programs (ES 3.0 program binaries, see ShaderHelper): a program
+ * is loaded from its binary instead of being compiled and linked from the sources again at each
+ * context creation or application start.
+ * Binaries are stored in the application code cache directory (cleared by the system on
+ * application or platform update), the key includes the shader sources, GL_RENDERER and
+ * GL_VERSION so that a binary is never given to another driver. A binary rejected by the driver is
+ * deleted and the program compiled from the sources.
+ */
+public class ProgramBinaryCache {
+
+    // File header: magic, compile + link time (us), binary format, binary length
+    private final static int MAGIC = 0x53544750;
+    private final static int HEADER_SIZE = 4 + 8 + 4 + 4;
+
+    /** Cache directory (null if disabled) */
+    private static volatile File sDirectory;
+
+    /** Statistics of the programs created by the renderers (warm-up loads not counted) */
+    private static int sHitCount;
+    private static int sMissCount;
+    private static long sSavedTimeUs;
+
+    /**
+     * Set the cache directory (cache disabled until called)
+     *
+     * @param directory directory of the binaries (created if needed)
+     */
+    public static void setDirectory(File directory) {
+        sDirectory = directory;
+    }
+
+    /**
+     * Check if binaries can be used (shall be called in GL thread)
+     *
+     * @return true if a directory is set and the driver supports at least one binary format
+     */
+    static boolean isEnabled() {
+        if ((sDirectory == null) || !GlStateCache.isEs3()) {
+            return false;
+        }
+        final int[] formats = new int[1];
+        GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+        return formats[0] > 0;
+    }
+
+    /**
+     * Compute the key of a program (shall be called in GL thread)
+     *
+     * @param index shader index (attribute bindings)
+     * @param vertexShaderSource vertex shader source (prefix and defines included)
+     * @param fragmentShaderSource fragment shader source (prefix included)
+     * @return key (hexadecimal SHA-1, used as file name)
+     */
+    static String getKey(int index, String vertexShaderSource, String fragmentShaderSource) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Error creating program key.", e);
+        }
+        final String driver = GLES20.glGetString(GLES20.GL_RENDERER) + "\n" + GLES20.glGetString(GLES20.GL_VERSION);
+        digest.update((index + "\n" + driver + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(vertexShaderSource.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(fragmentShaderSource.getBytes(StandardCharsets.UTF_8));
+
+        final StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16));
+            key.append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Check if the binary of a program is cached (statistics not updated)
+     *
+     * @param key program key (see getKey())
+     * @return true if a binary is stored for this key
+     */
+    static boolean contains(String key) {
+        return getFile(key).exists();
+    }
+
+    /**
+     * Create a program from its cached binary (shall be called in GL thread)
+     *
+     * @param key program key (see getKey())
+     * @param counted true if the statistics shall be updated (program created by a renderer),
+     *                false for the warm-up (see ShaderWarmUp)
+     * @return linked program handle (0 if not cached or binary rejected)
+     */
+    static synchronized int load(String key, boolean counted) {
+        final long start = System.nanoTime();
+        final File file = getFile(key);
+        if (!file.exists()) {
+            countMiss(counted);
+            return 0;
+        }
+
+        long compileTimeUs;
+        int format;
+        ByteBuffer binary;
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("bad magic");
+            }
+            compileTimeUs = input.readLong();
+            format = input.readInt();
+
+            // Length checked against the file size before allocating (truncated or corrupted file)
+            final int length = input.readInt();
+            if ((length <= 0) || (length > file.length() - HEADER_SIZE)) {
+                throw new IOException("bad length " + length);
+            }
+            final byte[] data = new byte[length];
+            input.readFully(data);
+            binary = ByteBuffer.allocateDirect(data.length).order(ByteOrder.nativeOrder());
+            binary.put(data).position(0);
+        } catch (IOException e) {
+            Timber.w("Program binary %s not readable (%s)", key, e.getMessage());
+            file.delete();
+            countMiss(counted);
+            return 0;
+        }
+
+        int programHandle = GLES20.glCreateProgram();
+        if (programHandle != 0) {
+            GLES30.glProgramBinary(programHandle, format, binary, binary.capacity());
+
+            final int[] linkStatus = new int[1];
+            GLES20.glGetProgramiv(programHandle, GLES20.GL_LINK_STATUS, linkStatus, 0);
+            if (linkStatus[0] == 0) {
+                // Driver updated without cache cleanup, corrupted file...
+                Timber.w("Program binary %s rejected", key);
+                GLES20.glDeleteProgram(programHandle);
+                programHandle = 0;
+                file.delete();
+            }
+        }
+
+        if (programHandle == 0) {
+            countMiss(counted);
+            return 0;
+        }
+
+        if (counted) {
+            sHitCount++;
+            sSavedTimeUs += Math.max(0, compileTimeUs - (System.nanoTime() - start) / 1000);
+        }
+        return programHandle;
+    }
+
+    private static void countMiss(boolean counted) {
+        if (counted) {
+            sMissCount++;
+        }
+    }
+
+    /**
+     * Store the binary of a program compiled from the sources (shall be called in GL thread)
+     *
+     * @param key program key (see getKey())
+     * @param programHandle linked program handle
+     * @param compileTimeUs compile + link time of the program in us
+     */
+    static synchronized void save(String key, int programHandle, long compileTimeUs) {
+        final int[] length = new int[1];
+        GLES20.glGetProgramiv(programHandle, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+
+        final ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        final int[] format = new int[1];
+        GLES30.glGetProgramBinary(programHandle, length[0], length, 0, format, 0, binary);
+        final byte[] data = new byte[length[0]];
+        binary.position(0);
+        binary.get(data);
+
+        final File file = getFile(key);
+        final File temporary = new File(file.getPath() + ".tmp");
+        final File directory = file.getParentFile();
+        if ((directory != null) && !directory.isDirectory() && !directory.mkdirs()) {
+            Timber.w("Program cache directory %s not created", directory);
+            return;
+        }
+
+        // Written then renamed: a partially written binary is never loaded
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(temporary))) {
+            output.writeInt(MAGIC);
+            output.writeLong(compileTimeUs);
+            output.writeInt(format[0]);
+            output.writeInt(data.length);
+            output.write(data);
+        } catch (IOException e) {
+            Timber.w("Program binary %s not written (%s)", key, e.getMessage());
+            temporary.delete();
+            return;
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Log the cache statistics (programs created by the renderers)
+     */
+    static synchronized void logStatistics() {
+        Timber.i("Program binary cache (renderers): %d hits, %d misses, %d ms saved", sHitCount, sMissCount,
+                sSavedTimeUs / 1000);
+    }
+
+    private static File getFile(String key) {
+        return new File(sDirectory, key + ".bin");
+    }
+}
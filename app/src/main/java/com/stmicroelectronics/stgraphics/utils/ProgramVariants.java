@@ -0,0 +1,75 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.util.SparseIntArray;
+
+/**
+ * Program variants of a shader used by a renderer (see ShaderHelper.getVariantDefines()): each
+ * variant is compiled the first time it is used, then kept until the renderer is released so that
+ * the light or texture toggles never compile a program again.
+ */
+public class ProgramVariants {
+
+    /** Shader index (see ShaderHelper) */
+    private final int mIndex;
+
+    /** Additional vertex shader defines (stress mode, see ShaderHelper.getInstancingDefines()) */
+    private String mDefines = "";
+
+    /** Program handle of each variant used since the surface creation */
+    private final SparseIntArray mHandles = new SparseIntArray();
+
+    /** Context generation of the handles (see GlStateCache.getGeneration()) */
+    private int mGeneration;
+
+    /**
+     * Create the variants of a shader (no program compiled until get() is called)
+     *
+     * @param index kind of texture expected (see ShaderHelper)
+     */
+    public ProgramVariants(int index) {
+        mIndex = index;
+    }
+
+    /**
+     * Forget the variants (shall be called in GL thread each time the surface is created)
+     *
+     * @param defines additional vertex shader defines of all the variants
+     */
+    public synchronized void reset(String defines) {
+        if (mGeneration == GlStateCache.getGeneration()) {
+            // Same context: references released (programs deleted if no more used)
+            release();
+        }
+        mHandles.clear();
+        mDefines = defines;
+        mGeneration = GlStateCache.getGeneration();
+    }
+
+    /**
+     * Get back the program of a variant, compiled and linked the first time it is used (shall be
+     * called in GL thread)
+     *
+     * @param variant combination of ShaderHelper.VARIANT_LIGHT, VARIANT_TEXTURE and
+     *                VARIANT_CIRCLE_MASK
+     * @return program handle
+     */
+    public synchronized int get(int variant) {
+        int handle = mHandles.get(variant);
+        if (handle == 0) {
+            handle = ShaderHelper.acquireProgram(mIndex, variant, mDefines);
+            mHandles.put(variant, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Release the programs of all the variants (can be called outside GL thread, see
+     * ShaderHelper.releaseProgram())
+     */
+    public synchronized void release() {
+        for (int i = 0; i < mHandles.size(); i++) {
+            ShaderHelper.releaseProgram(mHandles.valueAt(i));
+        }
+        mHandles.clear();
+    }
+}
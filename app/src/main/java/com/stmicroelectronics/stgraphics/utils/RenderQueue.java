@@ -0,0 +1,235 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import java.util.Arrays;
+
+import timber.log.Timber;
+
+/**
+ * Draw submission queue: renderers add draw items (drawer, part, program, texture, model matrix)
+ * during the frame, the items are then sorted and drawn by submit().
+ * Items are sorted by program, then by texture, then front to back (early depth test rejects the
+ * hidden fragments), with a radix sort on 64 bits keys:
+ *   program (16 bits) | texture (16 bits) | depth (16 bits) | item index (16 bits)
+ * Items and keys are preallocated (no allocation per frame once the capacity is reached).
+ * Shall only be used in GL thread.
+ */
+public class RenderQueue {
+
+    /** Maximum number of items (item index stored on 16 bits in the sort key) */
+    private final static int MAX_CAPACITY = 0x10000;
+
+    /** Radix sort: 8 bits digits, item index (2 lower bytes) already in insertion order */
+    private final static int RADIX_BITS = 8;
+    private final static int RADIX_SIZE = 1 << RADIX_BITS;
+    private final static int FIRST_SORTED_BYTE = 2;
+    private final static int NB_BYTES = 8;
+
+    /**
+     * Draw callback of the items (called by submit() once the item program is used and its
+     * texture bound in texture unit 0)
+     */
+    public interface Drawer {
+        /**
+         * Draw an item
+         *
+         * @param item item to draw (part and model matrix given when added)
+         */
+        void draw(Item item);
+    }
+
+    /**
+     * Draw item (preallocated, content only valid during the Drawer.draw() call)
+     */
+    public static class Item {
+        private Drawer mDrawer;
+        private int mPart;
+        private int mProgram;
+        private int mTexture;
+        private final float[] mModelMatrix = new float[16];
+
+        /**
+         * Get back the part of the drawer to draw
+         *
+         * @return part given when added (meaning defined by the drawer)
+         */
+        public int getPart() {
+            return mPart;
+        }
+
+        /**
+         * Get back the texture of the item
+         *
+         * @return texture handle given when added (0 if no texture sampled)
+         */
+        public int getTexture() {
+            return mTexture;
+        }
+
+        /**
+         * Get back the model matrix of the item
+         *
+         * @return model matrix (copy of the one given when added)
+         */
+        public float[] getModelMatrix() {
+            return mModelMatrix;
+        }
+    }
+
+    private Item[] mItems;
+    private long[] mKeys;
+    private long[] mSortedKeys;
+    private final int[] mHistogram = new int[RADIX_SIZE];
+    private int mCount;
+
+    private final float[] mViewMatrix = new float[16];
+
+    /**
+     * Create a render queue
+     *
+     * @param capacity number of items preallocated (grown if required)
+     */
+    public RenderQueue(int capacity) {
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        final Item[] items = new Item[capacity];
+        for (int i = 0; i < capacity; i++) {
+            items[i] = ((mItems != null) && (i < mItems.length)) ? mItems[i] : new Item();
+        }
+        mItems = items;
+
+        // Keys of the items already added kept
+        final long[] keys = new long[capacity];
+        if (mKeys != null) {
+            System.arraycopy(mKeys, 0, keys, 0, mCount);
+        }
+        mKeys = keys;
+        mSortedKeys = new long[capacity];
+    }
+
+    /**
+     * Start a new frame (items of the previous frame dropped)
+     *
+     * @param viewMatrix view matrix of the frame (used to compute the item depth)
+     */
+    public void begin(final float[] viewMatrix) {
+        System.arraycopy(viewMatrix, 0, mViewMatrix, 0, 16);
+        mCount = 0;
+    }
+
+    /**
+     * Add a draw item
+     *
+     * @param drawer callback drawing the item
+     * @param part part of the drawer to draw (given back to the drawer)
+     * @param program program used by the item
+     * @param texture texture bound in texture unit 0 (0 if none)
+     * @param modelMatrix model matrix of the item (copied, depth taken from its origin)
+     */
+    public void add(final Drawer drawer, int part, int program, int texture, final float[] modelMatrix) {
+        if (mCount == mItems.length) {
+            if (mCount == MAX_CAPACITY) {
+                throw new RuntimeException("Error render queue full.");
+            }
+            Timber.w("Render queue grown to %d items", 2 * mCount);
+            allocate(Math.min(2 * mCount, MAX_CAPACITY));
+        }
+
+        final Item item = mItems[mCount];
+        item.mDrawer = drawer;
+        item.mPart = part;
+        item.mProgram = program;
+        item.mTexture = texture;
+        System.arraycopy(modelMatrix, 0, item.mModelMatrix, 0, 16);
+
+        // Distance to the eye of the model origin (eye looking toward -Z in eye space)
+        float depth = -(mViewMatrix[2] * modelMatrix[12] + mViewMatrix[6] * modelMatrix[13]
+                + mViewMatrix[10] * modelMatrix[14] + mViewMatrix[14]);
+
+        mKeys[mCount] = ((long) (program & 0xFFFF) << 48)
+                | ((long) (texture & 0xFFFF) << 32)
+                | ((long) quantizeDepth(depth) << 16)
+                | mCount;
+        mCount++;
+    }
+
+    /**
+     * Quantize a depth keeping its order: upper bits of the IEEE 754 representation (ordered as
+     * integers for positive floats, 7 bits of mantissa kept), items behind the eye first
+     *
+     * @param depth distance to the eye
+     * @return depth on 16 bits
+     */
+    private static int quantizeDepth(float depth) {
+        if (!(depth > 0.0f)) {
+            return 0;
+        }
+        return Float.floatToRawIntBits(depth) >>> 16;
+    }
+
+    /**
+     * Sort the items and draw them (program and texture switched only when changed)
+     */
+    public void submit() {
+        sort();
+
+        for (int i = 0; i < mCount; i++) {
+            final Item item = getItem(i);
+
+            GlStateCache.useProgram(item.mProgram);
+            if (item.mTexture != 0) {
+                GlStateCache.bindTexture(0, item.mTexture);
+            }
+            item.mDrawer.draw(item);
+
+            // Drawer not kept after the frame
+            item.mDrawer = null;
+        }
+        mCount = 0;
+    }
+
+    /**
+     * Get back an item in the queue order (draw order once sort() is called)
+     *
+     * @param position position in the queue
+     * @return item
+     */
+    Item getItem(int position) {
+        return mItems[(int) (mKeys[position] & 0xFFFF)];
+    }
+
+    /**
+     * Least significant digit radix sort of the keys (stable, passes skipped when all the keys
+     * share the same digit)
+     */
+    void sort() {
+        for (int b = FIRST_SORTED_BYTE; b < NB_BYTES; b++) {
+            final int shift = b * RADIX_BITS;
+
+            Arrays.fill(mHistogram, 0);
+            for (int i = 0; i < mCount; i++) {
+                mHistogram[(int) (mKeys[i] >>> shift) & (RADIX_SIZE - 1)]++;
+            }
+            if ((mCount == 0) || (mHistogram[(int) (mKeys[0] >>> shift) & (RADIX_SIZE - 1)] == mCount)) {
+                // Same digit for all the keys, order unchanged
+                continue;
+            }
+
+            // Histogram turned into the first position of each digit
+            int position = 0;
+            for (int d = 0; d < RADIX_SIZE; d++) {
+                int count = mHistogram[d];
+                mHistogram[d] = position;
+                position += count;
+            }
+            for (int i = 0; i < mCount; i++) {
+                mSortedKeys[mHistogram[(int) (mKeys[i] >>> shift) & (RADIX_SIZE - 1)]++] = mKeys[i];
+            }
+
+            final long[] keys = mKeys;
+            mKeys = mSortedKeys;
+            mSortedKeys = keys;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.Matrix;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Scene data shared by all programs through a uniform buffer (ES 3.0 only, "Scene" uniform block
+ * of the shaders, see ShaderHelper): uploaded once per frame instead of once per draw and program.
+ * Shall only be used in GL thread, reset() shall be called each time the surface is created (after
+ * GlStateCache.reset()).
+ */
+public class SceneUniforms {
+
+    /** Uniform buffer binding point of the "Scene" uniform block */
+    public final static int BINDING = 0;
+
+    // std140 layout: vec4 u_SceneLightPos
+    private final static int NB_FLOATS = 4;
+    private final static int NB_BYTES_PER_FLOAT = 4;
+
+    private static final FloatBuffer sData = ByteBuffer.allocateDirect(NB_FLOATS * NB_BYTES_PER_FLOAT)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+    /** Uniform buffer handle (0 on ES 2.0) */
+    private static int sBufferHandle;
+
+    private static final float[] sLightPos = new float[NB_FLOATS];
+    private static final float[] sUploadedLightPos = new float[NB_FLOATS];
+
+    /**
+     * Create the uniform buffer on ES 3.0 (previous one lost with the previous context)
+     */
+    public static void reset() {
+        sBufferHandle = 0;
+        if (!GlStateCache.isEs3()) {
+            return;
+        }
+
+        Arrays.fill(sUploadedLightPos, 0.0f);
+        sData.clear();
+        sData.put(sUploadedLightPos);
+        sBufferHandle = BufferHelper.loadBuffer(GLES30.GL_UNIFORM_BUFFER, sData,
+                NB_FLOATS * NB_BYTES_PER_FLOAT, GLES20.GL_DYNAMIC_DRAW);
+        GLES30.glBindBufferBase(GLES30.GL_UNIFORM_BUFFER, BINDING, sBufferHandle);
+    }
+
+    /**
+     * Check if the scene data is shared through the uniform buffer
+     *
+     * @return true on ES 3.0 (u_LightPos uniform not available), false on ES 2.0
+     */
+    public static boolean isEnabled() {
+        return sBufferHandle != 0;
+    }
+
+    /**
+     * Set the light position of the frame (uploaded only if changed)
+     *
+     * @param viewMatrix view matrix
+     * @param lightPos light position in world space
+     */
+    public static void setLight(final float[] viewMatrix, final float[] lightPos) {
+        if (sBufferHandle == 0) {
+            return;
+        }
+
+        Matrix.multiplyMV(sLightPos, 0, viewMatrix, 0, lightPos, 0);
+        if (Arrays.equals(sLightPos, sUploadedLightPos)) {
+            return;
+        }
+        System.arraycopy(sLightPos, 0, sUploadedLightPos, 0, NB_FLOATS);
+
+        sData.clear();
+        sData.put(sLightPos);
+        sData.position(0);
+        GlStateCache.bindBuffer(GLES30.GL_UNIFORM_BUFFER, sBufferHandle);
+        GLES20.glBufferSubData(GLES30.GL_UNIFORM_BUFFER, 0, NB_FLOATS * NB_BYTES_PER_FLOAT, sData);
+    }
+}
@@ -1,12 +1,48 @@
 package com.stmicroelectronics.stgraphics.utils;
 
 import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import timber.log.Timber;
 
 /**
- * Helper to create program associated to a predefined shader list
+ * Helper to create program associated to a predefined shader list. Programs are shared by the
+ * renderers (reference counted, see acquireProgram() and releaseProgram()) with their uniform and
+ * attribute locations. The light, texture and circle mask options are compiled in program variants
+ * (see getVariantDefines()) instead of being tested per vertex or per fragment.
  */
 public class ShaderHelper {
 
+    // GLSL ES 3.00 on an ES 3.0 context: the GLSL ES 1.00 sources below are compiled unchanged, the
+    // removed keywords and functions being mapped on their replacement.
+    private static final String VERTEX_SHADER_PREFIX_ES3 = "#version 300 es\n"
+            + "#define SCENE_BLOCK\n"
+            + "#define attribute in\n"
+            + "#define varying out\n"
+            + "#define texture2D texture\n";
+
+    private static final String FRAGMENT_SHADER_PREFIX_ES3 = "#version 300 es\n"
+            + "#define varying in\n"
+            + "#define texture2D texture\n"
+            + "out mediump vec4 o_FragColor;\n"
+            + "#define gl_FragColor o_FragColor\n";
+
+    // Light position in eye space, shared by all programs through the scene uniform block on ES 3.0
+    // (see SceneUniforms), uniform set per draw on ES 2.0.
+    private static final String LIGHT_POSITION = "#ifdef SCENE_BLOCK\n"
+            + "layout(std140) uniform Scene {        \n"
+            + "  vec4 u_SceneLightPos;               \n" // The position of the light in eye space (XYZ)
+            + "};                                    \n"
+            + "#define u_LightPos u_SceneLightPos.xyz\n"
+            + "#else                                 \n"
+            + "uniform vec3 u_LightPos;              \n" // The position of the light in eye space
+            + "#endif                                \n";
+
     /* Color only shader */
 
     private static final String VERTEX_SHADER_COLOR = "uniform mat4 u_MVPMatrix;                 \n" // A constant representing the combined model/view/projection matrix.
@@ -24,7 +60,7 @@ public class ShaderHelper {
 
     private static final String VERTEX_SHADER_COLOR_LIGHT = "uniform mat4 u_MVPMatrix;           \n" // A constant representing the combined model/view/projection matrix.
             + "uniform mat4 u_MVMatrix;       	     \n" // A constant representing the combined model/view matrix.
-            + "uniform vec3 u_LightPos;       	     \n" // The position of the light in eye space
+            + LIGHT_POSITION                           // The position of the light in eye space
 
             + "attribute vec4 a_Position;            \n" // Per-vertex position information we will pass in.
             + "attribute vec4 a_Color;               \n" // Per-vertex color information we will pass in.
@@ -65,56 +101,122 @@ public class ShaderHelper {
 
             + "attribute vec4 a_Position;            \n" // Per-vertex position information we will pass in.
             + "attribute vec4 a_Color;               \n" // Per-vertex color information we will pass in.
+            + "#ifdef TEXTURE                        \n"
             + "attribute vec2 a_TexCoordinate;       \n" // Per-vertex texture coordinate information we will pass in.
+            + "#endif                                \n"
 
             + "varying vec4 v_Color;                 \n" // This will be passed into the fragment shader.
+            + "#ifdef TEXTURE                        \n"
             + "varying vec2 v_TexCoordinate;         \n" // This will be passed into the fragment shader.
+            + "#endif                                \n"
 
             + "void main()                           \n" // The entry point for our vertex shader.
             + "{                                     \n"
+            + "#ifdef TEXTURE                        \n"
             + "  v_TexCoordinate = a_TexCoordinate;  \n" // Pass through the texture coordinate.
+            + "#endif                                \n"
             + "  v_Color = a_Color;                  \n" // Pass the color through to the fragment shader.
             + "  gl_Position = u_MVPMatrix           \n" // gl_Position is a special variable used to store the final position.
             + "               * a_Position;          \n" // Multiply the vertex by the matrix to get the final point
             + "}                                     \n";
 
+    // Texture sampled only in the TEXTURE variant, fragments outside of the circle greyed out in the
+    // CIRCLE_MASK variant (see getVariantDefines()).
     private static final String FRAGMENT_SHADER_TEXTURE_OPT = "precision mediump float;          \n" // Set the default precision to medium.
+            + "#ifdef TEXTURE                        \n"
             + "uniform sampler2D u_Texture;          \n" // The input texture
-            + "uniform int u_TextState;              \n" // The texture state (texture enabled if > 0)
+            + "varying vec2 v_TexCoordinate;         \n" // Interpolated texture coordinate per fragment
+            + "#endif                                \n"
+            + "#ifdef CIRCLE_MASK                    \n"
+            + "uniform vec2 u_CirclePosition;        \n" // The circle center position
+            + "uniform float u_CircleRadius;         \n" // The circle radius
+            + "#endif                                \n"
 
             + "varying vec4 v_Color;                 \n" // This input color
-            + "varying vec2 v_TexCoordinate;         \n" // Interpolated texture coordinate per fragment
 
             + "void main()                           \n"
             + "{                                     \n"
-            + "  if (u_TextState > 0) {              \n"
-            + "    gl_FragColor = (v_Color * texture2D(u_Texture, v_TexCoordinate));             \n" // Multiply the color by the texture value to get final output color
-            + "  } else {                            \n"
-            + "    gl_FragColor = v_Color;           \n" // Multiply the color by the texture value to get final output color
+            + "#ifdef CIRCLE_MASK                    \n"
+            + "  if (distance(u_CirclePosition, gl_FragCoord.xy) > u_CircleRadius) {            \n" // Outside of the circle
+            + "    gl_FragColor = vec4(0.5, 0.5, 0.5, 0.5);                                      \n"
+            + "    return;                           \n"
             + "  }                                   \n"
+            + "#endif                                \n"
+            + "#ifdef TEXTURE                        \n"
+            + "  gl_FragColor = (v_Color * texture2D(u_Texture, v_TexCoordinate));               \n" // Multiply the color by the texture value to get final output color
+            + "#else                                 \n"
+            + "  gl_FragColor = v_Color;             \n" // Pass the color directly through the pipeline.
+            + "#endif                                \n"
             + "}                                     \n";
 
+    // Instance transform (stress mode), compiled only with INSTANCED defined (see getInstancingDefines()).
+    // Each instance is moved to its grid position, scaled and rotated around its own axis.
+    private static final String INSTANCE_TRANSFORM = "#ifdef INSTANCED                 \n"
+            + "uniform float u_Time;                 \n" // The elapsed time in seconds (instance rotations)
+            + "#ifdef PSEUDO_INSTANCING              \n"
+            + "uniform vec4 u_Instances[2 * BATCH_SIZE];                                         \n" // The offset + scale, rotation axis + speed of each instance of the batch
+            + "attribute float a_InstanceIndex;      \n" // The instance of the replicated mesh
+            + "#else                                 \n"
+            + "attribute vec4 a_InstanceOffset;      \n" // The instance position in the grid (XYZ) + scale
+            + "attribute vec4 a_InstanceRotation;    \n" // The instance rotation axis (XYZ) + angular speed (radians per second)
+            + "#endif                                \n"
+
+            + "void instanceTransform(inout vec4 position, inout vec3 normal)                    \n"
+            + "{                                     \n"
+            + "#ifdef PSEUDO_INSTANCING              \n"
+            + "  int index = 2 * int(a_InstanceIndex + 0.5);                                     \n"
+            + "  vec4 offset = u_Instances[index];   \n"
+            + "  vec4 rotation = u_Instances[index + 1];                                         \n"
+            + "#else                                 \n"
+            + "  vec4 offset = a_InstanceOffset;     \n"
+            + "  vec4 rotation = a_InstanceRotation; \n"
+            + "#endif                                \n"
+            + "  float angle = u_Time * rotation.w;  \n"
+            + "  float c = cos(angle);               \n"
+            + "  float s = sin(angle);               \n"
+            + "  vec3 a = rotation.xyz;              \n"
+            + "  vec3 t = (1.0 - c) * a;             \n"
+            + "  mat3 m = mat3(t.x * a.x + c, t.x * a.y + s * a.z, t.x * a.z - s * a.y,          \n" // Rotation around the axis (columns)
+            + "                t.x * a.y - s * a.z, t.y * a.y + c, t.y * a.z + s * a.x,          \n"
+            + "                t.x * a.z + s * a.y, t.y * a.z - s * a.x, t.z * a.z + c);         \n"
+            + "  position = vec4(offset.xyz + offset.w * (m * position.xyz), 1.0);               \n"
+            + "  normal = m * normal;                \n"
+            + "}                                     \n"
+            + "#endif                                \n";
+
     // decision to not taken into account distance for the light attenuation
     private static final String VERTEX_SHADER_TEXTURE_LIGHT_OPT = "uniform mat4 u_MVPMatrix;     \n" // A constant representing the combined model/view/projection matrix.
             + "uniform mat4 u_MVMatrix;       	     \n" // A constant representing the combined model/view matrix.
-            + "uniform vec3 u_LightPos;       	     \n" // The position of the light in eye space
-            + "uniform int u_LightState;             \n" // The light state (light enabled if > 0)
+            + "#ifdef LIGHT                          \n"
+            + LIGHT_POSITION                           // The position of the light in eye space
+            + "#endif                                \n"
+            + "uniform float u_Kinetic;              \n" // The kinetic displacement along the face normal
 
             + "attribute vec4 a_Position;            \n" // Per-vertex position information we will pass in.
             + "attribute vec4 a_Color;               \n" // Per-vertex color information we will pass in.
+            + "#ifdef TEXTURE                        \n"
             + "attribute vec2 a_TexCoordinate;       \n" // Per-vertex texture coordinate information we will pass in.
+            + "#endif                                \n"
             + "attribute vec3 a_Normal;       		 \n" // Per-vertex normal information we will pass in.
 
             + "varying vec4 v_Color;                 \n" // This will be passed into the fragment shader.
+            + "#ifdef TEXTURE                        \n"
             + "varying vec2 v_TexCoordinate;         \n" // This will be passed into the fragment shader.
+            + "#endif                                \n"
 
+            + INSTANCE_TRANSFORM
             + "void main()                           \n" // The entry point for our vertex shader.
             + "{                                     \n"
-            + "  if (u_LightState > 0) {             \n"
+            + "  vec4 position = vec4(a_Position.xyz + normalize(a_Normal) * u_Kinetic, 1.0);   \n" // Push the vertex along the face normal (kinetic effect).
+            + "  vec3 normal = a_Normal;             \n"
+            + "#ifdef INSTANCED                      \n"
+            + "  instanceTransform(position, normal);\n" // Move the vertex to its instance (stress mode).
+            + "#endif                                \n"
+            + "#ifdef LIGHT                          \n"
             + "    v_Color = vec4(0.0);              \n"
             + "    vec4 lightColor = vec4(1.0, 1.0, 0.85, 1.0);                                  \n" // Set warm light
-            + "    vec3 modelViewVertex = vec3(u_MVMatrix * a_Position);                         \n" // Transform the vertex into eye space.
-            + "    vec3 modelViewNormal = normalize((u_MVMatrix * vec4(a_Normal, 0.0)).xyz);     \n" // Transform the normal's orientation into eye space.
+            + "    vec3 modelViewVertex = vec3(u_MVMatrix * position);                           \n" // Transform the vertex into eye space.
+            + "    vec3 modelViewNormal = normalize((u_MVMatrix * vec4(normal, 0.0)).xyz);       \n" // Transform the normal's orientation into eye space.
             + "    vec3 lightVector = normalize(u_LightPos - modelViewVertex);                   \n" // Calculate the light vector.
             + "    float diffuse = max(dot(modelViewNormal, lightVector), 0.3);                  \n" // Calculate the dot product of the light vector and vertex normal.
             + "    v_Color += a_Color * lightColor * diffuse;                                    \n" // Apply the diffuse light.
@@ -125,55 +227,184 @@ public class ShaderHelper {
             + "    vec3 shininess = pow(normalDotReflect, 2.0) * vec3(1.0, 1.0, 1.0);            \n" // Calculate the shininess impact.
             + "    v_Color += a_Color * lightColor * vec4(shininess, 1.0);                       \n" // Apply the specular light.
             + "    clamp(v_Color, 0.0, 1.0);                                                     \n" // Make sure the color is between 0 and 1.
-            + "  } else {                            \n"
+            + "#else                                 \n"
             + "    v_Color = a_Color;                \n" // Pass the color through to the fragment shader.
-            + "  }                                   \n"
+            + "#endif                                \n"
+            + "#ifdef TEXTURE                        \n"
             + "  v_TexCoordinate = a_TexCoordinate;  \n" // Pass through the texture coordinate.
+            + "#endif                                \n"
             + "  gl_Position = u_MVPMatrix           \n" // gl_Position is a special variable used to store the final position.
-            + "              * a_Position;           \n" // Multiply the vertex by the matrix to get the final point
+            + "              * position;             \n" // Multiply the vertex by the matrix to get the final point
             + "}                                     \n";
 
 
-    private static final String FRAGMENT_SHADER_TEXTURE_OPT_CIRCLE =  "precision mediump float;  \n" // Set the default precision to medium
-            + "uniform sampler2D u_Texture;          \n" // The input texture
-            + "uniform int u_TextState;              \n" // The texture state (texture enabled if > 0)
+    /* Sprite batch shader (2D shapes transformed on the CPU, circles masked per fragment) */
 
-            + "uniform vec2 u_CirclePosition;        \n" // The circle center position
-            + "uniform float u_CircleRadius;         \n" // The circle radius
+    private static final String VERTEX_SHADER_SPRITE = "uniform mat4 u_MVPMatrix;                \n" // A constant representing the combined model/view/projection matrix.
+
+            + "attribute vec4 a_Position;            \n" // Per-vertex position information (already transformed, X,Y only).
+            + "attribute vec4 a_Color;               \n" // Per-vertex color information we will pass in.
+            + "#ifdef TEXTURE                        \n"
+            + "attribute vec2 a_TexCoordinate;       \n" // Per-vertex texture coordinate information (texture sub-rect of the sprite).
+            + "varying vec2 v_TexCoordinate;         \n" // This will be passed into the fragment shader.
+            + "#endif                                \n"
+            + "#ifdef CIRCLE_MASK                    \n"
+            + "attribute vec2 a_CircleCoordinate;    \n" // Per-vertex position relative to the circle (unit radius).
+            + "varying vec2 v_CircleCoordinate;      \n" // This will be passed into the fragment shader.
+            + "#endif                                \n"
+
+            + "varying vec4 v_Color;                 \n" // This will be passed into the fragment shader.
+
+            + "void main()                           \n" // The entry point for our vertex shader.
+            + "{                                     \n"
+            + "#ifdef TEXTURE                        \n"
+            + "  v_TexCoordinate = a_TexCoordinate;  \n" // Pass through the texture coordinate.
+            + "#endif                                \n"
+            + "#ifdef CIRCLE_MASK                    \n"
+            + "  v_CircleCoordinate = a_CircleCoordinate;                                        \n" // Pass through the circle coordinate.
+            + "#endif                                \n"
+            + "  v_Color = a_Color;                  \n" // Pass the color through to the fragment shader.
+            + "  gl_Position = u_MVPMatrix           \n" // gl_Position is a special variable used to store the final position.
+            + "               * a_Position;          \n" // Multiply the vertex by the matrix to get the final point
+            + "}                                     \n";
+
+    private static final String FRAGMENT_SHADER_SPRITE = "precision mediump float;              \n" // Set the default precision to medium.
+            + "#ifdef TEXTURE                        \n"
+            + "uniform sampler2D u_Texture;          \n" // The input texture (sprite atlas)
+            + "varying vec2 v_TexCoordinate;         \n" // Interpolated texture coordinate per fragment
+            + "#endif                                \n"
+            + "#ifdef CIRCLE_MASK                    \n"
+            + "varying vec2 v_CircleCoordinate;      \n" // Interpolated position relative to the circle
+            + "#endif                                \n"
 
             + "varying vec4 v_Color;                 \n" // This input color
+
+            + "void main()                           \n"
+            + "{                                     \n"
+            + "#ifdef CIRCLE_MASK                    \n"
+            + "  if (dot(v_CircleCoordinate, v_CircleCoordinate) > 1.0) {                        \n" // Outside of the circle: other sprites kept visible
+            + "    discard;                          \n"
+            + "  }                                   \n"
+            + "#endif                                \n"
+            + "#ifdef TEXTURE                        \n"
+            + "  gl_FragColor = (v_Color * texture2D(u_Texture, v_TexCoordinate));               \n" // Multiply the color by the texture value to get final output color
+            + "#else                                 \n"
+            + "  gl_FragColor = v_Color;             \n"
+            + "#endif                                \n"
+            + "}                                     \n";
+
+    /* Sphere shader (color computed from the latitude with a palette, no per-vertex color) */
+
+    // decision to not taken into account distance for the light attenuation
+    private static final String VERTEX_SHADER_SPHERE = "uniform mat4 u_MVPMatrix;                \n" // A constant representing the combined model/view/projection matrix.
+            + "uniform mat4 u_MVMatrix;              \n" // A constant representing the combined model/view matrix.
+            + "#ifdef LIGHT                          \n"
+            + LIGHT_POSITION                           // The position of the light in eye space
+            + "#endif                                \n"
+            + "#ifdef TEXTURE                        \n"
+            + "uniform vec4 u_TextureRect;           \n" // The texture area in the atlas (U, V, width, height)
+            + "attribute vec2 a_TexCoordinate;       \n" // Per-vertex texture coordinate information we will pass in.
+            + "varying vec2 v_TexCoordinate;         \n" // This will be passed into the fragment shader.
+            + "#endif                                \n"
+
+            + "attribute vec4 a_Position;            \n" // Per-vertex position information we will pass in.
+            + "attribute vec3 a_Normal;              \n" // Per-vertex normal information we will pass in (unit sphere).
+
+            + "varying vec4 v_Light;                 \n" // Light factor applied to the palette color in the fragment shader.
+            + "varying float v_Latitude;             \n" // Latitude in degrees (-90.0 to 90.0) used to select the palette color.
+
+            + INSTANCE_TRANSFORM
+            + "void main()                           \n" // The entry point for our vertex shader.
+            + "{                                     \n"
+            + "  vec4 position = a_Position;         \n"
+            + "  vec3 normal = a_Normal;             \n"
+            + "#ifdef INSTANCED                      \n"
+            + "  instanceTransform(position, normal);\n" // Move the vertex to its instance (stress mode).
+            + "#endif                                \n"
+            + "#ifdef LIGHT                          \n"
+            + "    vec4 lightColor = vec4(1.0, 1.0, 0.85, 1.0);                                  \n" // Set warm light
+            + "    vec3 modelViewVertex = vec3(u_MVMatrix * position);                         \n" // Transform the vertex into eye space.
+            + "    vec3 modelViewNormal = normalize((u_MVMatrix * vec4(normal, 0.0)).xyz);       \n" // Transform the normal's orientation into eye space.
+            + "    vec3 lightVector = normalize(u_LightPos - modelViewVertex);                   \n" // Calculate the light vector.
+            + "    float diffuse = max(dot(modelViewNormal, lightVector), 0.3);                  \n" // Calculate the dot product of the light vector and vertex normal.
+            + "    vec3 eyeVector = normalize(vec3(0.0, 0.0, 1.0));                              \n" // Create eye vector (reversed).
+            + "    vec3 lightReflectVector = reflect(vec3(0.0) - lightVector, modelViewNormal);  \n" // Calculate the light reflection vector.
+            + "    float normalDotReflect = max(0.0, dot(eyeVector, lightReflectVector));        \n" // Calculate the dot product of the reflect light vector and the eye vector.
+            + "    vec3 shininess = pow(normalDotReflect, 2.0) * vec3(1.0, 1.0, 1.0);            \n" // Calculate the shininess impact.
+            + "    v_Light = lightColor * vec4(diffuse);                                         \n" // Apply the diffuse light.
+            + "    v_Light += lightColor * vec4(0.2, 0.2, 0.2, 1.0);                             \n" // Apply the ambient light.
+            + "    v_Light += lightColor * vec4(shininess, 1.0);                                 \n" // Apply the specular light.
+            + "#else                                 \n"
+            + "    v_Light = vec4(1.0);              \n" // Palette color used as is.
+            + "#endif                                \n"
+            + "  v_Latitude = degrees(asin(clamp(a_Position.y, -1.0, 1.0)));                     \n" // Latitude from the position (unit sphere, more accurate than the normal).
+            + "#ifdef TEXTURE                        \n"
+            + "  v_TexCoordinate = u_TextureRect.xy + a_TexCoordinate * u_TextureRect.zw;        \n" // Map the texture coordinate to the atlas.
+            + "#endif                                \n"
+            + "  gl_Position = u_MVPMatrix           \n" // gl_Position is a special variable used to store the final position.
+            + "              * position;             \n" // Multiply the vertex by the matrix to get the final point
+            + "}                                     \n";
+
+    private static final String FRAGMENT_SHADER_SPHERE = "precision mediump float;              \n" // Set the default precision to medium.
+            + "#ifdef TEXTURE                        \n"
+            + "uniform sampler2D u_Texture;          \n" // The input texture
             + "varying vec2 v_TexCoordinate;         \n" // Interpolated texture coordinate per fragment
+            + "#endif                                \n"
+            + "uniform int u_ColorMode;              \n" // The color mode (0 = flat, 1 = bands, 2 = gradient)
+            + "uniform vec4 u_Palette[3];            \n" // The palette colors
+
+            + "varying vec4 v_Light;                 \n" // The light factor
+            + "varying float v_Latitude;             \n" // Interpolated latitude per fragment
 
             + "void main()                           \n"
             + "{                                     \n"
-            + "  float d, dist;                      \n"
-            + "  dist = distance(u_CirclePosition, gl_FragCoord.xy);\n"
-            + "  if(dist == 0.)                      \n"
-            + "    dist = 1.;                        \n"
-            + "  d = u_CircleRadius / dist;          \n"
-            + "  if(d >= 1.) {                       \n"
-            + "    if (u_TextState > 0) {            \n"
-            + "      gl_FragColor = (v_Color * texture2D(u_Texture, v_TexCoordinate));           \n"
+            + "  vec4 color;                         \n"
+            + "  if (u_ColorMode == 1) {             \n"
+            + "    float band = floor((abs(v_Latitude) + 5.0) / 10.0);                           \n" // 10 degrees bands (band 0 = equator, band 9 = poles)
+            + "    if ((band < 0.5) || (band > 8.5)) {                                           \n"
+            + "      color = u_Palette[2];           \n"
+            + "    } else if (mod(band, 2.0) > 0.5) {                                            \n"
+            + "      color = u_Palette[0];           \n"
             + "    } else {                          \n"
-            + "      gl_FragColor = v_Color;         \n"
+            + "      color = u_Palette[1];           \n"
+            + "    }                                 \n"
+            + "  } else if (u_ColorMode == 2) {      \n"
+            + "    float t = (v_Latitude + 90.0) / 90.0;                                         \n" // 0.0 at south pole, 1.0 at equator, 2.0 at north pole
+            + "    if (t < 1.0) {                    \n"
+            + "      color = mix(u_Palette[0], u_Palette[1], t);                                 \n"
+            + "    } else {                          \n"
+            + "      color = mix(u_Palette[1], u_Palette[2], t - 1.0);                           \n"
             + "    }                                 \n"
             + "  } else {                            \n"
-            + "    gl_FragColor = vec4(0.5, 0.5, 0.5, 0.5);                                      \n"
+            + "    color = u_Palette[0];             \n"
             + "  }                                   \n"
+            + "  color = clamp(color * v_Light, 0.0, 1.0);                                       \n" // Apply the light.
+            + "#ifdef TEXTURE                        \n"
+            + "  gl_FragColor = (color * texture2D(u_Texture, v_TexCoordinate));                 \n" // Multiply the color by the texture value to get final output color
+            + "#else                                 \n"
+            + "  gl_FragColor = color;               \n"
+            + "#endif                                \n"
             + "}                                     \n";
 
     public static final int SHADER_COLOR = 0;
     public static final int SHADER_COLOR_LIGHT = 1;
     public static final int SHADER_TEXTURE = 2;
     public static final int SHADER_TEXTURE_LIGHT = 3;
-    public static final int SHADER_TEXTURE_CIRCLE = 4;
+    public static final int SHADER_SPHERE = 4;
+    public static final int SHADER_SPRITE = 5;
+
+    /** Program variants (bit field): lighting computed, texture sampled, fragments masked by a circle */
+    public static final int VARIANT_LIGHT = 1;
+    public static final int VARIANT_TEXTURE = 2;
+    public static final int VARIANT_CIRCLE_MASK = 4;
 
     private static final String[] VERTEX_SHADER_TABLE = {
             VERTEX_SHADER_COLOR,                // SHADER_COLOR index
             VERTEX_SHADER_COLOR_LIGHT,          // SHADER_COLOR_LIGHT index
             VERTEX_SHADER_TEXTURE,              // SHADER_TEXTURE index
             VERTEX_SHADER_TEXTURE_LIGHT_OPT,    // SHADER_TEXTURE_LIGHT index
-            VERTEX_SHADER_TEXTURE               // SHADER_TEXTURE_CIRCLE index
+            VERTEX_SHADER_SPHERE,               // SHADER_SPHERE index
+            VERTEX_SHADER_SPRITE                // SHADER_SPRITE index
     };
 
     private static final String[] FRAGMENT_SHADER_TABLE = {
@@ -181,9 +412,93 @@ public class ShaderHelper {
             FRAGMENT_SHADER_COLOR,              // SHADER_COLOR_LIGHT index
             FRAGMENT_SHADER_TEXTURE_OPT,        // SHADER_TEXTURE index
             FRAGMENT_SHADER_TEXTURE_OPT,        // SHADER_TEXTURE_LIGHT index
-            FRAGMENT_SHADER_TEXTURE_OPT_CIRCLE  // SHADER_TEXTURE_CIRCLE index
+            FRAGMENT_SHADER_SPHERE,             // SHADER_SPHERE index
+            FRAGMENT_SHADER_SPRITE              // SHADER_SPRITE index
     };
 
+    /**
+     * Program shared by the renderers
+     */
+    private static class Program {
+        final int mHandle;
+        int mReferences;
+        final HashMap<String, Integer> mUniformLocations = new HashMap<>();
+        final HashMap<String, Integer> mAttribLocations = new HashMap<>();
+
+        Program(int handle) {
+            mHandle = handle;
+        }
+    }
+
+    /** Programs of the current context by shader index and defines */
+    private static final HashMap<String, Program> sPrograms = new HashMap<>();
+
+    /** Programs of the current context by handle */
+    private static final SparseArray<Program> sProgramsByHandle = new SparseArray<>();
+
+    /** Context generation of the programs (see GlStateCache.getGeneration()) */
+    private static int sProgramsGeneration;
+
+    /**
+     * Get back the defines selecting the instanced variant of the vertex shaders (stress mode,
+     * SHADER_TEXTURE_LIGHT and SHADER_SPHERE only)
+     *
+     * @param batchSize 0 for ES 3.0 instanced draws (per instance attributes), number of instances
+     *                  per draw for ES 2.0 pseudo-instancing (uniform array)
+     * @return defines which shall be given to compileVertexShader()
+     */
+    public static String getInstancingDefines(int batchSize) {
+        if (batchSize == 0) {
+            return "#define INSTANCED\n";
+        }
+        return "#define INSTANCED\n#define PSEUDO_INSTANCING\n#define BATCH_SIZE " + batchSize + "\n";
+    }
+
+    /**
+     * Get back the defines selecting a program variant (given to both shaders): code of the
+     * disabled features not compiled instead of being skipped at run time
+     *
+     * @param variant combination of VARIANT_LIGHT, VARIANT_TEXTURE and VARIANT_CIRCLE_MASK
+     * @return defines which shall be given to compileVertexShader() and compileFragmentShader()
+     */
+    public static String getVariantDefines(int variant) {
+        final StringBuilder defines = new StringBuilder();
+        if ((variant & VARIANT_LIGHT) != 0) {
+            defines.append("#define LIGHT\n");
+        }
+        if ((variant & VARIANT_TEXTURE) != 0) {
+            defines.append("#define TEXTURE\n");
+        }
+        if ((variant & VARIANT_CIRCLE_MASK) != 0) {
+            defines.append("#define CIRCLE_MASK\n");
+        }
+        return defines.toString();
+    }
+
+    /**
+     * Get back the source of a vertex shader variant (GLSL ES 3.00 prefix on ES 3.0)
+     *
+     * @param index kind of texture expected
+     * @param defines preprocessor defines selecting the variant
+     * @return vertex shader source
+     */
+    private static String getVertexShaderSource(int index, String defines) {
+        final String prefix = GlStateCache.isEs3() ? VERTEX_SHADER_PREFIX_ES3 : "";
+        return prefix + defines + VERTEX_SHADER_TABLE[index];
+    }
+
+    /**
+     * Get back the source of a fragment shader variant (GLSL ES 3.00 prefix on ES 3.0)
+     *
+     * @param index kind of texture expected
+     * @param defines preprocessor defines selecting the variant
+     * @return fragment shader source
+     */
+    private static String getFragmentShaderSource(int index, String defines) {
+        final String prefix = GlStateCache.isEs3() ? FRAGMENT_SHADER_PREFIX_ES3 : "";
+        return prefix + defines + FRAGMENT_SHADER_TABLE[index];
+    }
+
     /**
      * Compile the vertex shader received
      *
@@ -191,11 +506,23 @@ public class ShaderHelper {
      * @return vertex shader handle (null if the compilation failed)
      */
     public static int compileVertexShader(int index) {
+        return compileVertexShader(index, "");
+    }
+
+    /**
+     * Compile a variant of the vertex shader received
+     *
+     * @param index kind of texture expected
+     * @param defines preprocessor defines selecting the variant (see getVariantDefines() and
+     *                getInstancingDefines())
+     * @return vertex shader handle (null if the compilation failed)
+     */
+    public static int compileVertexShader(int index, String defines) {
         int vertexShaderHandle = GLES20.glCreateShader(GLES20.GL_VERTEX_SHADER);
 
         if (vertexShaderHandle != 0)
         {
-            GLES20.glShaderSource(vertexShaderHandle, VERTEX_SHADER_TABLE[index]);
+            GLES20.glShaderSource(vertexShaderHandle, getVertexShaderSource(index, defines));
 
             // Compile the shader.
             GLES20.glCompileShader(vertexShaderHandle);
@@ -221,13 +548,24 @@ public class ShaderHelper {
      * @return fragment shader handle (null if the compilation failed)
      */
     public static int compileFragmentShader(int index) {
+        return compileFragmentShader(index, "");
+    }
+
+    /**
+     * Compile a variant of the fragment shader received
+     *
+     * @param index kind of texture expected
+     * @param defines preprocessor defines selecting the variant (see getVariantDefines())
+     * @return fragment shader handle (null if the compilation failed)
+     */
+    public static int compileFragmentShader(int index, String defines) {
         // Load in the fragment shader.
         int fragmentShaderHandle = GLES20.glCreateShader(GLES20.GL_FRAGMENT_SHADER);
 
         if (fragmentShaderHandle != 0)
         {
             // Pass in the shader source.
-            GLES20.glShaderSource(fragmentShaderHandle, FRAGMENT_SHADER_TABLE[index]);
+            GLES20.glShaderSource(fragmentShaderHandle, getFragmentShaderSource(index, defines));
 
             // Compile the shader.
             GLES20.glCompileShader(fragmentShaderHandle);
@@ -265,14 +603,7 @@ public class ShaderHelper {
             // Bind the fragment shader to the program
             GLES20.glAttachShader(programHandle, fragmentShaderHandle);
 
-            // Bind attributes
-            GLES20.glBindAttribLocation(programHandle, 0, "a_Position");
-            GLES20.glBindAttribLocation(programHandle, 1, "a_Color");
-
-            if (index == SHADER_TEXTURE) {
-                // case texture: bind the associated attribute
-                GLES20.glBindAttribLocation(programHandle, 2, "a_TexCoordinate");
-            }
+            prepareLink(index, programHandle);
 
             // Link the the vertex shader and fragment shader together into a program.
             GLES20.glLinkProgram(programHandle);
@@ -287,8 +618,367 @@ public class ShaderHelper {
                 GLES20.glDeleteProgram(programHandle);
                 programHandle = 0;
             }
+            else
+            {
+                bindUniformBlocks(programHandle);
+            }
         }
 
         return programHandle;
     }
+
+    /**
+     * Get back the program of the shader received, compiled and linked only if not already used
+     * by another renderer (shall be called in GL thread, each time the surface is created)
+     *
+     * @param index kind of texture expected
+     * @return program handle (reference released with releaseProgram())
+     */
+    public static int acquireProgram(int index) {
+        return acquireProgram(index, 0, "");
+    }
+
+    /**
+     * Get back the program of a variant of the shader received, compiled and linked only if not
+     * already used by another renderer (shall be called in GL thread)
+     *
+     * @param index kind of texture expected
+     * @param variant combination of VARIANT_LIGHT, VARIANT_TEXTURE and VARIANT_CIRCLE_MASK
+     * @return program handle (reference released with releaseProgram())
+     */
+    public static int acquireProgram(int index, int variant) {
+        return acquireProgram(index, variant, "");
+    }
+
+    /**
+     * Get back the program of a variant of the shader received, compiled and linked only if not
+     * already used by another renderer (shall be called in GL thread)
+     *
+     * @param index kind of texture expected
+     * @param variant combination of VARIANT_LIGHT, VARIANT_TEXTURE and VARIANT_CIRCLE_MASK
+     * @param defines additional preprocessor defines selecting the vertex shader variant (see
+     *                getInstancingDefines())
+     * @return program handle (reference released with releaseProgram())
+     */
+    public static synchronized int acquireProgram(int index, int variant, String defines) {
+        if (sProgramsGeneration != GlStateCache.getGeneration()) {
+            // Programs lost with the previous context
+            sPrograms.clear();
+            sProgramsByHandle.clear();
+            sProgramsGeneration = GlStateCache.getGeneration();
+        }
+
+        final String key = index + "\n" + variant + "\n" + defines;
+        Program program = sPrograms.get(key);
+        if (program == null) {
+            // Program linked by the warm-up if ready (see ShaderWarmUp), compiled here otherwise
+            int programHandle = defines.isEmpty() ? ShaderWarmUp.takeProgram(index, variant) : 0;
+            if (programHandle == 0) {
+                programHandle = createProgram(index, variant, defines);
+            }
+            program = new Program(programHandle);
+            sPrograms.put(key, program);
+            sProgramsByHandle.put(program.mHandle, program);
+            Timber.d("Program %d variant %d created (%d programs)", index, variant, sPrograms.size());
+        }
+        program.mReferences++;
+
+        deleteUnusedPrograms();
+        return program.mHandle;
+    }
+
+    /**
+     * Release a program reference: program deleted at the next acquireProgram() if no more used
+     * (can be called outside GL thread, e.g. when the renderer is switched while the surface is
+     * paused)
+     *
+     * @param programHandle program handle given by acquireProgram() (nothing done if 0)
+     */
+    public static synchronized void releaseProgram(int programHandle) {
+        final Program program = sProgramsByHandle.get(programHandle);
+        if ((program != null) && (program.mReferences > 0)) {
+            program.mReferences--;
+        }
+    }
+
+    /**
+     * Get back the location of a uniform (queried once per program)
+     *
+     * @param programHandle program handle given by acquireProgram()
+     * @param name uniform name
+     * @return uniform location (-1 if not used by the program)
+     */
+    public static synchronized int getUniformLocation(int programHandle, String name) {
+        final Program program = sProgramsByHandle.get(programHandle);
+        if (program == null) {
+            return GLES20.glGetUniformLocation(programHandle, name);
+        }
+        Integer location = program.mUniformLocations.get(name);
+        if (location == null) {
+            location = GLES20.glGetUniformLocation(programHandle, name);
+            program.mUniformLocations.put(name, location);
+        }
+        return location;
+    }
+
+    /**
+     * Get back the location of an attribute (queried once per program)
+     *
+     * @param programHandle program handle given by acquireProgram()
+     * @param name attribute name
+     * @return attribute location (-1 if not used by the program)
+     */
+    public static synchronized int getAttribLocation(int programHandle, String name) {
+        final Program program = sProgramsByHandle.get(programHandle);
+        if (program == null) {
+            return GLES20.glGetAttribLocation(programHandle, name);
+        }
+        Integer location = program.mAttribLocations.get(name);
+        if (location == null) {
+            location = GLES20.glGetAttribLocation(programHandle, name);
+            program.mAttribLocations.put(name, location);
+        }
+        return location;
+    }
+
+    /**
+     * Set the attribute bindings and the parameters of a program before its link
+     *
+     * @param index kind of texture expected
+     * @param programHandle program handle (shaders attached)
+     */
+    private static void prepareLink(int index, int programHandle) {
+        // Bind attributes
+        GLES20.glBindAttribLocation(programHandle, 0, "a_Position");
+        GLES20.glBindAttribLocation(programHandle, 1, "a_Color");
+
+        if (index == SHADER_TEXTURE) {
+            // case texture: bind the associated attribute
+            GLES20.glBindAttribLocation(programHandle, 2, "a_TexCoordinate");
+        }
+
+        if (GlStateCache.isEs3()) {
+            // Binary kept for the program binary cache
+            GLES30.glProgramParameteri(programHandle, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        }
+    }
+
+    /**
+     * Bind the uniform blocks of a linked program (ES 3.0 only, binding not part of the program
+     * binary)
+     *
+     * @param programHandle linked program handle
+     */
+    private static void bindUniformBlocks(int programHandle) {
+        if (!GlStateCache.isEs3()) {
+            return;
+        }
+
+        // Scene uniform block (if used) read from the scene uniform buffer binding
+        final int blockIndex = GLES30.glGetUniformBlockIndex(programHandle, "Scene");
+        if (blockIndex != GLES30.GL_INVALID_INDEX) {
+            GLES30.glUniformBlockBinding(programHandle, blockIndex, SceneUniforms.BINDING);
+        }
+    }
+
+    /**
+     * Create a program from its cached binary, or compile and link it (shaders deleted once
+     * linked, binary cached)
+     *
+     * @param index kind of texture expected
+     * @param variant combination of VARIANT_LIGHT, VARIANT_TEXTURE and VARIANT_CIRCLE_MASK
+     * @param defines additional preprocessor defines selecting the vertex shader variant
+     * @return linked program handle
+     */
+    private static int createProgram(int index, int variant, String defines) {
+        final String variantDefines = getVariantDefines(variant);
+        String key = null;
+        if (ProgramBinaryCache.isEnabled()) {
+            key = ProgramBinaryCache.getKey(index, getVertexShaderSource(index, variantDefines + defines),
+                    getFragmentShaderSource(index, variantDefines));
+            final int programHandle = ProgramBinaryCache.load(key, true);
+            if (programHandle != 0) {
+                bindUniformBlocks(programHandle);
+                ProgramBinaryCache.logStatistics();
+                return programHandle;
+            }
+        }
+
+        final long start = System.nanoTime();
+        final int vertexShaderHandle = compileVertexShader(index, variantDefines + defines);
+        if (vertexShaderHandle == 0)
+        {
+            throw new RuntimeException("Error creating vertex shader.");
+        }
+
+        final int fragmentShaderHandle = compileFragmentShader(index, variantDefines);
+        if (fragmentShaderHandle == 0)
+        {
+            GLES20.glDeleteShader(vertexShaderHandle);
+            throw new RuntimeException("Error creating fragment shader.");
+        }
+
+        final int programHandle = linkProgram(index, vertexShaderHandle, fragmentShaderHandle);
+
+        // Shaders no more needed once linked
+        if (programHandle != 0) {
+            GLES20.glDetachShader(programHandle, vertexShaderHandle);
+            GLES20.glDetachShader(programHandle, fragmentShaderHandle);
+        }
+        GLES20.glDeleteShader(vertexShaderHandle);
+        GLES20.glDeleteShader(fragmentShaderHandle);
+
+        if (programHandle == 0)
+        {
+            throw new RuntimeException("Error creating program.");
+        }
+
+        if (key != null) {
+            ProgramBinaryCache.save(key, programHandle, (System.nanoTime() - start) / 1000);
+            ProgramBinaryCache.logStatistics();
+        }
+        return programHandle;
+    }
+
+    /**
+     * Program compiled and linked by warmUpPrograms()
+     */
+    private static class PendingProgram {
+        final int mIndex;
+        final int mSlot;
+        final String mKey;
+        final long mStart = System.nanoTime();
+        int mVertexShaderHandle;
+        int mFragmentShaderHandle;
+        int mHandle;
+
+        PendingProgram(int index, int slot, String key) {
+            mIndex = index;
+            mSlot = slot;
+            mKey = key;
+        }
+    }
+
+    /**
+     * Compile and link programs in the loader context (see ShaderWarmUp, called in loader thread:
+     * GlStateCache shall not be used). Programs already cached are loaded from their binary, the
+     * others compiled then their binary cached. The programs are kept: the loader context shares
+     * them with the surface context.
+     *
+     * @param programs shader index and variant of each program
+     * @param parallel true to submit all the compilations and links before checking any status
+     *                 (GL_KHR_parallel_shader_compile), false to complete each program in turn
+     * @param handles linked program handle of each program (0 if the link failed), updated as soon
+     *                as each program is created so that they can be deleted if an error is thrown
+     * @return number of programs linked
+     */
+    static int warmUpPrograms(int[][] programs, boolean parallel, int[] handles) {
+        final boolean binaryCache = ProgramBinaryCache.isEnabled();
+        final ArrayList<PendingProgram> pendingPrograms = new ArrayList<>();
+
+        for (int i = 0; i < programs.length; i++) {
+            final int index = programs[i][0];
+            final String defines = getVariantDefines(programs[i][1]);
+            final String vertexShaderSource = getVertexShaderSource(index, defines);
+            final String fragmentShaderSource = getFragmentShaderSource(index, defines);
+
+            String key = null;
+            if (binaryCache) {
+                key = ProgramBinaryCache.getKey(index, vertexShaderSource, fragmentShaderSource);
+                handles[i] = ProgramBinaryCache.load(key, false);
+                if (handles[i] != 0) {
+                    bindUniformBlocks(handles[i]);
+                    continue;
+                }
+            }
+
+            final PendingProgram pendingProgram = new PendingProgram(index, i, key);
+            pendingProgram.mVertexShaderHandle = submitShader(GLES20.GL_VERTEX_SHADER, vertexShaderSource);
+            pendingProgram.mFragmentShaderHandle = submitShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderSource);
+            pendingProgram.mHandle = GLES20.glCreateProgram();
+            handles[i] = pendingProgram.mHandle;
+            GLES20.glAttachShader(pendingProgram.mHandle, pendingProgram.mVertexShaderHandle);
+            GLES20.glAttachShader(pendingProgram.mHandle, pendingProgram.mFragmentShaderHandle);
+            prepareLink(index, pendingProgram.mHandle);
+            GLES20.glLinkProgram(pendingProgram.mHandle);
+
+            if (parallel) {
+                pendingPrograms.add(pendingProgram);
+            } else {
+                completeProgram(pendingProgram, handles);
+            }
+        }
+
+        for (PendingProgram pendingProgram : pendingPrograms) {
+            completeProgram(pendingProgram, handles);
+        }
+
+        int count = 0;
+        for (int handle : handles) {
+            if (handle != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Create a shader and start its compilation (status not checked)
+     *
+     * @param type GL_VERTEX_SHADER or GL_FRAGMENT_SHADER
+     * @param source shader source
+     * @return shader handle
+     */
+    private static int submitShader(int type, String source) {
+        final int shaderHandle = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shaderHandle, source);
+        GLES20.glCompileShader(shaderHandle);
+        return shaderHandle;
+    }
+
+    /**
+     * Wait for the link of a program submitted by warmUpPrograms() then cache its binary (shaders
+     * deleted, program deleted if the link failed)
+     *
+     * @param pendingProgram program submitted
+     * @param handles linked program handle of each program, updated
+     */
+    private static void completeProgram(PendingProgram pendingProgram, int[] handles) {
+        final int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(pendingProgram.mHandle, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        GLES20.glDetachShader(pendingProgram.mHandle, pendingProgram.mVertexShaderHandle);
+        GLES20.glDetachShader(pendingProgram.mHandle, pendingProgram.mFragmentShaderHandle);
+        GLES20.glDeleteShader(pendingProgram.mVertexShaderHandle);
+        GLES20.glDeleteShader(pendingProgram.mFragmentShaderHandle);
+
+        if (linkStatus[0] == 0) {
+            Timber.w("Warm-up of program %d failed: %s", pendingProgram.mIndex,
+                    GLES20.glGetProgramInfoLog(pendingProgram.mHandle));
+            GLES20.glDeleteProgram(pendingProgram.mHandle);
+            handles[pendingProgram.mSlot] = 0;
+            return;
+        }
+
+        bindUniformBlocks(pendingProgram.mHandle);
+        if (pendingProgram.mKey != null) {
+            // Compile time overestimated when the programs are compiled in parallel
+            ProgramBinaryCache.save(pendingProgram.mKey, pendingProgram.mHandle,
+                    (System.nanoTime() - pendingProgram.mStart) / 1000);
+        }
+    }
+
+    /**
+     * Delete the programs no more referenced by any renderer (GL thread only)
+     */
+    private static void deleteUnusedPrograms() {
+        final Iterator<Program> iterator = sPrograms.values().iterator();
+        while (iterator.hasNext()) {
+            final Program program = iterator.next();
+            if (program.mReferences == 0) {
+                GlStateCache.deleteProgram(program.mHandle);
+                sProgramsByHandle.remove(program.mHandle);
+                iterator.remove();
+            }
+        }
+    }
 }
@@ -0,0 +1,110 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.opengl.GLES20;
+
+import timber.log.Timber;
+
+/**
+ * Compile the programs of all the shapes in the loader context (see GlLoader) while the renderer
+ * creates its buffers and textures: the loader context shares its objects with the surface one, so
+ * the programs linked there are used as is by the renderers (see ShaderHelper.acquireProgram())
+ * and the first draw, or the first light or texture toggle, finds them ready.
+ * The warm-up never blocks the GL thread: a program not yet linked by the warm-up is compiled by
+ * the renderer as usual. Nothing done if the loader context is not active.
+ */
+public class ShaderWarmUp {
+
+    /** Shader index and variant of the programs used by the renderers (stress mode excluded) */
+    private final static int[][] PROGRAMS = {
+            // Triangle, square and circle (fan or masked quad)
+            {ShaderHelper.SHADER_TEXTURE, 0},
+            {ShaderHelper.SHADER_TEXTURE, ShaderHelper.VARIANT_TEXTURE},
+            {ShaderHelper.SHADER_TEXTURE, ShaderHelper.VARIANT_CIRCLE_MASK},
+            {ShaderHelper.SHADER_TEXTURE, ShaderHelper.VARIANT_CIRCLE_MASK | ShaderHelper.VARIANT_TEXTURE},
+            // Cube and pyramid
+            {ShaderHelper.SHADER_TEXTURE_LIGHT, 0},
+            {ShaderHelper.SHADER_TEXTURE_LIGHT, ShaderHelper.VARIANT_LIGHT},
+            {ShaderHelper.SHADER_TEXTURE_LIGHT, ShaderHelper.VARIANT_TEXTURE},
+            {ShaderHelper.SHADER_TEXTURE_LIGHT, ShaderHelper.VARIANT_LIGHT | ShaderHelper.VARIANT_TEXTURE},
+            // Sphere
+            {ShaderHelper.SHADER_SPHERE, 0},
+            {ShaderHelper.SHADER_SPHERE, ShaderHelper.VARIANT_LIGHT},
+            {ShaderHelper.SHADER_SPHERE, ShaderHelper.VARIANT_TEXTURE}
+    };
+
+    private final static String PARALLEL_SHADER_COMPILE = "GL_KHR_parallel_shader_compile";
+
+    /** Warm-up of the current context (GL thread only, null if not started) */
+    private static WarmUp sWarmUp;
+
+    /** Context generation of the warm-up (see GlStateCache.getGeneration()) */
+    private static int sGeneration;
+
+    /**
+     * Programs linked in the loader context, handed to the renderers once the upload is complete
+     */
+    private static class WarmUp extends GlLoader.Upload {
+
+        /** Linked program handle of each entry of PROGRAMS (0 if failed or already taken) */
+        private final int[] mHandles = new int[PROGRAMS.length];
+
+        @Override
+        protected void load() {
+            final long start = System.nanoTime();
+
+            final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+            final boolean parallel = (extensions != null) && extensions.contains(PARALLEL_SHADER_COMPILE);
+            final int count = ShaderHelper.warmUpPrograms(PROGRAMS, parallel, mHandles);
+
+            Timber.i("Shader warm-up: %d of %d programs linked in %d ms%s", count, PROGRAMS.length,
+                    (System.nanoTime() - start) / 1000000, parallel ? " (parallel compile)" : "");
+        }
+
+        @Override
+        protected void discard() {
+            // Never bound in GL thread: not tracked by GlStateCache
+            for (int i = 0; i < mHandles.length; i++) {
+                if (mHandles[i] != 0) {
+                    GLES20.glDeleteProgram(mHandles[i]);
+                    mHandles[i] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Start the warm-up of the current context (shall be called in GL thread each time the surface
+     * is created, after GlStateCache.reset() and before the programs are acquired)
+     */
+    public static void start() {
+        sWarmUp = null;
+        sGeneration = GlStateCache.getGeneration();
+        if (!GlLoader.isActive()) {
+            Timber.i("Shader warm-up skipped: no loader context, programs compiled by the renderers");
+            return;
+        }
+        sWarmUp = (WarmUp) GlLoader.submit(new WarmUp());
+    }
+
+    /**
+     * Take a program linked by the warm-up (shall be called in GL thread, never waits)
+     *
+     * @param index kind of texture expected
+     * @param variant combination of VARIANT_LIGHT, VARIANT_TEXTURE and VARIANT_CIRCLE_MASK
+     * @return linked program handle, owned by the caller (0 if not warmed up or not yet linked)
+     */
+    static int takeProgram(int index, int variant) {
+        if ((sWarmUp == null) || (sGeneration != GlStateCache.getGeneration())
+                || !sWarmUp.isDone() || sWarmUp.isFailed()) {
+            return 0;
+        }
+        for (int i = 0; i < PROGRAMS.length; i++) {
+            if ((PROGRAMS[i][0] == index) && (PROGRAMS[i][1] == variant)) {
+                final int handle = sWarmUp.mHandles[i];
+                sWarmUp.mHandles[i] = 0;
+                return handle;
+            }
+        }
+        return 0;
+    }
+}
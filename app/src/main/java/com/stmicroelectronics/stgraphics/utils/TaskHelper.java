@@ -0,0 +1,88 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Helper used to run heavy jobs (mesh generation...) outside of the UI and GL threads
+ */
+public class TaskHelper {
+
+    /** Maximum number of bitmaps decoded in parallel */
+    private final static int MAX_DECODE_THREADS = 4;
+
+    private static ExecutorService sBackgroundExecutor;
+    private static ExecutorService sDecodeExecutor;
+    private static ForkJoinPool sComputePool;
+
+    /**
+     * Get back the executor used to run the jobs in background (one low priority thread)
+     *
+     * @return background executor
+     */
+    public static synchronized ExecutorService getBackgroundExecutor() {
+        if (sBackgroundExecutor == null) {
+            sBackgroundExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "STGraphics-background");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sBackgroundExecutor;
+    }
+
+    /**
+     * Get back the executor used to decode the textures (small pool of low priority threads, not
+     * delayed by the jobs of the background executor)
+     *
+     * @return decode executor
+     */
+    public static synchronized ExecutorService getDecodeExecutor() {
+        if (sDecodeExecutor == null) {
+            final int threads = Math.max(2, Math.min(MAX_DECODE_THREADS, Runtime.getRuntime().availableProcessors()));
+            sDecodeExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private int mCount;
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "STGraphics-decode-" + (mCount++));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sDecodeExecutor;
+    }
+
+    /**
+     * Get back the pool used to split a job in parallel tasks. The common pool is not used as its
+     * parallelism is the number of cores minus one (a single worker on a dual core).
+     *
+     * @return fork/join pool using all the cores
+     */
+    public static synchronized ForkJoinPool getComputePool() {
+        if (sComputePool == null) {
+            sComputePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sComputePool;
+    }
+}
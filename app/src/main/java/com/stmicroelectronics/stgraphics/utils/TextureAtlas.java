@@ -0,0 +1,155 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.content.Context;
+import android.graphics.BitmapFactory;
+
+import com.stmicroelectronics.stgraphics.texture.AtlasLayout;
+import com.stmicroelectronics.stgraphics.texture.TextureAssets;
+
+/**
+ * Layout of several drawable resources packed in one power of two texture (see AtlasLayout). Each
+ * texture is surrounded by a gutter filled with its edge texels so that the first mipmap levels
+ * never mix neighbour textures.
+ * Only the bitmap sizes are required, so the layout is known before any GL context exists and the
+ * texture coordinates can be remapped when the vertex buffers are built. The atlas itself is mapped
+ * from its compressed asset baked at build time, or drawn in background by
+ * AsyncTexture.decodeAtlas() or in GL thread by TextureHelper.loadTextureAtlas().
+ */
+public class TextureAtlas {
+
+    private final int[] mResourceIds;
+    private final float[] mResizes;
+
+    /** Compressed asset of the atlas (null if not baked) */
+    private final String mAssetName;
+
+    private final AtlasLayout mLayout;
+
+    /**
+     * Compute the atlas layout of textures used as is
+     *
+     * @param context current application context
+     * @param resourceIds required drawable resources (id)
+     */
+    public TextureAtlas(final Context context, final int[] resourceIds) {
+        this(context, resourceIds, null, null);
+    }
+
+    /**
+     * Compute the atlas layout of rescaled textures (see TextureHelper.loadTexture(context, id, resize))
+     *
+     * @param context current application context
+     * @param resourceIds required drawable resources (id)
+     * @param resizes rescale ratio of each texture (shall be <= 1.0f, null if not rescaled)
+     */
+    public TextureAtlas(final Context context, final int[] resourceIds, final float[] resizes) {
+        this(context, resourceIds, resizes, null);
+    }
+
+    /**
+     * Compute the atlas layout of a texture baked at build time
+     *
+     * @param context current application context
+     * @param resourceIds required drawable resources (id), in the order of the baked texture drawables
+     * @param texture baked texture (rescale ratios and compressed asset)
+     */
+    public TextureAtlas(final Context context, final int[] resourceIds, final TextureAssets.Texture texture) {
+        this(context, resourceIds, texture.getResizes(), texture.getAssetName());
+    }
+
+    private TextureAtlas(final Context context, final int[] resourceIds, final float[] resizes, final String assetName) {
+        final int nbTextures = resourceIds.length;
+
+        mResourceIds = resourceIds;
+        mResizes = new float[nbTextures];
+        mAssetName = assetName;
+
+        // Read the bitmap sizes only (no pixel decoded)
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;   // No pre-scaling
+        options.inJustDecodeBounds = true;
+
+        final int[] widths = new int[nbTextures];
+        final int[] heights = new int[nbTextures];
+        for (int i = 0; i < nbTextures; i++) {
+            BitmapFactory.decodeResource(context.getResources(), resourceIds[i], options);
+            widths[i] = options.outWidth;
+            heights[i] = options.outHeight;
+            mResizes[i] = (resizes != null) ? resizes[i] : 1.0f;
+        }
+
+        mLayout = new AtlasLayout(widths, heights);
+    }
+
+    /**
+     * Get back the area used by a texture in the atlas (texture coordinates inset by half a texel,
+     * neighbour textures never sampled)
+     *
+     * @param index texture index
+     * @return atlas texture coordinates (U, V, width, height) of the texture coordinates (0, 0)
+     */
+    public float[] getRect(int index) {
+        return new float[] {
+                (mLayout.getX(index) + 0.5f) / mLayout.getWidth(),
+                (mLayout.getY(index) + 0.5f) / mLayout.getHeight(),
+                (mLayout.getTextureWidth(index) - 1.0f) / mLayout.getWidth(),
+                (mLayout.getTextureHeight(index) - 1.0f) / mLayout.getHeight()};
+    }
+
+    /**
+     * Remap texture coordinates (0.0 to 1.0) to the area used by a texture in the atlas
+     *
+     * @param textureCoordinates texture coordinates (X,Y), updated
+     * @param firstVertex first vertex which shall be remapped
+     * @param nbVertices number of vertices which shall be remapped
+     * @param index texture index
+     */
+    public void mapTextureCoordinates(final float[] textureCoordinates, int firstVertex, int nbVertices, int index) {
+        final float[] rect = getRect(index);
+
+        for (int i = firstVertex; i < firstVertex + nbVertices; i++) {
+            textureCoordinates[2 * i] = rect[0] + textureCoordinates[2 * i] * rect[2];
+            textureCoordinates[2 * i + 1] = rect[1] + textureCoordinates[2 * i + 1] * rect[3];
+        }
+    }
+
+    public int getWidth() {
+        return mLayout.getWidth();
+    }
+
+    public int getHeight() {
+        return mLayout.getHeight();
+    }
+
+    int getTextureCount() {
+        return mResourceIds.length;
+    }
+
+    int getResourceId(int index) {
+        return mResourceIds[index];
+    }
+
+    float getResize(int index) {
+        return mResizes[index];
+    }
+
+    String getAssetName() {
+        return mAssetName;
+    }
+
+    int getX(int index) {
+        return mLayout.getX(index);
+    }
+
+    int getY(int index) {
+        return mLayout.getY(index);
+    }
+
+    int getTextureWidth(int index) {
+        return mLayout.getTextureWidth(index);
+    }
+
+    int getTextureHeight(int index) {
+        return mLayout.getTextureHeight(index);
+    }
+}
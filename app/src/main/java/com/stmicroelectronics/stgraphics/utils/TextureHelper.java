@@ -1,20 +1,93 @@
 package com.stmicroelectronics.stgraphics.utils;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLUtils;
 
+import com.stmicroelectronics.stgraphics.texture.AtlasLayout;
+import com.stmicroelectronics.stgraphics.texture.KtxFile;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import timber.log.Timber;
+
 /**
- * Helper used to manage textures
+ * Helper used to manage textures. The filter mode is applied to all the textures loaded (see
+ * setFilterMode()), the mipmapped modes resizing the bitmaps to a power of two size first. The
+ * textures baked at build time (see TextureBaker) are mapped from their compressed asset and
+ * loaded as is, with their mipmap levels.
  */
 public class TextureHelper {
 
+    /** Filter modes: nearest texel, bilinear, trilinear (mipmaps) and anisotropic (mipmaps) */
+    public final static int FILTER_NEAREST = 0;
+    public final static int FILTER_BILINEAR = 1;
+    public final static int FILTER_TRILINEAR = 2;
+    public final static int FILTER_ANISOTROPIC = 3;
+    public final static int NB_FILTER_MODES = 4;
+
+    private final static String[] FILTER_NAMES = {"nearest", "bilinear", "trilinear", "anisotropic"};
+
+    /** GL_EXT_texture_filter_anisotropic (not defined by GLES20) */
+    private final static String ANISOTROPIC_EXTENSION = "GL_EXT_texture_filter_anisotropic";
+    private final static int GL_TEXTURE_MAX_ANISOTROPY_EXT = 0x84FE;
+    private final static int GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT = 0x84FF;
+
+    /** Maximum anisotropy used (quality versus texture fetches) */
+    private final static float MAX_ANISOTROPY = 8.0f;
+
+    private static volatile int sFilterMode = FILTER_TRILINEAR;
+
+    /** Anisotropy supported (-1 until checked, 0 if not supported) */
+    private static volatile float sMaxAnisotropy = -1.0f;
+
+    /** ETC1 textures on ES 2.0 (core format on ES 3.0) */
+    private final static String ETC1_EXTENSION = "GL_OES_compressed_ETC1_RGB8_texture";
+
+    /** ETC1 supported on ES 2.0 (-1 until checked, 0 if not supported, 1 if supported) */
+    private static volatile int sEtc1Supported = -1;
+
+    /**
+     * Select the filter mode of the textures loaded from now on
+     *
+     * @param mode FILTER_NEAREST, FILTER_BILINEAR, FILTER_TRILINEAR or FILTER_ANISOTROPIC
+     */
+    public static void setFilterMode(int mode) {
+        sFilterMode = Math.max(FILTER_NEAREST, Math.min(mode, FILTER_ANISOTROPIC));
+    }
+
+    /**
+     * Get back the filter mode of the textures loaded
+     *
+     * @return filter mode (see setFilterMode())
+     */
+    public static int getFilterMode() {
+        return sFilterMode;
+    }
+
+    /**
+     * Get back the name of a filter mode (logs)
+     *
+     * @param mode filter mode
+     * @return filter mode name
+     */
+    public static String getFilterName(int mode) {
+        return FILTER_NAMES[mode];
+    }
+
     /**
      * Load texture in the texture unit 0
      *
@@ -36,15 +109,11 @@ public class TextureHelper {
             // Read in the resource
             final Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
 
-            // Bind to the texture in OpenGL
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+            // Bind to the texture in OpenGL (texture unit 0)
+            GlStateCache.bindTexture(0, textureHandle[0]);
 
-            // Set filtering
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
-
-            // Load the bitmap into the bound texture.
-            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+            // Load the bitmap into the bound texture (filtering set).
+            texImage(bitmap, sFilterMode);
 
             // Recycle the bitmap, since its data has been loaded into OpenGL.
             bitmap.recycle();
@@ -81,15 +150,11 @@ public class TextureHelper {
                 // Read in the resource
                 final Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceIds[i], options);
 
-                // Bind to the texture in OpenGL
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[i]);
-
-                // Set filtering
-                GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-                GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+                // Bind to the texture in OpenGL (texture unit 0)
+                GlStateCache.bindTexture(0, textureHandle[i]);
 
-                // Load the bitmap into the bound texture.
-                GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+                // Load the bitmap into the bound texture (filtering set).
+                texImage(bitmap, sFilterMode);
 
                 // Recycle the bitmap, since its data has been loaded into OpenGL.
                 bitmap.recycle();
@@ -125,15 +190,11 @@ public class TextureHelper {
             // Read in the resource
             final Bitmap bitmap = centerBitmap(BitmapFactory.decodeResource(context.getResources(), resourceId, options), resize);
 
-            // Bind to the texture in OpenGL
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
-
-            // Set filtering
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+            // Bind to the texture in OpenGL (texture unit 0)
+            GlStateCache.bindTexture(0, textureHandle[0]);
 
-            // Load the bitmap into the bound texture.
-            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+            // Load the bitmap into the bound texture (filtering set).
+            texImage(bitmap, sFilterMode);
 
             // Recycle the bitmap, since its data has been loaded into OpenGL.
             bitmap.recycle();
@@ -171,15 +232,11 @@ public class TextureHelper {
                 // Read in the resource
                 final Bitmap bitmap = centerBitmap(BitmapFactory.decodeResource(context.getResources(), resourceIds[i], options), resize);
 
-                // Bind to the texture in OpenGL
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[i]);
+                // Bind to the texture in OpenGL (texture unit 0)
+                GlStateCache.bindTexture(0, textureHandle[i]);
 
-                // Set filtering
-                GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-                GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
-
-                // Load the bitmap into the bound texture.
-                GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+                // Load the bitmap into the bound texture (filtering set).
+                texImage(bitmap, sFilterMode);
 
                 // Recycle the bitmap, since its data has been loaded into OpenGL.
                 bitmap.recycle();
@@ -192,6 +249,338 @@ public class TextureHelper {
         return textureHandle;
     }
 
+    /**
+     * Draw the textures of an atlas in one texture and load it in the texture unit 0
+     *
+     * @param context current application context
+     * @param atlas atlas layout (textures and their position)
+     * @return texture handle
+     */
+    public static int loadTextureAtlas(final Context context, final TextureAtlas atlas)
+    {
+        final int[] textureHandle = new int[1];
+
+        GLES20.glGenTextures(1, textureHandle, 0);
+
+        if (textureHandle[0] != 0)
+        {
+            final Bitmap[] bitmaps = new Bitmap[atlas.getTextureCount()];
+            for (int i = 0; i < atlas.getTextureCount(); i++) {
+                bitmaps[i] = decodeBitmap(context, atlas.getResourceId(i), atlas.getResize(i));
+            }
+            final Bitmap atlasBitmap = drawAtlas(atlas, bitmaps);
+
+            // Bind to the texture in OpenGL (texture unit 0)
+            GlStateCache.bindTexture(0, textureHandle[0]);
+
+            // Load the bitmap into the bound texture (filtering set).
+            texImage(atlasBitmap, sFilterMode);
+
+            // Recycle the bitmap, since its data has been loaded into OpenGL.
+            atlasBitmap.recycle();
+        }
+
+        if (textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error loading texture.");
+        }
+
+        return textureHandle[0];
+    }
+
+    /**
+     * Load a texture baked at build time in the texture unit 0 (mapped asset, no bitmap decoded)
+     *
+     * @param context current application context
+     * @param assetName compressed texture asset (see TextureAssets)
+     * @return texture handle
+     */
+    public static int loadCompressedTexture(final Context context, final String assetName)
+    {
+        final KtxFile compressed = mapCompressedTexture(context, assetName);
+        if ((compressed == null) || !isCompressedFormatSupported(compressed.getInternalFormat()))
+        {
+            throw new RuntimeException("Error loading texture.");
+        }
+
+        final int[] textureHandle = new int[1];
+
+        GLES20.glGenTextures(1, textureHandle, 0);
+
+        if (textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error loading texture.");
+        }
+
+        // Bind to the texture in OpenGL (texture unit 0)
+        GlStateCache.bindTexture(0, textureHandle[0]);
+
+        // Load the compressed levels into the bound texture (filtering set).
+        compressedTexImage(compressed, sFilterMode);
+
+        return textureHandle[0];
+    }
+
+    /**
+     * Map a compressed texture asset in memory (no copy, can be called outside GL thread)
+     *
+     * @param context current application context
+     * @param assetName compressed texture asset (see TextureAssets)
+     * @return KTX file, null if the asset is not available or not valid
+     */
+    static KtxFile mapCompressedTexture(final Context context, final String assetName) {
+        try (AssetFileDescriptor descriptor = context.getAssets().openFd(assetName);
+             FileInputStream stream = descriptor.createInputStream()) {
+            // Mapping still valid once the channel is closed
+            MappedByteBuffer data = stream.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getLength());
+            return new KtxFile(data);
+        } catch (IOException | IllegalArgumentException e) {
+            Timber.w("Texture %s not available: %s", assetName, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Check if a compressed format can be loaded (shall be called with a context current)
+     *
+     * @param internalFormat KtxFile.ETC1_RGB8 or KtxFile.ETC2_RGBA8_EAC
+     * @return true if the format is supported
+     */
+    static boolean isCompressedFormatSupported(int internalFormat) {
+        if (GlStateCache.isEs3()) {
+            return (internalFormat == KtxFile.ETC1_RGB8) || (internalFormat == KtxFile.ETC2_RGBA8_EAC);
+        }
+        if (internalFormat != KtxFile.ETC1_RGB8) {
+            return false;
+        }
+        if (sEtc1Supported < 0) {
+            final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+            sEtc1Supported = ((extensions != null) && extensions.contains(ETC1_EXTENSION)) ? 1 : 0;
+        }
+        return sEtc1Supported > 0;
+    }
+
+    /**
+     * Decode a drawable resource (can be called outside GL thread)
+     *
+     * @param context current application context
+     * @param resourceId required drawable resource (id)
+     * @param resize rescale ratio (1.0f if not rescaled, see centerBitmap())
+     * @return bitmap decoded
+     */
+    static Bitmap decodeBitmap(final Context context, final int resourceId, float resize) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;   // No pre-scaling
+
+        // Read in the resource
+        final Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+        if (bitmap == null) {
+            throw new RuntimeException("Error decoding texture.");
+        }
+        return (resize < 1.0f) ? centerBitmap(bitmap, resize) : bitmap;
+    }
+
+    /**
+     * Draw the textures of an atlas in one bitmap (can be called outside GL thread)
+     *
+     * @param atlas atlas layout (textures and their position)
+     * @param bitmaps bitmap of each texture (recycled once drawn, null to leave its area empty)
+     * @return atlas bitmap
+     */
+    static Bitmap drawAtlas(final TextureAtlas atlas, final Bitmap[] bitmaps) {
+        final Bitmap atlasBitmap = Bitmap.createBitmap(atlas.getWidth(), atlas.getHeight(), Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(atlasBitmap);
+
+        for (int i = 0; i < atlas.getTextureCount(); i++) {
+            if (bitmaps[i] == null) {
+                continue;
+            }
+
+            // Copy it at its position (pixel to pixel, bitmap density not taken into account)
+            final int x = atlas.getX(i);
+            final int y = atlas.getY(i);
+            final int width = atlas.getTextureWidth(i);
+            final int height = atlas.getTextureHeight(i);
+            final Rect source = new Rect(0, 0, width, height);
+            final Rect destination = new Rect(x, y, x + width, y + height);
+            canvas.drawBitmap(bitmaps[i], source, destination, null);
+
+            // Edge texels stretched in the gutter (no filtering: texels replicated)
+            final int p = AtlasLayout.PADDING;
+            final int[][] edges = {
+                    // source rect, destination rect
+                    {0, 0, 1, height, x - p, y, x, y + height},
+                    {width - 1, 0, width, height, x + width, y, x + width + p, y + height},
+                    {0, 0, width, 1, x, y - p, x + width, y},
+                    {0, height - 1, width, height, x, y + height, x + width, y + height + p},
+                    {0, 0, 1, 1, x - p, y - p, x, y},
+                    {width - 1, 0, width, 1, x + width, y - p, x + width + p, y},
+                    {0, height - 1, 1, height, x - p, y + height, x, y + height + p},
+                    {width - 1, height - 1, width, height, x + width, y + height, x + width + p, y + height + p}
+            };
+            for (int[] edge : edges) {
+                source.set(edge[0], edge[1], edge[2], edge[3]);
+                destination.set(edge[4], edge[5], edge[6], edge[7]);
+                canvas.drawBitmap(bitmaps[i], source, destination, null);
+            }
+
+            bitmaps[i].recycle();
+        }
+        return atlasBitmap;
+    }
+
+    /**
+     * Load a bitmap into the bound texture and set its filtering: immutable storage allocated once
+     * on ES 3.0 (no reallocation check at draw time), mutable texture image on ES 2.0. Mipmapped
+     * modes resize the bitmap to a power of two (required on ES 2.0, texel addressing cheaper) and
+     * generate the mipmap levels.
+     *
+     * @param bitmap bitmap which shall be loaded (level 0, not recycled)
+     * @param filterMode filter mode (see setFilterMode())
+     */
+    static void texImage(Bitmap bitmap, int filterMode) {
+        final boolean mipmaps = filterMode >= FILTER_TRILINEAR;
+
+        Bitmap source = bitmap;
+        if (mipmaps) {
+            final int width = nextPowerOfTwo(bitmap.getWidth());
+            final int height = nextPowerOfTwo(bitmap.getHeight());
+            if ((width != bitmap.getWidth()) || (height != bitmap.getHeight())) {
+                source = Bitmap.createScaledBitmap(bitmap, width, height, true);
+            }
+        }
+
+        if (GlStateCache.isEs3() && (source.getConfig() == Bitmap.Config.ARGB_8888)) {
+            final int levels = mipmaps ? getLevelCount(source.getWidth(), source.getHeight()) : 1;
+            GLES30.glTexStorage2D(GLES20.GL_TEXTURE_2D, levels, GLES30.GL_RGBA8, source.getWidth(), source.getHeight());
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, source);
+        } else {
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, source, 0);
+        }
+
+        if (source != bitmap) {
+            source.recycle();
+        }
+
+        if (mipmaps) {
+            GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+        }
+        setFiltering(filterMode);
+    }
+
+    /**
+     * Load a compressed texture into the bound texture and set its filtering: immutable storage
+     * allocated once on ES 3.0, mutable levels on ES 2.0. The mipmapped modes load all the levels
+     * baked, the other modes the base level only.
+     *
+     * @param compressed KTX file (format supported, see isCompressedFormatSupported())
+     * @param filterMode filter mode (see setFilterMode())
+     */
+    static void compressedTexImage(KtxFile compressed, int filterMode) {
+        final int width = compressed.getWidth();
+        final int height = compressed.getHeight();
+        final boolean mipmaps = (filterMode >= FILTER_TRILINEAR)
+                && (compressed.getLevelCount() == getLevelCount(width, height));
+        final int levels = mipmaps ? compressed.getLevelCount() : 1;
+
+        if (GlStateCache.isEs3()) {
+            // ETC1 blocks are valid ETC2 blocks (core format, ETC1 extension not always exposed)
+            final int format = (compressed.getInternalFormat() == KtxFile.ETC1_RGB8)
+                    ? GLES30.GL_COMPRESSED_RGB8_ETC2 : compressed.getInternalFormat();
+            GLES30.glTexStorage2D(GLES20.GL_TEXTURE_2D, levels, format, width, height);
+            for (int level = 0; level < levels; level++) {
+                final ByteBuffer data = compressed.getLevel(level);
+                GLES20.glCompressedTexSubImage2D(GLES20.GL_TEXTURE_2D, level, 0, 0, Math.max(1, width >> level),
+                        Math.max(1, height >> level), format, data.remaining(), data);
+            }
+        } else {
+            for (int level = 0; level < levels; level++) {
+                final ByteBuffer data = compressed.getLevel(level);
+                GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, level, compressed.getInternalFormat(),
+                        Math.max(1, width >> level), Math.max(1, height >> level), 0, data.remaining(), data);
+            }
+        }
+
+        setFiltering(mipmaps ? filterMode : Math.min(filterMode, FILTER_BILINEAR));
+    }
+
+    /**
+     * Set the filtering of the bound texture (mipmap levels shall be loaded for the trilinear and
+     * anisotropic modes)
+     *
+     * @param filterMode filter mode (see setFilterMode())
+     */
+    private static void setFiltering(int filterMode) {
+        int minFilter;
+        int magFilter = GLES20.GL_LINEAR;
+        switch (filterMode) {
+            case FILTER_NEAREST:
+                minFilter = GLES20.GL_NEAREST;
+                magFilter = GLES20.GL_NEAREST;
+                break;
+            case FILTER_BILINEAR:
+                minFilter = GLES20.GL_LINEAR;
+                break;
+            default:
+                minFilter = GLES20.GL_LINEAR_MIPMAP_LINEAR;
+                break;
+        }
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, minFilter);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, magFilter);
+
+        if ((filterMode == FILTER_ANISOTROPIC) && (getMaxAnisotropy() > 1.0f)) {
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GL_TEXTURE_MAX_ANISOTROPY_EXT,
+                    Math.min(MAX_ANISOTROPY, getMaxAnisotropy()));
+        }
+    }
+
+    /**
+     * Get back the maximum anisotropy supported (checked once, shall be called with a context
+     * current)
+     *
+     * @return maximum anisotropy (0 if GL_EXT_texture_filter_anisotropic is not supported)
+     */
+    private static float getMaxAnisotropy() {
+        if (sMaxAnisotropy < 0.0f) {
+            final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+            if ((extensions != null) && extensions.contains(ANISOTROPIC_EXTENSION)) {
+                final float[] maxAnisotropy = new float[1];
+                GLES20.glGetFloatv(GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT, maxAnisotropy, 0);
+                sMaxAnisotropy = maxAnisotropy[0];
+            } else {
+                Timber.i("Anisotropic filtering not supported, trilinear filtering used");
+                sMaxAnisotropy = 0.0f;
+            }
+        }
+        return sMaxAnisotropy;
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        int power = 1;
+        while (power < value) {
+            power *= 2;
+        }
+        return power;
+    }
+
+    /**
+     * Get back the number of mipmap levels of a texture (down to 1x1)
+     *
+     * @param width level 0 width
+     * @param height level 0 height
+     * @return number of levels
+     */
+    private static int getLevelCount(int width, int height) {
+        int levels = 1;
+        int size = Math.max(width, height);
+        while (size > 1) {
+            size /= 2;
+            levels++;
+        }
+        return levels;
+    }
+
     /**
      * Rescale received bitmap and center it in another bitmap of same size than the original one
      *
@@ -2,8 +2,6 @@ package com.stmicroelectronics.stgraphics.utils;
 
 import android.graphics.Point;
 
-import androidx.annotation.NonNull;
-
 import java.text.DecimalFormat;
 
 /**
@@ -95,30 +93,4 @@ public class Utility {
             return 10000.0f;
         }
     }
-
-    /**
-     * Translate vertices by offset in Z axe
-     *
-     * @param vertices original vertices
-     * @param offset offset on Z axe required
-     * @return vertices translated
-     */
-    public static float[] zTranslateVertices(@NonNull float[] vertices, float offset) {
-        float[] outVertices = new float[vertices.length];
-        int zIndex = 2;
-
-        if (vertices.length < 3)
-            return vertices;
-
-        for (int i=0;i<vertices.length;i++) {
-            if (i == zIndex) {
-                outVertices[i] = vertices[i] + offset;
-                zIndex+=3;
-            } else {
-                outVertices[i] = vertices[i];
-            }
-        }
-
-        return outVertices;
-    }
 }
@@ -0,0 +1,70 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.opengl.GLES30;
+import android.util.SparseIntArray;
+
+/**
+ * Vertex array objects recording the attribute setup of a mesh, one per program drawing it (ES 3.0
+ * with buffer objects), the attributes are then passed in with a single bind even if the parts of
+ * the mesh are drawn with different programs.
+ * Default vertex array object used on ES 2.0 or with client side arrays (attributes bound at each
+ * draw).
+ */
+public class VertexArray {
+
+    /** Vertex array object handle of each program whose attribute setup is recorded */
+    private final SparseIntArray mHandles = new SparseIntArray();
+
+    /** Context generation of the handles (see GlStateCache.getGeneration()) */
+    private int mGeneration;
+
+    /**
+     * Bind the vertex array object (shall be called in GL thread, before the attributes are bound)
+     *
+     * @param programHandle program used for the draw
+     * @return true if the attribute setup is already recorded for this program (attributes shall
+     * not be bound again), false if the attributes shall be bound
+     */
+    public boolean bind(int programHandle) {
+        if (!GlStateCache.isEs3() || !BufferHelper.isBufferObjectEnabled()) {
+            // Client side arrays only allowed with the default vertex array object
+            GlStateCache.bindVertexArray(0);
+            return false;
+        }
+
+        if (mGeneration != GlStateCache.getGeneration()) {
+            // Previous handles lost with the previous context
+            mHandles.clear();
+            mGeneration = GlStateCache.getGeneration();
+        }
+
+        int handle = mHandles.get(programHandle);
+        if (handle != 0) {
+            GlStateCache.bindVertexArray(handle);
+            return true;
+        }
+
+        // First draw with this program (attribute locations may differ from the other programs)
+        final int[] handles = new int[1];
+        GLES30.glGenVertexArrays(1, handles, 0);
+        if (handles[0] == 0) {
+            throw new RuntimeException("Error creating vertex array.");
+        }
+        handle = handles[0];
+        mHandles.put(programHandle, handle);
+        GlStateCache.bindVertexArray(handle);
+        return false;
+    }
+
+    /**
+     * Delete the vertex array objects (shall be called in GL thread)
+     */
+    public void release() {
+        if (mGeneration == GlStateCache.getGeneration()) {
+            for (int i = 0; i < mHandles.size(); i++) {
+                GlStateCache.deleteVertexArray(mHandles.valueAt(i));
+            }
+        }
+        mHandles.clear();
+    }
+}
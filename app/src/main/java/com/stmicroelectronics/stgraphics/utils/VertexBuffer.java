@@ -0,0 +1,242 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Vertex attributes buffer (interleaved attributes described by a VertexFormat), drawn from a GPU
+ * buffer object once uploaded or from the client side array otherwise
+ */
+public class VertexBuffer {
+
+    private final VertexFormat mFormat;
+
+    /** Vertices as written by MeshBuilder */
+    private final ByteBuffer mPacked;
+
+    /** Client side copy in the uploaded layout (kept to upload again after a context loss) */
+    private ByteBuffer mBuffer;
+
+    /** GPU buffer object handle (0 if not uploaded) */
+    private int mBufferHandle;
+
+    /** Buffer object uploaded by the loader thread (used once committed, see uploadShared()) */
+    private int mSharedBufferHandle;
+
+    /** Float view of the vertices of a dynamic buffer (null if static) */
+    private final FloatBuffer mDynamicValues;
+
+    /** Attribute setup of the draws using this buffer (ES 3.0) */
+    private final VertexArray mVertexArray = new VertexArray();
+
+    /**
+     * Create vertex buffer from vertices built by a mesh builder
+     *
+     * @param builder mesh builder (vertices fully written)
+     */
+    public VertexBuffer(final MeshBuilder builder) {
+        mFormat = builder.getFormat();
+        mPacked = builder.getBuffer();
+        mDynamicValues = null;
+    }
+
+    /**
+     * Create vertex buffer from already packed vertices (used as is, ex: mapped from a mesh file)
+     *
+     * @param packed vertices packed following the vertex format (native order, position 0)
+     * @param format vertex format
+     */
+    public VertexBuffer(final ByteBuffer packed, final VertexFormat format) {
+        mFormat = format;
+        mPacked = packed;
+        mDynamicValues = null;
+    }
+
+    /**
+     * Create a dynamic vertex buffer, rewritten each frame with update() (TYPE_FLOAT attributes only,
+     * uploaded as is)
+     *
+     * @param format vertex format
+     * @param vertexCount maximum number of vertices
+     */
+    public VertexBuffer(final VertexFormat format, int vertexCount) {
+        mFormat = format;
+        mPacked = ByteBuffer.allocateDirect(vertexCount * format.getPackedStride()).order(ByteOrder.nativeOrder());
+        mBuffer = mPacked;
+        mDynamicValues = mPacked.asFloatBuffer();
+    }
+
+    /**
+     * Get back the number of vertices
+     *
+     * @return number of vertices
+     */
+    public int getVertexCount() {
+        return mPacked.capacity() / mFormat.getPackedStride();
+    }
+
+    /**
+     * Create a vertex buffer containing several copies of these vertices one after the other
+     * (pseudo-instancing, see IndexBuffer.replicate())
+     *
+     * @param copies number of copies
+     * @return new vertex buffer (not uploaded)
+     */
+    public VertexBuffer replicate(int copies) {
+        final int size = mPacked.capacity();
+        final ByteBuffer packed = ByteBuffer.allocateDirect(copies * size).order(ByteOrder.nativeOrder());
+
+        for (int i = 0; i < copies; i++) {
+            final ByteBuffer copy = mPacked.duplicate();
+            copy.clear();
+            packed.put(copy);
+        }
+        packed.position(0);
+        return new VertexBuffer(packed, mFormat);
+    }
+
+    /**
+     * Upload the vertex attributes in a GPU buffer object (shall be called in GL thread each time
+     * the surface is created, previous handle is lost with the previous context)
+     */
+    public void upload() {
+        // Buffer object of a pending shared upload lost with the previous context
+        mSharedBufferHandle = 0;
+
+        if (mDynamicValues != null) {
+            mBufferHandle = BufferHelper.loadBuffer(GLES20.GL_ARRAY_BUFFER, mBuffer, mBuffer.capacity(),
+                    GLES20.GL_STREAM_DRAW);
+            return;
+        }
+        mBufferHandle = BufferHelper.loadBuffer(GLES20.GL_ARRAY_BUFFER, getUploadBuffer(), mBuffer.capacity());
+    }
+
+    /**
+     * Upload the vertex attributes from the loader thread (static buffers only, see GlLoader), the
+     * buffer object being used once commitUpload() is called
+     */
+    public void uploadShared() {
+        mSharedBufferHandle = BufferHelper.loadSharedBuffer(GLES20.GL_ARRAY_BUFFER, getUploadBuffer(),
+                mBuffer.capacity());
+    }
+
+    /**
+     * Use the buffer object uploaded by uploadShared() (shall be called in GL thread once the
+     * upload is complete)
+     */
+    public void commitUpload() {
+        mBufferHandle = mSharedBufferHandle;
+        mSharedBufferHandle = 0;
+    }
+
+    /**
+     * Delete the buffer object uploaded by uploadShared() when the upload failed (see
+     * GlLoader.Upload.discard())
+     */
+    public void discardUpload() {
+        BufferHelper.deleteSharedBuffer(mSharedBufferHandle);
+        mSharedBufferHandle = 0;
+    }
+
+    private ByteBuffer getUploadBuffer() {
+        if (mBuffer == null) {
+            // Half floats expanded once if not supported
+            mBuffer = mFormat.getUploadLayout(mPacked);
+        }
+        return mBuffer;
+    }
+
+    /**
+     * Rewrite the vertices of a dynamic vertex buffer (shall be called in GL thread, before the
+     * attributes are bound)
+     *
+     * @param values vertex attributes (format.getComponentCount() values per vertex)
+     * @param nbValues number of values written
+     */
+    public void update(final float[] values, int nbValues) {
+        mDynamicValues.position(0);
+        mDynamicValues.put(values, 0, nbValues);
+
+        if ((mBufferHandle != 0) && BufferHelper.isBufferObjectEnabled()) {
+            BufferHelper.updateBuffer(GLES20.GL_ARRAY_BUFFER, mBufferHandle, mBuffer, 4 * nbValues);
+        }
+    }
+
+    /**
+     * Get back the vertex array object recording the attribute setup of the draws using this buffer
+     * (see VertexArray.bind())
+     *
+     * @return vertex array object
+     */
+    public VertexArray getVertexArray() {
+        return mVertexArray;
+    }
+
+    /**
+     * Pass in the attribute information (GPU buffer object or client side array)
+     *
+     * @param attributeHandle shader attribute handle
+     * @param attribute attribute index in the vertex format
+     */
+    public void bindAttribute(int attributeHandle, int attribute) {
+        bindAttribute(attributeHandle, attribute, 0);
+    }
+
+    /**
+     * Pass in the attribute information (GPU buffer object or client side array)
+     *
+     * @param attributeHandle shader attribute handle (nothing done if not used by the program
+     *                        variant, -1)
+     * @param attribute attribute index in the vertex format
+     * @param firstVertex number of vertices before the first attribute
+     */
+    public void bindAttribute(int attributeHandle, int attribute, int firstVertex) {
+        if (attributeHandle < 0) {
+            return;
+        }
+
+        final int stride = mFormat.getStride();
+        final int offset = firstVertex * stride + mFormat.getOffset(attribute);
+
+        if ((mBufferHandle != 0) && BufferHelper.isBufferObjectEnabled()) {
+            GlStateCache.bindBuffer(GLES20.GL_ARRAY_BUFFER, mBufferHandle);
+            GLES20.glVertexAttribPointer(attributeHandle, mFormat.getSize(attribute),
+                    mFormat.getGlType(attribute), mFormat.isNormalized(attribute), stride, offset);
+        } else {
+            // No buffer object bound for client side arrays
+            GlStateCache.bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            mBuffer.position(offset);
+            GLES20.glVertexAttribPointer(attributeHandle, mFormat.getSize(attribute),
+                    mFormat.getGlType(attribute), mFormat.isNormalized(attribute), stride, mBuffer);
+        }
+        GlStateCache.vertexAttribDivisor(attributeHandle, 0);
+        GlStateCache.enableVertexAttribArray(attributeHandle);
+    }
+
+    /**
+     * Pass in a per instance attribute (ES 3.0 instanced draws, one vertex of this buffer per
+     * instance)
+     *
+     * @param attributeHandle shader attribute handle
+     * @param attribute attribute index in the vertex format
+     */
+    public void bindInstanceAttribute(int attributeHandle, int attribute) {
+        if (attributeHandle < 0) {
+            return;
+        }
+        bindAttribute(attributeHandle, attribute);
+        GlStateCache.vertexAttribDivisor(attributeHandle, 1);
+    }
+
+    /**
+     * Delete the GPU buffer object (shall be called in GL thread)
+     */
+    public void release() {
+        mVertexArray.release();
+        BufferHelper.deleteBuffer(mBufferHandle);
+        mBufferHandle = 0;
+    }
+}
@@ -0,0 +1,299 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import android.opengl.GLES20;
+
+import com.stmicroelectronics.stgraphics.geometry.VertexWriter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Vertex layout description: list of attributes interleaved in one buffer (array of structures),
+ * each attribute stored with its own (compact) type. Values are given as floats and converted
+ * when written (see MeshBuilder, same conversions as VertexWriter used by the build time tools):
+ * - TYPE_FLOAT: 4 bytes floats (no conversion)
+ * - TYPE_HALF_FLOAT: 2 bytes floats (OES_vertex_half_float), expanded to 4 bytes floats when
+ *   uploaded if not supported
+ * - TYPE_SHORT: normalized shorts, values between -1.0 and 1.0 (positions, the model matrix gives
+ *   the real size)
+ * - TYPE_BYTE: normalized bytes, values between -1.0 and 1.0 (normals)
+ * - TYPE_UNSIGNED_BYTE: normalized unsigned bytes, values between 0.0 and 1.0 (colors)
+ * Each attribute starts on a 4 bytes boundary.
+ */
+public class VertexFormat {
+
+    public final static int TYPE_FLOAT = 0;
+    public final static int TYPE_HALF_FLOAT = 1;
+    public final static int TYPE_SHORT = 2;
+    public final static int TYPE_BYTE = 3;
+    public final static int TYPE_UNSIGNED_BYTE = 4;
+
+    /** GL_HALF_FLOAT_OES (not defined in GLES20) */
+    private final static int GL_HALF_FLOAT_OES = 0x8D61;
+
+    /** Half float support, known once a GL context is available (see resolve()) */
+    private static volatile boolean sHalfFloatSupported = false;
+
+    private final int[] mSizes;
+    private final int[] mTypes;
+    private final int mNbComponents;
+    private final boolean mHalfFloatUsed;
+
+    /** Layout written by MeshBuilder (half floats kept) */
+    private final int[] mPackedOffsets;
+    private final int mPackedStride;
+
+    /**
+     * Create vertex format
+     *
+     * @param attributes for each attribute, its number of components then its type
+     *                   (ex: 3, TYPE_SHORT, 4, TYPE_UNSIGNED_BYTE)
+     */
+    public VertexFormat(final int... attributes) {
+        if ((attributes.length % 2) != 0) {
+            throw new IllegalArgumentException("Attribute without type");
+        }
+
+        final int nbAttributes = attributes.length / 2;
+        mSizes = new int[nbAttributes];
+        mTypes = new int[nbAttributes];
+        mPackedOffsets = new int[nbAttributes];
+
+        int nbComponents = 0;
+        int offset = 0;
+        boolean halfFloatUsed = false;
+        for (int i = 0; i < nbAttributes; i++) {
+            mSizes[i] = attributes[2 * i];
+            mTypes[i] = attributes[2 * i + 1];
+            mPackedOffsets[i] = offset;
+            offset += align(mSizes[i] * getComponentSize(mTypes[i]));
+            nbComponents += mSizes[i];
+            halfFloatUsed |= (mTypes[i] == TYPE_HALF_FLOAT);
+        }
+        mNbComponents = nbComponents;
+        mPackedStride = offset;
+        mHalfFloatUsed = halfFloatUsed;
+    }
+
+    /**
+     * Check the half float support (shall be called in GL thread before uploading buffers)
+     */
+    public static void resolve() {
+        final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        sHalfFloatSupported = (extensions != null) && extensions.contains("GL_OES_vertex_half_float");
+    }
+
+    /**
+     * Get back the number of float values given per vertex (all attributes)
+     *
+     * @return number of components
+     */
+    public int getComponentCount() {
+        return mNbComponents;
+    }
+
+    /**
+     * Get back the number of attributes
+     *
+     * @return number of attributes
+     */
+    public int getAttributeCount() {
+        return mSizes.length;
+    }
+
+    /**
+     * Get back the number of components of an attribute
+     *
+     * @param attribute attribute index
+     * @return number of components
+     */
+    public int getSize(int attribute) {
+        return mSizes[attribute];
+    }
+
+    /**
+     * Get back the GL type of an attribute
+     *
+     * @param attribute attribute index
+     * @return GL type (GL_FLOAT, GL_HALF_FLOAT_OES, GL_SHORT, GL_BYTE or GL_UNSIGNED_BYTE)
+     */
+    public int getGlType(int attribute) {
+        switch (getUploadedType(attribute)) {
+            case TYPE_HALF_FLOAT:
+                return GL_HALF_FLOAT_OES;
+            case TYPE_SHORT:
+                return GLES20.GL_SHORT;
+            case TYPE_BYTE:
+                return GLES20.GL_BYTE;
+            case TYPE_UNSIGNED_BYTE:
+                return GLES20.GL_UNSIGNED_BYTE;
+            default:
+                return GLES20.GL_FLOAT;
+        }
+    }
+
+    /**
+     * Check if an attribute is normalized by the GPU
+     *
+     * @param attribute attribute index
+     * @return true for integer types (converted to -1.0..1.0 or 0.0..1.0)
+     */
+    public boolean isNormalized(int attribute) {
+        final int type = mTypes[attribute];
+        return (type != TYPE_FLOAT) && (type != TYPE_HALF_FLOAT);
+    }
+
+    /**
+     * Get back the number of bytes per vertex as written by MeshBuilder
+     *
+     * @return packed vertex stride in bytes
+     */
+    public int getPackedStride() {
+        return mPackedStride;
+    }
+
+    /**
+     * Get back the offset of an attribute in a vertex as written by MeshBuilder
+     *
+     * @param attribute attribute index
+     * @return offset in bytes
+     */
+    public int getPackedOffset(int attribute) {
+        return mPackedOffsets[attribute];
+    }
+
+    /**
+     * Get back the number of bytes per uploaded vertex (half floats replaced by floats if not
+     * supported)
+     *
+     * @return uploaded vertex stride in bytes
+     */
+    public int getStride() {
+        if (!isExpansionRequired()) {
+            return mPackedStride;
+        }
+        return getOffset(mSizes.length);
+    }
+
+    /**
+     * Get back the offset of an attribute in an uploaded vertex
+     *
+     * @param attribute attribute index
+     * @return offset in bytes
+     */
+    public int getOffset(int attribute) {
+        if (!isExpansionRequired()) {
+            return mPackedOffsets[attribute];
+        }
+        int offset = 0;
+        for (int i = 0; i < attribute; i++) {
+            offset += align(mSizes[i] * getComponentSize(getUploadedType(i)));
+        }
+        return offset;
+    }
+
+    /**
+     * Get back the packed vertices in the layout which can be uploaded (half floats expanded to
+     * floats if not supported, shall be called after resolve())
+     *
+     * @param packed vertices written by MeshBuilder
+     * @return packed vertices if supported as is, expanded copy otherwise
+     */
+    public ByteBuffer getUploadLayout(final ByteBuffer packed) {
+        if (!isExpansionRequired()) {
+            return packed;
+        }
+
+        final int nbVertices = packed.capacity() / mPackedStride;
+        final int stride = getStride();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(nbVertices * stride)
+                .order(ByteOrder.nativeOrder());
+
+        for (int a = 0; a < mSizes.length; a++) {
+            final int size = align(mSizes[a] * getComponentSize(mTypes[a]));
+            final int offset = getOffset(a);
+            for (int v = 0; v < nbVertices; v++) {
+                final int source = v * mPackedStride + mPackedOffsets[a];
+                final int destination = v * stride + offset;
+                if (mTypes[a] == TYPE_HALF_FLOAT) {
+                    for (int c = 0; c < mSizes[a]; c++) {
+                        buffer.putFloat(destination + 4 * c, VertexWriter.toFloat(packed.getShort(source + 2 * c)));
+                    }
+                } else {
+                    for (int b = 0; b < size; b++) {
+                        buffer.put(destination + b, packed.get(source + b));
+                    }
+                }
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Write one attribute component in packed vertices (conversion to the attribute type)
+     *
+     * @param buffer packed vertices
+     * @param position component position in bytes
+     * @param attribute attribute index
+     * @param value component value
+     */
+    void putComponent(final ByteBuffer buffer, int position, int attribute, float value) {
+        switch (mTypes[attribute]) {
+            case TYPE_HALF_FLOAT:
+                buffer.putShort(position, VertexWriter.toHalf(value));
+                break;
+            case TYPE_SHORT:
+                buffer.putShort(position, VertexWriter.toNormalizedShort(value));
+                break;
+            case TYPE_BYTE:
+                buffer.put(position, VertexWriter.toNormalizedByte(value));
+                break;
+            case TYPE_UNSIGNED_BYTE:
+                buffer.put(position, VertexWriter.toNormalizedUnsignedByte(value));
+                break;
+            default:
+                buffer.putFloat(position, value);
+                break;
+        }
+    }
+
+    /**
+     * Get back the size of one attribute component once packed
+     *
+     * @param attribute attribute index
+     * @return size in bytes
+     */
+    int getPackedComponentSize(int attribute) {
+        return getComponentSize(mTypes[attribute]);
+    }
+
+    private boolean isExpansionRequired() {
+        return mHalfFloatUsed && !sHalfFloatSupported;
+    }
+
+    private int getUploadedType(int attribute) {
+        if ((mTypes[attribute] == TYPE_HALF_FLOAT) && !sHalfFloatSupported) {
+            return TYPE_FLOAT;
+        }
+        return mTypes[attribute];
+    }
+
+    private static int getComponentSize(int type) {
+        switch (type) {
+            case TYPE_FLOAT:
+                return 4;
+            case TYPE_HALF_FLOAT:
+            case TYPE_SHORT:
+                return 2;
+            case TYPE_BYTE:
+            case TYPE_UNSIGNED_BYTE:
+                return 1;
+            default:
+                throw new IllegalArgumentException("Unsupported attribute type " + type);
+        }
+    }
+
+    private static int align(int size) {
+        return (size + 3) & ~3;
+    }
+}
@@ -0,0 +1,151 @@
+package com.stmicroelectronics.stgraphics.texture;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Atlas layouts of the renderers: the layout computed at run time from the drawable bounds (see
+ * TextureAtlas) shall match the one of the atlas baked from the decoded drawables (see TextureBaker)
+ */
+public class AtlasLayoutTest {
+
+    /** Drawables of the application (unit tests run from the module directory) */
+    private final static File DRAWABLES_DIR = new File("src/main/res/drawable");
+
+    @Test
+    public void spritesLayout() {
+        final AtlasLayout layout = new AtlasLayout(new int[] {128, 128, 128}, new int[] {128, 128, 128});
+
+        assertEquals(512, layout.getWidth());
+        assertEquals(256, layout.getHeight());
+        assertEquals(4, layout.getX(0));
+        assertEquals(140, layout.getX(1));
+        assertEquals(276, layout.getX(2));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(4, layout.getY(i));
+        }
+        checkLayout(layout);
+    }
+
+    @Test
+    public void tallestFirst() {
+        final AtlasLayout layout = new AtlasLayout(new int[] {64, 200, 64}, new int[] {32, 100, 64});
+
+        // Shelf started by the tallest texture, then by decreasing height
+        assertEquals(AtlasLayout.PADDING, layout.getX(1));
+        assertEquals(AtlasLayout.PADDING, layout.getY(1));
+        assertTrue(isPlacedAfter(layout, 2, 1));
+        assertTrue(isPlacedAfter(layout, 0, 2));
+        checkLayout(layout);
+    }
+
+    @Test
+    public void variousSizes() {
+        final int[][] sizes = {{1}, {1}, {2048 - 2 * AtlasLayout.PADDING}, {16}, {300, 20, 75, 500, 1}, {7, 250, 90, 33, 128}};
+        for (int i = 0; i < sizes.length; i += 2) {
+            checkLayout(new AtlasLayout(sizes[i], sizes[i + 1]));
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void tooLarge() {
+        new AtlasLayout(new int[] {2048}, new int[] {16});
+    }
+
+    @Test
+    public void bakedLayouts() throws IOException {
+        for (TextureAssets.Texture texture : TextureAssets.ALL) {
+            if (!texture.isAtlas()) {
+                continue;
+            }
+
+            // Run time: sizes of the drawables (bounds only, no pre-scaling)
+            final int nbTextures = texture.getDrawableCount();
+            final int[] widths = new int[nbTextures];
+            final int[] heights = new int[nbTextures];
+            for (int i = 0; i < nbTextures; i++) {
+                final int[] size = readPngSize(new File(DRAWABLES_DIR, texture.getDrawable(i) + ".png"));
+                widths[i] = size[0];
+                heights[i] = size[1];
+            }
+            final AtlasLayout runtime = new AtlasLayout(widths, heights);
+
+            // Build time: decoded (and rescaled) images
+            for (int i = 0; i < nbTextures; i++) {
+                Image image = Image.readPng(new File(DRAWABLES_DIR, texture.getDrawable(i) + ".png"));
+                if (texture.getResize(i) < 1.0f) {
+                    image = image.center(texture.getResize(i));
+                }
+                widths[i] = image.getWidth();
+                heights[i] = image.getHeight();
+            }
+            final AtlasLayout baked = new AtlasLayout(widths, heights);
+
+            final String name = texture.getAssetName();
+            assertEquals(name, runtime.getWidth(), baked.getWidth());
+            assertEquals(name, runtime.getHeight(), baked.getHeight());
+            for (int i = 0; i < nbTextures; i++) {
+                assertEquals(name, runtime.getX(i), baked.getX(i));
+                assertEquals(name, runtime.getY(i), baked.getY(i));
+                assertEquals(name, runtime.getTextureWidth(i), baked.getTextureWidth(i));
+                assertEquals(name, runtime.getTextureHeight(i), baked.getTextureHeight(i));
+            }
+            checkLayout(runtime);
+        }
+    }
+
+    /**
+     * Check if a texture is placed after another one (next in the same shelf or in a next shelf)
+     */
+    private static boolean isPlacedAfter(final AtlasLayout layout, int index, int previous) {
+        return (layout.getY(index) > layout.getY(previous))
+                || ((layout.getY(index) == layout.getY(previous)) && (layout.getX(index) > layout.getX(previous)));
+    }
+
+    /**
+     * Check a layout: power of two atlas containing all the textures and their gutters, no overlap
+     */
+    private static void checkLayout(final AtlasLayout layout) {
+        final int padding = AtlasLayout.PADDING;
+
+        assertEquals(0, layout.getWidth() & (layout.getWidth() - 1));
+        assertEquals(0, layout.getHeight() & (layout.getHeight() - 1));
+
+        for (int i = 0; i < layout.getTextureCount(); i++) {
+            assertTrue(layout.getX(i) - padding >= 0);
+            assertTrue(layout.getY(i) - padding >= 0);
+            assertTrue(layout.getX(i) + layout.getTextureWidth(i) + padding <= layout.getWidth());
+            assertTrue(layout.getY(i) + layout.getTextureHeight(i) + padding <= layout.getHeight());
+
+            for (int j = 0; j < i; j++) {
+                boolean separated = (layout.getX(i) + layout.getTextureWidth(i) + padding <= layout.getX(j) - padding)
+                        || (layout.getX(j) + layout.getTextureWidth(j) + padding <= layout.getX(i) - padding)
+                        || (layout.getY(i) + layout.getTextureHeight(i) + padding <= layout.getY(j) - padding)
+                        || (layout.getY(j) + layout.getTextureHeight(j) + padding <= layout.getY(i) - padding);
+                assertTrue("Textures " + j + " and " + i + " overlap", separated);
+            }
+        }
+    }
+
+    /**
+     * Read the size of a PNG file from its header, as BitmapFactory.decodeResource() with
+     * inJustDecodeBounds
+     *
+     * @return width and height
+     */
+    private static int[] readPngSize(final File file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            input.readLong();   // Signature
+            input.readInt();    // IHDR length
+            input.readInt();    // IHDR type
+            return new int[] {input.readInt(), input.readInt()};
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.stmicroelectronics.stgraphics.texture;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ETC1 and ETC2 RGBA8 EAC encoding checked by decoding the blocks back (reference decoder of the
+ * formats, individual and differential modes only as the encoder)
+ */
+public class EtcEncoderTest {
+
+    /** Lowest peak signal to noise ratio accepted on the smooth test images (dB) */
+    private final static double MIN_PSNR = 30.0;
+
+    private final static int[][] ETC1_MODIFIERS = {
+            {2, 8, -2, -8}, {5, 17, -5, -17}, {9, 29, -9, -29}, {13, 42, -13, -42},
+            {18, 60, -18, -60}, {24, 80, -24, -80}, {33, 106, -33, -106}, {47, 183, -47, -183}
+    };
+
+    private final static int[][] EAC_MODIFIERS = {
+            {-3, -6, -9, -15, 2, 5, 8, 14},
+            {-3, -7, -10, -13, 2, 6, 9, 12},
+            {-2, -5, -8, -13, 1, 4, 7, 12},
+            {-2, -4, -6, -13, 1, 3, 5, 12},
+            {-3, -6, -8, -12, 2, 5, 7, 11},
+            {-3, -7, -9, -11, 2, 6, 8, 10},
+            {-4, -7, -8, -11, 3, 6, 7, 10},
+            {-3, -5, -8, -11, 2, 4, 7, 10},
+            {-2, -6, -8, -10, 1, 5, 7, 9},
+            {-2, -5, -8, -10, 1, 4, 7, 9},
+            {-2, -4, -8, -10, 1, 3, 7, 9},
+            {-2, -5, -7, -10, 1, 4, 6, 9},
+            {-3, -4, -7, -10, 2, 3, 6, 9},
+            {-1, -2, -3, -10, 0, 1, 2, 9},
+            {-4, -6, -8, -9, 3, 5, 7, 8},
+            {-3, -5, -7, -9, 2, 4, 6, 8}
+    };
+
+    @Test
+    public void etc1Gradient() {
+        final int width = 64;
+        final int height = 64;
+        final int[] pixels = createGradient(width, height, false);
+
+        final byte[] data = EtcEncoder.encode(pixels, width, height, false);
+        assertEquals(width * height / 2, data.length);
+
+        final int[] decoded = decode(data, width, height, false);
+        final double psnr = getPsnr(pixels, decoded, 0);
+        assertTrue("ETC1 PSNR " + psnr, psnr >= MIN_PSNR);
+    }
+
+    @Test
+    public void etc1Noise() {
+        // Not compressible without loss, only checked to stay far from a random decoding
+        final int width = 32;
+        final int height = 32;
+        final int[] pixels = new int[width * height];
+        final Random random = new Random(1);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | (random.nextInt(64) + 96) << 16 | (random.nextInt(64) + 96) << 8 | (random.nextInt(64) + 96);
+        }
+
+        final int[] decoded = decode(EtcEncoder.encode(pixels, width, height, false), width, height, false);
+        final double psnr = getPsnr(pixels, decoded, 0);
+        assertTrue("ETC1 PSNR " + psnr, psnr >= 20.0);
+    }
+
+    @Test
+    public void etc2Gradient() {
+        final int width = 64;
+        final int height = 64;
+        final int[] pixels = createGradient(width, height, true);
+
+        final byte[] data = EtcEncoder.encode(pixels, width, height, true);
+        assertEquals(width * height, data.length);
+
+        final int[] decoded = decode(data, width, height, true);
+        final double psnr = getPsnr(pixels, decoded, 0);
+        final double alphaPsnr = getPsnr(pixels, decoded, 24);
+        assertTrue("ETC2 PSNR " + psnr, psnr >= MIN_PSNR);
+        assertTrue("EAC PSNR " + alphaPsnr, alphaPsnr >= MIN_PSNR);
+    }
+
+    @Test
+    public void constantBlocks() {
+        // Constant alpha exact, constant color within the 4 bits base color and smallest modifier
+        final int[] pixels = new int[8 * 4];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = ((i % 8) < 4) ? 0x80402010 : 0x00000000;
+        }
+
+        final int[] decoded = decode(EtcEncoder.encode(pixels, 8, 4, true), 8, 4, true);
+        for (int i = 0; i < pixels.length; i++) {
+            assertEquals(pixels[i] >>> 24, decoded[i] >>> 24);
+            for (int shift = 0; shift < 24; shift += 8) {
+                int error = Math.abs(((pixels[i] >> shift) & 0xFF) - ((decoded[i] >> shift) & 0xFF));
+                assertTrue("Color error " + error, error <= 2);
+            }
+        }
+    }
+
+    @Test
+    public void edgePixelsRepeated() {
+        // 30x30 image: last blocks filled with the edge pixels, only the image pixels decoded back
+        final int[] pixels = createGradient(30, 30, false);
+
+        final byte[] data = EtcEncoder.encode(pixels, 30, 30, false);
+        assertEquals(8 * 8 * 8, data.length);
+
+        final int[] decoded = decode(data, 30, 30, false);
+        final double psnr = getPsnr(pixels, decoded, 0);
+        assertTrue("ETC1 PSNR " + psnr, psnr >= MIN_PSNR);
+    }
+
+    @Test
+    public void blockOrder() {
+        // Same block encoded whatever its position, blocks in rows
+        final int[] block = createGradient(4, 4, false);
+        final int[] pixels = new int[8 * 8];
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                pixels[y * 8 + x] = (y < 4) && (x >= 4) ? block[y * 4 + x - 4] : 0xFF000000;
+            }
+        }
+
+        final byte[] expected = EtcEncoder.encode(block, 4, 4, false);
+        final byte[] data = EtcEncoder.encode(pixels, 8, 8, false);
+        final byte[] second = new byte[8];
+        System.arraycopy(data, 8, second, 0, 8);
+        assertArrayEquals(expected, second);
+    }
+
+    /**
+     * Smooth premultiplied image (horizontal and vertical gradients, alpha varying diagonally)
+     */
+    private static int[] createGradient(int width, int height, boolean alpha) {
+        final int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int a = alpha ? 255 - (x + y) * 255 / (width + height - 2) : 255;
+                int r = x * 255 / (width - 1);
+                int g = y * 255 / (height - 1);
+                int b = 255 - (x + y) * 127 / (width + height - 2);
+                pixels[y * width + x] = (a << 24) | (premultiply(r, a) << 16) | (premultiply(g, a) << 8) | premultiply(b, a);
+            }
+        }
+        return pixels;
+    }
+
+    private static int premultiply(int component, int alpha) {
+        return (component * alpha + 127) / 255;
+    }
+
+    /**
+     * Peak signal to noise ratio of 8 bits components
+     *
+     * @param shift 0 for the RGB components, 24 for alpha
+     */
+    private static double getPsnr(final int[] expected, final int[] actual, int shift) {
+        final int nbComponents = (shift == 0) ? 3 : 1;
+        double error = 0;
+        for (int i = 0; i < expected.length; i++) {
+            for (int c = 0; c < nbComponents; c++) {
+                int diff = ((expected[i] >>> (shift + 8 * c)) & 0xFF) - ((actual[i] >>> (shift + 8 * c)) & 0xFF);
+                error += diff * diff;
+            }
+        }
+        error /= expected.length * nbComponents;
+        return (error == 0) ? Double.POSITIVE_INFINITY : 10.0 * Math.log10(255.0 * 255.0 / error);
+    }
+
+    /**
+     * Decode an image (opaque for ETC1)
+     */
+    private static int[] decode(final byte[] data, int width, int height, boolean alpha) {
+        final int blocksX = (width + 3) / 4;
+        final int[] pixels = new int[width * height];
+        final int[] block = new int[16];
+
+        int offset = 0;
+        for (int by = 0; by < (height + 3) / 4; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                int[] alphas = null;
+                if (alpha) {
+                    alphas = decodeAlphaBlock(getWord(data, offset));
+                    offset += 8;
+                }
+                decodeColorBlock(getWord(data, offset), block);
+                offset += 8;
+
+                for (int i = 0; i < 16; i++) {
+                    int x = bx * 4 + i % 4;
+                    int y = by * 4 + i / 4;
+                    if ((x < width) && (y < height)) {
+                        int a = (alphas != null) ? alphas[i] : 0xFF;
+                        pixels[y * width + x] = (a << 24) | (block[i] & 0xFFFFFF);
+                    }
+                }
+            }
+        }
+        return pixels;
+    }
+
+    private static long getWord(final byte[] data, int offset) {
+        long word = 0;
+        for (int i = 0; i < 8; i++) {
+            word = (word << 8) | (data[offset + i] & 0xFF);
+        }
+        return word;
+    }
+
+    /**
+     * Decode an ETC1 block
+     *
+     * @param block RGB pixels (y * 4 + x), updated
+     */
+    private static void decodeColorBlock(long word, final int[] block) {
+        final boolean differential = ((word >>> 33) & 1) != 0;
+        final int flip = (int) (word >>> 32) & 1;
+        final int[] tables = {(int) (word >>> 37) & 7, (int) (word >>> 34) & 7};
+
+        final int[][] colors = new int[2][3];
+        for (int c = 0; c < 3; c++) {
+            if (differential) {
+                int base = (int) (word >>> (59 - 8 * c)) & 0x1F;
+                int delta = ((int) (word >>> (56 - 8 * c)) & 0x7) << 29 >> 29;
+                colors[0][c] = extend5(base);
+                colors[1][c] = extend5(base + delta);
+            } else {
+                colors[0][c] = ((int) (word >>> (60 - 8 * c)) & 0xF) * 0x11;
+                colors[1][c] = ((int) (word >>> (56 - 8 * c)) & 0xF) * 0x11;
+            }
+        }
+
+        for (int i = 0; i < 16; i++) {
+            int x = i % 4;
+            int y = i / 4;
+            int subBlock = ((flip == 0) ? x : y) / 2;
+            int bit = x * 4 + y;
+            int index = (int) (((word >>> (16 + bit)) & 1) << 1 | ((word >>> bit) & 1));
+            int modifier = ETC1_MODIFIERS[tables[subBlock]][index];
+
+            int pixel = 0;
+            for (int c = 0; c < 3; c++) {
+                pixel = (pixel << 8) | clamp(colors[subBlock][c] + modifier);
+            }
+            block[i] = pixel;
+        }
+    }
+
+    private static int extend5(int value) {
+        return (value << 3) | (value >> 2);
+    }
+
+    /**
+     * Decode an EAC block
+     *
+     * @return alpha values (y * 4 + x)
+     */
+    private static int[] decodeAlphaBlock(long word) {
+        final int base = (int) (word >>> 56) & 0xFF;
+        final int multiplier = (int) (word >>> 52) & 0xF;
+        final int[] modifiers = EAC_MODIFIERS[(int) (word >>> 48) & 0xF];
+
+        final int[] alphas = new int[16];
+        for (int i = 0; i < 16; i++) {
+            int bit = (i % 4) * 4 + i / 4;
+            int index = (int) (word >>> (45 - 3 * bit)) & 7;
+            alphas[i] = clamp(base + modifiers[index] * multiplier);
+        }
+        return alphas;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,104 @@
+package com.stmicroelectronics.stgraphics.texture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * KTX files written at build time (see TextureBaker) read back as the mapped assets
+ */
+public class KtxFileTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("texture", ".ktx");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        // 8x4 RGBA texture: 2, 1 and 1 blocks of 16 bytes
+        final byte[][] levels = {createLevel(32, 1), createLevel(16, 2), createLevel(16, 3), createLevel(16, 4)};
+        KtxFile.write(mFile, KtxFile.ETC2_RGBA8_EAC, 8, 4, levels);
+
+        final KtxFile ktx = read();
+        assertEquals(KtxFile.ETC2_RGBA8_EAC, ktx.getInternalFormat());
+        assertEquals(8, ktx.getWidth());
+        assertEquals(4, ktx.getHeight());
+        assertEquals(levels.length, ktx.getLevelCount());
+        for (int i = 0; i < levels.length; i++) {
+            assertArrayEquals(levels[i], getBytes(ktx.getLevel(i)));
+        }
+    }
+
+    @Test
+    public void unalignedLevels() throws IOException {
+        // Level sizes not multiple of 4: padding skipped between the levels
+        final byte[][] levels = {createLevel(6, 5), createLevel(3, 6), createLevel(1, 7)};
+        KtxFile.write(mFile, KtxFile.ETC1_RGB8, 4, 4, levels);
+
+        final KtxFile ktx = read();
+        assertEquals(KtxFile.ETC1_RGB8, ktx.getInternalFormat());
+        assertEquals(levels.length, ktx.getLevelCount());
+        for (int i = 0; i < levels.length; i++) {
+            assertArrayEquals(levels[i], getBytes(ktx.getLevel(i)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidIdentifier() throws IOException {
+        final byte[] data = writeAndRead();
+        data[1] = 'X';
+        new KtxFile(ByteBuffer.wrap(data));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncated() throws IOException {
+        final byte[] data = writeAndRead();
+        final byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        new KtxFile(ByteBuffer.wrap(truncated));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void empty() {
+        new KtxFile(ByteBuffer.allocate(0));
+    }
+
+    private byte[] writeAndRead() throws IOException {
+        KtxFile.write(mFile, KtxFile.ETC1_RGB8, 4, 4, createLevel(8, 8));
+        return Files.readAllBytes(mFile.toPath());
+    }
+
+    private KtxFile read() throws IOException {
+        return new KtxFile(ByteBuffer.wrap(Files.readAllBytes(mFile.toPath())));
+    }
+
+    private static byte[] createLevel(int size, int seed) {
+        final byte[] level = new byte[size];
+        for (int i = 0; i < size; i++) {
+            level[i] = (byte) (seed * 31 + i * 7);
+        }
+        return level;
+    }
+
+    private static byte[] getBytes(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,146 @@
+package com.stmicroelectronics.stgraphics.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Draw order of the render queue (radix sort of the item keys), checked without GL context
+ */
+public class RenderQueueTest {
+
+    private final static float[] IDENTITY = {
+            1.0f, 0.0f, 0.0f, 0.0f,
+            0.0f, 1.0f, 0.0f, 0.0f,
+            0.0f, 0.0f, 1.0f, 0.0f,
+            0.0f, 0.0f, 0.0f, 1.0f};
+
+    private final RenderQueue.Drawer mDrawer = new RenderQueue.Drawer() {
+        @Override
+        public void draw(RenderQueue.Item item) {
+        }
+    };
+
+    private RenderQueue mQueue;
+    private int mCount;
+
+    @Before
+    public void setUp() {
+        mQueue = new RenderQueue(4);
+        mQueue.begin(IDENTITY);
+        mCount = 0;
+    }
+
+    /**
+     * Add an item, its part being its insertion index
+     *
+     * @param depth distance to the eye (model origin on the -Z axis, identity view matrix)
+     */
+    private void add(int program, int texture, float depth) {
+        final float[] modelMatrix = IDENTITY.clone();
+        modelMatrix[14] = -depth;
+        mQueue.add(mDrawer, mCount++, program, texture, modelMatrix);
+    }
+
+    private int[] sortParts() {
+        mQueue.sort();
+        final int[] parts = new int[mCount];
+        for (int i = 0; i < mCount; i++) {
+            parts[i] = mQueue.getItem(i).getPart();
+        }
+        return parts;
+    }
+
+    @Test
+    public void sortsByProgramThenTextureThenFrontToBack() {
+        add(2, 5, 3.0f);
+        add(1, 7, 1.0f);
+        add(2, 5, 1.0f);
+        add(1, 6, 9.0f);
+        add(0x1234, 1, 1.0f);
+        add(1, 7, 0.5f);
+        add(2, 4, 8.0f);
+
+        assertArrayEquals(new int[]{3, 5, 1, 6, 2, 0, 4}, sortParts());
+    }
+
+    @Test
+    public void drawsItemsBehindTheEyeFirst() {
+        add(1, 1, 2.0f);
+        add(1, 1, -2.0f);
+        add(1, 1, 0.25f);
+        add(1, 1, 0.0f);
+
+        assertArrayEquals(new int[]{1, 3, 2, 0}, sortParts());
+    }
+
+    @Test
+    public void keepsInsertionOrderWhenAllPassesAreSkipped() {
+        for (int i = 0; i < 10; i++) {
+            add(3, 3, 4.0f);
+        }
+
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, sortParts());
+    }
+
+    @Test
+    public void keepsInsertionOrderOfTiesWhenOtherPassesAreSkipped() {
+        // Only the texture differs: program and depth passes skipped
+        add(1, 2, 4.0f);
+        add(1, 1, 4.0f);
+        add(1, 2, 4.0f);
+        add(1, 1, 4.0f);
+        add(1, 2, 4.0f);
+
+        assertArrayEquals(new int[]{1, 3, 0, 2, 4}, sortParts());
+    }
+
+    @Test
+    public void keepsInsertionOrderOfQuantizedDepthTies() {
+        // 10.0 and 10.01 share the same quantized depth, 10.1 does not
+        add(1, 1, 10.01f);
+        add(1, 1, 10.1f);
+        add(1, 1, 10.0f);
+
+        assertArrayEquals(new int[]{0, 2, 1}, sortParts());
+    }
+
+    @Test
+    public void matchesStableSortOfRandomItems() {
+        final Random random = new Random(42);
+        final List<int[]> items = new ArrayList<>();
+
+        // Integer depths are not changed by the quantization, the queue is grown several times
+        for (int i = 0; i < 300; i++) {
+            final int[] item = {random.nextInt(3) << (8 * random.nextInt(2)), random.nextInt(4),
+                    1 + random.nextInt(200), i};
+            add(item[0], item[1], item[2]);
+            items.add(item);
+        }
+
+        Collections.sort(items, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                for (int i = 0; i < 3; i++) {
+                    if (a[i] != b[i]) {
+                        return (a[i] < b[i]) ? -1 : 1;
+                    }
+                }
+                return 0;
+            }
+        });
+
+        final int[] expected = new int[items.size()];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = items.get(i)[3];
+        }
+        assertArrayEquals(expected, sortParts());
+    }
+}